@@ -24,8 +24,10 @@ import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.devicefarm.AWSDeviceFarmClientBuilder;
 import com.amazonaws.services.devicefarm.AWSDeviceFarmClient;
 import com.amazonaws.services.devicefarm.model.AccountSettings;
+import com.amazonaws.services.devicefarm.model.Artifact;
 import com.amazonaws.services.devicefarm.model.ArtifactCategory;
 import com.amazonaws.services.devicefarm.model.CreateUploadRequest;
+import com.amazonaws.services.devicefarm.model.DeleteUploadRequest;
 import com.amazonaws.services.devicefarm.model.DevicePool;
 import com.amazonaws.services.devicefarm.model.ExecutionConfiguration;
 import com.amazonaws.services.devicefarm.model.GetAccountSettingsRequest;
@@ -33,6 +35,7 @@ import com.amazonaws.services.devicefarm.model.GetRunRequest;
 import com.amazonaws.services.devicefarm.model.GetRunResult;
 import com.amazonaws.services.devicefarm.model.GetUploadRequest;
 import com.amazonaws.services.devicefarm.model.GetUploadResult;
+import com.amazonaws.services.devicefarm.model.Job;
 import com.amazonaws.services.devicefarm.model.ListArtifactsRequest;
 import com.amazonaws.services.devicefarm.model.ListArtifactsResult;
 import com.amazonaws.services.devicefarm.model.ListDevicePoolsRequest;
@@ -55,6 +58,8 @@ import com.amazonaws.services.devicefarm.model.DeviceSelectionConfiguration;
 import com.amazonaws.services.devicefarm.model.ScheduleRunRequest;
 import com.amazonaws.services.devicefarm.model.ScheduleRunResult;
 import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import com.amazonaws.services.devicefarm.model.StopRunRequest;
+import com.amazonaws.services.devicefarm.model.StopRunResult;
 import com.amazonaws.services.devicefarm.model.Upload;
 import com.amazonaws.services.devicefarm.model.UploadStatus;
 import com.amazonaws.services.devicefarm.model.VPCEConfiguration;
@@ -86,10 +91,17 @@ import org.jenkinsci.plugins.awsdevicefarm.test.XCTestTest;
 import org.jenkinsci.plugins.awsdevicefarm.test.XCTestUITest;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * AWS Device Farm API wrapper class.
@@ -100,6 +112,7 @@ public class AWSDeviceFarm {
     private FilePath workspace;
     private FilePath artifactsDir;
     private EnvVars env;
+    private final List<String> cancellations = Collections.synchronizedList(new ArrayList<String>());
 
     private static final Integer DEFAULT_JOB_TIMEOUT_MINUTE = 60;
     private static final String APPIUM_RUBY_TEST_SPEC = "APPIUM_RUBY_TEST_SPEC";
@@ -164,6 +177,15 @@ public class AWSDeviceFarm {
         ((AWSDeviceFarmClient) api).setServiceNameIntern("devicefarm");
     }
 
+    /**
+     * AWSDeviceFarm constructor for an existing API client.
+     *
+     * @param api The AWS Device Farm API client.
+     */
+    AWSDeviceFarm(com.amazonaws.services.devicefarm.AWSDeviceFarm api) {
+        this.api = api;
+    }
+
     //// Builder Methods
 
     /**
@@ -725,13 +747,22 @@ public class AWSDeviceFarm {
         HttpPut httpPut = new HttpPut(upload.getUrl());
         httpPut.setHeader("Content-Type", upload.getContentType());
 
-        FileEntity entity = new FileEntity(file);
+        FileEntity entity = new InterruptibleFileEntity(file);
         httpPut.setEntity(entity);
 
         writeToLog(String.format("Uploading %s to S3", file.getName()));
-        HttpResponse response = httpClient.execute(httpPut);
-        if (response.getStatusLine().getStatusCode() != 200) {
-            throw new AWSDeviceFarmException(String.format("Upload returned non-200 responses: %d", response.getStatusLine().getStatusCode()));
+        try {
+            HttpResponse response = httpClient.execute(httpPut);
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new AWSDeviceFarmException(String.format("Upload returned non-200 responses: %d", response.getStatusLine().getStatusCode()));
+            }
+        } catch (UploadInterruptedException e) {
+            httpPut.abort();
+            recordCancellation(String.format("Aborted S3 transfer of %s", file.getName()));
+            cancelUpload(upload, file);
+            throw new InterruptedException(String.format("Upload of %s interrupted", file.getName()));
+        } finally {
+            httpClient.close();
         }
 
         if (synchronous) {
@@ -753,6 +784,7 @@ public class AWSDeviceFarm {
                         Thread.sleep(5000);
                     } catch (InterruptedException e) {
                         writeToLog(String.format("Thread interrupted while waiting for the upload to complete"));
+                        cancelUpload(upload, file);
                         throw e;
                     }
                 }
@@ -762,6 +794,31 @@ public class AWSDeviceFarm {
         return upload;
     }
 
+    /**
+     * Delete an upload which was abandoned before Device Farm finished processing it, so it does not linger in the project.
+     *
+     * @param upload The upload to delete.
+     * @param file   The file which was being uploaded.
+     */
+    private void cancelUpload(Upload upload, File file) {
+        try {
+            deleteUpload(upload.getArn());
+            recordCancellation(String.format("Deleted half-processed upload %s (%s)", file.getName(), upload.getArn()));
+        } catch (RuntimeException e) {
+            recordCancellation(String.format("Unable to delete upload %s (%s): %s", file.getName(), upload.getArn(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Delete a Device Farm upload.
+     *
+     * @param uploadArn The ARN of the upload to delete.
+     */
+    public void deleteUpload(String uploadArn) {
+        api.deleteUpload(new DeleteUploadRequest()
+                .withArn(uploadArn));
+    }
+
     /**
      * Schedule a test run on Device Farm.
      *
@@ -826,6 +883,18 @@ public class AWSDeviceFarm {
                 .withArn(runArn));
     }
 
+    /**
+     * Stop a scheduled or running Device Farm run. Devices which have already started will finish their
+     * current test, and any artifacts produced so far remain available once the run reaches COMPLETED.
+     *
+     * @param runArn The ARN of the run to stop.
+     * @return The result of the stop run request.
+     */
+    public StopRunResult stopRun(String runArn) {
+        return api.stopRun(new StopRunRequest()
+                .withArn(runArn));
+    }
+
     /**
      * Gets a local File instance of a glob file pattern, pulling it from a secondary node if necessary.
      *
@@ -867,29 +936,130 @@ public class AWSDeviceFarm {
     }
 
     public ListArtifactsResult listArtifacts(String runArn, ArtifactCategory category) {
+        return listArtifacts(runArn, category, null);
+    }
+
+    /**
+     * List a single page of artifacts of a Device Farm run.
+     *
+     * @param runArn    The ARN of the run.
+     * @param category  The artifact category.
+     * @param nextToken The token of the page to list, null for the first page.
+     * @return The ListArtifactsResult.
+     */
+    public ListArtifactsResult listArtifacts(String runArn, ArtifactCategory category, String nextToken) {
         ListArtifactsRequest request = new ListArtifactsRequest()
                 .withArn(runArn)
-                .withType(category);
+                .withType(category)
+                .withNextToken(nextToken);
 
         return api.listArtifacts(request);
     }
 
+    /**
+     * Get all artifacts of the given category of a Device Farm run.
+     *
+     * @param runArn   The ARN of the run.
+     * @param category The artifact category.
+     * @return A List of the artifacts of the run.
+     */
+    public List<Artifact> getArtifacts(String runArn, ArtifactCategory category) {
+        List<Artifact> artifacts = new ArrayList<Artifact>();
+        ListArtifactsResult result = listArtifacts(runArn, category);
+        artifacts.addAll(result.getArtifacts());
+        while (result.getNextToken() != null) {
+            result = listArtifacts(runArn, category, result.getNextToken());
+            artifacts.addAll(result.getArtifacts());
+        }
+        return artifacts;
+    }
+
+    /**
+     * Get fresh pre-signed URLs of all artifacts of a Device Farm run.
+     *
+     * @param runArn The ARN of the run.
+     * @return A Map of artifact ARN to artifact URL.
+     */
+    public Map<String, String> getArtifactUrls(String runArn) {
+        Map<String, String> urls = new HashMap<String, String>();
+        for (ArtifactCategory category : ArtifactCategory.values()) {
+            for (Artifact artifact : getArtifacts(runArn, category)) {
+                urls.put(artifact.getArn(), artifact.getUrl());
+            }
+        }
+        return urls;
+    }
+
     public ListJobsResult listJobs(String runArn) {
+        return listJobs(runArn, null);
+    }
+
+    /**
+     * List a single page of jobs of a Device Farm run.
+     *
+     * @param runArn    The ARN of the run.
+     * @param nextToken The token of the page to list, null for the first page.
+     * @return The ListJobsResult.
+     */
+    public ListJobsResult listJobs(String runArn, String nextToken) {
         ListJobsRequest request = new ListJobsRequest()
-                .withArn(runArn);
+                .withArn(runArn)
+                .withNextToken(nextToken);
 
         return api.listJobs(request);
     }
 
+    /**
+     * Get all jobs (one per device) of a Device Farm run.
+     *
+     * @param runArn The ARN of the run.
+     * @return A List of the jobs of the run.
+     */
+    public List<Job> getJobs(String runArn) {
+        List<Job> jobs = new ArrayList<Job>();
+        ListJobsResult result = listJobs(runArn);
+        jobs.addAll(result.getJobs());
+        while (result.getNextToken() != null) {
+            result = listJobs(runArn, result.getNextToken());
+            jobs.addAll(result.getJobs());
+        }
+        return jobs;
+    }
+
     public ListSuitesResult listSuites(String jobArn) {
+        return listSuites(jobArn, null);
+    }
+
+    /**
+     * List a single page of suites of a Device Farm job.
+     *
+     * @param jobArn    The ARN of the job.
+     * @param nextToken The token of the page to list, null for the first page.
+     * @return The ListSuitesResult.
+     */
+    public ListSuitesResult listSuites(String jobArn, String nextToken) {
         ListSuitesRequest request = new ListSuitesRequest()
-                .withArn(jobArn);
+                .withArn(jobArn)
+                .withNextToken(nextToken);
 
         return api.listSuites(request);
     }
 
     public ListTestsResult listTests(String suiteArn) {
-        ListTestsRequest request = new ListTestsRequest().withArn(suiteArn);
+        return listTests(suiteArn, null);
+    }
+
+    /**
+     * List a single page of tests of a Device Farm suite.
+     *
+     * @param suiteArn  The ARN of the suite.
+     * @param nextToken The token of the page to list, null for the first page.
+     * @return The ListTestsResult.
+     */
+    public ListTestsResult listTests(String suiteArn, String nextToken) {
+        ListTestsRequest request = new ListTestsRequest()
+                .withArn(suiteArn)
+                .withNextToken(nextToken);
 
         return api.listTests(request);
     }
@@ -940,8 +1110,69 @@ public class AWSDeviceFarm {
         }
     }
 
+    /**
+     * Get the clean-up steps which were taken because a transfer was cancelled.
+     *
+     * @return A List of human readable descriptions of the clean-up steps.
+     */
+    public List<String> getCancellations() {
+        synchronized (cancellations) {
+            return new ArrayList<String>(cancellations);
+        }
+    }
+
     //// Helper Methods
 
+    /**
+     * Record and log a clean-up step taken because a transfer was cancelled.
+     *
+     * @param message The description of the clean-up step.
+     */
+    private void recordCancellation(String message) {
+        cancellations.add(message);
+        writeToLog(message);
+    }
+
+    /**
+     * File entity which stops streaming as soon as the uploading thread is interrupted (e.g. the Jenkins build was
+     * aborted), instead of blocking until the whole file has been sent to S3.
+     */
+    private static class InterruptibleFileEntity extends FileEntity {
+        private static final int BUFFER_SIZE = 8192;
+
+        InterruptibleFileEntity(File file) {
+            super(file);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = new FileInputStream(this.file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (Thread.interrupted()) {
+                        throw new UploadInterruptedException();
+                    }
+                    out.write(buffer, 0, read);
+                }
+                out.flush();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Thrown by {@link InterruptibleFileEntity} so an aborted build can be told apart from socket timeouts, which are
+     * interrupted I/O exceptions as well.
+     */
+    private static class UploadInterruptedException extends InterruptedIOException {
+        UploadInterruptedException() {
+            super("Upload interrupted");
+        }
+    }
+
     /**
      * Stupid log helper.
      *
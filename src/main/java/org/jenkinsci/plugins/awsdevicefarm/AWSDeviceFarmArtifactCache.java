@@ -0,0 +1,273 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import jenkins.model.Jenkins;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded, least recently used disk cache on the controller for artifacts which are fetched on demand.
+ * <p>
+ * The cache survives restarts: on start-up the existing files are re-read ordered by their last access time.
+ * Artifacts which are being fetched or served are never evicted; they are evicted once they are released.
+ * Fetches share the controller wide {@link AWSDeviceFarmTransferScheduler} with the downloads of running builds.
+ */
+public final class AWSDeviceFarmArtifactCache {
+    public static final int DEFAULT_MEGABYTES = 1024;
+    public static final String OWNER = "On-demand artifacts";
+
+    private static final String PART_EXTENSION = ".part";
+    private static AWSDeviceFarmArtifactCache instance;
+
+    private final File dir;
+    private final AWSDeviceFarmTransferScheduler scheduler;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private final Map<String, KeyLock> locks = new HashMap<String, KeyLock>();
+    private long totalBytes = 0;
+    private long maxBytes = Long.MAX_VALUE;
+
+    /**
+     * Provides a fresh URL of an artifact which is not cached yet.
+     */
+    public interface Source {
+        URL getUrl() throws IOException;
+    }
+
+    /**
+     * @return the artifact cache of this Jenkins controller
+     */
+    public static synchronized AWSDeviceFarmArtifactCache get() {
+        if (instance == null) {
+            instance = new AWSDeviceFarmArtifactCache(new File(Jenkins.getInstance().getRootDir(), "cache/aws-device-farm-artifacts"),
+                    AWSDeviceFarmTransferScheduler.get());
+        }
+        return instance;
+    }
+
+    AWSDeviceFarmArtifactCache(File dir) {
+        this(dir, null);
+    }
+
+    AWSDeviceFarmArtifactCache(File dir, AWSDeviceFarmTransferScheduler scheduler) {
+        this.dir = dir;
+        this.scheduler = scheduler;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(PART_EXTENSION)) {
+                    file.delete();
+                } else if (file.isFile()) {
+                    entries.put(file.getName(), file.length());
+                    totalBytes += file.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get an artifact from the cache, fetching it first if it is not cached yet. Least recently used artifacts are
+     * evicted once the cache grows beyond the given size. The returned file can be evicted as soon as this method
+     * returns, use {@link #open(String, Source, long)} to serve it.
+     *
+     * @param key      The cache key, must be a valid file name.
+     * @param source   The source of the artifact URL.
+     * @param maxBytes The max size of the cache in bytes.
+     * @return The cached file.
+     * @throws IOException
+     */
+    public File fetch(String key, Source source, long maxBytes) throws IOException {
+        Lease lease = open(key, source, maxBytes);
+        try {
+            return lease.getFile();
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Get an artifact from the cache like {@link #fetch(String, Source, long)}, keeping it in the cache until the
+     * returned lease is closed.
+     *
+     * @param key      The cache key, must be a valid file name.
+     * @param source   The source of the artifact URL.
+     * @param maxBytes The max size of the cache in bytes.
+     * @return The lease of the cached file, which has to be closed once the file has been served.
+     * @throws IOException
+     */
+    public Lease open(String key, Source source, long maxBytes) throws IOException {
+        KeyLock lock = acquire(key);
+        boolean leased = false;
+        try {
+            File file = fetch(key, lock, source, maxBytes);
+            leased = true;
+            return new Lease(key, lock, file);
+        } finally {
+            if (!leased) {
+                release(key, lock);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes currently cached
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    //// Helper Methods
+
+    private File fetch(String key, KeyLock lock, Source source, long maxBytes) throws IOException {
+        File file = new File(dir, key);
+        synchronized (lock) {
+            synchronized (this) {
+                this.maxBytes = maxBytes;
+                if (entries.get(key) != null && file.isFile()) {
+                    file.setLastModified(System.currentTimeMillis());
+                    return file;
+                }
+            }
+
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException(String.format("Unable to create directory %s", dir));
+            }
+            long size;
+            AWSDeviceFarmTransferScheduler.Slot slot = null;
+            try {
+                if (scheduler != null) {
+                    slot = scheduler.acquire(OWNER, AWSDeviceFarmTransferScheduler.priorityOf(key));
+                }
+                try {
+                    size = AWSDeviceFarmResumableDownload.toFile(source.getUrl(), file, scheduler);
+                } catch (AWSDeviceFarmResumableDownload.ExpiredUrlException e) {
+                    // The URL expired mid-transfer, resume with a fresh one.
+                    size = AWSDeviceFarmResumableDownload.toFile(source.getUrl(), file, scheduler);
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(String.format("Download of %s interrupted", key));
+            } finally {
+                if (slot != null) {
+                    slot.release();
+                }
+            }
+
+            synchronized (this) {
+                Long previous = entries.put(key, size);
+                totalBytes += size - (previous != null ? previous : 0);
+                evict();
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Register a user of the given key. The lock of a key is shared by all its users and only dropped once the last
+     * user is gone, so two threads never fetch the same key at the same time.
+     */
+    private synchronized KeyLock acquire(String key) {
+        KeyLock lock = locks.get(key);
+        if (lock == null) {
+            lock = new KeyLock();
+            locks.put(key, lock);
+        }
+        lock.users++;
+        return lock;
+    }
+
+    private synchronized void release(String key, KeyLock lock) {
+        lock.users--;
+        if (lock.users == 0) {
+            locks.remove(key);
+            // Artifacts which were in use during an earlier eviction may be evicted now.
+            evict();
+        }
+    }
+
+    /**
+     * Evict least recently used artifacts until the cache fits its size. Artifacts with a registered user, i.e. which
+     * are being fetched or served, are skipped.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (locks.containsKey(entry.getKey())) {
+                continue;
+            }
+            totalBytes -= entry.getValue();
+            new File(dir, entry.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    /**
+     * A cached artifact which is kept in the cache until the lease is closed.
+     */
+    public final class Lease implements Closeable {
+        private final String key;
+        private final KeyLock lock;
+        private final File file;
+        private boolean closed = false;
+
+        private Lease(String key, KeyLock lock, File file) {
+            this.key = key;
+            this.lock = lock;
+            this.file = file;
+        }
+
+        /**
+         * @return the cached file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Release the artifact, it may be evicted from now on.
+         */
+        public void close() {
+            synchronized (AWSDeviceFarmArtifactCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                release(key, lock);
+            }
+        }
+    }
+
+    /**
+     * The lock of a single key and the number of its users.
+     */
+    private static class KeyLock {
+        private int users = 0;
+    }
+}
@@ -0,0 +1,632 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads AWS Device Farm artifacts with a bounded pool of workers.
+ * <p>
+ * Videos, usually the largest artifacts, are started first so they do not end up as the long tail of the collection,
+ * and the {@link AWSDeviceFarmTransferScheduler} serves the transfers of a build in the same order. The size of every
+ * artifact is taken from the first response of its transfer and charged to the download limit before anything is
+ * written. Artifacts whose size is not known up front are charged once they are downloaded. The number of concurrent
+ * connections to a single host is bounded separately from the overall concurrency. Artifacts which are stored on an
+ * agent, e.g. when results are kept in the workspace, are fetched by the agent itself so the bytes never pass through
+ * the controller.
+ * <p>
+ * Every transfer is resumable and verified, see {@link AWSDeviceFarmResumableDownload}. When a pre-signed URL expires
+ * during a long collection the artifact is re-listed through the {@link Refresher} and the transfer resumes.
+ * Transfers which write to the controller additionally go through the controller wide
+ * {@link AWSDeviceFarmTransferScheduler}, which caps their concurrency and bandwidth across all builds.
+ */
+public class AWSDeviceFarmArtifactDownloader {
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final long PROGRESS_INTERVAL = 15 * 1000;
+    private static final int MAX_REFRESHES = 3;
+
+    private final int concurrency;
+    private final int connectionsPerHost;
+    private final PrintStream log;
+    private Long maxBytes;
+    private Refresher refresher;
+    private AWSDeviceFarmTransferScheduler scheduler;
+    private String owner;
+    private final List<Download> downloads = new ArrayList<Download>();
+    private final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Limit limit = new Limit();
+
+    /**
+     * Create a new artifact downloader.
+     *
+     * @param concurrency        The max number of concurrent downloads, defaults to {@link #DEFAULT_CONCURRENCY}.
+     * @param connectionsPerHost The max number of concurrent connections to a single host, defaults to the concurrency.
+     * @param log                The log print stream for progress reports.
+     */
+    public AWSDeviceFarmArtifactDownloader(Integer concurrency, Integer connectionsPerHost, PrintStream log) {
+        this.concurrency = (concurrency != null && concurrency > 0) ? concurrency : DEFAULT_CONCURRENCY;
+        this.connectionsPerHost = (connectionsPerHost != null && connectionsPerHost > 0) ? connectionsPerHost : this.concurrency;
+        this.log = log;
+    }
+
+    /**
+     * Limit the number of bytes downloaded. Artifacts which would exceed the remaining budget are skipped, in the
+     * order their transfers start.
+     *
+     * @param maxBytes The max number of bytes, null for no limit.
+     * @return The artifact downloader.
+     */
+    public AWSDeviceFarmArtifactDownloader withMaxBytes(Long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Refresh pre-signed URLs which expire while the artifacts are downloaded.
+     *
+     * @param refresher The refresher, null to fail on expired URLs.
+     * @return The artifact downloader.
+     */
+    public AWSDeviceFarmArtifactDownloader withRefresher(Refresher refresher) {
+        this.refresher = refresher;
+        return this;
+    }
+
+    /**
+     * Share the transfers which write to the controller with all other builds through a scheduler.
+     *
+     * @param scheduler The transfer scheduler, null to not schedule the transfers.
+     * @param owner     The owner of the transfers, usually the build.
+     * @return The artifact downloader.
+     */
+    public AWSDeviceFarmArtifactDownloader withScheduler(AWSDeviceFarmTransferScheduler scheduler, String owner) {
+        this.scheduler = scheduler;
+        this.owner = owner;
+        return this;
+    }
+
+    /**
+     * Queue an artifact for download.
+     *
+     * @param url    The (pre-signed) URL of the artifact.
+     * @param target The file to write the artifact to.
+     */
+    public void add(URL url, FilePath target) {
+        add(null, url, target);
+    }
+
+    /**
+     * Queue an artifact for download.
+     *
+     * @param arn    The ARN of the artifact, used to refresh its URL when it expires.
+     * @param url    The (pre-signed) URL of the artifact.
+     * @param target The file to write the artifact to.
+     */
+    public void add(String arn, URL url, FilePath target) {
+        downloads.add(new Download(arn, url, target, null));
+    }
+
+    /**
+     * Queue an artifact to be streamed into a zip archive. All artifacts of the same archive are written sequentially
+     * by a single worker, on the node which holds the archive, without staging individual files.
+     *
+     * @param url     The (pre-signed) URL of the artifact.
+     * @param archive The zip archive to write the artifact to.
+     * @param entry   The name of the entry in the archive.
+     */
+    public void add(URL url, FilePath archive, String entry) {
+        add(null, url, archive, entry);
+    }
+
+    /**
+     * Queue an artifact to be streamed into a zip archive.
+     *
+     * @param arn     The ARN of the artifact, used to refresh its URL when it expires.
+     * @param url     The (pre-signed) URL of the artifact.
+     * @param archive The zip archive to write the artifact to.
+     * @param entry   The name of the entry in the archive.
+     * @see #add(URL, FilePath, String)
+     */
+    public void add(String arn, URL url, FilePath archive, String entry) {
+        downloads.add(new Download(arn, url, archive, entry));
+    }
+
+    /**
+     * @return the number of queued artifacts
+     */
+    public int getCount() {
+        return downloads.size();
+    }
+
+    /**
+     * @return the number of artifacts which have been downloaded completely
+     */
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of bytes which have been downloaded
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Download all queued artifacts, blocking until all of them are done. On failure or interruption the outstanding
+     * downloads are cancelled and partially written files are removed.
+     *
+     * @return The total number of bytes downloaded.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long download() throws IOException, InterruptedException {
+        if (downloads.isEmpty()) {
+            return 0;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency,
+                new NamingThreadFactory(new DaemonThreadFactory(), "AWSDeviceFarm artifact download"));
+        try {
+            // Start with the videos, the sort is stable so everything else keeps the order it was queued in.
+            List<Download> ordered = new ArrayList<Download>(downloads);
+            Collections.sort(ordered, new Comparator<Download>() {
+                public int compare(Download a, Download b) {
+                    return Integer.compare(priorityOf(a), priorityOf(b));
+                }
+            });
+            writeToLog(String.format("Downloading %d artifacts with %d workers", ordered.size(), concurrency));
+
+            Map<String, List<Download>> archives = new LinkedHashMap<String, List<Download>>();
+            List<Future<Long>> transfers = new ArrayList<Future<Long>>();
+            for (final Download download : ordered) {
+                if (download.entry != null) {
+                    List<Download> entries = archives.get(download.target.getRemote());
+                    if (entries == null) {
+                        entries = new ArrayList<Download>();
+                        archives.put(download.target.getRemote(), entries);
+                    }
+                    entries.add(download);
+                    continue;
+                }
+                transfers.add(pool.submit(new Callable<Long>() {
+                    public Long call() throws Exception {
+                        return transfer(download);
+                    }
+                }));
+            }
+            for (final List<Download> entries : archives.values()) {
+                transfers.add(pool.submit(new Callable<Long>() {
+                    public Long call() throws Exception {
+                        return transferArchive(entries);
+                    }
+                }));
+            }
+            for (Future<Long> transfer : transfers) {
+                await(transfer);
+            }
+            if (limit.getSkipped() > 0) {
+                writeToLog(String.format("Skipped %d artifacts which exceed the download limit of %s", limit.getSkipped(),
+                        Functions.humanReadableByteSize(maxBytes)));
+            }
+            return bytes.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of artifacts which were skipped because they exceed the download limit
+     */
+    public int getSkippedCount() {
+        return limit.getSkipped();
+    }
+
+    /**
+     * Probe the sizes of artifacts without downloading them, e.g. to index artifacts which are downloaded on demand.
+     * The probes share the concurrency and per host limits of this downloader, but not its queue.
+     *
+     * @param urls The (pre-signed) URLs of the artifacts.
+     * @return The sizes in bytes in the order of the URLs, -1 where unknown.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<Long> probe(List<URL> urls) throws IOException, InterruptedException {
+        List<Long> sizes = new ArrayList<Long>();
+        if (urls.isEmpty()) {
+            return sizes;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency,
+                new NamingThreadFactory(new DaemonThreadFactory(), "AWSDeviceFarm artifact probe"));
+        try {
+            List<Future<Long>> probes = new ArrayList<Future<Long>>();
+            for (final URL url : urls) {
+                probes.add(pool.submit(new Callable<Long>() {
+                    public Long call() throws Exception {
+                        Semaphore permits = getHostPermits(url.getHost());
+                        permits.acquire();
+                        try {
+                            return probeSize(url);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+            for (Future<Long> probe : probes) {
+                sizes.add(await(probe));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return sizes;
+    }
+
+    //// Helper Methods
+
+    /**
+     * Wait for the given future, reporting progress while waiting.
+     */
+    private long await(Future<Long> future) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                writeToLog(String.format("Downloaded %d artifacts (%s)", completed.get(),
+                        Functions.humanReadableByteSize(bytes.get())));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Download a single artifact while holding a connection permit for its host. The download runs on the node which
+     * holds the target file, so artifacts stored on an agent never pass through the controller.
+     */
+    private long transfer(Download download) throws IOException, InterruptedException {
+        Semaphore permits = getHostPermits(download.url.getHost());
+        permits.acquire();
+        AWSDeviceFarmTransferScheduler.Slot slot = schedule(download.target, AWSDeviceFarmTransferScheduler.priorityOf(download.target.getName()));
+        try {
+            for (int refreshes = 0; ; refreshes++) {
+                try {
+                    long size = download.target.act(new RemoteCopy(download.url, slot != null ? scheduler : null, budgetFor(download.target)));
+                    bytes.addAndGet(size);
+                    completed.incrementAndGet();
+                    return size;
+                } catch (AWSDeviceFarmResumableDownload.LimitExceededException e) {
+                    return 0L;
+                } catch (AWSDeviceFarmResumableDownload.ExpiredUrlException e) {
+                    // The partial file is kept, so the download resumes with the fresh URL.
+                    refresh(download, refreshes, e);
+                }
+            }
+        } finally {
+            if (slot != null) {
+                slot.release();
+            }
+            permits.release();
+        }
+    }
+
+    /**
+     * Stream the artifacts of a single archive while holding a connection permit for their host.
+     */
+    private long transferArchive(List<Download> entries) throws IOException, InterruptedException {
+        FilePath archive = entries.get(0).target;
+        int priority = AWSDeviceFarmTransferScheduler.PRIORITY_LOG;
+        for (Download download : entries) {
+            priority = Math.min(priority, AWSDeviceFarmTransferScheduler.priorityOf(download.entry));
+        }
+        Semaphore permits = getHostPermits(entries.get(0).url.getHost());
+        permits.acquire();
+        AWSDeviceFarmTransferScheduler.Slot slot = schedule(archive, priority);
+        try {
+            for (int refreshes = 0; ; refreshes++) {
+                List<URL> urls = new ArrayList<URL>();
+                List<String> names = new ArrayList<String>();
+                for (Download download : entries) {
+                    urls.add(download.url);
+                    names.add(download.entry);
+                }
+                try {
+                    long size = archive.act(new ArchiveCopy(urls, names, slot != null ? scheduler : null, budgetFor(archive)));
+                    bytes.addAndGet(size);
+                    completed.addAndGet(entries.size());
+                    return size;
+                } catch (AWSDeviceFarmResumableDownload.ExpiredUrlException e) {
+                    // The archive cannot be appended to, so it is written again from the start with fresh URLs.
+                    for (Download download : entries) {
+                        refresh(download, refreshes, e);
+                    }
+                }
+            }
+        } finally {
+            if (slot != null) {
+                slot.release();
+            }
+            permits.release();
+        }
+    }
+
+    /**
+     * Get the download limit for a transfer to the given target. Transfers to an agent charge the limit through a
+     * remoting proxy, so the limit is shared by all nodes.
+     *
+     * @return The budget or null if the downloads are not limited.
+     */
+    private AWSDeviceFarmResumableDownload.Budget budgetFor(FilePath target) {
+        if (maxBytes == null) {
+            return null;
+        }
+        VirtualChannel channel = target.getChannel();
+        return target.isRemote() && channel != null ? channel.export(AWSDeviceFarmResumableDownload.Budget.class, limit) : limit;
+    }
+
+    private static int priorityOf(Download download) {
+        return AWSDeviceFarmTransferScheduler.priorityOf(download.entry != null ? download.entry : download.target.getName());
+    }
+
+    /**
+     * Wait for a controller wide transfer slot if the target is on the controller. Agents write to their own disks
+     * over their own network, so their transfers are not scheduled.
+     *
+     * @return The slot or null if the transfer is not scheduled.
+     */
+    private AWSDeviceFarmTransferScheduler.Slot schedule(FilePath target, int priority) throws InterruptedException {
+        if (scheduler == null || target.isRemote()) {
+            return null;
+        }
+        return scheduler.acquire(owner, priority);
+    }
+
+    /**
+     * Replace the expired URL of a download with a fresh one.
+     */
+    private void refresh(Download download, int refreshes, AWSDeviceFarmResumableDownload.ExpiredUrlException e) throws IOException {
+        if (refresher == null || download.arn == null || refreshes >= MAX_REFRESHES) {
+            throw e;
+        }
+        URL url = refresher.refresh(download.arn, download.url);
+        if (url == null) {
+            throw new IOException(String.format("Artifact %s is no longer available", download.arn), e);
+        }
+        download.url = url;
+    }
+
+    private synchronized Semaphore getHostPermits(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(connectionsPerHost);
+            hostPermits.put(host, permits);
+        }
+        return permits;
+    }
+
+    /**
+     * Probe the size of an artifact. Pre-signed S3 URLs are only valid for GET, so instead of a HEAD request the first
+     * byte is requested and the size is taken from the Content-Range header.
+     *
+     * @param url The (pre-signed) URL of the artifact.
+     * @return The size in bytes or -1 if unknown.
+     */
+    static long probeSize(URL url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) AWSDeviceFarmResumableDownload.openConnection(url);
+            connection.setRequestProperty("Range", "bytes=0-0");
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                String range = connection.getHeaderField("Content-Range");
+                if (range != null && range.lastIndexOf('/') >= 0) {
+                    String total = range.substring(range.lastIndexOf('/') + 1).trim();
+                    if (!"*".equals(total)) {
+                        return Long.parseLong(total);
+                    }
+                }
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                return connection.getContentLengthLong();
+            }
+        } catch (IOException e) {
+            // Unknown size, it will simply be downloaded last.
+        } catch (NumberFormatException e) {
+            // Unknown size, it will simply be downloaded last.
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        return -1;
+    }
+
+    private void writeToLog(String message) {
+        if (log != null) {
+            log.println(String.format("[AWSDeviceFarm] %s", message));
+        }
+    }
+
+    /**
+     * Downloads an artifact on the node which holds the target file. The throttle only applies on the controller.
+     */
+    private static class RemoteCopy extends MasterToSlaveFileCallable<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final URL url;
+        private final transient AWSDeviceFarmResumableDownload.Throttle throttle;
+        private final AWSDeviceFarmResumableDownload.Budget budget;
+
+        RemoteCopy(URL url, AWSDeviceFarmResumableDownload.Throttle throttle, AWSDeviceFarmResumableDownload.Budget budget) {
+            this.url = url;
+            this.throttle = throttle;
+            this.budget = budget;
+        }
+
+        @Override
+        public Long invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            return AWSDeviceFarmResumableDownload.toFile(url, f, throttle, budget);
+        }
+    }
+
+    /**
+     * Streams artifacts into a zip archive on the node which holds the archive.
+     */
+    private static class ArchiveCopy extends MasterToSlaveFileCallable<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<URL> urls;
+        private final List<String> entries;
+        private final transient AWSDeviceFarmResumableDownload.Throttle throttle;
+        private final AWSDeviceFarmResumableDownload.Budget budget;
+
+        ArchiveCopy(List<URL> urls, List<String> entries, AWSDeviceFarmResumableDownload.Throttle throttle,
+                    AWSDeviceFarmResumableDownload.Budget budget) {
+            this.urls = urls;
+            this.entries = entries;
+            this.throttle = throttle;
+            this.budget = budget;
+        }
+
+        @Override
+        public Long invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            return AWSDeviceFarmResultArchive.write(f, urls, entries, throttle, budget);
+        }
+    }
+
+    /**
+     * Provides fresh pre-signed URLs for artifacts whose URL has expired.
+     */
+    public interface Refresher {
+        /**
+         * @param arn     The ARN of the artifact.
+         * @param expired The expired URL.
+         * @return A fresh URL of the artifact, null if the artifact no longer exists.
+         * @throws IOException
+         */
+        URL refresh(String arn, URL expired) throws IOException;
+    }
+
+    /**
+     * Refreshes artifact URLs by listing the artifacts of their run again. Since all URLs of a listing expire together,
+     * a run is only listed again when the expired URL still is the most recently listed one. The run is taken from the
+     * artifact ARN, so the artifacts of several runs can be refreshed.
+     */
+    public static class RunRefresher implements Refresher {
+        private final AWSDeviceFarm adf;
+        private final Map<String, String> urls = new HashMap<String, String>();
+
+        /**
+         * Create a new run refresher.
+         *
+         * @param adf The AWS Device Farm client.
+         */
+        public RunRefresher(AWSDeviceFarm adf) {
+            this.adf = adf;
+        }
+
+        public synchronized URL refresh(String arn, URL expired) throws IOException {
+            String url = urls.get(arn);
+            if (url == null || url.equals(expired.toString())) {
+                String runArn = AWSDeviceFarmUtils.getRunArnFromArn(arn);
+                try {
+                    urls.putAll(adf.getArtifactUrls(runArn));
+                } catch (RuntimeException e) {
+                    throw new IOException(String.format("Unable to list the artifacts of run %s", runArn), e);
+                }
+                url = urls.get(arn);
+            }
+            return url != null ? new URL(url) : null;
+        }
+    }
+
+    /**
+     * The download limit shared by all transfers of this downloader.
+     */
+    private class Limit implements AWSDeviceFarmResumableDownload.Budget {
+        private long reserved = 0;
+        private int skipped = 0;
+
+        public synchronized boolean reserve(long size) {
+            if (reserved + size > maxBytes) {
+                skipped++;
+                return false;
+            }
+            reserved += size;
+            return true;
+        }
+
+        public synchronized void charge(long size) {
+            reserved += size;
+        }
+
+        synchronized int getSkipped() {
+            return skipped;
+        }
+    }
+
+    /**
+     * A single queued artifact download.
+     */
+    private static class Download {
+        private final String arn;
+        private final FilePath target;
+        private final String entry;
+        private URL url;
+
+        Download(String arn, URL url, FilePath target, String entry) {
+            this.arn = arn;
+            this.url = url;
+            this.target = target;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.ArtifactCategory;
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metadata of the artifacts of an AWS Device Farm run which are fetched on demand instead of being downloaded at the
+ * end of the build. Stored in its own file in the build directory so it is only loaded when artifacts are browsed.
+ */
+public class AWSDeviceFarmArtifactIndex {
+    public static final String FILE_NAME = "aws-device-farm-artifacts.xml";
+
+    private final String runArn;
+    private final List<Entry> artifacts;
+
+    /**
+     * Create a new artifact index.
+     *
+     * @param runArn    The ARN of the run the artifacts belong to.
+     * @param artifacts The artifact entries.
+     */
+    public AWSDeviceFarmArtifactIndex(String runArn, List<Entry> artifacts) {
+        this.runArn = runArn;
+        this.artifacts = new ArrayList<Entry>(artifacts);
+    }
+
+    /**
+     * @return the ARN of the (first) run of the build, the artifacts of other runs are refreshed with the run in their ARN
+     */
+    public String getRunArn() {
+        return runArn;
+    }
+
+    public List<Entry> getArtifacts() {
+        return Collections.unmodifiableList(artifacts);
+    }
+
+    /**
+     * Find an artifact by its id.
+     *
+     * @param id The resource part of the artifact ARN.
+     * @return The artifact entry or null if it is not part of this index.
+     */
+    public Entry find(String id) {
+        if (id == null) {
+            return null;
+        }
+        for (Entry entry : artifacts) {
+            if (entry.getId().equals(id)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Save this index in the given build directory.
+     *
+     * @param buildDir The root directory of the build.
+     * @throws IOException
+     */
+    public void save(File buildDir) throws IOException {
+        new XmlFile(new File(buildDir, FILE_NAME)).write(this);
+    }
+
+    /**
+     * Load the artifact index of a build.
+     *
+     * @param buildDir The root directory of the build.
+     * @return The artifact index or null if the build has none.
+     * @throws IOException
+     */
+    public static AWSDeviceFarmArtifactIndex load(File buildDir) throws IOException {
+        XmlFile file = new XmlFile(new File(buildDir, FILE_NAME));
+        if (!file.exists()) {
+            return null;
+        }
+        return (AWSDeviceFarmArtifactIndex) file.read();
+    }
+
+    /**
+     * Metadata of a single artifact.
+     */
+    public static class Entry {
+        private final String arn;
+        private final String name;
+        private final String type;
+        private final String extension;
+        private final String category;
+        private final String path;
+        private final long size;
+
+        /**
+         * Create a new artifact entry.
+         *
+         * @param artifact The artifact.
+         * @param category The category the artifact was listed with.
+         * @param path     The relative path of the test the artifact belongs to.
+         * @param size     The size in bytes, -1 if unknown.
+         */
+        public Entry(Artifact artifact, ArtifactCategory category, String path, long size) {
+            this.arn = artifact.getArn();
+            this.name = artifact.getName();
+            this.type = artifact.getType();
+            this.extension = artifact.getExtension() == null ? "" : artifact.getExtension().replaceFirst("^\\.", "");
+            this.category = category.toString();
+            this.path = path;
+            this.size = size;
+        }
+
+        public String getArn() {
+            return arn;
+        }
+
+        /**
+         * @return the resource part of the artifact ARN
+         */
+        public String getId() {
+            return AWSDeviceFarmResultTree.idOf(arn);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        /**
+         * @return the relative path of the test the artifact belongs to, may be null
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the size in bytes, -1 if unknown
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the file name the artifact is stored and served with
+         */
+        public String getFileName() {
+            return String.format("%s-%s.%s", name, getId().substring(getId().lastIndexOf('/') + 1), extension);
+        }
+    }
+}
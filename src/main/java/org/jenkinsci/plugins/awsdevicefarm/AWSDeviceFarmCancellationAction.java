@@ -0,0 +1,62 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.Action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the clean-up steps (stopped runs, deleted uploads, aborted transfers) which were taken on AWS Device Farm
+ * because the Jenkins build was aborted. Shown as a summary on the build page.
+ */
+public class AWSDeviceFarmCancellationAction implements Action {
+    private final List<String> steps = new ArrayList<String>();
+
+    /**
+     * Create new cancellation action.
+     *
+     * @param steps The clean-up steps which were taken.
+     */
+    public AWSDeviceFarmCancellationAction(List<String> steps) {
+        this.steps.addAll(steps);
+    }
+
+    /**
+     * Get the clean-up steps which were taken.
+     *
+     * @return An unmodifiable List of the clean-up step descriptions.
+     */
+    public List<String> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "AWS Device Farm Cancellation";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
@@ -0,0 +1,399 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Device minute usage of the recent AWS Device Farm runs of a project, per device pool and per job (device).
+ * <p>
+ * Totals per device pool are read from the {@link AWSDeviceFarmHistory}. Jobs whose device minutes grew well beyond
+ * the median of the previous builds are flagged as regressions, which needs the result trees of a few recent builds.
+ * The device minutes per job of the recent builds are kept in memory, so the result trees are loaded once and not on
+ * every build and page view.
+ */
+public class AWSDeviceFarmCostTrend {
+    public static final int DEFAULT_BUILDS = 30;
+    public static final int BASELINE_BUILDS = 10;
+    public static final String UNKNOWN_POOL = "Unknown";
+
+    static final int MIN_BASELINE_BUILDS = 3;
+    static final double REGRESSION_RATIO = 0.25;
+    static final double MIN_REGRESSION_MINUTES = 1.0;
+    static final int CACHED_BUILDS = 2 * (BASELINE_BUILDS + 1);
+
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmCostTrend.class.getName());
+    private static final Map<Job<?, ?>, Map<Integer, Map<String, Double>>> jobMinutes = new WeakHashMap<Job<?, ?>, Map<Integer, Map<String, Double>>>();
+
+    private final List<AWSDeviceFarmHistory.Record> records;
+    private final List<PoolCost> pools;
+    private final List<Regression> regressions;
+
+    AWSDeviceFarmCostTrend(List<AWSDeviceFarmHistory.Record> records, List<Regression> regressions) {
+        this.records = records;
+        this.pools = byDevicePool(records);
+        this.regressions = regressions;
+    }
+
+    /**
+     * Get the device minute usage of the most recent builds of a project.
+     *
+     * @param job The project.
+     * @param n   The max number of builds.
+     * @return The cost trend.
+     */
+    public static AWSDeviceFarmCostTrend forJob(Job<?, ?> job, int n) {
+        List<AWSDeviceFarmHistory.Record> records = AWSDeviceFarmHistory.forJob(job).getRecords(Integer.MAX_VALUE, n);
+        List<Regression> regressions = Collections.emptyList();
+        if (!records.isEmpty()) {
+            AWSDeviceFarmHistory.Record last = records.get(records.size() - 1);
+            List<Map<String, Double>> baseline = getJobMinutes(job,
+                    records.subList(Math.max(0, records.size() - 1 - BASELINE_BUILDS), records.size() - 1));
+            Map<String, Double> current = getJobMinutes(job, Collections.singletonList(last)).get(0);
+            regressions = findRegressions(baseline, current);
+        }
+        return new AWSDeviceFarmCostTrend(records, regressions);
+    }
+
+    /**
+     * @return the builds of the trend, ordered by build number
+     */
+    public List<AWSDeviceFarmHistory.Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Get the builds of the trend which ran on a device pool.
+     *
+     * @param devicePool The name of the device pool, or {@link #UNKNOWN_POOL}.
+     * @return The builds, ordered by build number.
+     */
+    public List<AWSDeviceFarmHistory.Record> getRecords(String devicePool) {
+        List<AWSDeviceFarmHistory.Record> filtered = new ArrayList<AWSDeviceFarmHistory.Record>();
+        for (AWSDeviceFarmHistory.Record record : records) {
+            String pool = record.getDevicePool() != null ? record.getDevicePool() : UNKNOWN_POOL;
+            if (pool.equals(devicePool)) {
+                filtered.add(record);
+            }
+        }
+        return Collections.unmodifiableList(filtered);
+    }
+
+    /**
+     * @return the device minutes per device pool, most expensive first
+     */
+    public List<PoolCost> getPools() {
+        return pools;
+    }
+
+    /**
+     * @return the jobs of the most recent build which used a lot more device minutes than before, worst first
+     */
+    public List<Regression> getRegressions() {
+        return regressions;
+    }
+
+    /**
+     * @return the device minutes of all builds of the trend
+     */
+    public float getTotalMinutes() {
+        float total = 0;
+        for (AWSDeviceFarmHistory.Record record : records) {
+            total += record.getDeviceMinutes();
+        }
+        return total;
+    }
+
+    /**
+     * @return the metered device minutes of all builds of the trend
+     */
+    public float getMeteredMinutes() {
+        float total = 0;
+        for (AWSDeviceFarmHistory.Record record : records) {
+            total += record.getMeteredMinutes();
+        }
+        return total;
+    }
+
+    /**
+     * Sum up the device minutes of builds per device pool.
+     *
+     * @param records The builds.
+     * @return The device minutes per device pool, most expensive first.
+     */
+    public static List<PoolCost> byDevicePool(List<AWSDeviceFarmHistory.Record> records) {
+        Map<String, PoolCost> pools = new TreeMap<String, PoolCost>();
+        for (AWSDeviceFarmHistory.Record record : records) {
+            String name = record.getDevicePool() != null ? record.getDevicePool() : UNKNOWN_POOL;
+            PoolCost pool = pools.get(name);
+            if (pool == null) {
+                pool = new PoolCost(name);
+                pools.put(name, pool);
+            }
+            pool.add(record);
+        }
+        List<PoolCost> sorted = new ArrayList<PoolCost>(pools.values());
+        Collections.sort(sorted, new Comparator<PoolCost>() {
+            public int compare(PoolCost a, PoolCost b) {
+                return Float.compare(b.getTotalMinutes(), a.getTotalMinutes());
+            }
+        });
+        return Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Get the device minutes of every job of a run.
+     *
+     * @param tree The result tree of the run.
+     * @return The device minutes by job directory name, which is unique within a run.
+     */
+    public static Map<String, Double> getJobMinutes(AWSDeviceFarmResultTree tree) {
+        Map<String, Double> minutes = new LinkedHashMap<String, Double>();
+        if (tree != null) {
+            for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+                if (job.getDeviceMinutes() != null && !AWSDeviceFarmTestRerun.isRerun(job)) {
+                    minutes.put(job.getPath(), job.getDeviceMinutes());
+                }
+            }
+        }
+        return minutes;
+    }
+
+    /**
+     * Get the device minutes of every job of the given builds, loading the result trees of builds which are not
+     * cached yet.
+     *
+     * @param job     The project.
+     * @param records The builds.
+     * @return The device minutes by job per build, empty for builds without a result tree.
+     */
+    public static List<Map<String, Double>> getJobMinutes(Job<?, ?> job, List<AWSDeviceFarmHistory.Record> records) {
+        List<Map<String, Double>> minutes = new ArrayList<Map<String, Double>>();
+        for (AWSDeviceFarmHistory.Record record : records) {
+            Map<String, Double> cached = getCached(job, record.getNumber());
+            if (cached == null) {
+                AWSDeviceFarmResultTree tree = null;
+                Run<?, ?> run = job.getBuildByNumber(record.getNumber());
+                if (run != null) {
+                    try {
+                        tree = AWSDeviceFarmResultTree.load(run.getRootDir());
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, String.format("Unable to load the AWS Device Farm results of %s", run), e);
+                    }
+                }
+                cached = getJobMinutes(tree);
+                cache(job, record.getNumber(), cached);
+            }
+            minutes.add(cached);
+        }
+        return minutes;
+    }
+
+    /**
+     * Remember the device minutes of every job of a completed build, so its result tree is not loaded again.
+     *
+     * @param job    The project.
+     * @param number The build number.
+     * @param tree   The result tree of the build.
+     */
+    public static void record(Job<?, ?> job, int number, AWSDeviceFarmResultTree tree) {
+        cache(job, number, getJobMinutes(tree));
+    }
+
+    /**
+     * Find the jobs of a run which used a lot more device minutes than the median of the same job in previous runs.
+     * A job needs at least {@link #MIN_BASELINE_BUILDS} previous runs, and has to exceed the median by
+     * {@link #REGRESSION_RATIO} and by {@link #MIN_REGRESSION_MINUTES}, so short jobs do not flap.
+     *
+     * @param baseline The device minutes by job of previous runs.
+     * @param current  The device minutes by job of the run.
+     * @return The regressed jobs, largest increase first.
+     */
+    public static List<Regression> findRegressions(List<Map<String, Double>> baseline, Map<String, Double> current) {
+        List<Regression> regressions = new ArrayList<Regression>();
+        for (Map.Entry<String, Double> entry : current.entrySet()) {
+            List<Double> previous = new ArrayList<Double>();
+            for (Map<String, Double> minutes : baseline) {
+                Double value = minutes.get(entry.getKey());
+                if (value != null) {
+                    previous.add(value);
+                }
+            }
+            if (previous.size() < MIN_BASELINE_BUILDS) {
+                continue;
+            }
+            double median = median(previous);
+            double minutes = entry.getValue();
+            if (minutes > median * (1 + REGRESSION_RATIO) && minutes - median >= MIN_REGRESSION_MINUTES) {
+                regressions.add(new Regression(entry.getKey(), minutes, median));
+            }
+        }
+        Collections.sort(regressions, new Comparator<Regression>() {
+            public int compare(Regression a, Regression b) {
+                return Double.compare(b.getIncrease(), a.getIncrease());
+            }
+        });
+        return Collections.unmodifiableList(regressions);
+    }
+
+    //// Helper Methods
+
+    private static Map<String, Double> getCached(Job<?, ?> job, int number) {
+        synchronized (jobMinutes) {
+            Map<Integer, Map<String, Double>> builds = jobMinutes.get(job);
+            return builds != null ? builds.get(number) : null;
+        }
+    }
+
+    private static void cache(Job<?, ?> job, int number, Map<String, Double> minutes) {
+        synchronized (jobMinutes) {
+            Map<Integer, Map<String, Double>> builds = jobMinutes.get(job);
+            if (builds == null) {
+                builds = new LinkedHashMap<Integer, Map<String, Double>>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, Map<String, Double>> eldest) {
+                        return size() > CACHED_BUILDS;
+                    }
+                };
+                jobMinutes.put(job, builds);
+            }
+            builds.put(number, Collections.unmodifiableMap(minutes));
+        }
+    }
+
+    private static double median(List<Double> values) {
+        double[] sorted = new double[values.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = values.get(i);
+        }
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    /**
+     * Device minutes of the builds which ran on a single device pool.
+     */
+    public static class PoolCost {
+        private final String name;
+        private int builds = 0;
+        private float totalMinutes = 0;
+        private float meteredMinutes = 0;
+        private float unmeteredMinutes = 0;
+        private float lastMinutes = 0;
+
+        PoolCost(String name) {
+            this.name = name;
+        }
+
+        void add(AWSDeviceFarmHistory.Record record) {
+            builds++;
+            totalMinutes += record.getDeviceMinutes();
+            meteredMinutes += record.getMeteredMinutes();
+            unmeteredMinutes += record.getUnmeteredMinutes();
+            lastMinutes = record.getDeviceMinutes();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getBuilds() {
+            return builds;
+        }
+
+        public float getTotalMinutes() {
+            return totalMinutes;
+        }
+
+        public float getMeteredMinutes() {
+            return meteredMinutes;
+        }
+
+        public float getUnmeteredMinutes() {
+            return unmeteredMinutes;
+        }
+
+        /**
+         * @return the device minutes per build
+         */
+        public float getAverageMinutes() {
+            return builds > 0 ? totalMinutes / builds : 0;
+        }
+
+        /**
+         * @return the device minutes of the most recent build on this pool
+         */
+        public float getLastMinutes() {
+            return lastMinutes;
+        }
+    }
+
+    /**
+     * A job which used a lot more device minutes than in previous builds.
+     */
+    public static class Regression {
+        private final String job;
+        private final double minutes;
+        private final double baseline;
+
+        Regression(String job, double minutes, double baseline) {
+            this.job = job;
+            this.minutes = minutes;
+            this.baseline = baseline;
+        }
+
+        /**
+         * @return the job directory name, i.e. the device name and OS version
+         */
+        public String getJob() {
+            return job;
+        }
+
+        public double getMinutes() {
+            return minutes;
+        }
+
+        /**
+         * @return the median device minutes of the job in previous builds
+         */
+        public double getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * @return the additional device minutes compared to the baseline
+         */
+        public double getIncrease() {
+            return minutes - baseline;
+        }
+    }
+}
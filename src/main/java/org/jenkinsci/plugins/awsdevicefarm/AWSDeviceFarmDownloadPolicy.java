@@ -0,0 +1,167 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.ArtifactCategory;
+import com.amazonaws.services.devicefarm.model.ArtifactType;
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which result artifacts are downloaded, based on the artifact category and extension and on the results in
+ * the {@link AWSDeviceFarmResultTree}. Everything is evaluated before a single artifact byte is fetched.
+ */
+public class AWSDeviceFarmDownloadPolicy {
+    /**
+     * Which artifacts are downloaded depending on the test results.
+     */
+    public enum Mode {
+        ALL("All artifacts"),
+        FAILED_TESTS_ONLY("Only artifacts of failed or errored tests"),
+        VIDEOS_FOR_FAILED_JOBS_ONLY("Videos only for failed or errored devices");
+
+        private final String displayName;
+
+        Mode(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final Set<ArtifactCategory> categories;
+    private final Set<String> extensions;
+    private final Mode mode;
+    private final Long maxBytes;
+
+    /**
+     * Create a new download policy.
+     *
+     * @param categories   Comma separated list of artifact categories (SCREENSHOT, FILE, LOG), blank for all.
+     * @param extensions   Comma separated list of file extensions, blank for all.
+     * @param mode         The name of the {@link Mode}, blank for {@link Mode#ALL}.
+     * @param maxMegabytes The max number of megabytes downloaded per build, null or 0 for no limit.
+     * @throws AWSDeviceFarmException if a category or mode is unknown.
+     */
+    public AWSDeviceFarmDownloadPolicy(String categories, String extensions, String mode, Integer maxMegabytes) throws AWSDeviceFarmException {
+        this.categories = EnumSet.noneOf(ArtifactCategory.class);
+        for (String category : split(categories)) {
+            try {
+                this.categories.add(ArtifactCategory.valueOf(category.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new AWSDeviceFarmException(String.format("Unknown artifact category '%s'.", category));
+            }
+        }
+        if (this.categories.isEmpty()) {
+            this.categories.addAll(EnumSet.allOf(ArtifactCategory.class));
+        }
+
+        this.extensions = new HashSet<String>();
+        for (String extension : split(extensions)) {
+            this.extensions.add(normalizeExtension(extension));
+        }
+
+        try {
+            this.mode = StringUtils.isBlank(mode) ? Mode.ALL : Mode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            throw new AWSDeviceFarmException(String.format("Unknown download mode '%s'.", mode));
+        }
+
+        this.maxBytes = (maxMegabytes != null && maxMegabytes > 0) ? maxMegabytes * 1024L * 1024L : null;
+    }
+
+    /**
+     * @param category The artifact category.
+     * @return true if artifacts of this category may be downloaded at all
+     */
+    public boolean accepts(ArtifactCategory category) {
+        return categories.contains(category);
+    }
+
+    /**
+     * Decide whether a single artifact is downloaded.
+     *
+     * @param category The artifact category.
+     * @param artifact The artifact.
+     * @param tree     The result tree of the run.
+     * @return true if the artifact should be downloaded
+     */
+    public boolean accepts(ArtifactCategory category, Artifact artifact, AWSDeviceFarmResultTree tree) {
+        if (!accepts(category)) {
+            return false;
+        }
+        if (!extensions.isEmpty() && !extensions.contains(normalizeExtension(artifact.getExtension()))) {
+            return false;
+        }
+
+        String id = AWSDeviceFarmResultTree.idOf(artifact.getArn());
+        String testId = id.substring(0, id.lastIndexOf("/"));
+        switch (mode) {
+            case FAILED_TESTS_ONLY:
+                AWSDeviceFarmResultTree.Node test = tree.find(testId);
+                return test != null && isFailed(test.getResult());
+            case VIDEOS_FOR_FAILED_JOBS_ONLY:
+                if (!isVideo(artifact)) {
+                    return true;
+                }
+                AWSDeviceFarmResultTree.JobNode job = tree.findJob(testId);
+                return job != null && isFailed(job.getResult());
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return the max number of bytes downloaded per build, null for no limit
+     */
+    public Long getMaxBytes() {
+        return maxBytes;
+    }
+
+    //// Helper Methods
+
+    private static boolean isFailed(String result) {
+        return ExecutionResult.FAILED.toString().equals(result) || ExecutionResult.ERRORED.toString().equals(result);
+    }
+
+    private static boolean isVideo(Artifact artifact) {
+        return ArtifactType.VIDEO.toString().equals(artifact.getType()) || "mp4".equals(normalizeExtension(artifact.getExtension()));
+    }
+
+    private static String normalizeExtension(String extension) {
+        return extension == null ? "" : extension.trim().replaceFirst("^\\.", "").toLowerCase();
+    }
+
+    private static List<String> split(String list) {
+        List<String> values = new ArrayList<String>();
+        if (list != null) {
+            for (String value : list.split(",")) {
+                if (StringUtils.isNotBlank(value)) {
+                    values.add(value.trim());
+                }
+            }
+        }
+        return values;
+    }
+}
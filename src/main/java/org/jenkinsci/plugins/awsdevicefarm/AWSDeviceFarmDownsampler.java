@@ -0,0 +1,87 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+/**
+ * Downsamples time series for trend charts with the Largest-Triangle-Three-Buckets algorithm, which keeps the
+ * visual shape (peaks and dips) of a series while reducing it to a given number of points.
+ */
+public final class AWSDeviceFarmDownsampler {
+
+    private AWSDeviceFarmDownsampler() {
+    }
+
+    /**
+     * Select the points of a series which are kept when it is reduced to the given number of points. The first and
+     * the last point are always kept.
+     *
+     * @param x         The x values, in increasing order.
+     * @param y         The y values.
+     * @param threshold The max number of points to keep.
+     * @return The indices of the kept points, in increasing order.
+     */
+    public static int[] lttb(double[] x, double[] y, int threshold) {
+        int n = x.length;
+        if (threshold >= n || n <= 2) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        if (threshold <= 2) {
+            return threshold <= 1 ? new int[]{n - 1} : new int[]{0, n - 1};
+        }
+
+        int[] sampled = new int[threshold];
+        int count = 0;
+        sampled[count++] = 0;
+
+        // Every bucket but the first and the last one holds this many points.
+        double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            // Average of the next bucket, the third point of the triangle.
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            int avgLength = Math.max(1, avgEnd - avgStart);
+            avgX /= avgLength;
+            avgY /= avgLength;
+
+            // Keep the point of the current bucket which forms the largest triangle with the previously kept point.
+            int start = (int) Math.floor(i * every) + 1;
+            int end = (int) Math.floor((i + 1) * every) + 1;
+            double maxArea = -1;
+            int next = start;
+            for (int j = start; j < end; j++) {
+                double area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            sampled[count++] = next;
+            a = next;
+        }
+        sampled[count] = n - 1;
+        return sampled;
+    }
+}
@@ -0,0 +1,185 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fixed memory, mergeable histogram of durations in milliseconds, used to estimate quantiles of test durations.
+ * <p>
+ * Like an HDR histogram, values are counted in log-linear buckets: every power of two is split into
+ * {@link #SUB_BUCKETS} linear sub-buckets, so a quantile is accurate to about 1 / {@link #SUB_BUCKETS} of its value no
+ * matter how many durations are added. Durations above {@link #MAX_VALUE} are counted in the last bucket. Once more
+ * than {@link #MAX_COUNT} durations have been added all counts are halved, so recent durations weigh more and counts
+ * never overflow.
+ */
+public class AWSDeviceFarmDurationSketch {
+    public static final int SUB_BUCKETS = 16;
+    public static final long MAX_VALUE = (1L << 24) - 1;
+
+    static final int MAX_COUNT = 1000;
+
+    private static final int SUB_BITS = 4;
+    private static final int MAX_EXPONENT = 23;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private int[] counts;
+    private int total = 0;
+
+    /**
+     * Add a duration.
+     *
+     * @param millis The duration in milliseconds, negative values count as 0.
+     */
+    public void add(long millis) {
+        if (counts == null) {
+            counts = new int[BUCKETS];
+        }
+        counts[indexOf(millis)]++;
+        total++;
+        if (total > MAX_COUNT) {
+            decay();
+        }
+    }
+
+    /**
+     * Add all durations of another sketch to this one.
+     *
+     * @param other The other sketch.
+     */
+    public void merge(AWSDeviceFarmDurationSketch other) {
+        if (other.counts == null) {
+            return;
+        }
+        if (counts == null) {
+            counts = new int[BUCKETS];
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * @return the (decayed) number of durations in the sketch
+     */
+    public int getCount() {
+        return total;
+    }
+
+    /**
+     * Estimate a quantile of the durations.
+     *
+     * @param quantile The quantile, e.g. 0.95 for the 95th percentile.
+     * @return The estimated duration in milliseconds, 0 if the sketch is empty.
+     */
+    public long getQuantile(double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return valueOf(i);
+            }
+        }
+        return valueOf(BUCKETS - 1);
+    }
+
+    /**
+     * Write the non-empty buckets of this sketch.
+     *
+     * @param out The output stream.
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        int used = 0;
+        for (int i = 0; counts != null && i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                used++;
+            }
+        }
+        out.writeShort(used);
+        for (int i = 0; counts != null && i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                out.writeShort(i);
+                out.writeInt(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Read a sketch written by {@link #write(DataOutputStream)}.
+     *
+     * @param in The input stream.
+     * @return The sketch.
+     * @throws IOException
+     */
+    public static AWSDeviceFarmDurationSketch read(DataInputStream in) throws IOException {
+        AWSDeviceFarmDurationSketch sketch = new AWSDeviceFarmDurationSketch();
+        int used = in.readShort();
+        for (int i = 0; i < used; i++) {
+            int index = in.readShort();
+            int count = in.readInt();
+            if (index < 0 || index >= BUCKETS) {
+                throw new IOException(String.format("Invalid bucket %d", index));
+            }
+            if (sketch.counts == null) {
+                sketch.counts = new int[BUCKETS];
+            }
+            sketch.counts[index] += count;
+            sketch.total += count;
+        }
+        return sketch;
+    }
+
+    //// Helper Methods
+
+    static int indexOf(long millis) {
+        long value = Math.min(Math.max(0, millis), MAX_VALUE);
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the midpoint of the values counted in a bucket
+     */
+    static long valueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        long lowest = (1L << exponent) + sub * width;
+        return lowest + width / 2;
+    }
+
+    private void decay() {
+        total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = (counts[i] + 1) / 2;
+            total += counts[i];
+        }
+    }
+}
@@ -0,0 +1,121 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.amazonaws.services.devicefarm.model.Job;
+
+import java.util.List;
+
+/**
+ * Failure thresholds which are evaluated against a live AWS Device Farm run while it is being monitored.
+ * <p>
+ * Once any of the configured thresholds is crossed the run is clearly failed, and the monitor stops it
+ * instead of letting the remaining devices burn minutes until the run completes on its own.
+ */
+public class AWSDeviceFarmFailFastPolicy {
+    /**
+     * Minimum number of finished tests before the failure ratio is taken into account, so a single early
+     * failure does not abort the whole run.
+     */
+    static final int MIN_TESTS_FOR_RATIO = 10;
+
+    private final Integer maxFailedTests;
+    private final Integer maxFailedDevices;
+    private final Double maxFailureRatio;
+
+    /**
+     * Create a new fail-fast policy. Null or non-positive values disable the corresponding threshold.
+     *
+     * @param maxFailedTests   Maximum number of failed or errored tests.
+     * @param maxFailedDevices Maximum number of devices (jobs) which completed with a failed or errored result.
+     * @param maxFailureRatio  Maximum ratio (0.0 - 1.0) of failed or errored tests over finished tests.
+     */
+    public AWSDeviceFarmFailFastPolicy(Integer maxFailedTests, Integer maxFailedDevices, Double maxFailureRatio) {
+        this.maxFailedTests = positiveOrNull(maxFailedTests);
+        this.maxFailedDevices = positiveOrNull(maxFailedDevices);
+        this.maxFailureRatio = (maxFailureRatio != null && maxFailureRatio > 0) ? maxFailureRatio : null;
+    }
+
+    /**
+     * @return true if at least one threshold is configured
+     */
+    public boolean isEnabled() {
+        return maxFailedTests != null || maxFailedDevices != null || maxFailureRatio != null;
+    }
+
+    /**
+     * @return true if the per-job results are needed to evaluate this policy
+     */
+    public boolean needsJobs() {
+        return maxFailedDevices != null;
+    }
+
+    /**
+     * Evaluate the thresholds against the latest run counters and per-job results.
+     *
+     * @param counters The live run counters.
+     * @param jobs     The jobs of the run, may be null if {@link #needsJobs()} is false.
+     * @return A human readable reason if a threshold was crossed, null otherwise.
+     */
+    public String evaluate(Counters counters, List<Job> jobs) {
+        if (counters != null) {
+            int failed = valueOf(counters.getFailed()) + valueOf(counters.getErrored());
+
+            if (maxFailedTests != null && failed >= maxFailedTests) {
+                return String.format("%d failed tests (threshold %d)", failed, maxFailedTests);
+            }
+
+            if (maxFailureRatio != null) {
+                int finished = failed
+                        + valueOf(counters.getPassed())
+                        + valueOf(counters.getWarned())
+                        + valueOf(counters.getSkipped())
+                        + valueOf(counters.getStopped());
+                if (finished >= MIN_TESTS_FOR_RATIO && ((double) failed / finished) >= maxFailureRatio) {
+                    return String.format("%d of %d finished tests failed (threshold %.0f%%)", failed, finished, maxFailureRatio * 100);
+                }
+            }
+        }
+
+        if (maxFailedDevices != null && jobs != null) {
+            int failedDevices = 0;
+            for (Job job : jobs) {
+                if (isFailed(job.getResult())) {
+                    failedDevices++;
+                }
+            }
+            if (failedDevices >= maxFailedDevices) {
+                return String.format("%d devices failed (threshold %d)", failedDevices, maxFailedDevices);
+            }
+        }
+        return null;
+    }
+
+    //// Helper Methods
+
+    private static boolean isFailed(String result) {
+        return ExecutionResult.FAILED.toString().equals(result) || ExecutionResult.ERRORED.toString().equals(result);
+    }
+
+    private static int valueOf(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static Integer positiveOrNull(Integer value) {
+        return (value != null && value > 0) ? value : null;
+    }
+}
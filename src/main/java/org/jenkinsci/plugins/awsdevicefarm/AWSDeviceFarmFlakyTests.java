@@ -0,0 +1,458 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects flaky tests of a project from the outcomes of each test on each device model in recent builds.
+ * <p>
+ * The outcomes of a test on a device model are kept as a bitset of the last {@link #WINDOW} runs (1 for failed or
+ * errored, 0 for passed or warned; skipped and stopped runs are left out). The flakiness score is the flip rate, the
+ * share of consecutive runs with different outcomes: a test which always fails scores 0 while a test which alternates
+ * scores 1. The bitsets are updated incrementally as builds complete (see {@link AWSDeviceFarmHistoryListener}) and
+ * stored in the project directory.
+ */
+public class AWSDeviceFarmFlakyTests {
+    public static final String FILE_NAME = "aws-device-farm-flaky.bin";
+    public static final int WINDOW = 30;
+
+    static final int MIN_RUNS = 5;
+    static final int MIN_FLIPS = 2;
+    static final double MIN_SCORE = 0.2;
+    static final int STALE_BUILDS = 100;
+
+    private static final int MAGIC = 0x41444654;
+    private static final int VERSION = 1;
+    private static final long WINDOW_MASK = (1L << WINDOW) - 1;
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmFlakyTests.class.getName());
+    private static final AWSDeviceFarmProjectStore<AWSDeviceFarmFlakyTests> projects = new AWSDeviceFarmProjectStore<AWSDeviceFarmFlakyTests>(
+            new AWSDeviceFarmProjectStore.Factory<AWSDeviceFarmFlakyTests>() {
+                public AWSDeviceFarmFlakyTests create(Job<?, ?> job) {
+                    AWSDeviceFarmFlakyTests flakyTests = new AWSDeviceFarmFlakyTests(new File(job.getRootDir(), FILE_NAME));
+                    try {
+                        if (!flakyTests.load()) {
+                            flakyTests.rebuild(job);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, String.format("Unable to read the AWS Device Farm flaky tests of %s", job.getFullName()), e);
+                    }
+                    return flakyTests;
+                }
+            });
+
+    private final File file;
+    private int lastNumber = 0;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Get the flaky tests of a project, building them from the recent builds the first time.
+     *
+     * @param job The project.
+     * @return The flaky tests of the project.
+     */
+    public static AWSDeviceFarmFlakyTests forJob(Job<?, ?> job) {
+        return projects.get(job);
+    }
+
+    AWSDeviceFarmFlakyTests(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Add the outcomes of the tests of a completed build. Builds older than the most recent recorded build are
+     * ignored, so every build is only counted once.
+     *
+     * @param number The build number.
+     * @param tree   The result tree of the build.
+     * @return true if the outcomes were added.
+     * @throws IOException
+     */
+    public synchronized boolean record(int number, AWSDeviceFarmResultTree tree) throws IOException {
+        if (!add(number, tree)) {
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    /**
+     * Add the outcomes of the tests of a completed build. A build which completes after a newer build rebuilds the
+     * outcomes from the recent builds, so the outcomes stay in build order.
+     *
+     * @param job    The project.
+     * @param number The build number.
+     * @param tree   The result tree of the build.
+     * @throws IOException
+     */
+    public synchronized void record(Job<?, ?> job, int number, AWSDeviceFarmResultTree tree) throws IOException {
+        if (number < lastNumber) {
+            rebuild(job);
+        } else {
+            record(number, tree);
+        }
+    }
+
+    /**
+     * Drop the outcomes of a deleted build by rebuilding the outcomes from the remaining recent builds, unless the
+     * build is older than the window.
+     *
+     * @param job    The project.
+     * @param number The number of the deleted build.
+     * @throws IOException
+     */
+    public synchronized void deleted(Job<?, ?> job, int number) throws IOException {
+        List<AWSDeviceFarmHistory.Record> recent = AWSDeviceFarmHistory.forJob(job).getRecords(Integer.MAX_VALUE, WINDOW);
+        if (number <= lastNumber && (recent.size() < WINDOW || number > recent.get(0).getNumber())) {
+            rebuild(job);
+        }
+    }
+
+    /**
+     * Find the failed tests of a build which were known to be flaky before the build.
+     *
+     * @param tree The result tree of the build.
+     * @return The keys of the failed tests which are flaky, see {@link #keyOf(String, String, String)}.
+     */
+    public synchronized List<String> findFlakyFailures(AWSDeviceFarmResultTree tree) {
+        List<String> flaky = new ArrayList<String>();
+        for (String key : getFailures(tree)) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isFlaky()) {
+                flaky.add(key);
+            }
+        }
+        return flaky;
+    }
+
+    /**
+     * Get the failed tests of a build.
+     *
+     * @param tree The result tree of the build.
+     * @return The keys of the failed or errored tests, once per test even if it failed on several devices of the
+     * same model, see {@link #keyOf(String, String, String)}.
+     */
+    public static List<String> getFailures(AWSDeviceFarmResultTree tree) {
+        Set<String> failures = new LinkedHashSet<String>();
+        for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+            if (AWSDeviceFarmTestRerun.isRerun(job)) {
+                continue;
+            }
+            for (AWSDeviceFarmResultTree.SuiteNode suite : job.getSuites()) {
+                for (AWSDeviceFarmResultTree.TestNode test : suite.getTests()) {
+                    if (Boolean.TRUE.equals(outcomeOf(test.getResult()))) {
+                        failures.add(keyOf(modelOf(job), suite.getName(), test.getName()));
+                    }
+                }
+            }
+        }
+        return new ArrayList<String>(failures);
+    }
+
+    /**
+     * @param key The key of the test, see {@link #keyOf(String, String, String)}.
+     * @return the outcome history of the test on a device model, or null if it has never run
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.copy() : null;
+    }
+
+    /**
+     * @return the flaky tests, most flaky first
+     */
+    public synchronized List<Entry> getFlakyTests() {
+        List<Entry> flaky = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (entry.isFlaky()) {
+                flaky.add(entry.copy());
+            }
+        }
+        Collections.sort(flaky, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int score = Double.compare(b.getScore(), a.getScore());
+                return score != 0 ? score : a.getKey().compareTo(b.getKey());
+            }
+        });
+        return flaky;
+    }
+
+    /**
+     * Get the key of a test on a device model.
+     *
+     * @param model The device model.
+     * @param suite The suite name.
+     * @param test  The test name.
+     * @return The key, "suite/test@model".
+     */
+    public static String keyOf(String model, String suite, String test) {
+        return String.format("%s/%s@%s", suite, test, model);
+    }
+
+    //// Helper Methods
+
+    /**
+     * Add the outcome of a single test run.
+     */
+    synchronized void add(String key, boolean failed, int number) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+        entry.outcomes = ((entry.outcomes << 1) | (failed ? 1 : 0)) & WINDOW_MASK;
+        entry.runs = Math.min(entry.runs + 1, WINDOW);
+        entry.lastSeen = number;
+    }
+
+    private boolean add(int number, AWSDeviceFarmResultTree tree) {
+        if (number <= lastNumber || tree == null) {
+            return false;
+        }
+        // A test which ran on several devices of the same model counts once per build, failed if it failed on any.
+        Map<String, Boolean> outcomes = new LinkedHashMap<String, Boolean>();
+        for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+            if (AWSDeviceFarmTestRerun.isRerun(job)) {
+                continue;
+            }
+            String model = modelOf(job);
+            for (AWSDeviceFarmResultTree.SuiteNode suite : job.getSuites()) {
+                for (AWSDeviceFarmResultTree.TestNode test : suite.getTests()) {
+                    Boolean failed = outcomeOf(test.getResult());
+                    if (failed != null) {
+                        String key = keyOf(model, suite.getName(), test.getName());
+                        outcomes.put(key, failed || Boolean.TRUE.equals(outcomes.get(key)));
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Boolean> outcome : outcomes.entrySet()) {
+            add(outcome.getKey(), outcome.getValue(), number);
+        }
+        lastNumber = number;
+        // Forget tests which have not run for a long time, e.g. because they were removed.
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (number - it.next().lastSeen > STALE_BUILDS) {
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true for a failed run, false for a passed run, null if the run does not count
+     */
+    private static Boolean outcomeOf(String result) {
+        if ("FAILED".equals(result) || "ERRORED".equals(result)) {
+            return true;
+        }
+        if ("PASSED".equals(result) || "WARNED".equals(result)) {
+            return false;
+        }
+        return null;
+    }
+
+    private static String modelOf(AWSDeviceFarmResultTree.JobNode job) {
+        return job.getModel() != null ? job.getModel() : job.getDeviceName();
+    }
+
+    /**
+     * Read the flaky tests file.
+     *
+     * @return false if there is no file yet
+     */
+    synchronized boolean load() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // Unknown format, build it again from the recent builds.
+                return false;
+            }
+            lastNumber = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF());
+                entry.outcomes = in.readLong();
+                entry.runs = in.readByte();
+                entry.lastSeen = in.readInt();
+                entries.put(entry.key, entry);
+            }
+        } catch (EOFException e) {
+            entries.clear();
+            lastNumber = 0;
+            return false;
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Build the outcome history from the result trees of the most recent builds of a project.
+     */
+    private synchronized void rebuild(Job<?, ?> job) throws IOException {
+        entries.clear();
+        lastNumber = 0;
+        for (AWSDeviceFarmHistory.Record record : AWSDeviceFarmHistory.forJob(job).getRecords(Integer.MAX_VALUE, WINDOW)) {
+            Run<?, ?> run = job.getBuildByNumber(record.getNumber());
+            if (run != null) {
+                add(run.getNumber(), AWSDeviceFarmResultTree.load(run.getRootDir()));
+            }
+        }
+        save();
+    }
+
+    private void save() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory %s", parent));
+        }
+        File tmp = new File(parent, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lastNumber);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.key);
+                out.writeLong(entry.outcomes);
+                out.writeByte(entry.runs);
+                out.writeInt(entry.lastSeen);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The recent outcomes of a single test on a single device model.
+     */
+    public static class Entry {
+        private final String key;
+        private long outcomes = 0;
+        private int runs = 0;
+        private int lastSeen = 0;
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the key of the test, "suite/test@model"
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the suite and test name, "suite/test"
+         */
+        public String getTest() {
+            return key.substring(0, key.lastIndexOf('@'));
+        }
+
+        public String getDeviceModel() {
+            return key.substring(key.lastIndexOf('@') + 1);
+        }
+
+        /**
+         * @return the number of runs in the window
+         */
+        public int getRuns() {
+            return runs;
+        }
+
+        /**
+         * @return the number of failed runs in the window
+         */
+        public int getFailures() {
+            return Long.bitCount(outcomes & mask(runs));
+        }
+
+        /**
+         * @return the number of consecutive runs with different outcomes
+         */
+        public int getFlips() {
+            return runs < 2 ? 0 : Long.bitCount((outcomes ^ (outcomes >>> 1)) & mask(runs - 1));
+        }
+
+        /**
+         * @return the flip rate between 0 (stable) and 1 (alternating on every run)
+         */
+        public double getScore() {
+            return runs < 2 ? 0 : (double) getFlips() / (runs - 1);
+        }
+
+        /**
+         * @return true if the test has run often enough and flips often enough to be considered flaky
+         */
+        public boolean isFlaky() {
+            return runs >= MIN_RUNS && getFlips() >= MIN_FLIPS && getScore() >= MIN_SCORE;
+        }
+
+        /**
+         * @return the outcomes in the window, oldest first, "F" for failed and "P" for passed runs
+         */
+        public String getOutcomes() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = runs - 1; i >= 0; i--) {
+                builder.append(((outcomes >>> i) & 1) == 1 ? 'F' : 'P');
+            }
+            return builder.toString();
+        }
+
+        Entry copy() {
+            Entry copy = new Entry(key);
+            copy.outcomes = outcomes;
+            copy.runs = runs;
+            copy.lastSeen = lastSeen;
+            return copy;
+        }
+
+        private static long mask(int bits) {
+            return bits >= 64 ? -1L : (1L << bits) - 1;
+        }
+    }
+}
@@ -16,9 +16,7 @@ package org.jenkinsci.plugins.awsdevicefarm;
 
 import hudson.Functions;
 import hudson.model.AbstractBuild;
-import hudson.model.Run;
 import hudson.util.Area;
-import hudson.util.ChartUtil.NumberOnlyBuildLabel;
 import hudson.util.DataSetBuilder;
 import hudson.util.Graph;
 import hudson.util.ShiftedCategoryAxis;
@@ -36,7 +34,11 @@ import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.ui.RectangleEdge;
 import org.jfree.ui.RectangleInsets;
 
+import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,17 +50,21 @@ public class AWSDeviceFarmGraph extends Graph {
     public static final Color WarnColor = new Color(0xea562f);
     public static final Color FailColor = new Color(0xbe2326);
     public static final Color DurationColor = new Color(0x083250);
+    public static final Color PeakColor = new Color(0xf7a800);
     public static final Color FrameColor = new Color(0xEBEBDC);
 
     private final String xLabel;
     private final String yLabel;
     private final CategoryDataset dataset;
+    private final Area size;
     private Color[] colors;
+    private boolean lines = false;
 
     public AWSDeviceFarmGraph(AbstractBuild<?, ?> owner, Boolean isCompleted, Area size, CategoryDataset dataset, String xLabel, String yLabel, Color... colors) {
         // Toggle the graph timestamp so we don't cache the graph image if the run isn't completed.
         super(((isCompleted) ? owner.getTimestamp().getTimeInMillis() : -1), size.width, size.height);
         this.dataset = dataset;
+        this.size = size;
         this.xLabel = xLabel;
         this.yLabel = yLabel;
         this.colors = colors;
@@ -70,8 +76,10 @@ public class AWSDeviceFarmGraph extends Graph {
      * @return The JFreeChart graph.
      */
     protected JFreeChart createGraph() {
-        // Create chart.
-        JFreeChart chart = ChartFactory.createStackedAreaChart(null, null, yLabel, dataset, PlotOrientation.VERTICAL, true, true, false);
+        // Create chart, series which do not add up to a total are drawn as lines.
+        JFreeChart chart = lines
+                ? ChartFactory.createLineChart(null, null, yLabel, dataset, PlotOrientation.VERTICAL, true, true, false)
+                : ChartFactory.createStackedAreaChart(null, null, yLabel, dataset, PlotOrientation.VERTICAL, true, true, false);
         chart.setBackgroundPaint(Color.WHITE);
 
         // Create chart legend.
@@ -95,7 +103,9 @@ public class AWSDeviceFarmGraph extends Graph {
         // Create range (y) axis.
         NumberAxis range = (NumberAxis) plot.getRangeAxis();
         range.setAutoRange(true);
-        range.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+        if (!lines) {
+            range.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+        }
 
         // Create renderer and paint the chart.
         CategoryItemRenderer renderer = plot.getRenderer();
@@ -108,24 +118,35 @@ public class AWSDeviceFarmGraph extends Graph {
         return chart;
     }
 
+    /**
+     * Render the graph in its default size.
+     *
+     * @return The PNG image.
+     * @throws IOException
+     */
+    public byte[] toPng() throws IOException {
+        BufferedImage image = createGraph().createBufferedImage(size.width, size.height);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+        return out.toByteArray();
+    }
+
     /**
      * Generate a results (pass/warn/fail) trend graph for recent results.
      *
      * @param owner       The build which owns the latest result.
      * @param isCompleted The flag to denote if the result is completed which determines our caching.
-     * @param results     The list of previous to latest results which generate the trend.
+     * @param results     The history records of the previous to latest results which generate the trend.
      * @return The result trend graph.
      */
-    public static Graph createResultTrendGraph(AbstractBuild<?, ?> owner, Boolean isCompleted, List<AWSDeviceFarmTestResult> results) {
+    public static AWSDeviceFarmGraph createResultTrendGraph(AbstractBuild<?, ?> owner, Boolean isCompleted, List<AWSDeviceFarmHistory.Record> results) {
         List<String> rows = new ArrayList<String>();
         List<Number> vals = new ArrayList<Number>();
-        List<NumberOnlyBuildLabel> cols = new ArrayList<NumberOnlyBuildLabel>();
-
-        for (AWSDeviceFarmTestResult result : results) {
-            Run<?, ?> build = result.getOwner();
+        List<BuildNumberLabel> cols = new ArrayList<BuildNumberLabel>();
 
+        for (AWSDeviceFarmHistory.Record result : results) {
             // Create label for this result using its Jenkins build number.
-            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
+            BuildNumberLabel label = new BuildNumberLabel(result.getNumber());
 
             // Add 'pass' results
             rows.add("Pass");
@@ -153,19 +174,18 @@ public class AWSDeviceFarmGraph extends Graph {
      *
      * @param owner       The build which owns the latest result.
      * @param isCompleted The flag to denote if the result is completed which determines our caching.
-     * @param results     The list of previous to latest results which generate the trend.
+     * @param results     The history records of the previous to latest results which generate the trend.
      * @return The duration trend graph.
      */
-    public static Graph createDurationTrendGraph(AbstractBuild<?, ?> owner, Boolean isCompleted, List<AWSDeviceFarmTestResult> results) {
-        DataSetBuilder<String, NumberOnlyBuildLabel> builder = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+    public static AWSDeviceFarmGraph createDurationTrendGraph(AbstractBuild<?, ?> owner, Boolean isCompleted, List<AWSDeviceFarmHistory.Record> results) {
+        DataSetBuilder<String, BuildNumberLabel> builder = new DataSetBuilder<String, BuildNumberLabel>();
 
-        for (AWSDeviceFarmTestResult result : results) {
+        for (AWSDeviceFarmHistory.Record result : results) {
             // Create label for this result using its Jenkins build number.
-            Run<?, ?> build = result.getOwner();
-            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
+            BuildNumberLabel label = new BuildNumberLabel(result.getNumber());
 
             // Attach duration value for all results in our trend.
-            builder.add(result.getDuration(), "Minutes", label);
+            builder.add(result.getDeviceMinutes(), "Minutes", label);
         }
 
         CategoryDataset dataset = builder.build();
@@ -173,6 +193,36 @@ public class AWSDeviceFarmGraph extends Graph {
         return new AWSDeviceFarmGraph(owner, isCompleted, getGraphSize(), dataset, "Build #", "Device Minutes Used", colors);
     }
 
+    /**
+     * Generate a trend graph of a performance metric of a single job (device) for recent results.
+     *
+     * @param owner  The build which owns the latest result.
+     * @param metric The performance metric.
+     * @param points The performance of the job in the previous to latest results.
+     * @return The performance trend graph.
+     */
+    public static AWSDeviceFarmGraph createPerformanceTrendGraph(AbstractBuild<?, ?> owner, AWSDeviceFarmPerformance.Metric metric, List<AWSDeviceFarmPerformanceTrend.Point> points) {
+        DataSetBuilder<String, BuildNumberLabel> builder = new DataSetBuilder<String, BuildNumberLabel>();
+
+        for (AWSDeviceFarmPerformanceTrend.Point point : points) {
+            AWSDeviceFarmPerformance.Summary summary = point.getSummary(metric);
+            if (summary == null) {
+                continue;
+            }
+            BuildNumberLabel label = new BuildNumberLabel(point.getNumber());
+            builder.add(summary.getMean(), "Mean", label);
+            builder.add(summary.getP95(), "95th Percentile", label);
+            builder.add(summary.getMax(), "Max", label);
+        }
+
+        CategoryDataset dataset = builder.build();
+        Color[] colors = new Color[]{AWSDeviceFarmGraph.DurationColor, AWSDeviceFarmGraph.PeakColor, AWSDeviceFarmGraph.FailColor};
+        AWSDeviceFarmGraph graph = new AWSDeviceFarmGraph(owner, true, getGraphSize(), dataset, "Build #",
+                String.format("%s (%s)", metric.getLabel(), metric.getUnit()), colors);
+        graph.lines = true;
+        return graph;
+    }
+
     /**
      * Generate a category dataset.
      *
@@ -181,7 +231,7 @@ public class AWSDeviceFarmGraph extends Graph {
      * @param columns The columns in the the dataset.
      * @return The category dataset.
      */
-    private static CategoryDataset createDataset(List<Number> values, List<String> rows, List<NumberOnlyBuildLabel> columns) {
+    private static CategoryDataset createDataset(List<Number> values, List<String> rows, List<BuildNumberLabel> columns) {
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
         for (int i = 0; i < values.size(); i++) {
             dataset.addValue(values.get(i), rows.get(i), columns.get(i));
@@ -194,11 +244,41 @@ public class AWSDeviceFarmGraph extends Graph {
      *
      * @return The area of the graph.
      */
-    private static Area getGraphSize() {
+    static Area getGraphSize() {
         Area resolution = Functions.getScreenResolution();
         if (resolution == null || resolution.width <= 800) { //too small or unknown
             return new Area(250, 100);
         }
         return new Area(500, 200);
     }
+
+    /**
+     * Graph label of a build which only needs the build number, so the build record does not have to be loaded.
+     */
+    public static final class BuildNumberLabel implements Comparable<BuildNumberLabel> {
+        private final int number;
+
+        public BuildNumberLabel(int number) {
+            this.number = number;
+        }
+
+        public int compareTo(BuildNumberLabel that) {
+            return Integer.compare(number, that.number);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BuildNumberLabel && ((BuildNumberLabel) o).number == number;
+        }
+
+        @Override
+        public int hashCode() {
+            return number;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + number;
+        }
+    }
 }
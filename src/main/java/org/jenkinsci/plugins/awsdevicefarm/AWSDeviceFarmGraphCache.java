@@ -0,0 +1,168 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.Util;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of rendered trend graph images, so repeated views of a project or build page do not render the same chart
+ * again.
+ * <p>
+ * Keys start with the full name of the project and include everything the image depends on, e.g. the last build in
+ * the trend and the graph size. The entries of a project are dropped by {@link AWSDeviceFarmHistoryListener} when
+ * one of its builds completes or is deleted. Images are served with an ETag (a digest of the image) and a
+ * Last-Modified header (the time it was rendered) so browsers can revalidate them cheaply.
+ */
+public final class AWSDeviceFarmGraphCache {
+    private static final int MAX_ENTRIES = 256;
+
+    private static final LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Creates the graph for a cache miss.
+     */
+    public interface Renderer {
+        AWSDeviceFarmGraph render();
+    }
+
+    private AWSDeviceFarmGraphCache() {
+    }
+
+    /**
+     * Build the cache key of a graph.
+     *
+     * @param project The full name of the project.
+     * @param parts   Everything else the image depends on.
+     * @return The cache key.
+     */
+    public static String key(String project, Object... parts) {
+        StringBuilder key = new StringBuilder(project);
+        for (Object part : parts) {
+            key.append('|').append(part);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Serve a graph image from the cache, rendering it on a cache miss.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @param key      The cache key, see {@link #key(String, Object...)}.
+     * @param renderer Creates the graph on a cache miss.
+     * @throws IOException
+     */
+    public static void serve(StaplerRequest request, StaplerResponse response, String key, Renderer renderer) throws IOException {
+        Image image = lookup(key, renderer);
+
+        // Revalidation responses carry the validators too, so browsers keep them for the next request.
+        response.setHeader("ETag", image.getEtag());
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (image.getEtag().equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        if (request.checkIfModified(image.created, response)) {
+            return;
+        }
+        response.setContentType("image/png");
+        response.setContentLength(image.png.length);
+        ServletOutputStream out = response.getOutputStream();
+        out.write(image.png);
+        out.close();
+    }
+
+    /**
+     * Drop all cached images of a project.
+     *
+     * @param project The full name of the project.
+     */
+    public static void invalidate(String project) {
+        String prefix = project + "|";
+        synchronized (images) {
+            Iterator<String> it = images.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    //// Helper Methods
+
+    /**
+     * Get a graph image from the cache, rendering it on a cache miss.
+     */
+    static Image lookup(String key, Renderer renderer) throws IOException {
+        Image image;
+        synchronized (images) {
+            image = images.get(key);
+        }
+        if (image == null) {
+            image = new Image(renderer.render().toPng());
+            synchronized (images) {
+                images.put(key, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * A rendered graph.
+     */
+    static class Image {
+        private final byte[] png;
+        private final String etag;
+        private final long created;
+
+        Image(byte[] png) {
+            this.png = png;
+            this.etag = String.format("\"%s\"", digest(png));
+            // Whole seconds, since that is the resolution of the If-Modified-Since header.
+            this.created = System.currentTimeMillis() / 1000 * 1000;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        private static String digest(byte[] png) {
+            try {
+                return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(png));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,567 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only history of the AWS Device Farm results of a project, so trends can be drawn without loading the
+ * build records of every build.
+ * <p>
+ * The history is stored in the project directory as a header followed by one record per build, and is held in memory
+ * column by column, ordered by build number. It is kept up to date by
+ * {@link AWSDeviceFarmHistoryListener} and built once from the existing builds when it does not exist yet.
+ */
+public class AWSDeviceFarmHistory {
+    public static final String FILE_NAME = "aws-device-farm-history.bin";
+
+    private static final int MAGIC = 0x41444648;
+    private static final int VERSION = 2;
+    private static final ExecutionResult[] RESULTS = {
+            ExecutionResult.PENDING, ExecutionResult.PASSED, ExecutionResult.WARNED, ExecutionResult.FAILED,
+            ExecutionResult.SKIPPED, ExecutionResult.ERRORED, ExecutionResult.STOPPED
+    };
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmHistory.class.getName());
+    private static final AWSDeviceFarmProjectStore<AWSDeviceFarmHistory> histories = new AWSDeviceFarmProjectStore<AWSDeviceFarmHistory>(
+            new AWSDeviceFarmProjectStore.Factory<AWSDeviceFarmHistory>() {
+                public AWSDeviceFarmHistory create(Job<?, ?> job) {
+                    return new AWSDeviceFarmHistory(new File(job.getRootDir(), FILE_NAME));
+                }
+            });
+
+    private final File file;
+    private boolean initialized = false;
+    private int size = 0;
+    private int[] numbers = new int[16];
+    private long[] timestamps = new long[16];
+    private int[] passCounts = new int[16];
+    private int[] warnCounts = new int[16];
+    private int[] failCounts = new int[16];
+    private int[] skipCounts = new int[16];
+    private int[] errorCounts = new int[16];
+    private int[] stopCounts = new int[16];
+    private int[] totalCounts = new int[16];
+    private float[] deviceMinutes = new float[16];
+    private float[] meteredMinutes = new float[16];
+    private float[] unmeteredMinutes = new float[16];
+    private String[] devicePools = new String[16];
+    private byte[] results = new byte[16];
+
+    /**
+     * Get the history of a project, building it from the existing builds the first time.
+     *
+     * @param job The project.
+     * @return The history of the project.
+     */
+    public static AWSDeviceFarmHistory forJob(Job<?, ?> job) {
+        AWSDeviceFarmHistory history = histories.get(job);
+        // Read or build the history while holding the lock of this history only, so other projects are not blocked.
+        history.init(job);
+        return history;
+    }
+
+    AWSDeviceFarmHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Add the result of a build, replacing any previous record of the same build.
+     *
+     * @param record The record of the build.
+     * @throws IOException
+     */
+    public synchronized void append(Record record) throws IOException {
+        boolean replaced = indexOf(record.number) >= 0;
+        put(record);
+        if (replaced || !file.isFile()) {
+            save();
+            return;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        try {
+            write(out, record);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Remove the record of a deleted build.
+     *
+     * @param number The build number.
+     * @throws IOException
+     */
+    public synchronized void remove(int number) throws IOException {
+        int index = indexOf(number);
+        if (index < 0) {
+            return;
+        }
+        int moved = size - index - 1;
+        System.arraycopy(numbers, index + 1, numbers, index, moved);
+        System.arraycopy(timestamps, index + 1, timestamps, index, moved);
+        System.arraycopy(passCounts, index + 1, passCounts, index, moved);
+        System.arraycopy(warnCounts, index + 1, warnCounts, index, moved);
+        System.arraycopy(failCounts, index + 1, failCounts, index, moved);
+        System.arraycopy(skipCounts, index + 1, skipCounts, index, moved);
+        System.arraycopy(errorCounts, index + 1, errorCounts, index, moved);
+        System.arraycopy(stopCounts, index + 1, stopCounts, index, moved);
+        System.arraycopy(totalCounts, index + 1, totalCounts, index, moved);
+        System.arraycopy(deviceMinutes, index + 1, deviceMinutes, index, moved);
+        System.arraycopy(meteredMinutes, index + 1, meteredMinutes, index, moved);
+        System.arraycopy(unmeteredMinutes, index + 1, unmeteredMinutes, index, moved);
+        System.arraycopy(devicePools, index + 1, devicePools, index, moved);
+        System.arraycopy(results, index + 1, results, index, moved);
+        size--;
+        save();
+    }
+
+    /**
+     * @return the number of builds in the history
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no build of the project has an AWS Device Farm result
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the record of the most recent build, or null if the history is empty
+     */
+    public synchronized Record getLast() {
+        return size == 0 ? null : get(size - 1);
+    }
+
+    /**
+     * @return the records of all builds, ordered by build number
+     */
+    public synchronized List<Record> getRecords() {
+        return getRecords(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the records of the most recent builds up to the given build.
+     *
+     * @param number The number of the most recent build to include.
+     * @param n      The max number of records.
+     * @return The records, ordered by build number.
+     */
+    public synchronized List<Record> getRecords(int number, int n) {
+        int end = Arrays.binarySearch(numbers, 0, size, number);
+        end = end >= 0 ? end + 1 : -end - 1;
+        int start = Math.max(0, end - n);
+        List<Record> records = new ArrayList<Record>(end - start);
+        for (int i = start; i < end; i++) {
+            records.add(get(i));
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Get the records of the builds in a window of build numbers and start times.
+     *
+     * @param fromNumber The lowest build number to include.
+     * @param toNumber   The highest build number to include.
+     * @param fromTime   The earliest start time to include, in milliseconds.
+     * @param toTime     The latest start time to include, in milliseconds.
+     * @return The records, ordered by build number.
+     */
+    public synchronized List<Record> getRecords(int fromNumber, int toNumber, long fromTime, long toTime) {
+        int start = Arrays.binarySearch(numbers, 0, size, fromNumber);
+        start = start >= 0 ? start : -start - 1;
+        List<Record> records = new ArrayList<Record>();
+        for (int i = start; i < size && numbers[i] <= toNumber; i++) {
+            if (timestamps[i] >= fromTime && timestamps[i] <= toTime) {
+                records.add(get(i));
+            }
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    //// Helper Methods
+
+    /**
+     * Read the history file of a project, or build it from the existing builds if there is none yet.
+     */
+    private synchronized void init(Job<?, ?> job) {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        try {
+            if (load()) {
+                return;
+            }
+        } catch (IOException e) {
+            // The records read so far are dropped by the rebuild, instead of serving a partial history.
+            LOGGER.log(Level.WARNING, String.format("Unable to read the AWS Device Farm history of %s, building it again", job.getFullName()), e);
+        }
+        try {
+            rebuild(job);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Unable to build the AWS Device Farm history of %s", job.getFullName()), e);
+        }
+    }
+
+    /**
+     * Read the history file. A record which was not completely written is dropped from the file, so the records
+     * appended after it can be read again.
+     *
+     * @return false if there is no history file yet
+     */
+    synchronized boolean load() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        boolean truncated = false;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // Unknown format or an older version, build it again from the build records.
+                return false;
+            }
+            while (true) {
+                in.mark(1);
+                if (in.read() < 0) {
+                    break;
+                }
+                in.reset();
+                try {
+                    put(read(in));
+                } catch (EOFException e) {
+                    // A record which was not completely written.
+                    truncated = true;
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+        if (truncated) {
+            save();
+        }
+        return true;
+    }
+
+    /**
+     * Build the history from the existing builds of a project, loading every build once.
+     */
+    private synchronized void rebuild(Job<?, ?> job) throws IOException {
+        size = 0;
+        for (Run<?, ?> run : job.getBuilds()) {
+            AWSDeviceFarmTestResultAction action = run.getAction(AWSDeviceFarmTestResultAction.class);
+            if (action != null && action.getResult() != null && !run.isBuilding()) {
+                put(Record.of(run, action.getResult()));
+            }
+        }
+        save();
+    }
+
+    private void save() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory %s", parent));
+        }
+        File tmp = new File(parent, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < size; i++) {
+                write(out, get(i));
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private int indexOf(int number) {
+        int index = Arrays.binarySearch(numbers, 0, size, number);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Insert a record at the position of its build number, replacing a record of the same build.
+     */
+    private void put(Record record) {
+        int index = Arrays.binarySearch(numbers, 0, size, record.number);
+        if (index < 0) {
+            index = -index - 1;
+            if (size == numbers.length) {
+                grow();
+            }
+            int moved = size - index;
+            System.arraycopy(numbers, index, numbers, index + 1, moved);
+            System.arraycopy(timestamps, index, timestamps, index + 1, moved);
+            System.arraycopy(passCounts, index, passCounts, index + 1, moved);
+            System.arraycopy(warnCounts, index, warnCounts, index + 1, moved);
+            System.arraycopy(failCounts, index, failCounts, index + 1, moved);
+            System.arraycopy(skipCounts, index, skipCounts, index + 1, moved);
+            System.arraycopy(errorCounts, index, errorCounts, index + 1, moved);
+            System.arraycopy(stopCounts, index, stopCounts, index + 1, moved);
+            System.arraycopy(totalCounts, index, totalCounts, index + 1, moved);
+            System.arraycopy(deviceMinutes, index, deviceMinutes, index + 1, moved);
+            System.arraycopy(meteredMinutes, index, meteredMinutes, index + 1, moved);
+            System.arraycopy(unmeteredMinutes, index, unmeteredMinutes, index + 1, moved);
+            System.arraycopy(devicePools, index, devicePools, index + 1, moved);
+            System.arraycopy(results, index, results, index + 1, moved);
+            size++;
+        }
+        numbers[index] = record.number;
+        timestamps[index] = record.timestamp;
+        passCounts[index] = record.passCount;
+        warnCounts[index] = record.warnCount;
+        failCounts[index] = record.failCount;
+        skipCounts[index] = record.skipCount;
+        errorCounts[index] = record.errorCount;
+        stopCounts[index] = record.stopCount;
+        totalCounts[index] = record.totalCount;
+        deviceMinutes[index] = record.deviceMinutes;
+        meteredMinutes[index] = record.meteredMinutes;
+        unmeteredMinutes[index] = record.unmeteredMinutes;
+        devicePools[index] = record.devicePool != null ? record.devicePool.intern() : null;
+        results[index] = toCode(record.result);
+    }
+
+    private Record get(int i) {
+        return new Record(numbers[i], timestamps[i], passCounts[i], warnCounts[i], failCounts[i], skipCounts[i],
+                errorCounts[i], stopCounts[i], totalCounts[i], deviceMinutes[i], meteredMinutes[i], unmeteredMinutes[i],
+                devicePools[i], fromCode(results[i]));
+    }
+
+    private void grow() {
+        int capacity = numbers.length * 2;
+        numbers = Arrays.copyOf(numbers, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        passCounts = Arrays.copyOf(passCounts, capacity);
+        warnCounts = Arrays.copyOf(warnCounts, capacity);
+        failCounts = Arrays.copyOf(failCounts, capacity);
+        skipCounts = Arrays.copyOf(skipCounts, capacity);
+        errorCounts = Arrays.copyOf(errorCounts, capacity);
+        stopCounts = Arrays.copyOf(stopCounts, capacity);
+        totalCounts = Arrays.copyOf(totalCounts, capacity);
+        deviceMinutes = Arrays.copyOf(deviceMinutes, capacity);
+        meteredMinutes = Arrays.copyOf(meteredMinutes, capacity);
+        unmeteredMinutes = Arrays.copyOf(unmeteredMinutes, capacity);
+        devicePools = Arrays.copyOf(devicePools, capacity);
+        results = Arrays.copyOf(results, capacity);
+    }
+
+    private static void write(DataOutputStream out, Record record) throws IOException {
+        out.writeInt(record.number);
+        out.writeLong(record.timestamp);
+        out.writeInt(record.passCount);
+        out.writeInt(record.warnCount);
+        out.writeInt(record.failCount);
+        out.writeInt(record.skipCount);
+        out.writeInt(record.errorCount);
+        out.writeInt(record.stopCount);
+        out.writeInt(record.totalCount);
+        out.writeFloat(record.deviceMinutes);
+        out.writeFloat(record.meteredMinutes);
+        out.writeFloat(record.unmeteredMinutes);
+        out.writeByte(toCode(record.result));
+        out.writeUTF(record.devicePool != null ? record.devicePool : "");
+    }
+
+    private static Record read(DataInputStream in) throws IOException {
+        int number = in.readInt();
+        long timestamp = in.readLong();
+        int passCount = in.readInt();
+        int warnCount = in.readInt();
+        int failCount = in.readInt();
+        int skipCount = in.readInt();
+        int errorCount = in.readInt();
+        int stopCount = in.readInt();
+        int totalCount = in.readInt();
+        float deviceMinutes = in.readFloat();
+        float meteredMinutes = in.readFloat();
+        float unmeteredMinutes = in.readFloat();
+        ExecutionResult result = fromCode(in.readByte());
+        String devicePool = in.readUTF();
+        return new Record(number, timestamp, passCount, warnCount, failCount, skipCount, errorCount, stopCount,
+                totalCount, deviceMinutes, meteredMinutes, unmeteredMinutes, devicePool.isEmpty() ? null : devicePool, result);
+    }
+
+    private static byte toCode(ExecutionResult result) {
+        for (byte i = 0; i < RESULTS.length; i++) {
+            if (RESULTS[i].equals(result)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ExecutionResult fromCode(byte code) {
+        return (code >= 0 && code < RESULTS.length) ? RESULTS[code] : null;
+    }
+
+    /**
+     * The AWS Device Farm result of a single build.
+     */
+    public static class Record {
+        private final int number;
+        private final long timestamp;
+        private final int passCount;
+        private final int warnCount;
+        private final int failCount;
+        private final int skipCount;
+        private final int errorCount;
+        private final int stopCount;
+        private final int totalCount;
+        private final float deviceMinutes;
+        private final float meteredMinutes;
+        private final float unmeteredMinutes;
+        private final String devicePool;
+        private final ExecutionResult result;
+
+        Record(int number, long timestamp, int passCount, int warnCount, int failCount, int skipCount, int errorCount,
+               int stopCount, int totalCount, float deviceMinutes, ExecutionResult result) {
+            this(number, timestamp, passCount, warnCount, failCount, skipCount, errorCount, stopCount, totalCount,
+                    deviceMinutes, deviceMinutes, 0, null, result);
+        }
+
+        Record(int number, long timestamp, int passCount, int warnCount, int failCount, int skipCount, int errorCount,
+               int stopCount, int totalCount, float deviceMinutes, float meteredMinutes, float unmeteredMinutes,
+               String devicePool, ExecutionResult result) {
+            this.number = number;
+            this.timestamp = timestamp;
+            this.passCount = passCount;
+            this.warnCount = warnCount;
+            this.failCount = failCount;
+            this.skipCount = skipCount;
+            this.errorCount = errorCount;
+            this.stopCount = stopCount;
+            this.totalCount = totalCount;
+            this.deviceMinutes = deviceMinutes;
+            this.meteredMinutes = meteredMinutes;
+            this.unmeteredMinutes = unmeteredMinutes;
+            this.devicePool = devicePool;
+            this.result = result;
+        }
+
+        /**
+         * Create the record of a build.
+         *
+         * @param run    The build.
+         * @param result The AWS Device Farm result of the build.
+         * @return The record.
+         */
+        public static Record of(Run<?, ?> run, AWSDeviceFarmTestResult result) {
+            return new Record(run.getNumber(), run.getTimeInMillis(), result.getPassCount(), result.getWarnCount(),
+                    result.getFailCount(), result.getSkipCount(), result.getErrorCount(), result.getStopCount(),
+                    result.getTotalCount(), result.getDuration(), result.getMeteredMinutes(), result.getUnmeteredMinutes(),
+                    result.getDevicePool(), result.getExecutionResult());
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getPassCount() {
+            return passCount;
+        }
+
+        public int getWarnCount() {
+            return warnCount;
+        }
+
+        public int getFailCount() {
+            return failCount;
+        }
+
+        public int getSkipCount() {
+            return skipCount;
+        }
+
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        public int getStopCount() {
+            return stopCount;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * @return the device minutes used by the run
+         */
+        public float getDeviceMinutes() {
+            return deviceMinutes;
+        }
+
+        /**
+         * @return the metered device minutes used by the run
+         */
+        public float getMeteredMinutes() {
+            return meteredMinutes;
+        }
+
+        /**
+         * @return the unmetered device minutes used by the run
+         */
+        public float getUnmeteredMinutes() {
+            return unmeteredMinutes;
+        }
+
+        /**
+         * @return the name of the device pool the run was scheduled on, null if unknown
+         */
+        public String getDevicePool() {
+            return devicePool;
+        }
+
+        /**
+         * @return the result of the run, null if unknown
+         */
+        public ExecutionResult getResult() {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link AWSDeviceFarmHistory}, the {@link AWSDeviceFarmRunIndex}, the {@link AWSDeviceFarmFlakyTests} and
+ * the {@link AWSDeviceFarmTestDurations} and the {@link AWSDeviceFarmCostTrend} of each project, the
+ * {@link AWSDeviceFarmLastResultCache} and the {@link AWSDeviceFarmGraphCache} up to date as builds complete or are deleted.
+ */
+@Extension
+public class AWSDeviceFarmHistoryListener extends RunListener<Run<?, ?>> {
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmHistoryListener.class.getName());
+
+    @Override
+    public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+        AWSDeviceFarmLastResultCache.completed(run);
+        AWSDeviceFarmTestResultAction action = run.getAction(AWSDeviceFarmTestResultAction.class);
+        if (action == null || action.getResult() == null) {
+            return;
+        }
+        try {
+            AWSDeviceFarmHistory.forJob(run.getParent()).append(AWSDeviceFarmHistory.Record.of(run, action.getResult()));
+            AWSDeviceFarmRunIndex index = AWSDeviceFarmRunIndex.forJob(run.getParent());
+            index.put(action.getResult().getId(), run.getNumber());
+            for (AWSDeviceFarmTestResult result : action.getResult().getRuns()) {
+                index.put(result.getId(), run.getNumber());
+            }
+            AWSDeviceFarmResultTree tree = AWSDeviceFarmResultTree.load(run.getRootDir());
+            if (tree != null) {
+                AWSDeviceFarmFlakyTests.forJob(run.getParent()).record(run.getParent(), run.getNumber(), tree);
+                AWSDeviceFarmTestDurations.forJob(run.getParent()).record(run.getParent(), run.getNumber(), tree);
+                AWSDeviceFarmCostTrend.record(run.getParent(), run.getNumber(), tree);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Unable to record the AWS Device Farm history of %s", run), e);
+        } finally {
+            // After the history is updated, a graph rendered from the old history would stay cached otherwise.
+            AWSDeviceFarmGraphCache.invalidate(run.getParent().getFullName());
+        }
+    }
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        AWSDeviceFarmLastResultCache.deleted(run);
+        if (run.getAction(AWSDeviceFarmTestResultAction.class) == null) {
+            return;
+        }
+        try {
+            AWSDeviceFarmHistory.forJob(run.getParent()).remove(run.getNumber());
+            AWSDeviceFarmRunIndex.forJob(run.getParent()).remove(run.getNumber());
+            AWSDeviceFarmFlakyTests.forJob(run.getParent()).deleted(run.getParent(), run.getNumber());
+            AWSDeviceFarmTestDurations.forJob(run.getParent()).deleted(run.getParent(), run.getNumber());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Unable to update the AWS Device Farm history of %s", run), e);
+        } finally {
+            AWSDeviceFarmGraphCache.invalidate(run.getParent().getFullName());
+        }
+    }
+}
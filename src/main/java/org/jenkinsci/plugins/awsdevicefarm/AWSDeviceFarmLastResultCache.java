@@ -0,0 +1,126 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * In-memory summary of the AWS Device Farm result of the last completed build of each job, so dashboards with many
+ * jobs can render without loading a build record per row.
+ * <p>
+ * A job is looked up once on first use and kept up to date by {@link AWSDeviceFarmHistoryListener} afterwards.
+ */
+public final class AWSDeviceFarmLastResultCache {
+    private static final Map<Job<?, ?>, Entry> entries = new WeakHashMap<Job<?, ?>, Entry>();
+
+    private AWSDeviceFarmLastResultCache() {
+    }
+
+    /**
+     * Get the AWS Device Farm result of the last completed build of a job.
+     *
+     * @param job The job.
+     * @return The history record of the result, or null if the last completed build has no AWS Device Farm result.
+     */
+    public static AWSDeviceFarmHistory.Record get(Job<?, ?> job) {
+        Entry pending;
+        synchronized (entries) {
+            Entry entry = entries.get(job);
+            if (entry != null && !entry.isPending()) {
+                return entry.record;
+            }
+            // Mark the job as loading, so builds which complete or are deleted meanwhile are not lost.
+            pending = new Entry(-1, null);
+            entries.put(job, pending);
+        }
+        Entry loaded = load(job);
+        synchronized (entries) {
+            Entry current = entries.get(job);
+            if (current == pending || (current != null && !current.isPending() && current.number < loaded.number)) {
+                entries.put(job, loaded);
+                return loaded.record;
+            }
+            // A build completed while loading, or a build was deleted and the job is looked up again on next use.
+            return current != null && !current.isPending() ? current.record : loaded.record;
+        }
+    }
+
+    /**
+     * Record a completed build of a job which is already cached or being loaded.
+     *
+     * @param run The completed build.
+     */
+    public static void completed(Run<?, ?> run) {
+        synchronized (entries) {
+            Entry entry = entries.get(run.getParent());
+            if (entry != null && entry.number <= run.getNumber()) {
+                entries.put(run.getParent(), new Entry(run.getNumber(), recordOf(run)));
+            }
+        }
+    }
+
+    /**
+     * Forget a job whose last completed build was deleted, it is looked up again on next use.
+     *
+     * @param run The deleted build.
+     */
+    public static void deleted(Run<?, ?> run) {
+        synchronized (entries) {
+            Entry entry = entries.get(run.getParent());
+            if (entry != null && (entry.isPending() || entry.number == run.getNumber())) {
+                entries.remove(run.getParent());
+            }
+        }
+    }
+
+    //// Helper Methods
+
+    private static Entry load(Job<?, ?> job) {
+        Run<?, ?> last = job.getLastCompletedBuild();
+        return last == null ? new Entry(0, null) : new Entry(last.getNumber(), recordOf(last));
+    }
+
+    private static AWSDeviceFarmHistory.Record recordOf(Run<?, ?> run) {
+        AWSDeviceFarmTestResultAction action = run.getAction(AWSDeviceFarmTestResultAction.class);
+        if (action == null || action.getResult() == null) {
+            return null;
+        }
+        return AWSDeviceFarmHistory.Record.of(run, action.getResult());
+    }
+
+    /**
+     * The cached result of a job.
+     */
+    private static class Entry {
+        private final int number;
+        private final AWSDeviceFarmHistory.Record record;
+
+        Entry(int number, AWSDeviceFarmHistory.Record record) {
+            this.number = number;
+            this.record = record;
+        }
+
+        /**
+         * @return true if the job is still being looked up
+         */
+        boolean isPending() {
+            return number < 0;
+        }
+    }
+}
@@ -38,13 +38,24 @@ public class AWSDeviceFarmListViewColumn extends ListViewColumn {
      * @return Whether or the not the job should be displayed.
      */
     public boolean shouldDisplay(Job job) {
-        AWSDeviceFarmTestResult result = getPreviousResult(job);
+        AWSDeviceFarmHistory.Record result = getLastResult(job);
         if (result == null || result.getTotalCount() <= 0) {
             return false;
         }
         return true;
     }
 
+    /**
+     * Get the counters of the AWS Device Farm run of the most recent build of this job from memory, without loading
+     * the build.
+     *
+     * @param job The job to get the previous result of.
+     * @return The history record of the Device Farm test result of the job.
+     */
+    public AWSDeviceFarmHistory.Record getLastResult(Job job) {
+        return AWSDeviceFarmLastResultCache.get(job);
+    }
+
     /**
      * Get the AWS Device Farm test run from the most recent build of this job
      *
@@ -0,0 +1,274 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import hudson.model.AbstractBuild;
+import hudson.tasks.test.TabulatedResult;
+import hudson.tasks.test.TestObject;
+import hudson.tasks.test.TestResult;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of a single job (device), suite or test of an AWS Device Farm run, so the standard Jenkins test UI can
+ * drill down from the run into the device, suite and test which failed.
+ * <p>
+ * Ids are relative to the run ("device/suite/test"), which keeps them stable across builds so the results of
+ * previous builds can be matched. Siblings with the same name, e.g. the same device in several shards, are told
+ * apart by a suffix in the order of the siblings ("Pixel", "Pixel_2").
+ */
+public class AWSDeviceFarmNodeResult extends TabulatedResult {
+    private static final long serialVersionUID = 1L;
+
+    private final TestObject parent;
+    private final AWSDeviceFarmResultTree.Node node;
+    private final List<AWSDeviceFarmNodeResult> children = new ArrayList<AWSDeviceFarmNodeResult>();
+
+    private int passCount = 0;
+    private int failCount = 0;
+    private int skipCount = 0;
+    private transient String safeName;
+
+    /**
+     * Create the result of a node and of all its children.
+     *
+     * @param parent The parent result, either the run or a job or suite.
+     * @param node   The job, suite or test node.
+     */
+    public AWSDeviceFarmNodeResult(TestObject parent, AWSDeviceFarmResultTree.Node node) {
+        this.parent = parent;
+        this.node = node;
+
+        List<? extends AWSDeviceFarmResultTree.Node> nodes = Collections.emptyList();
+        if (node instanceof AWSDeviceFarmResultTree.JobNode) {
+            nodes = ((AWSDeviceFarmResultTree.JobNode) node).getSuites();
+        } else if (node instanceof AWSDeviceFarmResultTree.SuiteNode) {
+            nodes = ((AWSDeviceFarmResultTree.SuiteNode) node).getTests();
+        }
+        for (AWSDeviceFarmResultTree.Node child : nodes) {
+            AWSDeviceFarmNodeResult result = new AWSDeviceFarmNodeResult(this, child);
+            children.add(result);
+            passCount += result.getPassCount();
+            failCount += result.getFailCount();
+            skipCount += result.getSkipCount();
+        }
+        assignSafeNames(children);
+        if (node instanceof AWSDeviceFarmResultTree.TestNode) {
+            ExecutionResult result = toExecutionResult(node.getResult());
+            if (ExecutionResult.PASSED.equals(result) || ExecutionResult.WARNED.equals(result)) {
+                passCount = 1;
+            } else if (ExecutionResult.FAILED.equals(result) || ExecutionResult.ERRORED.equals(result)) {
+                failCount = 1;
+            } else {
+                skipCount = 1;
+            }
+        }
+    }
+
+    /**
+     * @return the job, suite or test node of this result
+     */
+    public AWSDeviceFarmResultTree.Node getNode() {
+        return node;
+    }
+
+    /**
+     * @return true if this is the result of a job (device)
+     */
+    public boolean isJob() {
+        return node instanceof AWSDeviceFarmResultTree.JobNode;
+    }
+
+    /**
+     * @return true if this is the result of a single test
+     */
+    public boolean isTest() {
+        return node instanceof AWSDeviceFarmResultTree.TestNode;
+    }
+
+    @Override
+    public Collection<AWSDeviceFarmNodeResult> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    @Override
+    public boolean hasChildren() {
+        return !children.isEmpty();
+    }
+
+    @Override
+    public TestObject getParent() {
+        return parent;
+    }
+
+    @Override
+    public AbstractBuild<?, ?> getOwner() {
+        return parent.getOwner();
+    }
+
+    @Override
+    public String getName() {
+        if (node instanceof AWSDeviceFarmResultTree.JobNode) {
+            AWSDeviceFarmResultTree.JobNode job = (AWSDeviceFarmResultTree.JobNode) node;
+            return job.getOs() != null ? String.format("%s %s", job.getDeviceName(), job.getOs()) : job.getDeviceName();
+        }
+        return node.getName();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return getName();
+    }
+
+    @Override
+    public String getSafeName() {
+        return safeName != null ? safeName : safe(getName());
+    }
+
+    @Override
+    public String getId() {
+        if (parent instanceof AWSDeviceFarmNodeResult) {
+            return parent.getId() + "/" + getSafeName();
+        }
+        return getSafeName();
+    }
+
+    /**
+     * @return the Device Farm execution result, e.g. PASSED or FAILED
+     */
+    public String getResult() {
+        return node.getResult();
+    }
+
+    @Override
+    public String getErrorDetails() {
+        return getFailCount() > 0 ? node.getMessage() : null;
+    }
+
+    @Override
+    public int getPassCount() {
+        return passCount;
+    }
+
+    @Override
+    public int getFailCount() {
+        return failCount;
+    }
+
+    @Override
+    public int getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * @return the duration in seconds
+     */
+    @Override
+    public float getDuration() {
+        return node.getDuration() / 1000f;
+    }
+
+    /**
+     * @return the result with the same id in the closest previous build with an AWS Device Farm result
+     */
+    @Override
+    public TestResult getPreviousResult() {
+        AbstractBuild<?, ?> build = getOwner();
+        for (build = build != null ? build.getPreviousBuild() : null; build != null; build = build.getPreviousBuild()) {
+            AWSDeviceFarmTestResultAction action = build.getAction(AWSDeviceFarmTestResultAction.class);
+            if (action != null && action.getResult() != null) {
+                return action.getResult().findCorrespondingResult(getId());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public TestResult findCorrespondingResult(String id) {
+        AWSDeviceFarmTestResult run = getRunResult();
+        return run != null ? run.findCorrespondingResult(id) : null;
+    }
+
+    /**
+     * Find a child by its safe name, so results can be addressed as "device/suite/test".
+     */
+    @Override
+    public Object getDynamic(String token, StaplerRequest request, StaplerResponse response) {
+        AWSDeviceFarmNodeResult child = findChild(token);
+        return child != null ? child : super.getDynamic(token, request, response);
+    }
+
+    /**
+     * Find a child by its safe name.
+     *
+     * @param safeName The safe name of the child.
+     * @return The child or null if there is no such child.
+     */
+    public AWSDeviceFarmNodeResult findChild(String safeName) {
+        for (AWSDeviceFarmNodeResult child : children) {
+            if (child.getSafeName().equals(safeName)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give every result a safe name which is unique among its siblings. Unlike {@link #uniquifyName} the names are
+     * assigned once, in the order of the siblings, so ids and URLs are the same on every call and in every build.
+     *
+     * @param results The sibling results.
+     */
+    static void assignSafeNames(List<AWSDeviceFarmNodeResult> results) {
+        Set<String> names = new HashSet<String>();
+        for (AWSDeviceFarmNodeResult result : results) {
+            String base = safe(result.getName());
+            String name = base;
+            for (int i = 2; !names.add(name); i++) {
+                name = base + "_" + i;
+            }
+            result.safeName = name;
+        }
+    }
+
+    //// Helper Methods
+
+    /**
+     * @return the result of the run this node belongs to
+     */
+    private AWSDeviceFarmTestResult getRunResult() {
+        TestObject object = parent;
+        while (object instanceof AWSDeviceFarmNodeResult) {
+            object = object.getParent();
+        }
+        return object instanceof AWSDeviceFarmTestResult ? (AWSDeviceFarmTestResult) object : null;
+    }
+
+    private static ExecutionResult toExecutionResult(String result) {
+        try {
+            return ExecutionResult.fromValue(result);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
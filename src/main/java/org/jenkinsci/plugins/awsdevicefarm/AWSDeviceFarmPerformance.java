@@ -0,0 +1,366 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.ArtifactCategory;
+import hudson.XmlFile;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summaries of the app performance data (CPU, memory, FPS and threads) of every job (device) of an AWS Device Farm run.
+ * <p>
+ * Device Farm provides the performance time series as file artifacts. They are streamed through an
+ * {@link AWSDeviceFarmPerformanceParser} when the results are collected, and only min, max, mean and 95th percentile
+ * per job and metric are kept. The summaries are stored in their own file in the build directory.
+ */
+public class AWSDeviceFarmPerformance implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String FILE_NAME = "aws-device-farm-performance.xml";
+
+    private final List<DeviceMetrics> devices = new ArrayList<DeviceMetrics>();
+
+    /**
+     * @return the performance summaries per job, in the order of the jobs of the run
+     */
+    public List<DeviceMetrics> getDevices() {
+        return Collections.unmodifiableList(devices);
+    }
+
+    /**
+     * Get the performance summaries of a job.
+     *
+     * @param job The job directory name, i.e. the device name and OS version.
+     * @return The summaries or null if the job has no performance data.
+     */
+    public DeviceMetrics getDevice(String job) {
+        for (DeviceMetrics device : devices) {
+            if (device.getJob().equals(job)) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the performance summaries of a device which ran in another build. Devices are matched by name and OS
+     * version, as the job directory also depends on the run or shard the device was assigned to.
+     *
+     * @param device The device of the other build.
+     * @return The summaries or null if the device has no performance data in this build.
+     */
+    public DeviceMetrics getSameDevice(DeviceMetrics device) {
+        for (DeviceMetrics other : devices) {
+            if (StringUtils.equals(other.getDeviceName(), device.getDeviceName()) && StringUtils.equals(other.getOs(), device.getOs())) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    void addDevice(DeviceMetrics device) {
+        devices.add(device);
+    }
+
+    /**
+     * @return true if no job has performance data
+     */
+    public boolean isEmpty() {
+        return devices.isEmpty();
+    }
+
+    /**
+     * Save the summaries in the given build directory.
+     *
+     * @param buildDir The root directory of the build.
+     * @throws IOException
+     */
+    public void save(File buildDir) throws IOException {
+        new XmlFile(new File(buildDir, FILE_NAME)).write(this);
+    }
+
+    /**
+     * Load the performance summaries of a build.
+     *
+     * @param buildDir The root directory of the build.
+     * @return The summaries or null if the build has none.
+     * @throws IOException
+     */
+    public static AWSDeviceFarmPerformance load(File buildDir) throws IOException {
+        XmlFile file = new XmlFile(new File(buildDir, FILE_NAME));
+        if (!file.exists()) {
+            return null;
+        }
+        return (AWSDeviceFarmPerformance) file.read();
+    }
+
+    /**
+     * Collect the performance data of a completed run. Every performance artifact is streamed through a parser, other
+     * artifacts are not downloaded. Artifacts which cannot be read are reported and skipped.
+     *
+     * @param adf      The AWS Device Farm client.
+     * @param runArn   The ARN of the run.
+     * @param tree     The result tree of the run, which maps artifacts to their job.
+     * @param throttle The throttle of the transfers, may be null.
+     * @param log      The log print stream.
+     * @return The performance summaries, empty if the run has no performance data.
+     * @throws InterruptedException
+     */
+    public static AWSDeviceFarmPerformance collect(AWSDeviceFarm adf, String runArn, AWSDeviceFarmResultTree tree,
+                                                   AWSDeviceFarmResumableDownload.Throttle throttle, PrintStream log) throws InterruptedException {
+        Map<String, DeviceMetrics> devices = new LinkedHashMap<String, DeviceMetrics>();
+        for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+            devices.put(job.getId(), new DeviceMetrics(job));
+        }
+        // A job can have several time series of the same metric, their samples are merged before they are summarized.
+        Map<String, Map<Metric, AWSDeviceFarmPerformanceParser>> parsers = new HashMap<String, Map<Metric, AWSDeviceFarmPerformanceParser>>();
+        int parsed = 0;
+        for (Artifact artifact : adf.getArtifacts(runArn, ArtifactCategory.FILE)) {
+            Metric metric = Metric.forArtifact(artifact.getName());
+            AWSDeviceFarmResultTree.JobNode job = tree.findJob(AWSDeviceFarmResultTree.idOf(artifact.getArn()));
+            if (metric == null || job == null || artifact.getUrl() == null) {
+                continue;
+            }
+            AWSDeviceFarmPerformanceParser parser = new AWSDeviceFarmPerformanceParser();
+            try {
+                AWSDeviceFarmResumableDownload.toStream(new URL(artifact.getUrl()), parser, throttle);
+            } catch (IOException e) {
+                writeToLog(log, String.format("Unable to read the %s data of %s: %s", metric.getLabel(), job.getDeviceName(), e.getMessage()));
+                continue;
+            }
+            parser.close();
+            if (parser.getCount() == 0) {
+                continue;
+            }
+            Map<Metric, AWSDeviceFarmPerformanceParser> jobParsers = parsers.get(job.getId());
+            if (jobParsers == null) {
+                jobParsers = new EnumMap<Metric, AWSDeviceFarmPerformanceParser>(Metric.class);
+                parsers.put(job.getId(), jobParsers);
+            }
+            AWSDeviceFarmPerformanceParser previous = jobParsers.get(metric);
+            if (previous != null) {
+                previous.merge(parser);
+            } else {
+                jobParsers.put(metric, parser);
+            }
+            parsed++;
+        }
+        for (Map.Entry<String, Map<Metric, AWSDeviceFarmPerformanceParser>> job : parsers.entrySet()) {
+            for (Map.Entry<Metric, AWSDeviceFarmPerformanceParser> metric : job.getValue().entrySet()) {
+                devices.get(job.getKey()).add(metric.getKey(), metric.getValue().getSummary());
+            }
+        }
+
+        AWSDeviceFarmPerformance performance = new AWSDeviceFarmPerformance();
+        for (DeviceMetrics device : devices.values()) {
+            if (!device.getMetrics().isEmpty()) {
+                performance.addDevice(device);
+            }
+        }
+        if (parsed > 0) {
+            writeToLog(log, String.format("Collected %d performance time series of %d devices", parsed, performance.devices.size()));
+        }
+        return performance;
+    }
+
+    //// Helper Methods
+
+    private static void writeToLog(PrintStream log, String message) {
+        if (log != null) {
+            log.println(String.format("[AWSDeviceFarm] %s", message));
+        }
+    }
+
+    /**
+     * The performance metrics Device Farm records for a job, recognized by the name of their artifact.
+     */
+    public enum Metric {
+        CPU("CPU", "%", "CPU"),
+        MEMORY("Memory", "KB", "Memory"),
+        FPS("FPS", "fps", "FPS", "Frames Per Second"),
+        THREADS("Threads", "threads", "Threads");
+
+        private final String label;
+        private final String unit;
+        private final String[] artifactNames;
+
+        Metric(String label, String unit, String... artifactNames) {
+            this.label = label;
+            this.unit = unit;
+            this.artifactNames = artifactNames;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * @return true if lower values are better, which holds for all metrics but FPS
+         */
+        public boolean isLowerBetter() {
+            return this != FPS;
+        }
+
+        /**
+         * Get the metric of a performance artifact. Only the exact artifact names Device Farm uses are recognized,
+         * so e.g. a customer artifact named "cpu-profile" is not read as CPU data.
+         *
+         * @param name The name of the artifact.
+         * @return The metric or null if the artifact does not hold performance data.
+         */
+        public static Metric forArtifact(String name) {
+            if (name == null) {
+                return null;
+            }
+            for (Metric metric : values()) {
+                for (String artifactName : metric.artifactNames) {
+                    if (artifactName.equalsIgnoreCase(name.trim())) {
+                        return metric;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The summary of a performance time series.
+     */
+    public static class Summary implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double p95;
+
+        public Summary(long count, double min, double max, double mean, double p95) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.p95 = p95;
+        }
+
+        /**
+         * @return the number of samples
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the 95th percentile
+         */
+        public double getP95() {
+            return p95;
+        }
+    }
+
+    /**
+     * The performance summaries of a single job (device).
+     */
+    public static class DeviceMetrics implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String job;
+        private final String deviceName;
+        private final String model;
+        private final String os;
+        private final Map<Metric, Summary> metrics = new EnumMap<Metric, Summary>(Metric.class);
+
+        public DeviceMetrics(AWSDeviceFarmResultTree.JobNode job) {
+            this(job.getPath(), job.getDeviceName(), job.getModel(), job.getOs());
+        }
+
+        DeviceMetrics(String job, String deviceName, String model, String os) {
+            this.job = job;
+            this.deviceName = deviceName;
+            this.model = model;
+            this.os = os;
+        }
+
+        /**
+         * @return the job directory name, i.e. the device name and OS version, which is unique within a run
+         */
+        public String getJob() {
+            return job;
+        }
+
+        public String getDeviceName() {
+            return deviceName;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getOs() {
+            return os;
+        }
+
+        /**
+         * @return the summaries by metric
+         */
+        public Map<Metric, Summary> getMetrics() {
+            return Collections.unmodifiableMap(metrics);
+        }
+
+        /**
+         * Get the summary of a metric.
+         *
+         * @param metric The metric.
+         * @return The summary or null if the job has no data for the metric.
+         */
+        public Summary getSummary(Metric metric) {
+            return metrics.get(metric);
+        }
+
+        void add(Metric metric, Summary summary) {
+            metrics.put(metric, summary);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks the app performance of a run against budgets and against a rolling baseline of previous builds.
+ * <p>
+ * Budgets are given one per line as "&lt;metric&gt; &lt;statistic&gt; &lt;limit&gt; [device model]", e.g.
+ * "CPU p95 60", "Memory max 500000 Pixel 3" or "FPS mean 50". The limit is an upper bound for CPU, memory and threads
+ * and a lower bound for FPS, "*" only checks the baseline. A budget for a device model replaces the budget of all
+ * models for the same metric and statistic. Lines starting with "#" are ignored.
+ * <p>
+ * With a tolerance, every budgeted statistic of a job is also compared to its median on the same device in the
+ * previous builds, and a job which got worse by more than the tolerance is reported as well.
+ */
+public class AWSDeviceFarmPerformanceGate {
+    public static final int BASELINE_BUILDS = 10;
+
+    static final int MIN_BASELINE_BUILDS = 3;
+
+    private final List<Budget> budgets;
+    private final Double tolerance;
+
+    /**
+     * Create a new performance gate.
+     *
+     * @param budgets   The budgets, see {@link #parseBudgets(String)}.
+     * @param tolerance The max regression against the baseline in percent, null or 0 to only check the limits.
+     */
+    public AWSDeviceFarmPerformanceGate(List<Budget> budgets, Double tolerance) {
+        this.budgets = budgets;
+        this.tolerance = (tolerance != null && tolerance > 0) ? tolerance : null;
+    }
+
+    /**
+     * Parse performance budgets, one per line.
+     *
+     * @param text The budgets.
+     * @return The budgets, empty if the text is blank.
+     * @throws IllegalArgumentException if a line is not a valid budget.
+     */
+    public static List<Budget> parseBudgets(String text) {
+        List<Budget> budgets = new ArrayList<Budget>();
+        if (text == null) {
+            return budgets;
+        }
+        for (String line : text.split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 4);
+            if (parts.length < 3) {
+                throw new IllegalArgumentException(String.format("Expected \"<metric> <statistic> <limit> [device model]\": %s", line));
+            }
+            AWSDeviceFarmPerformance.Metric metric = null;
+            for (AWSDeviceFarmPerformance.Metric m : AWSDeviceFarmPerformance.Metric.values()) {
+                if (m.name().equalsIgnoreCase(parts[0]) || m.getLabel().equalsIgnoreCase(parts[0])) {
+                    metric = m;
+                }
+            }
+            if (metric == null) {
+                throw new IllegalArgumentException(String.format("Unknown metric %s, expected one of %s", parts[0],
+                        Arrays.toString(AWSDeviceFarmPerformance.Metric.values())));
+            }
+            Statistic statistic;
+            try {
+                statistic = Statistic.valueOf(parts[1].toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Unknown statistic %s, expected one of %s", parts[1],
+                        Arrays.toString(Statistic.values())));
+            }
+            Double limit = null;
+            if (!"*".equals(parts[2])) {
+                try {
+                    limit = Double.parseDouble(parts[2]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Invalid limit %s", parts[2]));
+                }
+            }
+            budgets.add(new Budget(metric, statistic, limit, parts.length > 3 ? parts[3].trim() : null));
+        }
+        return budgets;
+    }
+
+    /**
+     * Check the performance of a run.
+     *
+     * @param current  The performance of the run.
+     * @param baseline The performance of previous builds, null for builds without performance data.
+     * @return The budgets which were exceeded, in the order of the jobs.
+     */
+    public List<Violation> check(AWSDeviceFarmPerformance current, List<AWSDeviceFarmPerformance> baseline) {
+        List<Violation> violations = new ArrayList<Violation>();
+        if (current == null) {
+            return violations;
+        }
+        for (AWSDeviceFarmPerformance.DeviceMetrics device : current.getDevices()) {
+            for (Budget budget : getBudgets(device.getModel())) {
+                AWSDeviceFarmPerformance.Summary summary = device.getSummary(budget.getMetric());
+                if (summary == null) {
+                    continue;
+                }
+                double value = budget.getStatistic().of(summary);
+                if (budget.getLimit() != null && isWorse(budget.getMetric(), value, budget.getLimit())) {
+                    violations.add(new Violation(device, budget, value, budget.getLimit(), null));
+                    continue;
+                }
+                if (tolerance == null) {
+                    continue;
+                }
+                List<Double> previous = new ArrayList<Double>();
+                for (AWSDeviceFarmPerformance build : baseline) {
+                    AWSDeviceFarmPerformance.DeviceMetrics metrics = build != null ? build.getSameDevice(device) : null;
+                    AWSDeviceFarmPerformance.Summary s = metrics != null ? metrics.getSummary(budget.getMetric()) : null;
+                    if (s != null) {
+                        previous.add(budget.getStatistic().of(s));
+                    }
+                }
+                if (previous.size() < MIN_BASELINE_BUILDS) {
+                    continue;
+                }
+                double median = median(previous);
+                double factor = tolerance / 100;
+                double threshold = budget.getMetric().isLowerBetter() ? median * (1 + factor) : median * (1 - factor);
+                if (isWorse(budget.getMetric(), value, threshold)) {
+                    violations.add(new Violation(device, budget, value, null, median));
+                }
+            }
+        }
+        return violations;
+    }
+
+    //// Helper Methods
+
+    /**
+     * @return the budgets which apply to a device model, model specific budgets replacing the general ones
+     */
+    private List<Budget> getBudgets(String model) {
+        List<Budget> applicable = new ArrayList<Budget>();
+        for (Budget budget : budgets) {
+            if (budget.getModel() == null) {
+                boolean replaced = false;
+                for (Budget other : budgets) {
+                    replaced |= other.getModel() != null && other.matches(model)
+                            && other.getMetric() == budget.getMetric() && other.getStatistic() == budget.getStatistic();
+                }
+                if (!replaced) {
+                    applicable.add(budget);
+                }
+            } else if (budget.matches(model)) {
+                applicable.add(budget);
+            }
+        }
+        return applicable;
+    }
+
+    private static boolean isWorse(AWSDeviceFarmPerformance.Metric metric, double value, double threshold) {
+        return metric.isLowerBetter() ? value > threshold : value < threshold;
+    }
+
+    private static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<Double>(values);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+
+    /**
+     * The statistics of a performance summary which can be budgeted.
+     */
+    public enum Statistic {
+        MIN, MAX, MEAN, P95;
+
+        /**
+         * @param summary The summary of a time series.
+         * @return the value of this statistic
+         */
+        public double of(AWSDeviceFarmPerformance.Summary summary) {
+            switch (this) {
+                case MIN:
+                    return summary.getMin();
+                case MAX:
+                    return summary.getMax();
+                case MEAN:
+                    return summary.getMean();
+                default:
+                    return summary.getP95();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * A limit for a statistic of a metric, for all or a single device model.
+     */
+    public static class Budget {
+        private final AWSDeviceFarmPerformance.Metric metric;
+        private final Statistic statistic;
+        private final Double limit;
+        private final String model;
+
+        public Budget(AWSDeviceFarmPerformance.Metric metric, Statistic statistic, Double limit, String model) {
+            this.metric = metric;
+            this.statistic = statistic;
+            this.limit = limit;
+            this.model = StringUtils.isBlank(model) ? null : model;
+        }
+
+        public AWSDeviceFarmPerformance.Metric getMetric() {
+            return metric;
+        }
+
+        public Statistic getStatistic() {
+            return statistic;
+        }
+
+        /**
+         * @return the limit, null if only the baseline is checked
+         */
+        public Double getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return the device model, null for all models
+         */
+        public String getModel() {
+            return model;
+        }
+
+        boolean matches(String model) {
+            return this.model == null || this.model.equalsIgnoreCase(model);
+        }
+    }
+
+    /**
+     * A job whose performance exceeded a budget or regressed against the baseline.
+     */
+    public static class Violation {
+        private final String job;
+        private final String model;
+        private final Budget budget;
+        private final double value;
+        private final Double limit;
+        private final Double baseline;
+
+        Violation(AWSDeviceFarmPerformance.DeviceMetrics device, Budget budget, double value, Double limit, Double baseline) {
+            this.job = device.getJob();
+            this.model = device.getModel();
+            this.budget = budget;
+            this.value = value;
+            this.limit = limit;
+            this.baseline = baseline;
+        }
+
+        /**
+         * @return the job directory name, i.e. the device name and OS version
+         */
+        public String getJob() {
+            return job;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public Budget getBudget() {
+            return budget;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @return the exceeded limit, null for a regression against the baseline
+         */
+        public Double getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return the median of the previous builds, null if the limit was exceeded
+         */
+        public Double getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * @return a description of the violation for the build log and the results page
+         */
+        public String getMessage() {
+            AWSDeviceFarmPerformance.Metric metric = budget.getMetric();
+            String what = String.format("%s: %s %s of %.1f %s", job, metric.getLabel(), budget.getStatistic(), value, metric.getUnit());
+            if (limit != null) {
+                return String.format("%s is %s the budget of %.1f", what, metric.isLowerBetter() ? "above" : "below", limit);
+            }
+            double change = baseline != 0 ? Math.abs(value - baseline) / baseline * 100 : 100;
+            return String.format("%s is %.0f%% %s the baseline of %.1f", what, change,
+                    metric.isLowerBetter() ? "above" : "below", baseline);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Streaming parser for the performance time series (CPU, memory, FPS, threads) of an AWS Device Farm job.
+ * <p>
+ * The artifact is written into the parser as it is downloaded, so it is never held in memory or on disk. Samples are
+ * delimited by line breaks and by the closing brackets of JSON objects and arrays, and the last number of a sample
+ * is its value. That covers "timestamp,value" CSV as well as JSON samples like {"timestamp": 1, "value": 12.5} or
+ * [1, 12.5]. Quoted strings are skipped, so quoted dates or names do not yield numbers.
+ * <p>
+ * Min, max and mean are exact. The 95th percentile is taken from a uniform sample of at most {@link #RESERVOIR_SIZE}
+ * values, which is exact for the usual few hundred samples of a job. Parsers of several time series of the same
+ * metric can be merged.
+ */
+public class AWSDeviceFarmPerformanceParser extends OutputStream {
+    static final int RESERVOIR_SIZE = 2048;
+
+    private static final int MAX_NUMBER_LENGTH = 64;
+
+    private final StringBuilder number = new StringBuilder();
+    private final double[] reservoir = new double[RESERVOIR_SIZE];
+    private final Random random = new Random(RESERVOIR_SIZE);
+
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean hasValue = false;
+    private double value;
+
+    private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum = 0;
+
+    @Override
+    public void write(int b) {
+        char c = (char) (b & 0xff);
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+            }
+            return;
+        }
+        if (isNumberChar(c)) {
+            if (number.length() < MAX_NUMBER_LENGTH) {
+                number.append(c);
+            }
+            return;
+        }
+        endNumber();
+        if (c == '"') {
+            inString = true;
+        } else if (c == '\n' || c == '\r' || c == '}' || c == ']') {
+            endSample();
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            write(buffer[i]);
+        }
+    }
+
+    /**
+     * Complete the sample which is still open at the end of the data, e.g. the last line without a line break.
+     */
+    @Override
+    public void close() {
+        endNumber();
+        endSample();
+        inString = false;
+        escaped = false;
+    }
+
+    /**
+     * @return the number of samples parsed so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Add the samples of another parser, e.g. of a second time series of the same metric and job. The sample for the
+     * percentile is drawn from both samples in proportion to their number of values, so it stays uniform.
+     *
+     * @param other The other parser, which is closed.
+     */
+    public void merge(AWSDeviceFarmPerformanceParser other) {
+        if (other.count == 0) {
+            return;
+        }
+        int size = (int) Math.min(count, RESERVOIR_SIZE);
+        int otherSize = (int) Math.min(other.count, RESERVOIR_SIZE);
+        long total = count + other.count;
+        if (total <= RESERVOIR_SIZE) {
+            System.arraycopy(other.reservoir, 0, reservoir, size, otherSize);
+        } else {
+            double[] mine = Arrays.copyOf(reservoir, size);
+            double[] theirs = Arrays.copyOf(other.reservoir, otherSize);
+            for (int i = 0; i < RESERVOIR_SIZE; i++) {
+                // Take a random value which was not taken yet, from this parser with the share of its values.
+                if (otherSize == 0 || (size > 0 && random.nextDouble() * total < count)) {
+                    int j = random.nextInt(size);
+                    reservoir[i] = mine[j];
+                    mine[j] = mine[--size];
+                } else {
+                    int j = random.nextInt(otherSize);
+                    reservoir[i] = theirs[j];
+                    theirs[j] = theirs[--otherSize];
+                }
+            }
+        }
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+    }
+
+    /**
+     * Summarize the samples parsed so far.
+     *
+     * @return The summary or null if no sample was found.
+     */
+    public AWSDeviceFarmPerformance.Summary getSummary() {
+        if (count == 0) {
+            return null;
+        }
+        int size = (int) Math.min(count, RESERVOIR_SIZE);
+        double[] sorted = Arrays.copyOf(reservoir, size);
+        Arrays.sort(sorted);
+        // Nearest rank, so the percentile is always one of the samples.
+        int rank = (int) Math.ceil(0.95 * size);
+        return new AWSDeviceFarmPerformance.Summary(count, min, max, sum / count, sorted[Math.max(0, rank - 1)]);
+    }
+
+    //// Helper Methods
+
+    private static boolean isNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E';
+    }
+
+    private void endNumber() {
+        if (number.length() == 0) {
+            return;
+        }
+        try {
+            double parsed = Double.parseDouble(number.toString());
+            if (!Double.isNaN(parsed) && !Double.isInfinite(parsed)) {
+                value = parsed;
+                hasValue = true;
+            }
+        } catch (NumberFormatException e) {
+            // Not a number, e.g. a dash or the "e" of an unquoted word.
+        }
+        number.setLength(0);
+    }
+
+    private void endSample() {
+        if (!hasValue) {
+            return;
+        }
+        hasValue = false;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        // Reservoir sampling keeps a uniform sample of all values in fixed memory.
+        if (count <= RESERVOIR_SIZE) {
+            reservoir[(int) count - 1] = value;
+        } else {
+            long slot = (long) (random.nextDouble() * count);
+            if (slot < RESERVOIR_SIZE) {
+                reservoir[(int) slot] = value;
+            }
+        }
+    }
+}
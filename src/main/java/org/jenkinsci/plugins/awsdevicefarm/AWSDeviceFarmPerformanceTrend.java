@@ -0,0 +1,221 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * App performance of the recent AWS Device Farm runs of a project, per job (device) across builds.
+ * <p>
+ * The builds are taken from the {@link AWSDeviceFarmHistory}, their performance summaries from the
+ * {@link AWSDeviceFarmPerformance} file of each build.
+ */
+public class AWSDeviceFarmPerformanceTrend {
+    public static final int DEFAULT_BUILDS = 30;
+
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmPerformanceTrend.class.getName());
+
+    private final List<DeviceTrend> devices;
+
+    AWSDeviceFarmPerformanceTrend(List<Integer> numbers, List<AWSDeviceFarmPerformance> builds) {
+        Map<String, DeviceTrend> devices = new TreeMap<String, DeviceTrend>();
+        for (int i = 0; i < builds.size(); i++) {
+            if (builds.get(i) == null) {
+                continue;
+            }
+            for (AWSDeviceFarmPerformance.DeviceMetrics metrics : builds.get(i).getDevices()) {
+                DeviceTrend device = devices.get(metrics.getJob());
+                if (device == null) {
+                    device = new DeviceTrend(metrics.getJob(), metrics.getModel());
+                    devices.put(metrics.getJob(), device);
+                }
+                device.points.add(new Point(numbers.get(i), metrics));
+            }
+        }
+        this.devices = Collections.unmodifiableList(new ArrayList<DeviceTrend>(devices.values()));
+    }
+
+    /**
+     * Get the app performance of the most recent builds of a project.
+     *
+     * @param job The project.
+     * @param n   The max number of builds.
+     * @return The performance trend.
+     */
+    public static AWSDeviceFarmPerformanceTrend forJob(Job<?, ?> job, int n) {
+        List<AWSDeviceFarmHistory.Record> records = AWSDeviceFarmHistory.forJob(job).getRecords(Integer.MAX_VALUE, n);
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (AWSDeviceFarmHistory.Record record : records) {
+            numbers.add(record.getNumber());
+        }
+        return new AWSDeviceFarmPerformanceTrend(numbers, load(job, records));
+    }
+
+    /**
+     * @return the performance per job, ordered by job directory name
+     */
+    public List<DeviceTrend> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Get the performance of a single job.
+     *
+     * @param job The job directory name.
+     * @return The trend of the job or null if it has no performance data.
+     */
+    public DeviceTrend getDevice(String job) {
+        for (DeviceTrend device : devices) {
+            if (device.getJob().equals(job)) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the metrics for which at least one job has data
+     */
+    public List<AWSDeviceFarmPerformance.Metric> getMetrics() {
+        List<AWSDeviceFarmPerformance.Metric> metrics = new ArrayList<AWSDeviceFarmPerformance.Metric>();
+        for (AWSDeviceFarmPerformance.Metric metric : AWSDeviceFarmPerformance.Metric.values()) {
+            for (DeviceTrend device : devices) {
+                if (device.hasMetric(metric)) {
+                    metrics.add(metric);
+                    break;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Load the performance summaries of the given builds.
+     *
+     * @param job     The project.
+     * @param records The builds.
+     * @return The performance summaries per build, null for builds without performance data.
+     */
+    public static List<AWSDeviceFarmPerformance> load(Job<?, ?> job, List<AWSDeviceFarmHistory.Record> records) {
+        List<AWSDeviceFarmPerformance> builds = new ArrayList<AWSDeviceFarmPerformance>();
+        for (AWSDeviceFarmHistory.Record record : records) {
+            AWSDeviceFarmPerformance performance = null;
+            Run<?, ?> run = job.getBuildByNumber(record.getNumber());
+            if (run != null) {
+                try {
+                    performance = AWSDeviceFarmPerformance.load(run.getRootDir());
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, String.format("Unable to load the AWS Device Farm performance data of %s", run), e);
+                }
+            }
+            builds.add(performance);
+        }
+        return builds;
+    }
+
+    /**
+     * The performance of a single job (device) across builds.
+     */
+    public static class DeviceTrend {
+        private final String job;
+        private final String model;
+        private final List<Point> points = new ArrayList<Point>();
+
+        DeviceTrend(String job, String model) {
+            this.job = job;
+            this.model = model;
+        }
+
+        /**
+         * @return the job directory name, i.e. the device name and OS version
+         */
+        public String getJob() {
+            return job;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        /**
+         * @return the builds with performance data of this job, ordered by build number
+         */
+        public List<Point> getPoints() {
+            return Collections.unmodifiableList(points);
+        }
+
+        /**
+         * @return the builds with performance data of this job, most recent first
+         */
+        public List<Point> getRecentPoints() {
+            List<Point> recent = new ArrayList<Point>(points);
+            Collections.reverse(recent);
+            return recent;
+        }
+
+        /**
+         * @param metric The metric.
+         * @return true if any build has data of the metric for this job
+         */
+        public boolean hasMetric(AWSDeviceFarmPerformance.Metric metric) {
+            for (Point point : points) {
+                if (point.getSummary(metric) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The performance of a job in a single build.
+     */
+    public static class Point {
+        private final int number;
+        private final AWSDeviceFarmPerformance.DeviceMetrics metrics;
+
+        Point(int number, AWSDeviceFarmPerformance.DeviceMetrics metrics) {
+            this.number = number;
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return the build number
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Get the summary of a metric.
+         *
+         * @param metric The metric.
+         * @return The summary or null if the job has no data for the metric in this build.
+         */
+        public AWSDeviceFarmPerformance.Summary getSummary(AWSDeviceFarmPerformance.Metric metric) {
+            return metrics.getSummary(metric);
+        }
+    }
+}
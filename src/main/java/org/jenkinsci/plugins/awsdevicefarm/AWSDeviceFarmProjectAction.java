@@ -17,13 +17,17 @@ package org.jenkinsci.plugins.awsdevicefarm;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
+import hudson.util.Area;
 import hudson.util.ChartUtil;
-import hudson.util.Graph;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * AWS Device Farm specific action tied to a Jenkins project.
@@ -33,6 +37,9 @@ import java.util.ArrayList;
  * the most recent AWS Device Farm runs.
  */
 public class AWSDeviceFarmProjectAction implements Action {
+    private static final int DURATION_REPORT_SIZE = 25;
+    private static final String[] TREND_SERIES = {"pass", "warn", "fail", "skip", "error", "stop", "total", "deviceMinutes", "meteredMinutes", "unmeteredMinutes"};
+
     private AbstractProject<?, ?> project;
 
     /**
@@ -59,7 +66,7 @@ public class AWSDeviceFarmProjectAction implements Action {
      * @return Whether or not the graph should be displayed.
      */
     public boolean shouldDisplayGraph() {
-        return AWSDeviceFarmUtils.previousAWSDeviceFarmBuildAction(project) != null;
+        return !AWSDeviceFarmHistory.forJob(project).isEmpty();
     }
 
     /**
@@ -87,8 +94,52 @@ public class AWSDeviceFarmProjectAction implements Action {
      * @return An ArrayList of the previous builds.
      */
     public ArrayList<AWSDeviceFarmTestResultAction> getLastBuildActions(int n) {
-        ArrayList<AWSDeviceFarmTestResultAction> actions = getLastBuildActions();
-        return new ArrayList<AWSDeviceFarmTestResultAction>(actions.subList(0, Math.min(n, actions.size())));
+        return AWSDeviceFarmUtils.previousAWSDeviceFarmBuilds(project, n);
+    }
+
+    /**
+     * Return the device minutes used by the recent AWS Device Farm builds of this project, per device pool and job.
+     *
+     * @return The cost trend.
+     */
+    public AWSDeviceFarmCostTrend getCostTrend() {
+        return AWSDeviceFarmCostTrend.forJob(project, AWSDeviceFarmCostTrend.DEFAULT_BUILDS);
+    }
+
+    /**
+     * Return the tests of this project which are flaky on at least one device model.
+     *
+     * @return The flaky tests, most flaky first.
+     */
+    public List<AWSDeviceFarmFlakyTests.Entry> getFlakyTests() {
+        return AWSDeviceFarmFlakyTests.forJob(project).getFlakyTests();
+    }
+
+    /**
+     * Return the tests of this project with the longest durations.
+     *
+     * @return The slowest tests by their 95th percentile duration over all device models, slowest first.
+     */
+    public List<AWSDeviceFarmTestDurations.TestDuration> getSlowestTests() {
+        return AWSDeviceFarmTestDurations.forJob(project).getSlowestTests(DURATION_REPORT_SIZE);
+    }
+
+    /**
+     * Return the tests of this project which got slower in the most recent build.
+     *
+     * @return The tests whose duration is well above their median on the same device model, largest increase first.
+     */
+    public List<AWSDeviceFarmTestDurations.TestDuration> getDurationRegressions() {
+        return AWSDeviceFarmTestDurations.forJob(project).getRegressions(DURATION_REPORT_SIZE);
+    }
+
+    /**
+     * Return the app performance of the recent AWS Device Farm builds of this project, per device.
+     *
+     * @return The performance trend.
+     */
+    public AWSDeviceFarmPerformanceTrend getPerformanceTrend() {
+        return AWSDeviceFarmPerformanceTrend.forJob(project, AWSDeviceFarmPerformanceTrend.DEFAULT_BUILDS);
     }
 
     /**
@@ -124,19 +175,152 @@ public class AWSDeviceFarmProjectAction implements Action {
             return;
         }
 
-        // Get previous AWS Device Farm build and results.
-        AWSDeviceFarmTestResultAction prev = getLastBuildAction();
-        if (prev == null) {
+        // Get the most recent completed AWS Device Farm result, the graph only changes with it.
+        final AWSDeviceFarmHistory history = AWSDeviceFarmHistory.forJob(project);
+        AWSDeviceFarmHistory.Record last = history.getLast();
+        final AbstractBuild<?, ?> owner = last != null ? project.getBuildByNumber(last.getNumber()) : null;
+        if (owner == null) {
             return;
         }
-        AWSDeviceFarmTestResult result = prev.getResult();
-        if (result == null) {
+
+        // Serve the graph for the AWS Device Farm results of all runs in this project, rendering it if not cached.
+        Area size = AWSDeviceFarmGraph.getGraphSize();
+        String key = AWSDeviceFarmGraphCache.key(project.getFullName(), "project", last.getNumber(), history.size(), size.width, size.height);
+        AWSDeviceFarmGraphCache.serve(request, response, key, new AWSDeviceFarmGraphCache.Renderer() {
+            public AWSDeviceFarmGraph render() {
+                return AWSDeviceFarmGraph.createResultTrendGraph(owner, true, history.getRecords());
+            }
+        });
+    }
+
+    /**
+     * Return the trend graph of a performance metric of a single device, e.g.
+     * "performanceGraph?device=Google%20Pixel%203%209&amp;metric=CPU".
+     *
+     * @param request  The request object.
+     * @param response The response object.
+     * @throws IOException
+     */
+    @SuppressWarnings("unused")
+    public void doPerformanceGraph(StaplerRequest request, StaplerResponse response) throws IOException {
+        // Abort if having Java AWT issues.
+        if (ChartUtil.awtProblemCause != null) {
+            response.sendRedirect2(String.format("%s/images/headless.png", request.getContextPath()));
+            return;
+        }
+
+        final String device = request.getParameter("device");
+        final AWSDeviceFarmPerformance.Metric metric;
+        try {
+            metric = AWSDeviceFarmPerformance.Metric.valueOf(String.valueOf(request.getParameter("metric")));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown metric");
+            return;
+        }
+        AWSDeviceFarmHistory.Record last = AWSDeviceFarmHistory.forJob(project).getLast();
+        final AbstractBuild<?, ?> owner = last != null ? project.getBuildByNumber(last.getNumber()) : null;
+        if (owner == null || device == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // The graph only changes with the most recent result, just like the project graph.
+        Area size = AWSDeviceFarmGraph.getGraphSize();
+        String key = AWSDeviceFarmGraphCache.key(project.getFullName(), "performance", device, metric, last.getNumber(), size.width, size.height);
+        AWSDeviceFarmGraphCache.serve(request, response, key, new AWSDeviceFarmGraphCache.Renderer() {
+            public AWSDeviceFarmGraph render() {
+                AWSDeviceFarmPerformanceTrend.DeviceTrend trend = getPerformanceTrend().getDevice(device);
+                List<AWSDeviceFarmPerformanceTrend.Point> points = trend != null
+                        ? trend.getPoints() : new ArrayList<AWSDeviceFarmPerformanceTrend.Point>();
+                return AWSDeviceFarmGraph.createPerformanceTrendGraph(owner, metric, points);
+            }
+        });
+    }
+
+    /**
+     * Serve the counters and device minutes of the AWS Device Farm results of this project as JSON, e.g.
+     * "trend?fromBuild=100&amp;toBuild=500&amp;points=50". The window is given with the build numbers "fromBuild" and
+     * "toBuild" and/or the start times "from" and "to" (milliseconds since the epoch). With "points", every series is
+     * downsampled to at most that many points with the Largest-Triangle-Three-Buckets algorithm. With "devicePool",
+     * only the builds which ran on that device pool are included.
+     * <p>
+     * Every series is a list of [build number, timestamp, value] points.
+     *
+     * @param request  The request object.
+     * @param response The response object.
+     * @throws IOException
+     */
+    @SuppressWarnings("unused")
+    public void doTrend(StaplerRequest request, StaplerResponse response) throws IOException {
+        int fromBuild;
+        int toBuild;
+        long from;
+        long to;
+        int points;
+        try {
+            fromBuild = getIntParameter(request, "fromBuild", Integer.MIN_VALUE);
+            toBuild = getIntParameter(request, "toBuild", Integer.MAX_VALUE);
+            from = getLongParameter(request, "from", Long.MIN_VALUE);
+            to = getLongParameter(request, "to", Long.MAX_VALUE);
+            points = getIntParameter(request, "points", Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (points <= 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "points must be positive");
             return;
         }
 
-        // Create new graph for the AWS Device Farm results of all runs in this project.
-        Graph graph = AWSDeviceFarmGraph.createResultTrendGraph(prev.getOwner(), false, result.getPreviousResults());
-        graph.doPng(request, response);
+        List<AWSDeviceFarmHistory.Record> records = AWSDeviceFarmHistory.forJob(project).getRecords(fromBuild, toBuild, from, to);
+        String devicePool = request.getParameter("devicePool");
+        if (devicePool != null) {
+            List<AWSDeviceFarmHistory.Record> filtered = new ArrayList<AWSDeviceFarmHistory.Record>();
+            for (AWSDeviceFarmHistory.Record record : records) {
+                String pool = record.getDevicePool() != null ? record.getDevicePool() : AWSDeviceFarmCostTrend.UNKNOWN_POOL;
+                if (pool.equals(devicePool)) {
+                    filtered.add(record);
+                }
+            }
+            records = filtered;
+        }
+        int n = records.size();
+        double[] x = new double[n];
+        double[][] values = new double[TREND_SERIES.length][n];
+        for (int i = 0; i < n; i++) {
+            AWSDeviceFarmHistory.Record record = records.get(i);
+            x[i] = record.getNumber();
+            values[0][i] = record.getPassCount();
+            values[1][i] = record.getWarnCount();
+            values[2][i] = record.getFailCount();
+            values[3][i] = record.getSkipCount();
+            values[4][i] = record.getErrorCount();
+            values[5][i] = record.getStopCount();
+            values[6][i] = record.getTotalCount();
+            values[7][i] = record.getDeviceMinutes();
+            values[8][i] = record.getMeteredMinutes();
+            values[9][i] = record.getUnmeteredMinutes();
+        }
+
+        JSONObject series = new JSONObject();
+        for (int s = 0; s < TREND_SERIES.length; s++) {
+            JSONArray data = new JSONArray();
+            for (int i : AWSDeviceFarmDownsampler.lttb(x, values[s], points)) {
+                JSONArray point = new JSONArray();
+                point.add(records.get(i).getNumber());
+                point.add(records.get(i).getTimestamp());
+                point.add(values[s][i]);
+                data.add(point);
+            }
+            series.put(TREND_SERIES[s], data);
+        }
+        JSONObject json = new JSONObject();
+        json.put("project", project.getFullName());
+        json.put("builds", n);
+        json.put("series", series);
+
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().print(json.toString());
     }
 
     /**
@@ -166,4 +350,33 @@ public class AWSDeviceFarmProjectAction implements Action {
     public String getUrlName() {
         return "aws-device-farm";
     }
+
+    //// Helper Methods
+
+    /**
+     * Get an optional number parameter.
+     *
+     * @throws NumberFormatException if the parameter is not a number
+     */
+    private static long getLongParameter(StaplerRequest request, String name, long defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException(String.format("%s must be a number", name));
+        }
+    }
+
+    /**
+     * Get an optional number parameter, clamped to the range of an int.
+     *
+     * @throws NumberFormatException if the parameter is not a number
+     */
+    private static int getIntParameter(StaplerRequest request, String name, int defaultValue) {
+        long value = getLongParameter(request, name, defaultValue);
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
 }
@@ -0,0 +1,109 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the data of every project which is stored in the project directory, e.g. its {@link AWSDeviceFarmHistory},
+ * once in memory.
+ * <p>
+ * The data of a project knows the file it was read from. When a project is renamed, moved or deleted its data is
+ * dropped, so it is read again from the new project directory instead of writing to the old one.
+ *
+ * @param <T> The type of the data.
+ */
+final class AWSDeviceFarmProjectStore<T> {
+    private static final List<AWSDeviceFarmProjectStore<?>> stores = new CopyOnWriteArrayList<AWSDeviceFarmProjectStore<?>>();
+
+    private final Map<Job<?, ?>, T> values = new WeakHashMap<Job<?, ?>, T>();
+    private final Factory<T> factory;
+
+    AWSDeviceFarmProjectStore(Factory<T> factory) {
+        this.factory = factory;
+        stores.add(this);
+    }
+
+    /**
+     * Get the data of a project, creating it the first time.
+     *
+     * @param job The project.
+     * @return The data of the project.
+     */
+    synchronized T get(Job<?, ?> job) {
+        T value = values.get(job);
+        if (value == null) {
+            value = factory.create(job);
+            values.put(job, value);
+        }
+        return value;
+    }
+
+    /**
+     * Drop the data of a project, so it is created again on the next use.
+     *
+     * @param job The project.
+     */
+    synchronized void forget(Job<?, ?> job) {
+        values.remove(job);
+    }
+
+    /**
+     * Drop the data of a project from all stores.
+     *
+     * @param job The project.
+     */
+    static void forgetAll(Job<?, ?> job) {
+        for (AWSDeviceFarmProjectStore<?> store : stores) {
+            store.forget(job);
+        }
+    }
+
+    /**
+     * Creates the data of a project from the files in its directory.
+     */
+    interface Factory<T> {
+        T create(Job<?, ?> job);
+    }
+
+    /**
+     * Drops the data of projects which are renamed, moved or deleted. Jenkins reports the items of a renamed or
+     * moved folder one by one as well.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof Job) {
+                forgetAll((Job<?, ?>) item);
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                forgetAll((Job<?, ?>) item);
+            }
+        }
+    }
+}
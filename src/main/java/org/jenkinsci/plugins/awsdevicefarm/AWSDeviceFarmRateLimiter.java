@@ -0,0 +1,54 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out AWS Device Farm API calls made from several threads so a burst of concurrent requests does not run
+ * into the service's throttling limits.
+ */
+public class AWSDeviceFarmRateLimiter {
+    public static final int DEFAULT_REQUESTS_PER_SECOND = 10;
+
+    private final long intervalNanos;
+    private long next = System.nanoTime();
+
+    /**
+     * Create a new rate limiter.
+     *
+     * @param requestsPerSecond The max number of requests per second.
+     */
+    public AWSDeviceFarmRateLimiter(int requestsPerSecond) {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, requestsPerSecond);
+    }
+
+    /**
+     * Block until the caller may make the next request.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            wait = next - now;
+            next = Math.max(now, next) + intervalNanos;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
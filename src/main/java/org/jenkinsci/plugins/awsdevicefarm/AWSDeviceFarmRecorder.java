@@ -26,11 +26,6 @@ import com.amazonaws.services.devicefarm.model.Artifact;
 import com.amazonaws.services.devicefarm.model.ArtifactCategory;
 import com.amazonaws.services.devicefarm.model.BillingMethod;
 import com.amazonaws.services.devicefarm.model.DevicePool;
-import com.amazonaws.services.devicefarm.model.Job;
-import com.amazonaws.services.devicefarm.model.ListArtifactsResult;
-import com.amazonaws.services.devicefarm.model.ListJobsResult;
-import com.amazonaws.services.devicefarm.model.ListSuitesResult;
-import com.amazonaws.services.devicefarm.model.ListTestsResult;
 import com.amazonaws.services.devicefarm.model.Location;
 import com.amazonaws.services.devicefarm.model.Project;
 import com.amazonaws.services.devicefarm.model.Radios;
@@ -39,8 +34,6 @@ import com.amazonaws.services.devicefarm.model.DeviceSelectionConfiguration;
 import com.amazonaws.services.devicefarm.model.DeviceFilter;
 import com.amazonaws.services.devicefarm.model.ScheduleRunResult;
 import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
-import com.amazonaws.services.devicefarm.model.Suite;
-import com.amazonaws.services.devicefarm.model.Test;
 import com.amazonaws.services.devicefarm.model.TestType;
 import com.amazonaws.services.devicefarm.model.Upload;
 import com.amazonaws.services.devicefarm.model.VPCEConfiguration;
@@ -48,6 +41,7 @@ import com.amazonaws.services.devicefarm.model.VpcConfig;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.Functions;
 import hudson.Launcher;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
@@ -84,6 +78,7 @@ import org.jenkinsci.plugins.awsdevicefarm.test.XCTestTest;
 import org.jenkinsci.plugins.awsdevicefarm.test.XCTestUITest;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
@@ -99,6 +94,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import com.amazonaws.services.devicefarm.model.ServiceAccountException;
 
@@ -234,6 +231,37 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
     public String deviceLocale;
     private static final String DEFAULT_DEVICE_LOCALE = "en_US";
 
+    // Results Download
+    public Integer downloadConcurrency;
+    public Integer downloadConnectionsPerHost;
+    public Boolean packageResults;
+    public Boolean lazyResults;
+    public String downloadCategories;
+    public String downloadExtensions;
+    public String downloadMode;
+    public Integer maxDownloadMegabytes;
+
+    // Fail Fast
+    public Integer maxFailedTests;
+    public Integer maxFailedDevices;
+    public Double maxFailureRatio;
+
+    // Test Sharding
+    public Integer shardCount;
+
+    // Run Matrix
+    public String runMatrix;
+
+    // Rerun Failed Tests
+    public Integer rerunFailedTests;
+
+    // Flaky Tests
+    public Boolean ignoreFlakyFailures;
+
+    // App Performance Budgets
+    public String performanceBudgets;
+    public Double performanceTolerance;
+    public Boolean failOnPerformanceRegression;
 
     /**
      * The Device Farm recorder class for running post-build steps on Jenkins.
@@ -430,6 +458,188 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
         }
     }
 
+    /**
+     * Stop the run once this many tests have failed or errored.
+     *
+     * @param maxFailedTests The max number of failed tests, null or 0 to disable.
+     */
+    @DataBoundSetter
+    public void setMaxFailedTests(Integer maxFailedTests) {
+        this.maxFailedTests = maxFailedTests;
+    }
+
+    /**
+     * Stop the run once this many devices have completed with a failed or errored result.
+     *
+     * @param maxFailedDevices The max number of failed devices, null or 0 to disable.
+     */
+    @DataBoundSetter
+    public void setMaxFailedDevices(Integer maxFailedDevices) {
+        this.maxFailedDevices = maxFailedDevices;
+    }
+
+    /**
+     * Stop the run once the ratio of failed tests over finished tests reaches this value.
+     *
+     * @param maxFailureRatio The max failure ratio (0.0 - 1.0), null or 0 to disable.
+     */
+    @DataBoundSetter
+    public void setMaxFailureRatio(Double maxFailureRatio) {
+        this.maxFailureRatio = maxFailureRatio;
+    }
+
+    /**
+     * Split the tests into this many parallel runs, see {@link AWSDeviceFarmTestSharding}.
+     *
+     * @param shardCount The number of shards, null or 0 to disable.
+     */
+    @DataBoundSetter
+    public void setShardCount(Integer shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Schedule these runs next to the configured run, see {@link AWSDeviceFarmRunMatrix}.
+     *
+     * @param runMatrix The additional runs, one per line.
+     */
+    @DataBoundSetter
+    public void setRunMatrix(String runMatrix) {
+        this.runMatrix = runMatrix;
+    }
+
+    /**
+     * Rerun the failed tests once on the devices they failed on, see {@link AWSDeviceFarmTestRerun}.
+     *
+     * @param rerunFailedTests The max number of failed tests to rerun, null or 0 to disable.
+     */
+    @DataBoundSetter
+    public void setRerunFailedTests(Integer rerunFailedTests) {
+        this.rerunFailedTests = rerunFailedTests;
+    }
+
+    /**
+     * Only mark the build unstable instead of failed when all failed tests are known to be flaky.
+     *
+     * @param ignoreFlakyFailures Do not fail the build for failures of known flaky tests.
+     */
+    @DataBoundSetter
+    public void setIgnoreFlakyFailures(Boolean ignoreFlakyFailures) {
+        this.ignoreFlakyFailures = ignoreFlakyFailures;
+    }
+
+    /**
+     * Check the app performance of every device against these budgets, see {@link AWSDeviceFarmPerformanceGate}.
+     *
+     * @param performanceBudgets The budgets, one per line.
+     */
+    @DataBoundSetter
+    public void setPerformanceBudgets(String performanceBudgets) {
+        this.performanceBudgets = performanceBudgets;
+    }
+
+    /**
+     * Also report budgeted statistics which got worse than in previous builds by more than this percentage.
+     *
+     * @param performanceTolerance The tolerance in percent, null or 0 to only check the limits.
+     */
+    @DataBoundSetter
+    public void setPerformanceTolerance(Double performanceTolerance) {
+        this.performanceTolerance = performanceTolerance;
+    }
+
+    /**
+     * Mark the build failed instead of unstable when a performance budget is exceeded.
+     *
+     * @param failOnPerformanceRegression Fail the build for performance regressions.
+     */
+    @DataBoundSetter
+    public void setFailOnPerformanceRegression(Boolean failOnPerformanceRegression) {
+        this.failOnPerformanceRegression = failOnPerformanceRegression;
+    }
+
+    /**
+     * Download this many result artifacts concurrently.
+     *
+     * @param downloadConcurrency The max number of concurrent downloads, null or 0 for the default.
+     */
+    @DataBoundSetter
+    public void setDownloadConcurrency(Integer downloadConcurrency) {
+        this.downloadConcurrency = downloadConcurrency;
+    }
+
+    /**
+     * Open at most this many connections to a single host while downloading result artifacts.
+     *
+     * @param downloadConnectionsPerHost The max number of connections per host, null or 0 to only apply the concurrency.
+     */
+    @DataBoundSetter
+    public void setDownloadConnectionsPerHost(Integer downloadConnectionsPerHost) {
+        this.downloadConnectionsPerHost = downloadConnectionsPerHost;
+    }
+
+    /**
+     * Stream the result artifacts of every job (device) into a single zip archive with an index, instead of storing
+     * one file per artifact.
+     *
+     * @param packageResults Package results into one archive per job.
+     */
+    @DataBoundSetter
+    public void setPackageResults(Boolean packageResults) {
+        this.packageResults = packageResults;
+    }
+
+    /**
+     * Only store the metadata of the result artifacts and download each artifact when it is first opened from the
+     * results page.
+     *
+     * @param lazyResults Download result artifacts on demand.
+     */
+    @DataBoundSetter
+    public void setLazyResults(Boolean lazyResults) {
+        this.lazyResults = lazyResults;
+    }
+
+    /**
+     * Only download result artifacts of these categories.
+     *
+     * @param downloadCategories Comma separated list of SCREENSHOT, FILE and LOG, blank for all.
+     */
+    @DataBoundSetter
+    public void setDownloadCategories(String downloadCategories) {
+        this.downloadCategories = downloadCategories;
+    }
+
+    /**
+     * Only download result artifacts with these file extensions.
+     *
+     * @param downloadExtensions Comma separated list of extensions, blank for all.
+     */
+    @DataBoundSetter
+    public void setDownloadExtensions(String downloadExtensions) {
+        this.downloadExtensions = downloadExtensions;
+    }
+
+    /**
+     * Select result artifacts based on the test results.
+     *
+     * @param downloadMode The name of the {@link AWSDeviceFarmDownloadPolicy.Mode}, blank for all artifacts.
+     */
+    @DataBoundSetter
+    public void setDownloadMode(String downloadMode) {
+        this.downloadMode = downloadMode;
+    }
+
+    /**
+     * Download at most this many megabytes of result artifacts per build.
+     *
+     * @param maxDownloadMegabytes The max number of megabytes, null or 0 for no limit.
+     */
+    @DataBoundSetter
+    public void setMaxDownloadMegabytes(Integer maxDownloadMegabytes) {
+        this.maxDownloadMegabytes = maxDownloadMegabytes;
+    }
+
     /**
      * Convert the test type String to TestType.
      *
@@ -544,12 +754,28 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
         FilePath artifactsDir = new FilePath(build.getArtifactsDir());
 
         // Validate user selection & input values.
-        boolean isValid = validateConfiguration(log) && validateTestConfiguration(log);
+        boolean isValid = validateConfiguration(log) && validateTestConfiguration(testToRun, log);
         if (!isValid) {
             writeToLog(log, "Invalid configuration.");
             build.setResult(Result.FAILURE);
             return;
         }
+        List<AWSDeviceFarmRunMatrix.RunConfiguration> matrix;
+        try {
+            matrix = AWSDeviceFarmRunMatrix.parse(env.expand(runMatrix));
+        } catch (IllegalArgumentException e) {
+            writeToLog(log, String.format("Invalid run matrix: %s", e.getMessage()));
+            build.setResult(Result.FAILURE);
+            return;
+        }
+        List<AWSDeviceFarmPerformanceGate.Budget> budgets;
+        try {
+            budgets = AWSDeviceFarmPerformanceGate.parseBudgets(performanceBudgets);
+        } catch (IllegalArgumentException e) {
+            writeToLog(log, String.format("Invalid performance budgets: %s", e.getMessage()));
+            build.setResult(Result.FAILURE);
+            return;
+        }
 
         // Create & configure the AWSDeviceFarm client.
         AWSDeviceFarm adf = getAWSDeviceFarm()
@@ -558,6 +784,13 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
                 .withArtifactsDir(artifactsDir)
                 .withEnv(env);
 
+        // Track what has to be cleaned up on AWS Device Farm if the build gets aborted.
+        List<String> scheduledRunArns = new ArrayList<String>();
+        boolean runCompleted = false;
+        String rerunArn = null;
+        boolean rerunCompleted = false;
+        List<String> cancellations = new ArrayList<String>();
+
         try {
             // Accept 'ADF_PROJECT' build parameter as an overload from job configuration.
             String projectNameParameter = parameters.get("AWSDEVICEFARM_PROJECT");
@@ -672,7 +905,7 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
 
             // Upload test content.
             writeToLog(log, "Getting test to schedule.");
-            ScheduleRunTest testToSchedule = getScheduleRunTest(env, adf, project, log);
+            ScheduleRunTest testToSchedule = getScheduleRunTest(env, adf, project, testToRun, log);
 
             // by default videoCapture is always enabled
             Boolean videoCapture = true;
@@ -722,14 +955,61 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
                 configuration.setVpceConfigurationArns(vpceConfigurationArns);
             }
 
-            ScheduleRunResult run = adf.scheduleRun(project.getArn(), deviceFarmRunName, appArn, devicePoolArn, testToSchedule, jobTimeoutMinutes, configuration, videoCapture, skipAppResign, deviceSelectionConfig);
+            // Split the tests into shards which run in parallel.
+            List<String> shardFilters = Collections.emptyList();
+            if (shardCount != null && shardCount > 1) {
+                if (!AWSDeviceFarmTestSharding.supports(testType) || !StringUtils.isBlank(testToSchedule.getFilter())) {
+                    writeToLog(log, String.format("Not sharding '%s' run, only unfiltered Instrumentation and UI Automator tests can be sharded", testType));
+                } else {
+                    shardFilters = AWSDeviceFarmTestSharding.plan(build.getParent(), build.getNumber(), shardCount, log);
+                }
+            }
 
-            String runArn = run.getRun().getArn();
+            // Prepare all runs before the first one is scheduled, so nothing is scheduled if one of them is invalid.
+            List<AWSDeviceFarmRunMatrix.PlannedRun> plannedRuns;
             try {
-                writeToLog(log, String.format("View the %s run in the AWS Device Farm Console: %s", testType, AWSDeviceFarmUtils.getRunUrlFromArn(runArn)));
-            } catch (ArrayIndexOutOfBoundsException e) {
-                writeToLog(log, String.format("Could not parse project ID and run ID from run ARN: %s", runArn));
+                plannedRuns = AWSDeviceFarmRunMatrix.plan(matrix, devicePoolArn != null ? devicePoolName : null, devicePoolArn,
+                        deviceSelectionConfig, testToSchedule, shardFilters, newRunResolver(env, adf, project, log), log);
+            } catch (IllegalArgumentException e) {
+                writeToLog(log, String.format("Invalid run matrix: %s", e.getMessage()));
+                build.setResult(Result.FAILURE);
+                return;
+            }
+            List<String> runLabels = new ArrayList<String>();
+            List<String> runDirectories = new ArrayList<String>();
+            for (AWSDeviceFarmRunMatrix.PlannedRun plannedRun : plannedRuns) {
+                runLabels.add(plannedRun.getLabel());
+                runDirectories.add(plannedRun.getDirectory());
+            }
+            Set<String> devicePools = new LinkedHashSet<String>();
+            if (deviceSelectionConfig != null || devicePoolName != null) {
+                devicePools.add(deviceSelectionConfig != null ? "Device selection filters" : devicePoolName);
+            }
+            for (AWSDeviceFarmRunMatrix.RunConfiguration matrixRun : matrix) {
+                if (matrixRun.getDevicePool() != null) {
+                    devicePools.add(matrixRun.getDevicePool());
+                }
+            }
+
+            List<ScheduleRunResult> runs = new ArrayList<ScheduleRunResult>();
+            for (AWSDeviceFarmRunMatrix.PlannedRun plannedRun : plannedRuns) {
+                String name = deviceFarmRunName;
+                if (plannedRun.getLabel() != null) {
+                    name = String.format("%s (%s)", deviceFarmRunName, plannedRun.getLabel());
+                    writeToLog(log, String.format("Scheduling '%s' run '%s'", plannedRun.getTest().getType(), name));
+                }
+                ScheduleRunResult run = adf.scheduleRun(project.getArn(), name, appArn, plannedRun.getDevicePoolArn(), plannedRun.getTest(), jobTimeoutMinutes, configuration, videoCapture, skipAppResign, plannedRun.getDeviceSelection());
+                runs.add(run);
+
+                String arn = run.getRun().getArn();
+                scheduledRunArns.add(arn);
+                try {
+                    writeToLog(log, String.format("View the %s run in the AWS Device Farm Console: %s", plannedRun.getTest().getType(), AWSDeviceFarmUtils.getRunUrlFromArn(arn)));
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    writeToLog(log, String.format("Could not parse project ID and run ID from run ARN: %s", arn));
+                }
             }
+            String runArn = scheduledRunArns.get(0);
 
             // Attach AWS Device Farm action to poll periodically and update results UI.
             AWSDeviceFarmTestResultAction action = new AWSDeviceFarmTestResultAction(build, null);
@@ -737,52 +1017,275 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
 
             // Wait for test result to complete will updating status periodically.
             writeToLog(log, "Waiting for test run to complete.");
-            action.waitForRunCompletion(adf, run);
+            AWSDeviceFarmFailFastPolicy failFastPolicy = new AWSDeviceFarmFailFastPolicy(maxFailedTests, maxFailedDevices, maxFailureRatio);
+            action.waitForRunsCompletion(adf, runs, runLabels, listener, failFastPolicy);
+            runCompleted = true;
             writeToLog(log, "Test run is complete.");
+            if (action.getAbortReason() != null) {
+                writeToLog(log, String.format("Run was stopped early: %s", action.getAbortReason()));
+            }
+
+            // Collect the per-device, per-suite and per-test results, stored next to build.xml. They are only needed
+            // when the results are stored, failed tests are rerun or performance budgets are checked.
+            boolean rerunEnabled = rerunFailedTests != null && rerunFailedTests > 0;
+            AWSDeviceFarmResultTree tree = null;
+            if (storeResults || rerunEnabled || !budgets.isEmpty()) {
+                tree = crawlResults(adf, log, scheduledRunArns, runDirectories);
+            }
+
+            // Rerun the failed tests once on the devices they failed on.
+            AWSDeviceFarmTestResult originalResult = action.getResult();
+            if (rerunEnabled && tree != null && originalResult != null
+                    && originalResult.getFailCount() + originalResult.getErrorCount() > 0) {
+                AWSDeviceFarmTestRerun rerun = AWSDeviceFarmTestRerun.of(tree);
+                if (!AWSDeviceFarmTestRerun.supports(testType) || !matrix.isEmpty()) {
+                    writeToLog(log, "Not rerunning failed tests, only Instrumentation and UI Automator runs without additional runs can be rerun");
+                } else if (action.getAbortReason() != null) {
+                    writeToLog(log, "Not rerunning failed tests of a run which was stopped early");
+                } else if (rerun.isEmpty()) {
+                    writeToLog(log, "Not rerunning failed tests, only setup or teardown failed");
+                } else if (rerun.getTests().size() > rerunFailedTests) {
+                    writeToLog(log, String.format("Not rerunning %d failed tests, at most %d are rerun", rerun.getTests().size(), rerunFailedTests));
+                } else {
+                    writeToLog(log, String.format("Rerunning %d failed tests on %d devices, every test on every device with failed tests: %s",
+                            rerun.getTests().size(), rerun.getDeviceArns().size(), StringUtils.join(rerun.getTests(), ", ")));
+                    ScheduleRunTest rerunTest = testToSchedule.clone().withFilter(rerun.getFilter());
+                    ScheduleRunResult rerunRun = adf.scheduleRun(project.getArn(), String.format("%s (%s)", deviceFarmRunName, AWSDeviceFarmTestRerun.LABEL.toLowerCase()),
+                            appArn, null, rerunTest, jobTimeoutMinutes, configuration, videoCapture, skipAppResign, rerun.getDeviceSelection());
+                    rerunArn = rerunRun.getRun().getArn();
+                    AWSDeviceFarmTestResult rerunResult = action.waitForRerunCompletion(adf, rerunRun, listener);
+                    rerunCompleted = true;
+
+                    AWSDeviceFarmResultTree rerunTree = crawlResults(adf, log, Collections.singletonList(rerunArn),
+                            Collections.singletonList(AWSDeviceFarmTestRerun.LABEL));
+                    int recoveredFailures = 0;
+                    int recoveredErrors = 0;
+                    if (rerunTree != null) {
+                        recoveredFailures = AWSDeviceFarmTestRerun.countRecovered(tree, rerunTree, "FAILED");
+                        recoveredErrors = AWSDeviceFarmTestRerun.countRecovered(tree, rerunTree, "ERRORED");
+                        for (AWSDeviceFarmResultTree.JobNode job : rerunTree.getJobs()) {
+                            tree.addJob(job);
+                        }
+                    }
+                    action.applyRerun(originalResult, rerunResult, recoveredFailures, recoveredErrors);
+                    writeToLog(log, String.format("%d of %d failures passed in the rerun",
+                            recoveredFailures + recoveredErrors, originalResult.getFailCount() + originalResult.getErrorCount()));
+                }
+            }
+            if (tree != null) {
+                tree.save(build.getRootDir());
+            } else {
+                tree = new AWSDeviceFarmResultTree();
+            }
+
+            // Report the device minutes used, and the jobs which used a lot more of them than in previous builds.
+            AWSDeviceFarmTestResult testResult = action.getResult();
+            if (testResult != null) {
+                testResult.setDevicePool(devicePools.isEmpty() ? null : StringUtils.join(devicePools, ", "));
+                writeToLog(log, String.format("Run used %.1f device minutes (%.1f metered, %.1f unmetered)",
+                        testResult.getDuration(), testResult.getMeteredMinutes(), testResult.getUnmeteredMinutes()));
+                List<AWSDeviceFarmHistory.Record> previous = AWSDeviceFarmHistory.forJob(build.getParent())
+                        .getRecords(build.getNumber() - 1, AWSDeviceFarmCostTrend.BASELINE_BUILDS);
+                List<AWSDeviceFarmCostTrend.Regression> regressions = AWSDeviceFarmCostTrend.findRegressions(
+                        AWSDeviceFarmCostTrend.getJobMinutes(build.getParent(), previous), AWSDeviceFarmCostTrend.getJobMinutes(tree));
+                for (AWSDeviceFarmCostTrend.Regression regression : regressions) {
+                    writeToLog(log, String.format("Job %s used %.1f device minutes, up from a median of %.1f in previous builds",
+                            regression.getJob(), regression.getMinutes(), regression.getBaseline()));
+                }
 
+                // Look up the failed tests which were already flaky before this build.
+                List<String> flakyFailures = AWSDeviceFarmFlakyTests.forJob(build.getParent()).findFlakyFailures(tree);
+                List<String> failures = AWSDeviceFarmFlakyTests.getFailures(tree);
+                testResult.setFlakyFailures(flakyFailures, failures);
+                if (!flakyFailures.isEmpty()) {
+                    writeToLog(log, String.format("%d of %d failed tests are known to be flaky: %s", flakyFailures.size(),
+                            failures.size(), StringUtils.join(flakyFailures, ", ")));
+                }
+            }
+
+            // Summarize the app performance data of every device, stored next to build.xml.
+            AWSDeviceFarmPerformance performance = new AWSDeviceFarmPerformance();
+            for (String arn : tree.getJobs().isEmpty() ? Collections.<String>emptyList() : scheduledRunArns) {
+                for (AWSDeviceFarmPerformance.DeviceMetrics device : AWSDeviceFarmPerformance.collect(adf, arn, tree, AWSDeviceFarmTransferScheduler.get(), log).getDevices()) {
+                    performance.addDevice(device);
+                }
+            }
+            if (!performance.isEmpty()) {
+                performance.save(build.getRootDir());
+            }
+            if (testResult != null && !budgets.isEmpty()) {
+                checkPerformance(log, build, testResult, performance, budgets);
+            }
 
             // Download results archive and store it.
             if (storeResults) {
                 // Create results storage directory which will contain the unzip logs/screenshots pulled from AWS Device Farm.
-                FilePath resultsRootDir = archiveResults == null || archiveResults ? artifactsDir : workspace;
-                FilePath resultsDir = new FilePath(resultsRootDir, StringUtils.isBlank(resultsPath) ? "AWS Device Farm Results" : resultsPath);
-                resultsDir.mkdirs();
-                writeToLog(log, String.format("Storing AWS Device Farm results in directory %s", resultsDir));
+                boolean archived = archiveResults == null || archiveResults;
+                boolean packaged = packageResults != null && packageResults;
+                boolean lazy = lazyResults != null && lazyResults;
+                FilePath resultsRootDir = archived ? artifactsDir : workspace;
+                String resultsDirName = StringUtils.isBlank(resultsPath) ? "AWS Device Farm Results" : resultsPath;
+                FilePath resultsDir = new FilePath(resultsRootDir, resultsDirName);
+                if (!lazy) {
+                    resultsDir.mkdirs();
+                    writeToLog(log, String.format("Storing AWS Device Farm results in directory %s", resultsDir));
+                }
 
-                Map<String, FilePath> jobs = getJobs(adf, run, resultsDir);
-                Map<String, FilePath> suites = getSuites(adf, run, jobs);
-                Map<String, FilePath> tests = getTests(adf, run, suites);
+                if (!packaged && !lazy) {
+                    AWSDeviceFarmResultCrawler.createDirectories(resultsDir, tree);
+                }
 
-                writeToLog(log, "Downloading AWS Device Farm results archive...");
+                writeToLog(log, lazy ? "Indexing AWS Device Farm results for on-demand download..." : "Downloading AWS Device Farm results archive...");
+                AWSDeviceFarmDownloadPolicy downloadPolicy = new AWSDeviceFarmDownloadPolicy(downloadCategories, downloadExtensions, downloadMode, maxDownloadMegabytes);
+                AWSDeviceFarmArtifactDownloader downloader = new AWSDeviceFarmArtifactDownloader(downloadConcurrency, downloadConnectionsPerHost, log)
+                        .withMaxBytes(downloadPolicy.getMaxBytes())
+                        .withRefresher(new AWSDeviceFarmArtifactDownloader.RunRefresher(adf))
+                        .withScheduler(AWSDeviceFarmTransferScheduler.get(), build.getFullDisplayName());
+                int skipped = 0;
+                Set<String> archives = new LinkedHashSet<String>();
+                List<Artifact> lazyArtifacts = new ArrayList<Artifact>();
+                List<ArtifactCategory> lazyCategories = new ArrayList<ArtifactCategory>();
+                List<String> lazyPaths = new ArrayList<String>();
+                List<URL> lazyUrls = new ArrayList<URL>();
                 // Iterating over all values in the Enum.
                 for (ArtifactCategory category : new ArrayList<ArtifactCategory>(Arrays.asList(ArtifactCategory.values()))) {
-                    ListArtifactsResult result = adf.listArtifacts(run.getRun().getArn(), category);
-                    for (Artifact artifact : result.getArtifacts()) {
-                        String arn = artifact.getArn().split(":")[6];
+                    if (!downloadPolicy.accepts(category)) {
+                        continue;
+                    }
+                    List<Artifact> artifacts = new ArrayList<Artifact>();
+                    for (String arn : scheduledRunArns) {
+                        artifacts.addAll(adf.getArtifacts(arn, category));
+                    }
+                    if (rerunArn != null) {
+                        artifacts.addAll(adf.getArtifacts(rerunArn, category));
+                    }
+                    for (Artifact artifact : artifacts) {
+                        if (!downloadPolicy.accepts(category, artifact, tree)) {
+                            skipped++;
+                            continue;
+                        }
+                        String arn = AWSDeviceFarmResultTree.idOf(artifact.getArn());
                         String testArn = arn.substring(0, arn.lastIndexOf("/"));
                         String id = arn.substring(arn.lastIndexOf("/") + 1);
                         String extension = artifact.getExtension().replaceFirst("^\\.", "");
 
+                        String fileName = String.format("%s-%s.%s", artifact.getName(), id, extension);
+                        String testPath = tree.getPath(testArn);
+                        if (lazy) {
+                            // Only remember the metadata, the artifact is fetched when it is first opened
+                            lazyUrls.add(new URL(artifact.getUrl()));
+                            lazyArtifacts.add(artifact);
+                            lazyCategories.add(category);
+                            lazyPaths.add(testPath);
+                            continue;
+                        }
+
+                        AWSDeviceFarmResultTree.JobNode job = tree.findJob(testArn);
+                        if (packaged && testPath != null && job != null) {
+                            // Stream the artifact into the archive of its job
+                            String archive = job.getPath() + AWSDeviceFarmResultArchive.EXTENSION;
+                            String entry = testPath.substring(job.getPath().length() + 1) + "/" + fileName;
+                            downloader.add(artifact.getArn(), new URL(artifact.getUrl()), new FilePath(resultsDir, archive), entry);
+                            archives.add(resultsDirName + "/" + archive);
+                            continue;
+                        }
+
                         // Copy remote file to local path for archiving
-                        FilePath localArtifact = new FilePath(tests.get(testArn), String.format("%s-%s.%s", artifact.getName(), id, extension));
-                        URL artifactUrl = new URL(artifact.getUrl());
-                        localArtifact.copyFrom(artifactUrl);
+                        FilePath testDir = testPath != null ? new FilePath(resultsDir, testPath) : resultsDir;
+                        FilePath localArtifact = new FilePath(testDir, fileName);
+                        downloader.add(artifact.getArn(), new URL(artifact.getUrl()), localArtifact);
                     }
                 }
-                writeToLog(log, String.format("Results archive saved in %s", resultsRootDir.getName()));
+                if (skipped > 0) {
+                    writeToLog(log, String.format("Skipping %d artifacts excluded by the download policy", skipped));
+                }
+                if (lazy) {
+                    List<Long> sizes = downloader.probe(lazyUrls);
+                    List<AWSDeviceFarmArtifactIndex.Entry> entries = new ArrayList<AWSDeviceFarmArtifactIndex.Entry>();
+                    for (int i = 0; i < lazyArtifacts.size(); i++) {
+                        entries.add(new AWSDeviceFarmArtifactIndex.Entry(lazyArtifacts.get(i), lazyCategories.get(i), lazyPaths.get(i), sizes.get(i)));
+                    }
+                    new AWSDeviceFarmArtifactIndex(runArn, entries).save(build.getRootDir());
+                    writeToLog(log, String.format("Indexed %d artifacts, they are downloaded when first opened from the results page", entries.size()));
+                } else {
+                    try {
+                        long bytes = downloader.download();
+                        writeToLog(log, String.format("Downloaded %d artifacts (%s)", downloader.getCompletedCount(), Functions.humanReadableByteSize(bytes)));
+                    } catch (InterruptedException e) {
+                        cancellations.add(String.format("Aborted results download after %d of %d artifacts", downloader.getCompletedCount(), downloader.getCount()));
+                        throw e;
+                    }
+                    if (archived && !archives.isEmpty() && action.getResult() != null) {
+                        action.getResult().setArchives(new ArrayList<String>(archives));
+                    }
+                    writeToLog(log, String.format("Results archive saved in %s", resultsRootDir.getName()));
+                }
             }
 
             // Set Jenkins build result based on AWS Device Farm test result.
-            build.setResult(action.getBuildResult(ignoreRunError));
-            writeToLog(log, String.format("Marking jenkins stage result as: %s", action.getBuildResult(ignoreRunError)));
+            build.setResult(action.getBuildResult(ignoreRunError, ignoreFlakyFailures));
+            writeToLog(log, String.format("Marking jenkins stage result as: %s", action.getBuildResult(ignoreRunError, ignoreFlakyFailures)));
         } catch (AWSDeviceFarmException e) {
             writeToLog(log, e.getMessage());
             return;
+        } catch (InterruptedException e) {
+            writeToLog(log, "Build aborted, cleaning up AWS Device Farm resources.");
+            cancellations.addAll(0, adf.getCancellations());
+            // The original runs are complete once a rerun was scheduled, so only the rerun is left to stop.
+            List<String> pendingRunArns = new ArrayList<String>();
+            if (!runCompleted) {
+                pendingRunArns.addAll(scheduledRunArns);
+            } else if (rerunArn != null && !rerunCompleted) {
+                pendingRunArns.add(rerunArn);
+            }
+            for (String pendingRunArn : pendingRunArns) {
+                try {
+                    adf.stopRun(pendingRunArn);
+                    cancellations.add(String.format("Stopped run %s", pendingRunArn));
+                } catch (RuntimeException ex) {
+                    cancellations.add(String.format("Unable to stop run %s: %s", pendingRunArn, ex.getMessage()));
+                }
+            }
+            if (!cancellations.isEmpty()) {
+                for (String step : cancellations) {
+                    writeToLog(log, step);
+                }
+                build.addAction(new AWSDeviceFarmCancellationAction(cancellations));
+            }
+            throw e;
         }
 
         return;
     }
 
+    /**
+     * Looks up the tests of the run matrix, uploading the test package of every test type the build step is
+     * configured for, and its device pools.
+     */
+    private AWSDeviceFarmRunMatrix.Resolver newRunResolver(final EnvVars env, final AWSDeviceFarm adf, final Project project, final PrintStream log) {
+        return new AWSDeviceFarmRunMatrix.Resolver() {
+            public String getTestType(String testType) {
+                return transformTestToRunForWebApp(testType);
+            }
+
+            public ScheduleRunTest getTest(String testType) throws IOException, InterruptedException, AWSDeviceFarmException {
+                if (!validateTestConfiguration(testType, log)) {
+                    return null;
+                }
+                writeToLog(log, String.format("Getting '%s' test to schedule.", testType));
+                ScheduleRunTest test = getScheduleRunTest(env, adf, project, testType, log);
+                if (ifAppPerformanceMonitoring != null && !ifAppPerformanceMonitoring) {
+                    test.addParametersEntry("app_performance_monitoring", "false");
+                }
+                return test;
+            }
+
+            public String getDevicePoolArn(String devicePool) throws AWSDeviceFarmException {
+                return adf.getDevicePool(project, devicePool).getArn();
+            }
+        };
+    }
+
     private Location getScheduleRunConfigurationLocation(Boolean deviceLocation) {
         Location location = new Location();
         if (deviceLocation != null && deviceLocation){
@@ -840,74 +1343,18 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
         return configuration;
     }
 
-    private Map<String, FilePath> getSuites(AWSDeviceFarm adf, ScheduleRunResult run, Map<String, FilePath> jobs) throws IOException, InterruptedException {
-        Map<String, FilePath> suites = new HashMap<String, FilePath>();
-        String runArn = run.getRun().getArn();
-        String components[] = runArn.split(":");
-        // constructing job ARN for each job using the run ARN
-        components[5] = "job";
-        for (Map.Entry<String, FilePath> jobEntry : jobs.entrySet()) {
-            String jobArn = jobEntry.getKey();
-            components[6] = jobArn;
-            String fullJobArn = StringUtils.join(components, ":");
-            ListSuitesResult result = adf.listSuites(fullJobArn);
-            for (Suite suite : result.getSuites()) {
-                String arn = suite.getArn().split(":")[6];
-                suites.put(arn, new FilePath(jobs.get(jobArn), suite.getName()));
-                suites.get(arn).mkdirs();
-            }
-        }
-        return suites;
-    }
-
-    private Map<String, FilePath> getTests(AWSDeviceFarm adf, ScheduleRunResult run, Map<String, FilePath> suites) throws IOException, InterruptedException {
-        Map<String, FilePath> tests = new HashMap<String, FilePath>();
-        String runArn = run.getRun().getArn();
-        String components[] = runArn.split(":");
-        // constructing suite ARN for each job using the run ARN
-        components[5] = "suite";
-        for (Map.Entry<String, FilePath> suiteEntry : suites.entrySet()) {
-            String suiteArn = suiteEntry.getKey();
-            components[6] = suiteArn;
-            String fullsuiteArn = StringUtils.join(components, ":");
-            ListTestsResult result = adf.listTests(fullsuiteArn);
-            for (Test test : result.getTests()) {
-                String arn = test.getArn().split(":")[6];
-                tests.put(arn, new FilePath(suites.get(suiteArn), test.getName()));
-                tests.get(arn).mkdirs();
-            }
-        }
-        return tests;
-    }
-
-    private Map<String, FilePath> getJobs(AWSDeviceFarm adf, ScheduleRunResult run, FilePath resultsDir) throws IOException, InterruptedException {
-        Map<String, FilePath> jobs = new HashMap<String, FilePath>();
-        ListJobsResult result = adf.listJobs(run.getRun().getArn());
-        for (Job job : result.getJobs()) {
-            String arn = job.getArn().split(":")[6];
-            String jobId = arn.substring(arn.lastIndexOf("/") + 1);
-            // Two jobs can have same name. Appending Os version information to job name
-            String osVersion = null;
-            if (job.getDevice() != null) {
-                osVersion = job.getDevice().getOs();
-            }
-            jobs.put(arn, new FilePath(resultsDir, job.getName() + "-" + (osVersion != null ? osVersion : jobId)));
-            jobs.get(arn).mkdirs();
-        }
-        return jobs;
-    }
-
     /**
      * Schedule a test run.
      *
      * @param env     The Jenkins environment to use.
      * @param adf     The AWS Device Farm.
      * @param project The project.
+     * @param testToRun The test type to schedule.
      * @return A list of all of the run tests scheduled.
      * @throws IOException
      * @throws AWSDeviceFarmException
      */
-    private ScheduleRunTest getScheduleRunTest(EnvVars env, AWSDeviceFarm adf, Project project, PrintStream log) throws InterruptedException, IOException, AWSDeviceFarmException {
+    private ScheduleRunTest getScheduleRunTest(EnvVars env, AWSDeviceFarm adf, Project project, String testToRun, PrintStream log) throws InterruptedException, IOException, AWSDeviceFarmException {
         ScheduleRunTest testToSchedule = null;
         TestType testType = stringToTestType(testToRun);
 
@@ -1298,10 +1745,11 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
     /**
      * Validate user selected test type and additional configuration values.
      *
-     * @param log Destination Task Log
+     * @param testToRun The test type to validate.
+     * @param log       Destination Task Log
      * @return Whether or not the test configuration is valid.
      */
-    private boolean validateTestConfiguration(@Nonnull PrintStream log) {
+    private boolean validateTestConfiguration(@Nonnull String testToRun, @Nonnull PrintStream log) {
         TestType testType = stringToTestType(testToRun);
 
         switch (testType) {
@@ -1492,6 +1940,46 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
         return true;
     }
 
+    /**
+     * Crawl the per-device results of the given runs. The runs are complete at this point, so an API error only
+     * costs the per-device results and does not fail the build.
+     *
+     * @return The result tree or null if it could not be crawled.
+     */
+    private AWSDeviceFarmResultTree crawlResults(AWSDeviceFarm adf, PrintStream log, List<String> runArns, List<String> directories) throws InterruptedException {
+        try {
+            return new AWSDeviceFarmResultCrawler(adf, log).crawl(runArns, directories);
+        } catch (IOException e) {
+            writeToLog(log, String.format("Unable to collect the per-device results: %s", e.getMessage()));
+        } catch (RuntimeException e) {
+            writeToLog(log, String.format("Unable to collect the per-device results: %s", e.getMessage()));
+        }
+        return null;
+    }
+
+    /**
+     * Check the app performance of a run against the budgets and the previous builds, and record the violations on
+     * the result so they are taken into account by its build result.
+     */
+    private void checkPerformance(PrintStream log, hudson.model.Run<?, ?> build, AWSDeviceFarmTestResult testResult,
+                                  AWSDeviceFarmPerformance performance, List<AWSDeviceFarmPerformanceGate.Budget> budgets) {
+        List<AWSDeviceFarmHistory.Record> previous = AWSDeviceFarmHistory.forJob(build.getParent())
+                .getRecords(build.getNumber() - 1, AWSDeviceFarmPerformanceGate.BASELINE_BUILDS);
+        List<AWSDeviceFarmPerformanceGate.Violation> violations = new AWSDeviceFarmPerformanceGate(budgets, performanceTolerance)
+                .check(performance, AWSDeviceFarmPerformanceTrend.load(build.getParent(), previous));
+        if (violations.isEmpty()) {
+            writeToLog(log, performance.isEmpty() ? "No app performance data to check against the budgets" : "App performance is within budget");
+            return;
+        }
+        List<String> messages = new ArrayList<String>();
+        for (AWSDeviceFarmPerformanceGate.Violation violation : violations) {
+            messages.add(violation.getMessage());
+            writeToLog(log, String.format("Performance regression: %s", violation.getMessage()));
+        }
+        boolean fail = failOnPerformanceRegression != null && failOnPerformanceRegression;
+        testResult.setPerformanceViolations(messages, fail ? Result.FAILURE : Result.UNSTABLE);
+    }
+
     /**
      * Helper method for writing entries to the Jenkins log.
      *
@@ -1625,6 +2113,9 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
         public String roleArn;
         public Secret akid;
         public Secret skid;
+        public Integer artifactCacheMegabytes;
+        public Integer transferConcurrency;
+        public Integer transferMegabytesPerSecond;
 
         private List<String> projectsCache = new ArrayList<String>();
         private Map<String, List<String>> poolsCache = new HashMap<String, List<String>>();
@@ -1633,6 +2124,7 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
 
         public DescriptorImpl() {
             load();
+            AWSDeviceFarmTransferScheduler.get().setLimits(transferConcurrency, transferMegabytesPerSecond);
         }
 
         /**
@@ -1662,6 +2154,14 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
             skid = Secret.fromString(skidValue);
         }
 
+        /**
+         * @return the max size of the controller cache for artifacts which are downloaded on demand, in bytes
+         */
+        public long getArtifactCacheBytes() {
+            int megabytes = (artifactCacheMegabytes != null && artifactCacheMegabytes > 0) ? artifactCacheMegabytes : AWSDeviceFarmArtifactCache.DEFAULT_MEGABYTES;
+            return megabytes * 1024L * 1024L;
+        }
+
         /**
          * Return configured instance of the AWS Device Farm client.
          *
@@ -1738,6 +2238,38 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
             return FormValidation.ok("Credentials are valid");
         }
 
+        /**
+         * Validate the user entered performance budgets.
+         *
+         * @param performanceBudgets The budgets, one per line.
+         * @return Whether or not the form was ok.
+         */
+        @SuppressWarnings("unused")
+        public FormValidation doCheckPerformanceBudgets(@QueryParameter String performanceBudgets) {
+            try {
+                AWSDeviceFarmPerformanceGate.parseBudgets(performanceBudgets);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+
+        /**
+         * Validate the user entered run matrix.
+         *
+         * @param runMatrix The additional runs, one per line.
+         * @return Whether or not the form was ok.
+         */
+        @SuppressWarnings("unused")
+        public FormValidation doCheckRunMatrix(@QueryParameter String runMatrix) {
+            try {
+                AWSDeviceFarmRunMatrix.parse(runMatrix);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+
         /**
          * Validate the user selected project.
          *
@@ -2070,6 +2602,20 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
             return new ListBoxModel(entries);
         }
 
+        /**
+         * Populate the download mode drop-down.
+         *
+         * @return The ListBoxModel for the UI.
+         */
+        @SuppressWarnings("unused")
+        public ListBoxModel doFillDownloadModeItems(@QueryParameter String downloadMode) {
+            List<ListBoxModel.Option> entries = new ArrayList<ListBoxModel.Option>();
+            for (AWSDeviceFarmDownloadPolicy.Mode mode : AWSDeviceFarmDownloadPolicy.Mode.values()) {
+                entries.add(new ListBoxModel.Option(mode.getDisplayName(), mode.name(), mode.name().equals(downloadMode)));
+            }
+            return new ListBoxModel(entries);
+        }
+
         /**
          * Populate the project drop-down Appium Version.
          *
@@ -2287,6 +2833,7 @@ public class AWSDeviceFarmRecorder extends Recorder implements SimpleBuildStep {
         public boolean configure(StaplerRequest req, JSONObject json) {
             req.bindJSON(this, json);
             save();
+            AWSDeviceFarmTransferScheduler.get().setLimits(transferConcurrency, transferMegabytesPerSecond);
             return true;
         }
 
@@ -0,0 +1,279 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A zip archive holding all downloaded artifacts of a single AWS Device Farm job (device), together with a plain
+ * text index ("name TAB size" per line) so single entries can be listed and served without scanning the archive.
+ */
+public class AWSDeviceFarmResultArchive {
+    public static final String EXTENSION = ".zip";
+    public static final String INDEX_EXTENSION = ".index";
+
+    private static final Pattern COMPRESSED = Pattern.compile(".*\\.(mp4|png|jpg|jpeg|gif|zip|gz|apk|ipa)$", Pattern.CASE_INSENSITIVE);
+
+    private final File file;
+    private List<Entry> entries;
+
+    /**
+     * Create a new result archive.
+     *
+     * @param file The zip file.
+     */
+    public AWSDeviceFarmResultArchive(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the file name of the archive
+     */
+    public String getName() {
+        return file.getName();
+    }
+
+    /**
+     * @return true if both the archive and its index exist
+     */
+    public boolean exists() {
+        return file.isFile() && getIndexFile(file).isFile();
+    }
+
+    /**
+     * @return the entries of the archive, read from its index
+     * @throws IOException
+     */
+    public synchronized List<Entry> getEntries() throws IOException {
+        if (entries == null) {
+            List<Entry> list = new ArrayList<Entry>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(getIndexFile(file)), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.lastIndexOf('\t');
+                    if (tab > 0) {
+                        list.add(new Entry(line.substring(0, tab), Long.parseLong(line.substring(tab + 1))));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            entries = Collections.unmodifiableList(list);
+        }
+        return entries;
+    }
+
+    /**
+     * Serve a single entry of the archive. Only entries which are listed in the index are served.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @param name     The name of the entry.
+     * @throws IOException
+     * @throws ServletException
+     */
+    public void serve(StaplerRequest request, StaplerResponse response, String name) throws IOException, ServletException {
+        Entry entry = null;
+        for (Entry e : getEntries()) {
+            if (e.getName().equals(name)) {
+                entry = e;
+                break;
+            }
+        }
+        if (entry == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ZipFile zip = new ZipFile(file);
+        try {
+            ZipEntry zipEntry = zip.getEntry(name);
+            if (zipEntry == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            InputStream in = zip.getInputStream(zipEntry);
+            try {
+                response.serveFile(request, in, file.lastModified(), entry.getSize(), name.substring(name.lastIndexOf('/') + 1));
+            } finally {
+                in.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Stream the given artifacts into a new zip archive and write its index. Entries are written as the bytes arrive;
+     * artifacts which are already compressed (videos, images) are stored without deflating them again. Each entry is
+     * downloaded with retries and verified. On failure the incomplete archive and index are removed.
+     *
+     * @param file    The zip file to create.
+     * @param urls    The (pre-signed) URLs of the artifacts.
+     * @param names   The entry names of the artifacts.
+     * @return The number of (uncompressed) bytes written.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static long write(File file, List<URL> urls, List<String> names) throws IOException, InterruptedException {
+        return write(file, urls, names, null);
+    }
+
+    /**
+     * Stream the given artifacts into a new zip archive, throttling the transfer.
+     *
+     * @param file     The zip file to create.
+     * @param urls     The (pre-signed) URLs of the artifacts.
+     * @param names    The entry names of the artifacts.
+     * @param throttle The throttle which is told about every chunk written, may be null.
+     * @return The number of (uncompressed) bytes written.
+     * @throws IOException
+     * @throws InterruptedException
+     * @see #write(File, List, List)
+     */
+    public static long write(File file, List<URL> urls, List<String> names, AWSDeviceFarmResumableDownload.Throttle throttle)
+            throws IOException, InterruptedException {
+        return write(file, urls, names, throttle, null);
+    }
+
+    /**
+     * Stream the given artifacts into a new zip archive, throttling the transfer and charging the artifact sizes to a
+     * budget. Artifacts which exceed the budget are left out of the index.
+     *
+     * @param file     The zip file to create.
+     * @param urls     The (pre-signed) URLs of the artifacts.
+     * @param names    The entry names of the artifacts.
+     * @param throttle The throttle which is told about every chunk written, may be null.
+     * @param budget   The budget the artifact sizes are charged to, may be null.
+     * @return The number of (uncompressed) bytes written.
+     * @throws IOException
+     * @throws InterruptedException
+     * @see #write(File, List, List)
+     */
+    public static long write(File file, List<URL> urls, List<String> names, AWSDeviceFarmResumableDownload.Throttle throttle,
+                             AWSDeviceFarmResumableDownload.Budget budget) throws IOException, InterruptedException {
+        File index = getIndexFile(file);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory %s", parent));
+        }
+        long total = 0;
+        boolean complete = false;
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(index), "UTF-8"));
+            Set<String> written = new HashSet<String>();
+            for (int i = 0; i < urls.size(); i++) {
+                String name = uniqueName(names.get(i), written);
+                zip.setLevel(COMPRESSED.matcher(name).matches() ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+                zip.putNextEntry(new ZipEntry(name));
+                long size;
+                try {
+                    size = AWSDeviceFarmResumableDownload.toStream(urls.get(i), zip, throttle, budget);
+                } catch (AWSDeviceFarmResumableDownload.LimitExceededException e) {
+                    // The entry is empty and only the index is served, so it is simply not indexed.
+                    zip.closeEntry();
+                    continue;
+                }
+                total += size;
+                zip.closeEntry();
+                writer.print(name);
+                writer.print('\t');
+                writer.println(size);
+            }
+            complete = true;
+        } finally {
+            zip.close();
+            if (writer != null) {
+                writer.close();
+            }
+            if (!complete) {
+                file.delete();
+                index.delete();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Get the index file of an archive.
+     *
+     * @param file The zip file.
+     * @return The index file.
+     */
+    public static File getIndexFile(File file) {
+        return new File(file.getParentFile(), file.getName() + INDEX_EXTENSION);
+    }
+
+    //// Helper Methods
+
+    private static String uniqueName(String name, Set<String> written) {
+        String unique = name;
+        for (int i = 1; !written.add(unique); i++) {
+            unique = String.format("%s.%d", name, i);
+        }
+        return unique;
+    }
+
+    /**
+     * A single entry of the archive.
+     */
+    public static class Entry {
+        private final String name;
+        private final long size;
+
+        Entry(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the uncompressed size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.ListJobsResult;
+import com.amazonaws.services.devicefarm.model.ListSuitesResult;
+import com.amazonaws.services.devicefarm.model.ListTestsResult;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.amazonaws.services.devicefarm.model.Test;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.awsdevicefarm.AWSDeviceFarmResultTree.JobNode;
+import org.jenkinsci.plugins.awsdevicefarm.AWSDeviceFarmResultTree.SuiteNode;
+import org.jenkinsci.plugins.awsdevicefarm.AWSDeviceFarmResultTree.TestNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Crawls the job / suite / test hierarchy of an AWS Device Farm run.
+ * <p>
+ * All list calls follow their pagination tokens. Suites and tests are listed concurrently: as soon as the suites of a
+ * job are known, the tests of those suites are queued, while every API page request goes through a shared
+ * {@link AWSDeviceFarmRateLimiter}.
+ */
+public class AWSDeviceFarmResultCrawler {
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final AWSDeviceFarm adf;
+    private final int concurrency;
+    private final AWSDeviceFarmRateLimiter rateLimiter;
+    private final PrintStream log;
+
+    /**
+     * Create a new result crawler with the default concurrency and request rate.
+     *
+     * @param adf The AWS Device Farm.
+     * @param log The log print stream.
+     */
+    public AWSDeviceFarmResultCrawler(AWSDeviceFarm adf, PrintStream log) {
+        this(adf, DEFAULT_CONCURRENCY, new AWSDeviceFarmRateLimiter(AWSDeviceFarmRateLimiter.DEFAULT_REQUESTS_PER_SECOND), log);
+    }
+
+    /**
+     * Create a new result crawler.
+     *
+     * @param adf         The AWS Device Farm.
+     * @param concurrency The max number of concurrent list requests.
+     * @param rateLimiter The rate limiter shared by all list requests.
+     * @param log         The log print stream.
+     */
+    public AWSDeviceFarmResultCrawler(AWSDeviceFarm adf, int concurrency, AWSDeviceFarmRateLimiter rateLimiter, PrintStream log) {
+        this.adf = adf;
+        this.concurrency = Math.max(1, concurrency);
+        this.rateLimiter = rateLimiter;
+        this.log = log;
+    }
+
+    /**
+     * Crawl the complete result tree of a run.
+     *
+     * @param runArn The ARN of the run.
+     * @return The result tree.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public AWSDeviceFarmResultTree crawl(String runArn) throws IOException, InterruptedException {
+        return crawl(runArn, null);
+    }
+
+    /**
+     * Crawl the result trees of several runs of a build into a single tree. The jobs of every run are stored below
+     * their own directory, since the runs usually share devices.
+     *
+     * @param runArns     The ARNs of the runs.
+     * @param directories The directory of every run, e.g. its label.
+     * @return The result tree of all runs.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public AWSDeviceFarmResultTree crawl(List<String> runArns, List<String> directories) throws IOException, InterruptedException {
+        if (runArns.size() == 1) {
+            return crawl(runArns.get(0), directories.get(0));
+        }
+        AWSDeviceFarmResultTree tree = new AWSDeviceFarmResultTree();
+        for (int i = 0; i < runArns.size(); i++) {
+            for (JobNode job : crawl(runArns.get(i), directories.get(i)).getJobs()) {
+                tree.addJob(job);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Crawl the complete result tree of a run.
+     *
+     * @param runArn    The ARN of the run.
+     * @param directory The directory of the jobs relative to the results directory, null for the results directory.
+     * @return The result tree.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public AWSDeviceFarmResultTree crawl(String runArn, String directory) throws IOException, InterruptedException {
+        List<JobNode> jobs = new ArrayList<JobNode>();
+        ListJobsResult result = null;
+        do {
+            rateLimiter.acquire();
+            result = adf.listJobs(runArn, result == null ? null : result.getNextToken());
+            for (Job job : result.getJobs()) {
+                String name = getJobDirectoryName(job);
+                jobs.add(new JobNode(job, directory != null ? directory + "/" + name : name));
+            }
+        } while (result.getNextToken() != null);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(concurrency,
+                new NamingThreadFactory(new DaemonThreadFactory(), "AWSDeviceFarm result crawl"));
+        final BlockingQueue<Future<?>> pending = new LinkedBlockingQueue<Future<?>>();
+        try {
+            for (final JobNode job : jobs) {
+                pending.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        // Queue the tests of every suite before this task completes, so the queue only drains
+                        // once the whole tree has been listed.
+                        for (SuiteNode suite : crawlSuites(job)) {
+                            final SuiteNode s = suite;
+                            pending.add(pool.submit(new Callable<Void>() {
+                                public Void call() throws Exception {
+                                    crawlTests(s);
+                                    return null;
+                                }
+                            }));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            Future<?> future;
+            while ((future = pending.poll()) != null) {
+                await(future);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        AWSDeviceFarmResultTree tree = new AWSDeviceFarmResultTree();
+        int suites = 0;
+        int tests = 0;
+        for (JobNode job : jobs) {
+            tree.addJob(job);
+            suites += job.getSuites().size();
+            for (SuiteNode suite : job.getSuites()) {
+                tests += suite.getTests().size();
+            }
+        }
+        writeToLog(String.format("Found %d jobs, %d suites and %d tests", jobs.size(), suites, tests));
+        return tree;
+    }
+
+    /**
+     * Create the directories of all nodes of a result tree below the given root with a single remote call.
+     *
+     * @param root The results directory.
+     * @param tree The result tree.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void createDirectories(FilePath root, AWSDeviceFarmResultTree tree) throws IOException, InterruptedException {
+        root.act(new MakeDirectories(tree.getPaths()));
+    }
+
+    //// Helper Methods
+
+    private List<SuiteNode> crawlSuites(JobNode job) throws InterruptedException {
+        List<SuiteNode> suites = new ArrayList<SuiteNode>();
+        ListSuitesResult result = null;
+        do {
+            rateLimiter.acquire();
+            result = adf.listSuites(job.getArn(), result == null ? null : result.getNextToken());
+            for (Suite suite : result.getSuites()) {
+                suites.add(new SuiteNode(suite, job.getPath() + "/" + suite.getName()));
+            }
+        } while (result.getNextToken() != null);
+        job.setSuites(suites);
+        return suites;
+    }
+
+    private void crawlTests(SuiteNode suite) throws InterruptedException {
+        List<TestNode> tests = new ArrayList<TestNode>();
+        ListTestsResult result = null;
+        do {
+            rateLimiter.acquire();
+            result = adf.listTests(suite.getArn(), result == null ? null : result.getNextToken());
+            for (Test test : result.getTests()) {
+                tests.add(new TestNode(test, suite.getPath() + "/" + test.getName()));
+            }
+        } while (result.getNextToken() != null);
+        suite.setTests(tests);
+    }
+
+    private static void await(Future<?> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Two jobs can have the same name, so the OS version (or the job id) is appended to the job name.
+     */
+    private static String getJobDirectoryName(Job job) {
+        String id = AWSDeviceFarmResultTree.idOf(job.getArn());
+        String jobId = id.substring(id.lastIndexOf("/") + 1);
+        String osVersion = null;
+        if (job.getDevice() != null) {
+            osVersion = job.getDevice().getOs();
+        }
+        return job.getName() + "-" + (osVersion != null ? osVersion : jobId);
+    }
+
+    private void writeToLog(String message) {
+        if (log != null) {
+            log.println(String.format("[AWSDeviceFarm] %s", message));
+        }
+    }
+
+    /**
+     * Creates a list of relative directories on the node holding the results directory.
+     */
+    private static class MakeDirectories extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+
+        MakeDirectories(List<String> paths) {
+            this.paths = new ArrayList<String>(paths);
+        }
+
+        @Override
+        public Void invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            for (String path : paths) {
+                File dir = new File(root, path);
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException(String.format("Unable to create directory %s", dir));
+                }
+            }
+            return null;
+        }
+    }
+}
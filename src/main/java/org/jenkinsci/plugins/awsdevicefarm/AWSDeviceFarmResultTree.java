@@ -0,0 +1,341 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Device;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.amazonaws.services.devicefarm.model.Test;
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The job (device) / suite / test hierarchy of a completed AWS Device Farm run, together with the relative
+ * directory each node is stored in when the results are downloaded.
+ * <p>
+ * Nodes are identified by the resource part of their ARN (see {@link #idOf(String)}), which is also how artifact
+ * ARNs refer to the test they belong to.
+ * <p>
+ * The tree is stored in its own file in the build directory so it is only loaded when the results are browsed.
+ */
+public class AWSDeviceFarmResultTree implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String FILE_NAME = "aws-device-farm-tests.xml";
+
+    private final List<JobNode> jobs = new ArrayList<JobNode>();
+    private transient Map<String, Node> index;
+
+    /**
+     * @return the jobs of the run, one per device
+     */
+    public List<JobNode> getJobs() {
+        return Collections.unmodifiableList(jobs);
+    }
+
+    /**
+     * Add a job to the tree.
+     *
+     * @param job The job node.
+     */
+    public synchronized void addJob(JobNode job) {
+        jobs.add(job);
+        index = null;
+    }
+
+    /**
+     * Find a node (job, suite or test) by its id.
+     *
+     * @param id The resource part of the node ARN.
+     * @return The node or null if it is not part of this tree.
+     */
+    public synchronized Node find(String id) {
+        if (index == null) {
+            index = new HashMap<String, Node>();
+            for (JobNode job : jobs) {
+                index.put(job.getId(), job);
+                for (SuiteNode suite : job.getSuites()) {
+                    index.put(suite.getId(), suite);
+                    for (TestNode test : suite.getTests()) {
+                        index.put(test.getId(), test);
+                    }
+                }
+            }
+        }
+        return index.get(id);
+    }
+
+    /**
+     * Find the job a node belongs to.
+     *
+     * @param id The resource part of the ARN of the job or of any of its suites, tests or artifacts.
+     * @return The job node or null if it is not part of this tree.
+     */
+    public JobNode findJob(String id) {
+        // Job ids consist of the project, run and job parts: "project/run/job".
+        String[] parts = id.split("/");
+        if (parts.length < 3) {
+            return null;
+        }
+        Node node = find(parts[0] + "/" + parts[1] + "/" + parts[2]);
+        return node instanceof JobNode ? (JobNode) node : null;
+    }
+
+    /**
+     * Get the relative directory of a node.
+     *
+     * @param id The resource part of the node ARN.
+     * @return The relative path or null if the node is not part of this tree.
+     */
+    public String getPath(String id) {
+        Node node = find(id);
+        return node == null ? null : node.getPath();
+    }
+
+    /**
+     * @return the relative directories of all nodes, parents before children
+     */
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<String>();
+        for (JobNode job : jobs) {
+            paths.add(job.getPath());
+            for (SuiteNode suite : job.getSuites()) {
+                paths.add(suite.getPath());
+                for (TestNode test : suite.getTests()) {
+                    paths.add(test.getPath());
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return all tests of the run
+     */
+    public List<TestNode> getTests() {
+        List<TestNode> tests = new ArrayList<TestNode>();
+        for (JobNode job : jobs) {
+            for (SuiteNode suite : job.getSuites()) {
+                tests.addAll(suite.getTests());
+            }
+        }
+        return tests;
+    }
+
+    /**
+     * Save this tree in the given build directory.
+     *
+     * @param buildDir The root directory of the build.
+     * @throws IOException
+     */
+    public void save(File buildDir) throws IOException {
+        new XmlFile(new File(buildDir, FILE_NAME)).write(this);
+    }
+
+    /**
+     * Load the result tree of a build.
+     *
+     * @param buildDir The root directory of the build.
+     * @return The result tree or null if the build has none.
+     * @throws IOException
+     */
+    public static AWSDeviceFarmResultTree load(File buildDir) throws IOException {
+        XmlFile file = new XmlFile(new File(buildDir, FILE_NAME));
+        if (!file.exists()) {
+            return null;
+        }
+        return (AWSDeviceFarmResultTree) file.read();
+    }
+
+    /**
+     * Get the resource part of a Device Farm ARN, e.g. "1234/5678/00000" for a test.
+     *
+     * @param arn The full ARN.
+     * @return The resource id.
+     */
+    public static String idOf(String arn) {
+        return arn.split(":")[6];
+    }
+
+    /**
+     * Common properties of jobs, suites and tests.
+     */
+    public abstract static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String arn;
+        private final String name;
+        private final String result;
+        private final String status;
+        private final String message;
+        private final long duration;
+        private final String path;
+
+        Node(String arn, String name, String result, String status, String message, Date started, Date stopped, String path) {
+            this.arn = arn;
+            this.name = name;
+            this.result = result;
+            this.status = status;
+            this.message = message;
+            this.duration = (started != null && stopped != null) ? Math.max(0, stopped.getTime() - started.getTime()) : 0;
+            this.path = path;
+        }
+
+        public String getArn() {
+            return arn;
+        }
+
+        public String getId() {
+            return idOf(arn);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the Device Farm execution result, e.g. PASSED or FAILED
+         */
+        public String getResult() {
+            return result;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the duration in milliseconds, 0 if unknown
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the directory of this node relative to the results directory
+         */
+        public String getPath() {
+            return path;
+        }
+    }
+
+    /**
+     * A job, i.e. the execution of the run on a single device.
+     */
+    public static class JobNode extends Node {
+        private static final long serialVersionUID = 1L;
+
+        private final String deviceArn;
+        private final String deviceName;
+        private final String model;
+        private final String os;
+        private final String platform;
+        private final Double deviceMinutes;
+        private final List<SuiteNode> suites = new ArrayList<SuiteNode>();
+
+        public JobNode(Job job, String path) {
+            super(job.getArn(), job.getName(), job.getResult(), job.getStatus(), job.getMessage(), job.getStarted(), job.getStopped(), path);
+            Device device = job.getDevice();
+            this.deviceArn = device != null ? device.getArn() : null;
+            this.deviceName = device != null ? device.getName() : job.getName();
+            this.model = device != null ? device.getModel() : null;
+            this.os = device != null ? device.getOs() : null;
+            this.platform = device != null ? device.getPlatform() : null;
+            this.deviceMinutes = job.getDeviceMinutes() != null ? job.getDeviceMinutes().getTotal() : null;
+        }
+
+        public String getDeviceArn() {
+            return deviceArn;
+        }
+
+        public String getDeviceName() {
+            return deviceName;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getOs() {
+            return os;
+        }
+
+        public String getPlatform() {
+            return platform;
+        }
+
+        /**
+         * @return the total device minutes used by this job, null if unknown
+         */
+        public Double getDeviceMinutes() {
+            return deviceMinutes;
+        }
+
+        public List<SuiteNode> getSuites() {
+            return Collections.unmodifiableList(suites);
+        }
+
+        synchronized void setSuites(List<SuiteNode> suites) {
+            this.suites.clear();
+            this.suites.addAll(suites);
+        }
+    }
+
+    /**
+     * A test suite of a job.
+     */
+    public static class SuiteNode extends Node {
+        private static final long serialVersionUID = 1L;
+
+        private final List<TestNode> tests = new ArrayList<TestNode>();
+
+        public SuiteNode(Suite suite, String path) {
+            super(suite.getArn(), suite.getName(), suite.getResult(), suite.getStatus(), suite.getMessage(), suite.getStarted(), suite.getStopped(), path);
+        }
+
+        public List<TestNode> getTests() {
+            return Collections.unmodifiableList(tests);
+        }
+
+        synchronized void setTests(List<TestNode> tests) {
+            this.tests.clear();
+            this.tests.addAll(tests);
+        }
+    }
+
+    /**
+     * A single test of a suite.
+     */
+    public static class TestNode extends Node {
+        private static final long serialVersionUID = 1L;
+
+        public TestNode(Test test, String path) {
+            super(test.getArn(), test.getName(), test.getResult(), test.getStatus(), test.getMessage(), test.getStarted(), test.getStopped(), path);
+        }
+    }
+}
@@ -0,0 +1,509 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a single artifact from its pre-signed URL, surviving connection resets.
+ * <p>
+ * Interrupted transfers are resumed with an HTTP Range request (guarded by If-Range on the ETag) and retried with
+ * exponential backoff. The result is verified against the expected size and, for single part S3 objects whose ETag is
+ * the MD5 of the content (i.e. not encrypted with SSE-KMS or SSE-C), against the MD5 checksum. An expired pre-signed URL (HTTP 403) is reported with an
+ * {@link ExpiredUrlException} so the caller can re-list the artifact for a fresh URL and resume. The size of the
+ * artifact is taken from the first response and checked against an optional {@link Budget} before any byte is written.
+ */
+public final class AWSDeviceFarmResumableDownload {
+    static final int MAX_ATTEMPTS = 5;
+    static /* not final */ long initialBackoff = 1000;
+    static final int CONNECT_TIMEOUT = 30 * 1000;
+    static final int READ_TIMEOUT = 60 * 1000;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final String PART_EXTENSION = ".part";
+    private static final Pattern MD5_ETAG = Pattern.compile("^\"?([0-9a-fA-F]{32})\"?$");
+    private static final String SSE_HEADER = "x-amz-server-side-encryption";
+    private static final String SSE_CUSTOMER_HEADER = "x-amz-server-side-encryption-customer-algorithm";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("^bytes (\\d+)-\\d+/(\\d+|\\*)$");
+
+    private AWSDeviceFarmResumableDownload() {
+    }
+
+    /**
+     * Download an artifact to a file. The transfer is staged in a ".part" file next to the target, which is kept when
+     * the URL expires so the download resumes where it stopped once it is retried with a fresh URL.
+     *
+     * @param url    The (pre-signed) URL of the artifact.
+     * @param target The file to write the artifact to.
+     * @return The size of the artifact in bytes.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static long toFile(URL url, File target) throws IOException, InterruptedException {
+        return toFile(url, target, null);
+    }
+
+    /**
+     * Download an artifact to a file, throttling the transfer.
+     *
+     * @param url      The (pre-signed) URL of the artifact.
+     * @param target   The file to write the artifact to.
+     * @param throttle The throttle which is told about every chunk written, may be null.
+     * @return The size of the artifact in bytes.
+     * @throws IOException
+     * @throws InterruptedException
+     * @see #toFile(URL, File)
+     */
+    public static long toFile(URL url, File target, Throttle throttle) throws IOException, InterruptedException {
+        return toFile(url, target, throttle, null);
+    }
+
+    /**
+     * Download an artifact to a file, throttling the transfer and charging its size to a budget.
+     *
+     * @param url      The (pre-signed) URL of the artifact.
+     * @param target   The file to write the artifact to.
+     * @param throttle The throttle which is told about every chunk written, may be null.
+     * @param budget   The budget the size of the artifact is charged to, may be null.
+     * @return The size of the artifact in bytes.
+     * @throws LimitExceededException if the artifact exceeds the budget, nothing is written in that case.
+     * @throws IOException
+     * @throws InterruptedException
+     * @see #toFile(URL, File)
+     */
+    public static long toFile(URL url, File target, Throttle throttle, Budget budget) throws IOException, InterruptedException {
+        File part = new File(target.getParentFile(), target.getName() + PART_EXTENSION);
+        FileSink sink = new FileSink(part);
+        boolean keep = false;
+        try {
+            long size = download(url, sink, throttle, budget);
+            sink.close();
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return size;
+        } catch (ExpiredUrlException e) {
+            keep = true;
+            throw e;
+        } finally {
+            sink.close();
+            if (!keep) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Download an artifact into an open stream, e.g. a zip entry. The stream is not closed. Since the stream cannot be
+     * rewound, a server which ignores the Range header is handled by skipping the bytes which were already written.
+     *
+     * @param url The (pre-signed) URL of the artifact.
+     * @param out The stream to write the artifact to.
+     * @return The size of the artifact in bytes.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static long toStream(URL url, OutputStream out) throws IOException, InterruptedException {
+        return toStream(url, out, null);
+    }
+
+    /**
+     * Download an artifact into an open stream, throttling the transfer.
+     *
+     * @param url      The (pre-signed) URL of the artifact.
+     * @param out      The stream to write the artifact to.
+     * @param throttle The throttle which is told about every chunk written, may be null.
+     * @return The size of the artifact in bytes.
+     * @throws IOException
+     * @throws InterruptedException
+     * @see #toStream(URL, OutputStream)
+     */
+    public static long toStream(URL url, OutputStream out, Throttle throttle) throws IOException, InterruptedException {
+        return toStream(url, out, throttle, null);
+    }
+
+    /**
+     * Download an artifact into an open stream, throttling the transfer and charging its size to a budget.
+     *
+     * @param url      The (pre-signed) URL of the artifact.
+     * @param out      The stream to write the artifact to.
+     * @param throttle The throttle which is told about every chunk written, may be null.
+     * @param budget   The budget the size of the artifact is charged to, may be null.
+     * @return The size of the artifact in bytes.
+     * @throws LimitExceededException if the artifact exceeds the budget, nothing is written in that case.
+     * @throws IOException
+     * @throws InterruptedException
+     * @see #toStream(URL, OutputStream)
+     */
+    public static long toStream(URL url, OutputStream out, Throttle throttle, Budget budget) throws IOException, InterruptedException {
+        return download(url, new StreamSink(out), throttle, budget);
+    }
+
+    /**
+     * Open a connection with the connect and read timeouts of all artifact transfers, so a stalled server fails the
+     * attempt instead of blocking the worker forever.
+     *
+     * @param url The (pre-signed) URL of the artifact.
+     * @return The connection, not connected yet.
+     * @throws IOException
+     */
+    static URLConnection openConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    //// Helper Methods
+
+    private static long download(URL url, Sink sink, Throttle throttle, Budget budget) throws IOException, InterruptedException {
+        MessageDigest md5 = sink.digest();
+        String etag = null;
+        boolean md5Etag = false;
+        long total = -1;
+        boolean charged = budget == null;
+        int attempt = 0;
+        while (true) {
+            try {
+                URLConnection connection = openConnection(url);
+                try {
+                    long offset = sink.length();
+                    if (offset > 0) {
+                        connection.setRequestProperty("Range", String.format("bytes=%d-", offset));
+                        if (etag != null) {
+                            connection.setRequestProperty("If-Range", etag);
+                        }
+                    }
+                    // Anything but HTTP (e.g. file URLs) is read completely on every attempt.
+                    int code = connection instanceof HttpURLConnection
+                            ? ((HttpURLConnection) connection).getResponseCode() : HttpURLConnection.HTTP_OK;
+                    if (code == HttpURLConnection.HTTP_FORBIDDEN) {
+                        throw new ExpiredUrlException(String.format("URL expired after %d bytes", offset));
+                    }
+                    if (code == 416 && offset > 0) {
+                        if (offset == total) {
+                            // Everything was already transferred before the connection dropped.
+                            break;
+                        }
+                        // The partial file does not match the artifact, start over.
+                        md5 = restart(sink, "Requested range not satisfiable");
+                        throw new IOException("Requested range not satisfiable");
+                    }
+                    if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                        throw new IOException(String.format("Unexpected HTTP status %d", code));
+                    }
+
+                    long skip = 0;
+                    Matcher range = CONTENT_RANGE.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+                    if (code == HttpURLConnection.HTTP_PARTIAL && range.matches() && Long.parseLong(range.group(1)) == offset) {
+                        total = "*".equals(range.group(2)) ? -1 : Long.parseLong(range.group(2));
+                    } else {
+                        // Full content: start over, or skip what was written if the sink cannot be rewound.
+                        total = connection.getContentLengthLong();
+                        if (sink.reset()) {
+                            md5 = sink.digest();
+                        } else {
+                            skip = offset;
+                        }
+                    }
+                    etag = connection.getHeaderField("ETag");
+                    md5Etag = isContentMd5(connection);
+                    if (!charged && total >= 0) {
+                        if (!budget.reserve(total)) {
+                            throw new LimitExceededException(String.format("Artifact of %d bytes exceeds the download limit", total));
+                        }
+                        charged = true;
+                    }
+
+                    InputStream in = connection.getInputStream();
+                    try {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            if (Thread.interrupted()) {
+                                throw new InterruptedException("Download interrupted");
+                            }
+                            int from = (int) Math.min(skip, read);
+                            skip -= from;
+                            if (read > from) {
+                                sink.write(buffer, from, read - from);
+                                if (md5 != null) {
+                                    md5.update(buffer, from, read - from);
+                                }
+                                if (throttle != null) {
+                                    throttle.consume(read - from);
+                                }
+                            }
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    if (connection instanceof HttpURLConnection) {
+                        ((HttpURLConnection) connection).disconnect();
+                    }
+                }
+
+                if (total >= 0 && sink.length() != total) {
+                    throw new IOException(String.format("Expected %d bytes but received %d", total, sink.length()));
+                }
+                if (!verifyChecksum(md5Etag ? etag : null, md5)) {
+                    String message = String.format("Checksum mismatch, ETag %s", etag);
+                    md5 = restart(sink, message);
+                    etag = null;
+                    throw new IOException(message);
+                }
+                if (!charged) {
+                    budget.charge(sink.length());
+                }
+                break;
+            } catch (ExpiredUrlException e) {
+                throw e;
+            } catch (VerificationException e) {
+                throw e;
+            } catch (LimitExceededException e) {
+                throw e;
+            } catch (IOException e) {
+                attempt++;
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new IOException(String.format("Download failed after %d attempts: %s", attempt, e.getMessage()), e);
+                }
+                Thread.sleep(initialBackoff << (attempt - 1));
+            }
+        }
+        return sink.length();
+    }
+
+    /**
+     * Discard everything written so far so the next attempt starts over.
+     *
+     * @return A fresh digest.
+     * @throws VerificationException if the sink cannot be rewound.
+     */
+    private static MessageDigest restart(Sink sink, String reason) throws IOException {
+        if (!sink.reset()) {
+            throw new VerificationException(reason);
+        }
+        return sink.digest();
+    }
+
+    /**
+     * The ETag of S3 objects which are encrypted with SSE-KMS or SSE-C is not the MD5 of the content.
+     */
+    private static boolean isContentMd5(URLConnection connection) {
+        String sse = connection.getHeaderField(SSE_HEADER);
+        return (sse == null || !sse.toLowerCase().startsWith("aws:kms"))
+                && connection.getHeaderField(SSE_CUSTOMER_HEADER) == null;
+    }
+
+    private static boolean verifyChecksum(String etag, MessageDigest md5) {
+        if (etag == null || md5 == null) {
+            return true;
+        }
+        Matcher matcher = MD5_ETAG.matcher(etag);
+        if (!matcher.matches()) {
+            // Multipart uploads have an ETag which is not the MD5 of the content.
+            return true;
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md5.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString().equalsIgnoreCase(matcher.group(1));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Limits the rate artifacts are downloaded at.
+     */
+    public interface Throttle {
+        /**
+         * Account for downloaded bytes, blocking as long as needed to stay within the limit.
+         *
+         * @param bytes The number of bytes which were just written.
+         * @throws InterruptedException
+         */
+        void consume(int bytes) throws InterruptedException;
+    }
+
+    /**
+     * Limits the number of bytes which are downloaded, e.g. per build.
+     */
+    public interface Budget {
+        /**
+         * Reserve the size of an artifact before it is downloaded.
+         *
+         * @param bytes The size of the artifact in bytes.
+         * @return false if the artifact exceeds the remaining budget and must not be downloaded
+         */
+        boolean reserve(long bytes);
+
+        /**
+         * Charge an artifact whose size was not known before it was downloaded, e.g. a chunked response. The artifact
+         * is kept even if it exceeds the remaining budget, but later artifacts are no longer reserved.
+         *
+         * @param bytes The number of bytes downloaded.
+         */
+        void charge(long bytes);
+    }
+
+    /**
+     * Thrown when an artifact exceeds its {@link Budget}. Nothing has been written for the artifact.
+     */
+    public static class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when the pre-signed URL of an artifact has expired. Partially downloaded files are kept.
+     */
+    public static class ExpiredUrlException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ExpiredUrlException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when a download cannot be verified and the destination cannot be rewound for another attempt.
+     */
+    private static class VerificationException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        VerificationException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Destination of the downloaded bytes.
+     */
+    private interface Sink {
+        long length() throws IOException;
+
+        void write(byte[] buffer, int offset, int length) throws IOException;
+
+        /**
+         * Discard everything written so far.
+         *
+         * @return false if the sink cannot be rewound
+         */
+        boolean reset() throws IOException;
+
+        /**
+         * @return a digest which has been updated with everything written so far, null if not available
+         */
+        MessageDigest digest() throws IOException;
+    }
+
+    private static class FileSink implements Sink {
+        private final File file;
+        private RandomAccessFile out;
+
+        FileSink(File file) throws IOException {
+            this.file = file;
+            this.out = new RandomAccessFile(file, "rw");
+            out.seek(out.length());
+        }
+
+        public long length() throws IOException {
+            return out.length();
+        }
+
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+        }
+
+        public boolean reset() throws IOException {
+            out.setLength(0);
+            return true;
+        }
+
+        public MessageDigest digest() throws IOException {
+            MessageDigest md5 = newDigest();
+            if (md5 != null && out.length() > 0) {
+                // Resuming a previous download, so the digest has to cover the bytes already on disk.
+                InputStream in = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        md5.update(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return md5;
+        }
+
+        void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    private static class StreamSink implements Sink {
+        private final OutputStream out;
+        private long length = 0;
+
+        StreamSink(OutputStream out) {
+            this.out = out;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            this.length += length;
+        }
+
+        public boolean reset() {
+            return length == 0;
+        }
+
+        public MessageDigest digest() {
+            return newDigest();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index from the id of an AWS Device Farm result to the number of the build which recorded it, so a result of any
+ * build of a project can be resolved without walking and loading the builds before it.
+ * <p>
+ * The index is stored in the project directory as one "number id" line per build, appended to as builds complete.
+ * It is kept up to date by {@link AWSDeviceFarmHistoryListener} and built once from the existing builds when it does
+ * not exist yet.
+ */
+public class AWSDeviceFarmRunIndex {
+    public static final String FILE_NAME = "aws-device-farm-runs.txt";
+
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmRunIndex.class.getName());
+    private static final AWSDeviceFarmProjectStore<AWSDeviceFarmRunIndex> indexes = new AWSDeviceFarmProjectStore<AWSDeviceFarmRunIndex>(
+            new AWSDeviceFarmProjectStore.Factory<AWSDeviceFarmRunIndex>() {
+                public AWSDeviceFarmRunIndex create(Job<?, ?> job) {
+                    AWSDeviceFarmRunIndex index = new AWSDeviceFarmRunIndex(new File(job.getRootDir(), FILE_NAME));
+                    try {
+                        if (!index.load()) {
+                            index.rebuild(job);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, String.format("Unable to read the AWS Device Farm run index of %s", job.getFullName()), e);
+                    }
+                    return index;
+                }
+            });
+
+    private final File file;
+    private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+
+    /**
+     * Get the index of a project, building it from the existing builds the first time.
+     *
+     * @param job The project.
+     * @return The index of the project.
+     */
+    public static AWSDeviceFarmRunIndex forJob(Job<?, ?> job) {
+        return indexes.get(job);
+    }
+
+    AWSDeviceFarmRunIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the number of the build which recorded a result.
+     *
+     * @param id The id of the result, compared ignoring case.
+     * @return The build number, or null if no build recorded the result.
+     */
+    public synchronized Integer get(String id) {
+        return id != null ? numbers.get(key(id)) : null;
+    }
+
+    /**
+     * Add the result of a build, replacing any previous entry of the same id.
+     *
+     * @param id     The id of the result.
+     * @param number The build number.
+     * @throws IOException
+     */
+    public synchronized void put(String id, int number) throws IOException {
+        if (id == null || id.isEmpty()) {
+            return;
+        }
+        Integer previous = numbers.put(key(id), number);
+        if (previous != null && previous == number && file.isFile()) {
+            return;
+        }
+        if (previous != null || !file.isFile()) {
+            save();
+            return;
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        try {
+            write(out, key(id), number);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Remove the entries of a deleted build.
+     *
+     * @param number The build number.
+     * @throws IOException
+     */
+    public synchronized void remove(int number) throws IOException {
+        boolean removed = false;
+        for (Iterator<Integer> it = numbers.values().iterator(); it.hasNext(); ) {
+            if (it.next() == number) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            save();
+        }
+    }
+
+    /**
+     * @return the number of indexed results
+     */
+    public synchronized int size() {
+        return numbers.size();
+    }
+
+    //// Helper Methods
+
+    /**
+     * Read the index file.
+     *
+     * @return false if there is no index file yet
+     */
+    synchronized boolean load() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0 || space == line.length() - 1) {
+                    // A line which was not completely written.
+                    continue;
+                }
+                try {
+                    numbers.put(key(line.substring(space + 1)), Integer.parseInt(line.substring(0, space)));
+                } catch (NumberFormatException e) {
+                    LOGGER.fine(String.format("Ignoring malformed line in %s: %s", file, line));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Build the index from the existing builds of a project, loading every build once.
+     */
+    private synchronized void rebuild(Job<?, ?> job) throws IOException {
+        numbers.clear();
+        for (Run<?, ?> run : job.getBuilds()) {
+            AWSDeviceFarmTestResultAction action = run.getAction(AWSDeviceFarmTestResultAction.class);
+            if (action != null && action.getResult() != null) {
+                List<String> ids = new ArrayList<String>();
+                ids.add(action.getResult().getId());
+                for (AWSDeviceFarmTestResult result : action.getResult().getRuns()) {
+                    ids.add(result.getId());
+                }
+                for (String id : ids) {
+                    if (id != null && !id.isEmpty() && !numbers.containsKey(key(id))) {
+                        numbers.put(key(id), run.getNumber());
+                    }
+                }
+            }
+        }
+        save();
+    }
+
+    private void save() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory %s", parent));
+        }
+        File tmp = new File(parent, file.getName() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+        try {
+            for (Map.Entry<String, Integer> entry : numbers.entrySet()) {
+                write(out, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void write(Writer out, String id, int number) throws IOException {
+        out.write(String.format("%d %s%n", number, id));
+    }
+
+    private static String key(String id) {
+        return id.toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,283 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.DeviceSelectionConfiguration;
+import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import com.amazonaws.services.devicefarm.model.TestType;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Additional runs which are scheduled next to the configured run of a build step, e.g. to run the same app on
+ * several device pools, or to run a fuzz test next to the Appium tests.
+ * <p>
+ * Runs are given one per line as "&lt;device pool&gt; [| &lt;test type&gt;]", e.g. "Top Devices",
+ * "Top Devices | BUILTIN_FUZZ" or "| BUILTIN_EXPLORER". A missing device pool or test type is taken from the
+ * configured run. Lines starting with "#" are ignored.
+ */
+public final class AWSDeviceFarmRunMatrix {
+    public static final int MAX_RUNS = 10;
+
+    private AWSDeviceFarmRunMatrix() {
+    }
+
+    /**
+     * Parse run configurations, one per line.
+     *
+     * @param text The run configurations.
+     * @return The run configurations, empty if the text is blank.
+     * @throws IllegalArgumentException if a line is not a valid run configuration.
+     */
+    public static List<RunConfiguration> parse(String text) {
+        List<RunConfiguration> runs = new ArrayList<RunConfiguration>();
+        if (text == null) {
+            return runs;
+        }
+        for (String line : text.split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\|", -1);
+            if (parts.length > 2) {
+                throw new IllegalArgumentException(String.format("Expected \"<device pool> [| <test type>]\": %s", line));
+            }
+            String devicePool = StringUtils.trimToNull(parts[0]);
+            String testType = parts.length > 1 ? StringUtils.trimToNull(parts[1]) : null;
+            if (devicePool == null && testType == null) {
+                throw new IllegalArgumentException(String.format("Expected a device pool or a test type: %s", line));
+            }
+            if (testType != null) {
+                try {
+                    testType = TestType.valueOf(testType.toUpperCase(Locale.ENGLISH)).toString();
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(String.format("Unknown test type %s", testType));
+                }
+            }
+            runs.add(new RunConfiguration(devicePool, testType));
+        }
+        if (runs.size() > MAX_RUNS) {
+            throw new IllegalArgumentException(String.format("At most %d additional runs are supported", MAX_RUNS));
+        }
+        return runs;
+    }
+
+    /**
+     * Plan the runs of a build: the configured run or its shards, followed by the additional runs. The test of every
+     * test type is only looked up once, so the app, the extra data and the test package are shared by all runs.
+     *
+     * @param matrix          The additional runs, see {@link #parse(String)}.
+     * @param devicePool      The name of the configured device pool, null for device selection filters.
+     * @param devicePoolArn   The ARN of the configured device pool.
+     * @param deviceSelection The configured device selection filters.
+     * @param test            The configured test.
+     * @param shardFilters    The test filter of every shard of the configured run, empty if it is not sharded.
+     * @param resolver        Looks up the tests and device pools of the additional runs.
+     * @param log             Destination Task Log, may be null.
+     * @return The runs in the order they are scheduled.
+     * @throws IllegalArgumentException if the build step is not configured for a test type of the additional runs.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws AWSDeviceFarmException
+     */
+    public static List<PlannedRun> plan(List<RunConfiguration> matrix, String devicePool, String devicePoolArn,
+                                        DeviceSelectionConfiguration deviceSelection, ScheduleRunTest test, List<String> shardFilters,
+                                        Resolver resolver, PrintStream log) throws IOException, InterruptedException, AWSDeviceFarmException {
+        List<PlannedRun> runs = new ArrayList<PlannedRun>();
+        Set<String> directories = new HashSet<String>();
+        String mainLabel = matrix.isEmpty() ? null : label(devicePool, test.getType());
+        if (shardFilters.isEmpty()) {
+            runs.add(new PlannedRun(uniqueLabel(mainLabel, directories), devicePoolArn, deviceSelection, test));
+        }
+        for (int i = 0; i < shardFilters.size(); i++) {
+            String label = String.format("Shard %d of %d", i + 1, shardFilters.size());
+            writeToLog(log, String.format("%s runs %s", label, shardFilters.get(i)));
+            runs.add(new PlannedRun(uniqueLabel(mainLabel != null ? String.format("%s - %s", mainLabel, label) : label, directories),
+                    devicePoolArn, deviceSelection, test.clone().withFilter(shardFilters.get(i))));
+        }
+
+        Map<String, ScheduleRunTest> tests = new HashMap<String, ScheduleRunTest>();
+        tests.put(test.getType().toUpperCase(Locale.ENGLISH), test);
+        for (RunConfiguration run : matrix) {
+            String testType = resolver.getTestType(run.getTestType() != null ? run.getTestType() : test.getType());
+            ScheduleRunTest runTest = tests.get(testType.toUpperCase(Locale.ENGLISH));
+            if (runTest == null) {
+                runTest = resolver.getTest(testType);
+                if (runTest == null) {
+                    throw new IllegalArgumentException(String.format("The build step is not configured for %s tests", testType));
+                }
+                tests.put(testType.toUpperCase(Locale.ENGLISH), runTest);
+            }
+            if (run.getDevicePool() != null) {
+                runs.add(new PlannedRun(uniqueLabel(label(run.getDevicePool(), runTest.getType()), directories),
+                        resolver.getDevicePoolArn(run.getDevicePool()), null, runTest));
+            } else {
+                runs.add(new PlannedRun(uniqueLabel(label(devicePool, runTest.getType()), directories),
+                        devicePoolArn, deviceSelection, runTest));
+            }
+        }
+        return runs;
+    }
+
+    //// Helper Methods
+
+    /**
+     * Label of a run of the run matrix.
+     *
+     * @param devicePool The name of the device pool, null for device selection filters.
+     * @param testType   The test type.
+     * @return The label, e.g. "Top Devices - BUILTIN_FUZZ".
+     */
+    private static String label(String devicePool, String testType) {
+        return String.format("%s - %s", devicePool != null ? devicePool : "Device selection filters", testType);
+    }
+
+    /**
+     * Make the label of a run unique, so the jobs of every run have their own path in the result tree and their own
+     * directory, e.g. for the same device pool listed twice, or the device pools "Team/Phones" and "Team_Phones".
+     *
+     * @param label       The label, null if it is the only run.
+     * @param directories The directories of the runs planned so far.
+     * @return The label, followed by a number if its directory is already used.
+     */
+    private static String uniqueLabel(String label, Set<String> directories) {
+        if (label == null) {
+            return null;
+        }
+        String unique = label;
+        for (int i = 2; !directories.add(safeName(unique)); i++) {
+            unique = String.format("%s (%d)", label, i);
+        }
+        return unique;
+    }
+
+    /**
+     * Replace the characters which can not be used in a file name, e.g. of a device pool "Team/Phones".
+     */
+    static String safeName(String label) {
+        return label.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
+    private static void writeToLog(PrintStream log, String message) {
+        if (log != null) {
+            log.println(String.format("[AWSDeviceFarm] %s", message));
+        }
+    }
+
+    /**
+     * Looks up the tests and device pools of the additional runs of a build.
+     */
+    public interface Resolver {
+        /**
+         * @param testType The test type of an additional run.
+         * @return the test type the build step runs for it, e.g. the web variant of Appium tests for a web app
+         */
+        String getTestType(String testType);
+
+        /**
+         * Get the test of a test type, uploading its test package. Only called once per test type.
+         *
+         * @param testType The test type, see {@link #getTestType(String)}.
+         * @return The test, null if the build step is not configured for the test type.
+         */
+        ScheduleRunTest getTest(String testType) throws IOException, InterruptedException, AWSDeviceFarmException;
+
+        /**
+         * @param devicePool The name of a device pool.
+         * @return the ARN of the device pool
+         */
+        String getDevicePoolArn(String devicePool) throws AWSDeviceFarmException;
+    }
+
+    /**
+     * A run of a build which is about to be scheduled.
+     */
+    public static class PlannedRun {
+        private final String label;
+        private final String devicePoolArn;
+        private final DeviceSelectionConfiguration deviceSelection;
+        private final ScheduleRunTest test;
+
+        PlannedRun(String label, String devicePoolArn, DeviceSelectionConfiguration deviceSelection, ScheduleRunTest test) {
+            this.label = label;
+            this.devicePoolArn = devicePoolArn;
+            this.deviceSelection = deviceSelection;
+            this.test = test;
+        }
+
+        /**
+         * @return the label of the run, e.g. "Top Devices - BUILTIN_FUZZ", null if it is the only run
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the directory of the jobs of the run below the results directory, null if it is the only run
+         */
+        public String getDirectory() {
+            return label != null ? safeName(label) : null;
+        }
+
+        public String getDevicePoolArn() {
+            return devicePoolArn;
+        }
+
+        public DeviceSelectionConfiguration getDeviceSelection() {
+            return deviceSelection;
+        }
+
+        public ScheduleRunTest getTest() {
+            return test;
+        }
+    }
+
+    /**
+     * A single additional run.
+     */
+    public static class RunConfiguration {
+        private final String devicePool;
+        private final String testType;
+
+        RunConfiguration(String devicePool, String testType) {
+            this.devicePool = devicePool;
+            this.testType = testType;
+        }
+
+        /**
+         * @return the name of the device pool, null for the configured device pool
+         */
+        public String getDevicePool() {
+            return devicePool;
+        }
+
+        /**
+         * @return the test type, null for the configured test type
+         */
+        public String getTestType() {
+            return testType;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Duration statistics of every test of a project on every device model, to find the slow tests which dominate the
+ * device minutes and the tests which recently got slower.
+ * <p>
+ * The durations of a test on a device model are kept in an {@link AWSDeviceFarmDurationSketch}, so the memory used per
+ * test stays the same no matter how many builds are kept. The duration of the most recent build is kept apart from
+ * the sketch so it can be compared against the earlier builds. The statistics are updated incrementally as builds
+ * complete (see {@link AWSDeviceFarmHistoryListener}) and stored in the project directory.
+ */
+public class AWSDeviceFarmTestDurations {
+    public static final String FILE_NAME = "aws-device-farm-durations.bin";
+    public static final String ALL_DEVICES = "All devices";
+
+    static final int MIN_SAMPLES = 5;
+    static final double REGRESSION_RATIO = 0.2;
+    static final long MIN_REGRESSION_MILLIS = 1000;
+    static final int STALE_BUILDS = 100;
+    static final int REBUILD_BUILDS = 30;
+
+    private static final int MAGIC = 0x41444644;
+    private static final int VERSION = 1;
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmTestDurations.class.getName());
+    private static final AWSDeviceFarmProjectStore<AWSDeviceFarmTestDurations> projects = new AWSDeviceFarmProjectStore<AWSDeviceFarmTestDurations>(
+            new AWSDeviceFarmProjectStore.Factory<AWSDeviceFarmTestDurations>() {
+                public AWSDeviceFarmTestDurations create(Job<?, ?> job) {
+                    AWSDeviceFarmTestDurations durations = new AWSDeviceFarmTestDurations(new File(job.getRootDir(), FILE_NAME));
+                    try {
+                        if (!durations.load()) {
+                            durations.rebuild(job);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, String.format("Unable to read the AWS Device Farm test durations of %s", job.getFullName()), e);
+                    }
+                    return durations;
+                }
+            });
+
+    private final File file;
+    private int lastNumber = 0;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Get the test durations of a project, building them from the recent builds the first time.
+     *
+     * @param job The project.
+     * @return The test durations of the project.
+     */
+    public static AWSDeviceFarmTestDurations forJob(Job<?, ?> job) {
+        return projects.get(job);
+    }
+
+    AWSDeviceFarmTestDurations(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Add the test durations of a completed build. Builds older than the most recent recorded build are ignored, so
+     * every build is only counted once.
+     *
+     * @param number The build number.
+     * @param tree   The result tree of the build.
+     * @return true if the durations were added.
+     * @throws IOException
+     */
+    public synchronized boolean record(int number, AWSDeviceFarmResultTree tree) throws IOException {
+        if (!add(number, tree)) {
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    /**
+     * Add the test durations of a completed build. A build which completes after a newer build rebuilds the
+     * durations from the recent builds, so the most recent durations stay those of the newest build.
+     *
+     * @param job    The project.
+     * @param number The build number.
+     * @param tree   The result tree of the build.
+     * @throws IOException
+     */
+    public synchronized void record(Job<?, ?> job, int number, AWSDeviceFarmResultTree tree) throws IOException {
+        if (number < lastNumber) {
+            rebuild(job);
+        } else {
+            record(number, tree);
+        }
+    }
+
+    /**
+     * Drop the test durations of a deleted build by rebuilding the durations from the remaining recent builds, unless
+     * the build is older than the builds a rebuild reads.
+     *
+     * @param job    The project.
+     * @param number The number of the deleted build.
+     * @throws IOException
+     */
+    public synchronized void deleted(Job<?, ?> job, int number) throws IOException {
+        List<AWSDeviceFarmHistory.Record> recent = AWSDeviceFarmHistory.forJob(job).getRecords(Integer.MAX_VALUE, REBUILD_BUILDS);
+        if (number <= lastNumber && (recent.size() < REBUILD_BUILDS || number > recent.get(0).getNumber())) {
+            rebuild(job);
+        }
+    }
+
+    /**
+     * Get the slowest tests by their 95th percentile duration, over all device models.
+     *
+     * @param n The max number of tests.
+     * @return The slowest tests, slowest first.
+     */
+    public synchronized List<TestDuration> getSlowestTests(int n) {
+        Map<String, AWSDeviceFarmDurationSketch> tests = new HashMap<String, AWSDeviceFarmDurationSketch>();
+        for (Entry entry : entries.values()) {
+            AWSDeviceFarmDurationSketch sketch = tests.get(entry.getTest());
+            if (sketch == null) {
+                sketch = new AWSDeviceFarmDurationSketch();
+                tests.put(entry.getTest(), sketch);
+            }
+            sketch.merge(entry.getSketch());
+            if (entry.last >= 0) {
+                sketch.add(entry.last);
+            }
+        }
+        List<TestDuration> slowest = new ArrayList<TestDuration>();
+        for (Map.Entry<String, AWSDeviceFarmDurationSketch> test : tests.entrySet()) {
+            AWSDeviceFarmDurationSketch sketch = test.getValue();
+            if (sketch.getCount() > 0) {
+                slowest.add(new TestDuration(test.getKey(), ALL_DEVICES, sketch.getQuantile(0.5),
+                        sketch.getQuantile(0.95), sketch.getCount(), 0));
+            }
+        }
+        Collections.sort(slowest, new Comparator<TestDuration>() {
+            public int compare(TestDuration a, TestDuration b) {
+                return Long.compare(b.getP95(), a.getP95());
+            }
+        });
+        return Collections.unmodifiableList(slowest.subList(0, Math.min(n, slowest.size())));
+    }
+
+    /**
+     * Get the tests whose duration in the most recent build is well above their median duration on the same device
+     * model in earlier builds.
+     *
+     * @param n The max number of tests.
+     * @return The regressed tests, largest increase first.
+     */
+    public synchronized List<TestDuration> getRegressions(int n) {
+        List<TestDuration> regressions = new ArrayList<TestDuration>();
+        for (Entry entry : entries.values()) {
+            AWSDeviceFarmDurationSketch sketch = entry.getSketch();
+            if (sketch.getCount() < MIN_SAMPLES || entry.last < 0 || entry.lastSeen != lastNumber) {
+                continue;
+            }
+            long median = sketch.getQuantile(0.5);
+            if (entry.last > median * (1 + REGRESSION_RATIO) && entry.last - median >= MIN_REGRESSION_MILLIS) {
+                regressions.add(new TestDuration(entry.getTest(), entry.getDeviceModel(), median,
+                        sketch.getQuantile(0.95), sketch.getCount(), entry.last));
+            }
+        }
+        Collections.sort(regressions, new Comparator<TestDuration>() {
+            public int compare(TestDuration a, TestDuration b) {
+                return Long.compare(b.getIncrease(), a.getIncrease());
+            }
+        });
+        return Collections.unmodifiableList(regressions.subList(0, Math.min(n, regressions.size())));
+    }
+
+    //// Helper Methods
+
+    /**
+     * Add the duration of a single test run.
+     */
+    synchronized void add(String key, long millis, int number) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+        // The previous most recent duration becomes part of the baseline.
+        if (entry.last >= 0) {
+            entry.sketch.add(entry.last);
+        }
+        entry.last = millis;
+        entry.lastSeen = number;
+    }
+
+    private boolean add(int number, AWSDeviceFarmResultTree tree) {
+        if (number <= lastNumber || tree == null) {
+            return false;
+        }
+        // A test which ran on several devices of the same model counts once per build, with its longest duration.
+        Map<String, Long> durations = new LinkedHashMap<String, Long>();
+        for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+            if (AWSDeviceFarmTestRerun.isRerun(job)) {
+                continue;
+            }
+            String model = job.getModel() != null ? job.getModel() : job.getDeviceName();
+            for (AWSDeviceFarmResultTree.SuiteNode suite : job.getSuites()) {
+                for (AWSDeviceFarmResultTree.TestNode test : suite.getTests()) {
+                    // Skipped and stopped tests did not run to the end, so their durations say nothing.
+                    String result = test.getResult();
+                    boolean finished = "PASSED".equals(result) || "WARNED".equals(result) || "FAILED".equals(result);
+                    if (finished && test.getDuration() > 0) {
+                        String key = AWSDeviceFarmFlakyTests.keyOf(model, suite.getName(), test.getName());
+                        Long previous = durations.get(key);
+                        durations.put(key, previous != null ? Math.max(previous, test.getDuration()) : test.getDuration());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Long> duration : durations.entrySet()) {
+            add(duration.getKey(), duration.getValue(), number);
+        }
+        lastNumber = number;
+        // Forget tests which have not run for a long time, e.g. because they were removed.
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (number - it.next().lastSeen > STALE_BUILDS) {
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the durations file.
+     *
+     * @return false if there is no file yet
+     */
+    synchronized boolean load() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // Unknown format, build it again from the recent builds.
+                return false;
+            }
+            lastNumber = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF());
+                entry.last = in.readLong();
+                entry.lastSeen = in.readInt();
+                entry.sketch = AWSDeviceFarmDurationSketch.read(in);
+                entries.put(entry.key, entry);
+            }
+        } catch (EOFException e) {
+            entries.clear();
+            lastNumber = 0;
+            return false;
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Build the statistics from the result trees of the most recent builds of a project.
+     */
+    private synchronized void rebuild(Job<?, ?> job) throws IOException {
+        entries.clear();
+        lastNumber = 0;
+        for (AWSDeviceFarmHistory.Record record : AWSDeviceFarmHistory.forJob(job).getRecords(Integer.MAX_VALUE, REBUILD_BUILDS)) {
+            Run<?, ?> run = job.getBuildByNumber(record.getNumber());
+            if (run != null) {
+                add(run.getNumber(), AWSDeviceFarmResultTree.load(run.getRootDir()));
+            }
+        }
+        save();
+    }
+
+    private void save() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory %s", parent));
+        }
+        File tmp = new File(parent, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lastNumber);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.key);
+                out.writeLong(entry.last);
+                out.writeInt(entry.lastSeen);
+                entry.sketch.write(out);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The durations of a single test on a single device model.
+     */
+    private static class Entry {
+        private final String key;
+        private AWSDeviceFarmDurationSketch sketch = new AWSDeviceFarmDurationSketch();
+        private long last = -1;
+        private int lastSeen = 0;
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+        String getTest() {
+            return key.substring(0, key.lastIndexOf('@'));
+        }
+
+        String getDeviceModel() {
+            return key.substring(key.lastIndexOf('@') + 1);
+        }
+
+        AWSDeviceFarmDurationSketch getSketch() {
+            return sketch;
+        }
+    }
+
+    /**
+     * Duration statistics of a test on a device model, or on all device models.
+     */
+    public static class TestDuration {
+        private final String test;
+        private final String deviceModel;
+        private final long median;
+        private final long p95;
+        private final int samples;
+        private final long last;
+
+        TestDuration(String test, String deviceModel, long median, long p95, int samples, long last) {
+            this.test = test;
+            this.deviceModel = deviceModel;
+            this.median = median;
+            this.p95 = p95;
+            this.samples = samples;
+            this.last = last;
+        }
+
+        /**
+         * @return the suite and test name, "suite/test"
+         */
+        public String getTest() {
+            return test;
+        }
+
+        /**
+         * @return the device model, or {@link #ALL_DEVICES}
+         */
+        public String getDeviceModel() {
+            return deviceModel;
+        }
+
+        /**
+         * @return the estimated median duration in milliseconds
+         */
+        public long getMedian() {
+            return median;
+        }
+
+        /**
+         * @return the estimated 95th percentile duration in milliseconds
+         */
+        public long getP95() {
+            return p95;
+        }
+
+        /**
+         * @return the (decayed) number of durations the estimates are based on
+         */
+        public int getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the duration in the most recent build in milliseconds, 0 if not applicable
+         */
+        public long getLast() {
+            return last;
+        }
+
+        /**
+         * @return the duration in the most recent build above the median in milliseconds
+         */
+        public long getIncrease() {
+            return last - median;
+        }
+    }
+}
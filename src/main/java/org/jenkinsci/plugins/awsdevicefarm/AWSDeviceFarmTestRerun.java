@@ -0,0 +1,181 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.DeviceFilter;
+import com.amazonaws.services.devicefarm.model.DeviceFilterAttribute;
+import com.amazonaws.services.devicefarm.model.DeviceSelectionConfiguration;
+import com.amazonaws.services.devicefarm.model.RuleOperator;
+import com.amazonaws.services.devicefarm.model.TestType;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rerun of the failed tests of a build, on only the devices with failed tests.
+ * <p>
+ * The failed and errored tests are taken from the result tree of the build and run again through the test filter as
+ * "class#method". A run has a single test filter, so the union of the failed tests is rerun on the union of the
+ * devices with failed tests: a test which failed on one device only also runs again on every other of these devices.
+ * Failures in the setup and teardown suites of Device Farm are not rerun. A failure counts as recovered if the same
+ * test passed in the rerun on the same device.
+ */
+public final class AWSDeviceFarmTestRerun {
+    public static final String LABEL = "Rerun of failed tests";
+
+    private final Set<String> tests = new LinkedHashSet<String>();
+    private final Set<String> deviceArns = new LinkedHashSet<String>();
+
+    private AWSDeviceFarmTestRerun() {
+    }
+
+    /**
+     * @param testType The test type of the run.
+     * @return true if single tests of this type can be selected with the test filter
+     */
+    public static boolean supports(TestType testType) {
+        return testType == TestType.INSTRUMENTATION || testType == TestType.UIAUTOMATOR;
+    }
+
+    /**
+     * Plan the rerun of the failed tests of a build.
+     *
+     * @param tree The result tree of the build.
+     * @return The rerun, empty if no test failed.
+     */
+    public static AWSDeviceFarmTestRerun of(AWSDeviceFarmResultTree tree) {
+        AWSDeviceFarmTestRerun rerun = new AWSDeviceFarmTestRerun();
+        for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+            for (AWSDeviceFarmResultTree.SuiteNode suite : job.getSuites()) {
+                if (!isTestClass(suite)) {
+                    continue;
+                }
+                for (AWSDeviceFarmResultTree.TestNode test : suite.getTests()) {
+                    if (isFailure(test.getResult()) && job.getDeviceArn() != null) {
+                        rerun.tests.add(suite.getName() + "#" + test.getName());
+                        rerun.deviceArns.add(job.getDeviceArn());
+                    }
+                }
+            }
+        }
+        return rerun;
+    }
+
+    /**
+     * Count the failures of a build which passed in the rerun on the same device.
+     *
+     * @param original The result tree of the build, without the rerun.
+     * @param rerun    The result tree of the rerun.
+     * @param result   The result of the failures to count, FAILED or ERRORED.
+     * @return The number of recovered failures.
+     */
+    public static int countRecovered(AWSDeviceFarmResultTree original, AWSDeviceFarmResultTree rerun, String result) {
+        Set<String> passed = new HashSet<String>();
+        for (AWSDeviceFarmResultTree.JobNode job : rerun.getJobs()) {
+            for (AWSDeviceFarmResultTree.SuiteNode suite : job.getSuites()) {
+                for (AWSDeviceFarmResultTree.TestNode test : suite.getTests()) {
+                    if ("PASSED".equals(test.getResult())) {
+                        passed.add(keyOf(job, suite, test));
+                    }
+                }
+            }
+        }
+        int recovered = 0;
+        for (AWSDeviceFarmResultTree.JobNode job : original.getJobs()) {
+            for (AWSDeviceFarmResultTree.SuiteNode suite : job.getSuites()) {
+                for (AWSDeviceFarmResultTree.TestNode test : suite.getTests()) {
+                    if (result.equals(test.getResult()) && passed.contains(keyOf(job, suite, test))) {
+                        recovered++;
+                    }
+                }
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Check whether a job of a result tree belongs to the rerun, i.e. is stored below the directory {@link #LABEL}.
+     * The rerun only repeats some tests on some devices, so its jobs are left out of the flaky tests, test durations
+     * and job minutes of the project, which describe the original runs.
+     *
+     * @param job The job.
+     * @return true if the job is part of the rerun.
+     */
+    public static boolean isRerun(AWSDeviceFarmResultTree.JobNode job) {
+        return job.getPath().startsWith(LABEL + "/");
+    }
+
+    /**
+     * @return true if there are no failed tests to rerun
+     */
+    public boolean isEmpty() {
+        return tests.isEmpty();
+    }
+
+    /**
+     * @return the failed tests as "class#method"
+     */
+    public List<String> getTests() {
+        return Collections.unmodifiableList(new ArrayList<String>(tests));
+    }
+
+    /**
+     * @return the ARNs of the devices with failed tests
+     */
+    public List<String> getDeviceArns() {
+        return Collections.unmodifiableList(new ArrayList<String>(deviceArns));
+    }
+
+    /**
+     * @return the test filter which selects the failed tests
+     */
+    public String getFilter() {
+        return StringUtils.join(tests, ",");
+    }
+
+    /**
+     * @return the device selection which selects every device with at least one failed test, all of which run every
+     * test of {@link #getFilter()}
+     */
+    public DeviceSelectionConfiguration getDeviceSelection() {
+        DeviceFilter filter = new DeviceFilter()
+                .withAttribute(DeviceFilterAttribute.ARN)
+                .withOperator(RuleOperator.IN)
+                .withValues(deviceArns);
+        return new DeviceSelectionConfiguration()
+                .withFilters(filter)
+                .withMaxDevices(deviceArns.size());
+    }
+
+    //// Helper Methods
+
+    private static boolean isTestClass(AWSDeviceFarmResultTree.SuiteNode suite) {
+        // Setup and teardown suites of Device Farm ("Setup Suite") are not test classes.
+        return suite.getName() != null && !StringUtils.containsAny(suite.getName(), " \t");
+    }
+
+    private static boolean isFailure(String result) {
+        return "FAILED".equals(result) || "ERRORED".equals(result);
+    }
+
+    private static String keyOf(AWSDeviceFarmResultTree.JobNode job, AWSDeviceFarmResultTree.SuiteNode suite, AWSDeviceFarmResultTree.TestNode test) {
+        return job.getDeviceArn() + "/" + suite.getName() + "#" + test.getName();
+    }
+}
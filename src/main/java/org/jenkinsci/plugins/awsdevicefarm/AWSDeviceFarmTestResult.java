@@ -14,24 +14,47 @@
 //
 package org.jenkinsci.plugins.awsdevicefarm;
 
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.ArtifactCategory;
+import com.amazonaws.services.devicefarm.model.DeviceMinutes;
 import com.amazonaws.services.devicefarm.model.ExecutionResult;
 import com.amazonaws.services.devicefarm.model.Run;
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import hudson.model.AbstractBuild;
 import hudson.model.Result;
+import hudson.tasks.test.TabulatedResult;
 import hudson.tasks.test.TestObject;
 import hudson.tasks.test.TestResult;
+import hudson.util.Area;
 import hudson.util.ChartUtil;
 import hudson.util.Graph;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.WordUtils;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Result object which contains high level result information, pass/warn/fail counters, and performance
@@ -40,11 +63,17 @@ import java.util.List;
  * A "snapshot" of the results of an AWS Device Farm run at some point during its execution lifecycle.
  * New result objects will be created periodically during active runs and a final object will be stored
  * and attached to a Jenkins run, once it has completed.
+ * <p>
+ * The per-device, per-suite and per-test results are kept in a separate file in the build directory (see
+ * {@link AWSDeviceFarmResultTree#FILE_NAME}) and are only loaded when they are browsed. The result itself is stored in
+ * build.xml in a compact form, see {@link ConverterImpl}.
  */
-public class AWSDeviceFarmTestResult extends TestResult {
+public class AWSDeviceFarmTestResult extends TabulatedResult {
 
     private static final HashMap<ExecutionResult, Result> resultMap = new HashMap<ExecutionResult, Result>();
     private static final int DefaultTrendGraphSize = 3;
+    private static final Logger LOGGER = Logger.getLogger(AWSDeviceFarmTestResult.class.getName());
+    private static final int FORMAT_VERSION = 1;
 
     private String id = "";
     private String status = "";
@@ -58,11 +87,37 @@ public class AWSDeviceFarmTestResult extends TestResult {
     private int skipCount = 0;
     private int stopCount = 0;
 
-    private int duration = 0;
+    // Device minutes used by the run, metered and unmetered minutes add up to the total.
+    private float deviceMinutes = 0;
+    private float meteredMinutes = 0;
+    private float unmeteredMinutes = 0;
+    private String devicePool;
 
     private String url = "";
     private String project = "";
 
+    // Per-job result archives, relative to the build artifacts directory.
+    private List<String> archives;
+    // Undecoded archive paths as read from build.xml, decoded on first use.
+    private transient String archiveData;
+
+    // Failed tests which were known to be flaky when the run completed, see AWSDeviceFarmFlakyTests, and whether
+    // every failed test was one of them.
+    private List<String> flakyFailures;
+    private boolean onlyFlakyFailures;
+
+    // Performance budgets which the run exceeded, and the build result they lead to, see AWSDeviceFarmPerformanceGate.
+    private List<String> performanceViolations;
+    private Result performanceResult;
+
+    // The individual runs when this result aggregates several runs of the build, e.g. the shards of a test suite.
+    private String label;
+    private List<AWSDeviceFarmTestResult> runs;
+
+    private transient SoftReference<AWSDeviceFarmArtifactIndex> artifactIndex;
+    private transient SoftReference<List<AWSDeviceFarmNodeResult>> children;
+    private transient SoftReference<List<AWSDeviceFarmResultArchive>> archiveList;
+
     private AbstractBuild<?, ?> build;
 
     public AWSDeviceFarmTestResult(AbstractBuild<?, ?> build, Run run) {
@@ -85,10 +140,97 @@ public class AWSDeviceFarmTestResult extends TestResult {
                 // Ignore this until the stopped bug is fixed.
             }
 
+            DeviceMinutes minutes = run.getDeviceMinutes();
+            if (minutes != null) {
+                this.deviceMinutes = minutes.getTotal() != null ? minutes.getTotal().floatValue() : 0;
+                this.meteredMinutes = minutes.getMetered() != null ? minutes.getMetered().floatValue() : 0;
+                this.unmeteredMinutes = minutes.getUnmetered() != null ? minutes.getUnmetered().floatValue() : 0;
+            }
+
             this.url = AWSDeviceFarmUtils.getRunUrlFromArn(run.getArn());
         }
     }
 
+    /**
+     * Aggregate the results of several runs of a build, e.g. the shards of a test suite. Counters and device minutes
+     * are added up, the status is only COMPLETED once all runs are completed, and the result is the worst result of
+     * all runs. The id and report URL are those of the first run.
+     *
+     * @param build The build.
+     * @param runs  The results of the runs, see {@link #setLabel(String)}.
+     * @return The aggregated result, or the result of the run if there is only one.
+     */
+    public static AWSDeviceFarmTestResult merge(AbstractBuild<?, ?> build, List<AWSDeviceFarmTestResult> runs) {
+        if (runs.size() == 1) {
+            return runs.get(0);
+        }
+        AWSDeviceFarmTestResult merged = new AWSDeviceFarmTestResult(build, null);
+        merged.status = "COMPLETED";
+        for (AWSDeviceFarmTestResult run : runs) {
+            if (merged.id.isEmpty()) {
+                merged.id = run.id;
+                merged.url = run.url;
+                merged.project = run.project;
+            }
+            if (!run.isCompleted()) {
+                merged.status = run.status;
+            }
+            if (severityOf(run.result) > severityOf(merged.result)) {
+                merged.result = run.result;
+            }
+            merged.passCount += run.passCount;
+            merged.warnCount += run.warnCount;
+            merged.failCount += run.failCount;
+            merged.totalCount += run.totalCount;
+            merged.errorCount += run.errorCount;
+            merged.skipCount += run.skipCount;
+            merged.stopCount += run.stopCount;
+            merged.deviceMinutes += run.deviceMinutes;
+            merged.meteredMinutes += run.meteredMinutes;
+            merged.unmeteredMinutes += run.unmeteredMinutes;
+        }
+        merged.runs = new ArrayList<AWSDeviceFarmTestResult>(runs);
+        return merged;
+    }
+
+    /**
+     * Apply the outcome of a rerun of failed tests, see {@link AWSDeviceFarmTestRerun}. The rerun is added to the runs
+     * of the result and its device minutes are added up, while the counters are those of the original runs with the
+     * failures which passed in the rerun counted as passed. The result is only improved once no failures are left.
+     * A single original run keeps its null label and is listed as the initial run.
+     *
+     * @param build             The build.
+     * @param original          The result of the original runs.
+     * @param rerun             The result of the rerun.
+     * @param recoveredFailures The number of failed tests which passed in the rerun.
+     * @param recoveredErrors   The number of errored tests which passed in the rerun.
+     * @return The combined result.
+     */
+    public static AWSDeviceFarmTestResult withRerun(AbstractBuild<?, ?> build, AWSDeviceFarmTestResult original,
+                                                   AWSDeviceFarmTestResult rerun, int recoveredFailures, int recoveredErrors) {
+        List<AWSDeviceFarmTestResult> runs = new ArrayList<AWSDeviceFarmTestResult>(original.getRuns());
+        if (runs.isEmpty()) {
+            runs.add(original);
+        }
+        runs.add(rerun);
+        AWSDeviceFarmTestResult combined = merge(build, runs);
+        recoveredFailures = Math.min(recoveredFailures, original.failCount);
+        recoveredErrors = Math.min(recoveredErrors, original.errorCount);
+        combined.passCount = original.passCount + recoveredFailures + recoveredErrors;
+        combined.warnCount = original.warnCount;
+        combined.failCount = original.failCount - recoveredFailures;
+        combined.errorCount = original.errorCount - recoveredErrors;
+        combined.skipCount = original.skipCount;
+        combined.stopCount = original.stopCount;
+        combined.totalCount = original.totalCount;
+        combined.result = original.result;
+        if ((original.result == ExecutionResult.FAILED || original.result == ExecutionResult.ERRORED)
+                && combined.failCount == 0 && combined.errorCount == 0) {
+            combined.result = combined.warnCount > 0 ? ExecutionResult.WARNED : ExecutionResult.PASSED;
+        }
+        return combined;
+    }
+
     /**
      * Map Device Farm results to Jenkins results.
      */
@@ -116,16 +258,18 @@ public class AWSDeviceFarmTestResult extends TestResult {
             return;
         }
 
-        // Check the "If-Modified-Since" header and abort if we don't need re-create the graph.
+        // Completed results do not change any more, so their graph is rendered once and cached.
         if (isCompleted()) {
-            Calendar timestamp = getOwner().getTimestamp();
-            if (request.checkIfModified(timestamp, response)) {
-                return;
-            }
+            serveCachedGraph(request, response, "result", new AWSDeviceFarmGraphCache.Renderer() {
+                public AWSDeviceFarmGraph render() {
+                    return AWSDeviceFarmGraph.createResultTrendGraph(build, true, getHistory(DefaultTrendGraphSize));
+                }
+            });
+            return;
         }
 
         // Create new graph for this AWS Device Farm result.
-        Graph graph = AWSDeviceFarmGraph.createResultTrendGraph(build, isCompleted(), getPreviousResults(DefaultTrendGraphSize));
+        Graph graph = AWSDeviceFarmGraph.createResultTrendGraph(build, isCompleted(), getHistory(DefaultTrendGraphSize));
         graph.doPng(request, response);
     }
 
@@ -144,19 +288,30 @@ public class AWSDeviceFarmTestResult extends TestResult {
             return;
         }
 
-        // Check the "If-Modified-Since" header and abort if we don't need re-create the graph.
+        // Completed results do not change any more, so their graph is rendered once and cached.
         if (isCompleted()) {
-            Calendar timestamp = getOwner().getTimestamp();
-            if (request.checkIfModified(timestamp, response)) {
-                return;
-            }
+            serveCachedGraph(request, response, "duration", new AWSDeviceFarmGraphCache.Renderer() {
+                public AWSDeviceFarmGraph render() {
+                    return AWSDeviceFarmGraph.createDurationTrendGraph(build, true, getHistory(DefaultTrendGraphSize));
+                }
+            });
+            return;
         }
 
         // Create new duration graph for this AWS Device Farm result.
-        Graph graph = AWSDeviceFarmGraph.createDurationTrendGraph(build, isCompleted(), getPreviousResults(DefaultTrendGraphSize));
+        Graph graph = AWSDeviceFarmGraph.createDurationTrendGraph(build, isCompleted(), getHistory(DefaultTrendGraphSize));
         graph.doPng(request, response);
     }
 
+    /**
+     * Serve a trend graph of this completed result through the graph cache.
+     */
+    private void serveCachedGraph(StaplerRequest request, StaplerResponse response, String type, AWSDeviceFarmGraphCache.Renderer renderer) throws IOException {
+        Area size = AWSDeviceFarmGraph.getGraphSize();
+        String key = AWSDeviceFarmGraphCache.key(build.getProject().getFullName(), type, build.getNumber(), size.width, size.height);
+        AWSDeviceFarmGraphCache.serve(request, response, key, renderer);
+    }
+
     /**
      * Return the AWS Device Farm result of the most recent build which contained an AWS Device Farm run.
      *
@@ -171,6 +326,17 @@ public class AWSDeviceFarmTestResult extends TestResult {
         return prev.getResult();
     }
 
+    /**
+     * Return the history records of up to (n) of the most recent AWS Device Farm results up to this one, read from
+     * the project history instead of the build records.
+     *
+     * @param n number of records requested
+     * @return list of history records in increasing, sequential order
+     */
+    protected List<AWSDeviceFarmHistory.Record> getHistory(int n) {
+        return AWSDeviceFarmHistory.forJob(build.getProject()).getRecords(build.getNumber(), n);
+    }
+
     /**
      * Return a list of up to (n) of the most recent/previous AWS Device Farm results.
      *
@@ -205,6 +371,214 @@ public class AWSDeviceFarmTestResult extends TestResult {
         return results;
     }
 
+    /**
+     * Serve a single entry of a per-job result archive, e.g. "archive?name=Pixel-10.zip&amp;entry=Suite/Test/Logcat.txt".
+     *
+     * @param request
+     * @param response
+     * @throws IOException
+     * @throws ServletException
+     */
+    @SuppressWarnings("unused")
+    public void doArchive(StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
+        if (build == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        build.checkPermission(hudson.model.Run.ARTIFACTS);
+        String name = request.getParameter("name");
+        String entry = request.getParameter("entry");
+        for (AWSDeviceFarmResultArchive archive : getArchives()) {
+            if (archive.getName().equals(name) && entry != null) {
+                archive.serve(request, response, entry);
+                return;
+            }
+        }
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    /**
+     * @return the per-job result archives of this run which are stored with the build artifacts
+     */
+    public List<AWSDeviceFarmResultArchive> getArchives() {
+        // The archives keep their parsed index, so they are reused until the archives change or memory runs low.
+        List<AWSDeviceFarmResultArchive> list = archiveList != null ? archiveList.get() : null;
+        if (list == null) {
+            if (build == null) {
+                return Collections.emptyList();
+            }
+            list = new ArrayList<AWSDeviceFarmResultArchive>();
+            List<String> paths = getArchivePaths();
+            if (paths != null) {
+                for (String path : paths) {
+                    AWSDeviceFarmResultArchive archive = new AWSDeviceFarmResultArchive(new File(build.getArtifactsDir(), path));
+                    if (archive.exists()) {
+                        list.add(archive);
+                    }
+                }
+            }
+            list = Collections.unmodifiableList(list);
+            archiveList = new SoftReference<List<AWSDeviceFarmResultArchive>>(list);
+        }
+        return list;
+    }
+
+    /**
+     * Serve an artifact which is downloaded on demand, e.g. "artifact?id=...". The artifact is fetched into the
+     * controller artifact cache on first access, re-listing the run artifacts to get a fresh pre-signed URL.
+     *
+     * @param request
+     * @param response
+     * @throws IOException
+     * @throws ServletException
+     */
+    @SuppressWarnings("unused")
+    public void doArtifact(StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
+        build.checkPermission(hudson.model.Run.ARTIFACTS);
+        final AWSDeviceFarmArtifactIndex index = getArtifactIndex();
+        final AWSDeviceFarmArtifactIndex.Entry entry = index == null ? null : index.find(request.getParameter("id"));
+        if (entry == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        final AWSDeviceFarmRecorder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(AWSDeviceFarmRecorder.DescriptorImpl.class);
+        String key = entry.getId().replace('/', '-') + "." + entry.getExtension();
+        AWSDeviceFarmArtifactCache.Lease lease = AWSDeviceFarmArtifactCache.get().open(key, new AWSDeviceFarmArtifactCache.Source() {
+            public URL getUrl() throws IOException {
+                AWSDeviceFarm adf = descriptor.getAWSDeviceFarm();
+                // The index can hold the artifacts of several runs, so the run is taken from the artifact.
+                String runArn = AWSDeviceFarmUtils.getRunArnFromArn(entry.getArn());
+                for (Artifact artifact : adf.getArtifacts(runArn, ArtifactCategory.fromValue(entry.getCategory()))) {
+                    if (artifact.getArn().equals(entry.getArn())) {
+                        return new URL(artifact.getUrl());
+                    }
+                }
+                throw new IOException(String.format("Artifact %s is no longer available", entry.getFileName()));
+            }
+        }, descriptor.getArtifactCacheBytes());
+        try {
+            response.setHeader("Content-Disposition", String.format("inline; filename=\"%s\"", entry.getFileName()));
+            response.serveFile(request, lease.getFile().toURI().toURL());
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * @return the metadata of the artifacts which are downloaded on demand, or null if they were downloaded with the build
+     */
+    public AWSDeviceFarmArtifactIndex getArtifactIndex() {
+        AWSDeviceFarmArtifactIndex index = artifactIndex != null ? artifactIndex.get() : null;
+        if (index == null && build != null) {
+            try {
+                index = AWSDeviceFarmArtifactIndex.load(build.getRootDir());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Unable to load the AWS Device Farm artifact index of %s", build), e);
+            }
+            if (index != null) {
+                artifactIndex = new SoftReference<AWSDeviceFarmArtifactIndex>(index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the results of the jobs (devices) of this run, empty if the run has no stored result tree
+     */
+    @Override
+    public Collection<AWSDeviceFarmNodeResult> getChildren() {
+        List<AWSDeviceFarmNodeResult> list = children != null ? children.get() : null;
+        if (list == null) {
+            list = new ArrayList<AWSDeviceFarmNodeResult>();
+            AWSDeviceFarmResultTree tree = null;
+            if (build != null) {
+                try {
+                    tree = AWSDeviceFarmResultTree.load(build.getRootDir());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, String.format("Unable to load the AWS Device Farm test results of %s", build), e);
+                }
+            }
+            if (tree != null) {
+                for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+                    list.add(new AWSDeviceFarmNodeResult(this, job));
+                }
+            }
+            AWSDeviceFarmNodeResult.assignSafeNames(list);
+            list = Collections.unmodifiableList(list);
+            children = new SoftReference<List<AWSDeviceFarmNodeResult>>(list);
+        }
+        return list;
+    }
+
+    @Override
+    public boolean hasChildren() {
+        return !getChildren().isEmpty();
+    }
+
+    /**
+     * @return the failed tests of all devices of this run
+     */
+    @Override
+    public Collection<AWSDeviceFarmNodeResult> getFailedTests() {
+        List<AWSDeviceFarmNodeResult> failed = new ArrayList<AWSDeviceFarmNodeResult>();
+        for (AWSDeviceFarmNodeResult job : getChildren()) {
+            for (AWSDeviceFarmNodeResult suite : job.getChildren()) {
+                for (AWSDeviceFarmNodeResult test : suite.getChildren()) {
+                    if (test.getFailCount() > 0) {
+                        failed.add(test);
+                    }
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Find a job, suite or test by its id relative to this run, e.g. "Pixel_10/Suite/Test".
+     *
+     * @param id The id of the result.
+     * @return The result or null if there is no such result.
+     */
+    public AWSDeviceFarmNodeResult findNode(String id) {
+        AWSDeviceFarmNodeResult node = null;
+        Collection<AWSDeviceFarmNodeResult> candidates = getChildren();
+        for (String name : id.split("/")) {
+            node = null;
+            for (AWSDeviceFarmNodeResult candidate : candidates) {
+                if (candidate.getSafeName().equals(name)) {
+                    node = candidate;
+                    break;
+                }
+            }
+            if (node == null) {
+                return null;
+            }
+            candidates = node.getChildren();
+        }
+        return node;
+    }
+
+    /**
+     * Find a job result by its safe name, so results can be addressed as "aws-device-farm/device/suite/test".
+     */
+    @Override
+    public Object getDynamic(String token, StaplerRequest request, StaplerResponse response) {
+        AWSDeviceFarmNodeResult node = findNode(token);
+        return node != null ? node : super.getDynamic(token, request, response);
+    }
+
+    /**
+     * Set the per-job result archives of this run.
+     *
+     * @param archives The archive paths relative to the build artifacts directory.
+     */
+    public synchronized void setArchives(List<String> archives) {
+        this.archives = new ArrayList<String>(archives);
+        this.archiveData = null;
+        this.archiveList = null;
+    }
+
     public String getReportUrl() {
         return url;
     }
@@ -221,6 +595,13 @@ public class AWSDeviceFarmTestResult extends TestResult {
         return WordUtils.capitalizeFully(status);
     }
 
+    /**
+     * @return the result reported by AWS Device Farm, e.g. PASSED or FAILED
+     */
+    public ExecutionResult getExecutionResult() {
+        return result;
+    }
+
     public String getProject() {
         return project;
     }
@@ -263,10 +644,140 @@ public class AWSDeviceFarmTestResult extends TestResult {
         return resultMap.get(result);
     }
 
+    /**
+     * Return a Jenkins build result which matches the result status from AWS Device Farm. If requested, a failed run
+     * whose failed tests were all known to be flaky is only marked unstable. A run which exceeded its performance
+     * budgets gets at most the result of the performance gate.
+     *
+     * @param ignoreRunError      Treat an errored run according to its test counters.
+     * @param ignoreFlakyFailures Do not fail the build for failures of known flaky tests.
+     * @return Jenkins build result
+     */
+    public Result getBuildResult(Boolean ignoreRunError, Boolean ignoreFlakyFailures) {
+        Result buildResult = getBuildResult(ignoreRunError);
+        if (ignoreFlakyFailures != null && ignoreFlakyFailures && Result.FAILURE.equals(buildResult)
+                && ExecutionResult.FAILED.equals(result) && isOnlyFlakyFailures()) {
+            buildResult = Result.UNSTABLE;
+        }
+        if (performanceResult != null && performanceViolations != null && !performanceViolations.isEmpty()) {
+            buildResult = buildResult != null ? buildResult.combine(performanceResult) : performanceResult;
+        }
+        return buildResult;
+    }
+
+    /**
+     * @return true if the run has failed tests and all of them were known to be flaky
+     */
+    public boolean isOnlyFlakyFailures() {
+        return onlyFlakyFailures;
+    }
+
+    /**
+     * @return the keys of the failed tests which were known to be flaky, "suite/test@model"
+     */
+    public List<String> getFlakyFailures() {
+        return flakyFailures != null ? Collections.unmodifiableList(flakyFailures) : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return the outcome history of the failed tests which were known to be flaky
+     */
+    public List<AWSDeviceFarmFlakyTests.Entry> getFlakyFailureHistory() {
+        List<AWSDeviceFarmFlakyTests.Entry> entries = new ArrayList<AWSDeviceFarmFlakyTests.Entry>();
+        if (flakyFailures != null && !flakyFailures.isEmpty() && build != null) {
+            AWSDeviceFarmFlakyTests flakyTests = AWSDeviceFarmFlakyTests.forJob(build.getProject());
+            for (String key : new LinkedHashSet<String>(flakyFailures)) {
+                AWSDeviceFarmFlakyTests.Entry entry = flakyTests.get(key);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Set the failed tests of this run which were known to be flaky.
+     *
+     * @param flakyFailures The keys of the tests, see {@link AWSDeviceFarmFlakyTests#keyOf(String, String, String)}.
+     * @param failures      The keys of all failed tests of the run, see {@link AWSDeviceFarmFlakyTests#getFailures}.
+     */
+    public void setFlakyFailures(List<String> flakyFailures, List<String> failures) {
+        this.flakyFailures = new ArrayList<String>(flakyFailures);
+        this.onlyFlakyFailures = !failures.isEmpty() && new HashSet<String>(flakyFailures).containsAll(failures);
+    }
+
+    /**
+     * @return the descriptions of the performance budgets which the run exceeded
+     */
+    public List<String> getPerformanceViolations() {
+        return performanceViolations != null ? Collections.unmodifiableList(performanceViolations) : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return the build result for exceeded performance budgets, null if they do not affect the build result
+     */
+    public Result getPerformanceResult() {
+        return performanceResult;
+    }
+
+    /**
+     * Set the performance budgets which the run exceeded.
+     *
+     * @param performanceViolations The descriptions of the violations, see {@link AWSDeviceFarmPerformanceGate.Violation#getMessage()}.
+     * @param performanceResult     The build result for exceeded budgets, e.g. UNSTABLE or FAILURE.
+     */
+    public void setPerformanceViolations(List<String> performanceViolations, Result performanceResult) {
+        this.performanceViolations = new ArrayList<String>(performanceViolations);
+        this.performanceResult = performanceResult;
+    }
+
+    /**
+     * @return the label of this run within an aggregated result, e.g. "Shard 1 of 3", null for a single run
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Set the label of this run within an aggregated result.
+     *
+     * @param label The label.
+     */
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the results of the individual runs if this result aggregates several runs, otherwise empty
+     */
+    public List<AWSDeviceFarmTestResult> getRuns() {
+        return runs != null ? Collections.unmodifiableList(runs) : Collections.<AWSDeviceFarmTestResult>emptyList();
+    }
+
+    /**
+     * Check whether a run is part of this result.
+     *
+     * @param id The id of the run.
+     * @return true if this is the run, or if it aggregates the run.
+     */
+    public boolean hasRun(String id) {
+        if (this.id.equalsIgnoreCase(id)) {
+            return true;
+        }
+        for (AWSDeviceFarmTestResult run : getRuns()) {
+            if (run.hasRun(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the AWS Device Farm test result for the given id. The id will likely be the default
      * value generated by Jenkins, which is usually just the human readable name. Return this
-     * test result the ID's match, otherwise scan our previous runs looking for a matching result.
+     * test result the ID's match, or the job, suite or test of this run with the given relative id,
+     * otherwise look up the build which recorded the result in the {@link AWSDeviceFarmRunIndex} of the project.
      * If no match is found, return null.
      *
      * @param id test result ID
@@ -276,18 +787,17 @@ public class AWSDeviceFarmTestResult extends TestResult {
         if (id == null || getId().equalsIgnoreCase(id)) {
             return this;
         }
-        ArrayList<AWSDeviceFarmTestResultAction> prevActions = AWSDeviceFarmUtils.previousAWSDeviceFarmBuilds(build.getProject());
-        if (prevActions == null || prevActions.isEmpty()) {
-            return null;
+        AWSDeviceFarmNodeResult node = findNode(id);
+        if (node != null) {
+            return node;
         }
-        for (AWSDeviceFarmTestResultAction action : prevActions) {
-            AWSDeviceFarmTestResult prevResult = action.getResult();
-            if (prevResult == null) {
-                continue;
-            }
-            if (prevResult.getId().equalsIgnoreCase(id)) {
-                return prevResult;
-            }
+        // Results of other builds are looked up in the run index instead of walking the build chain.
+        Integer number = AWSDeviceFarmRunIndex.forJob(build.getProject()).get(id);
+        AbstractBuild<?, ?> other = number != null ? build.getProject().getBuildByNumber(number) : null;
+        AWSDeviceFarmTestResultAction action = other != null ? other.getAction(AWSDeviceFarmTestResultAction.class) : null;
+        AWSDeviceFarmTestResult prevResult = action != null ? action.getResult() : null;
+        if (prevResult != null && prevResult.hasRun(id)) {
+            return prevResult;
         }
         return null;
     }
@@ -350,7 +860,37 @@ public class AWSDeviceFarmTestResult extends TestResult {
      */
     @Override
     public float getDuration() {
-        return (float) duration;
+        return deviceMinutes;
+    }
+
+    /**
+     * @return number of metered device minutes used by the run which generated this result
+     */
+    public float getMeteredMinutes() {
+        return meteredMinutes;
+    }
+
+    /**
+     * @return number of unmetered device minutes used by the run which generated this result
+     */
+    public float getUnmeteredMinutes() {
+        return unmeteredMinutes;
+    }
+
+    /**
+     * @return the name of the device pool the run was scheduled on, null if unknown
+     */
+    public String getDevicePool() {
+        return devicePool;
+    }
+
+    /**
+     * Set the name of the device pool the run was scheduled on.
+     *
+     * @param devicePool The device pool name.
+     */
+    public void setDevicePool(String devicePool) {
+        this.devicePool = devicePool;
     }
 
     /**
@@ -381,4 +921,245 @@ public class AWSDeviceFarmTestResult extends TestResult {
     public String getSearchUrl() {
         return "aws-device-farm";
     }
+
+    /**
+     * Set the build this result belongs to, once the build has been loaded.
+     *
+     * @param build The build.
+     */
+    void setBuild(AbstractBuild<?, ?> build) {
+        this.build = build;
+        this.archiveList = null;
+        for (AWSDeviceFarmTestResult run : getRuns()) {
+            run.setBuild(build);
+        }
+    }
+
+    //// Helper Methods
+
+    private synchronized List<String> getArchivePaths() {
+        if (archiveData != null) {
+            archives = new ArrayList<String>(Arrays.asList(archiveData.split("\n")));
+            archiveData = null;
+        }
+        return archives;
+    }
+
+    private static int severityOf(ExecutionResult result) {
+        if (result == null) {
+            return -1;
+        }
+        switch (result) {
+            case PASSED:
+                return 1;
+            case WARNED:
+                return 2;
+            case SKIPPED:
+                return 3;
+            case STOPPED:
+                return 4;
+            case FAILED:
+                return 5;
+            case ERRORED:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    private static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
+
+    /**
+     * Stores a result in build.xml as a single element with the counters and names as attributes, and the rarely used
+     * archive paths as text which is only decoded when the archives are listed. Repeated strings such as the status,
+     * project and device pool are interned when the build is loaded. The runs of an aggregated result are nested
+     * "run" elements of the same form.
+     * <p>
+     * Builds which were stored with the default reflection based form are still read, results stored with a newer
+     * form than this version of the plugin knows are rejected.
+     */
+    public static class ConverterImpl implements Converter {
+        public boolean canConvert(Class type) {
+            return type == AWSDeviceFarmTestResult.class;
+        }
+
+        public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+            AWSDeviceFarmTestResult result = (AWSDeviceFarmTestResult) source;
+            writer.addAttribute("format", String.valueOf(FORMAT_VERSION));
+            writeCompact(result, writer);
+        }
+
+        private static void writeCompact(AWSDeviceFarmTestResult result, HierarchicalStreamWriter writer) {
+            addAttribute(writer, "id", result.id);
+            addAttribute(writer, "status", result.status);
+            addAttribute(writer, "result", result.result != null ? result.result.toString() : null);
+            addAttribute(writer, "counts", String.format("%d %d %d %d %d %d %d", result.passCount, result.warnCount,
+                    result.failCount, result.skipCount, result.errorCount, result.stopCount, result.totalCount));
+            addAttribute(writer, "minutes", String.format("%s %s %s", result.deviceMinutes, result.meteredMinutes, result.unmeteredMinutes));
+            addAttribute(writer, "pool", result.devicePool);
+            addAttribute(writer, "project", result.project);
+            addAttribute(writer, "url", result.url);
+            addAttribute(writer, "label", result.label);
+            List<String> archives = result.getArchivePaths();
+            if (archives != null && !archives.isEmpty()) {
+                writer.startNode("archives");
+                writer.setValue(StringUtils.join(archives, "\n"));
+                writer.endNode();
+            }
+            if (result.flakyFailures != null && !result.flakyFailures.isEmpty()) {
+                writer.startNode("flakyFailures");
+                if (result.onlyFlakyFailures) {
+                    writer.addAttribute("only", "true");
+                }
+                writer.setValue(StringUtils.join(result.flakyFailures, "\n"));
+                writer.endNode();
+            }
+            if (result.performanceViolations != null && !result.performanceViolations.isEmpty()) {
+                writer.startNode("performanceViolations");
+                addAttribute(writer, "result", result.performanceResult != null ? result.performanceResult.toString() : null);
+                writer.setValue(StringUtils.join(result.performanceViolations, "\n"));
+                writer.endNode();
+            }
+            if (result.runs != null && !result.runs.isEmpty()) {
+                writer.startNode("runs");
+                for (AWSDeviceFarmTestResult run : result.runs) {
+                    writer.startNode("run");
+                    writeCompact(run, writer);
+                    writer.endNode();
+                }
+                writer.endNode();
+            }
+        }
+
+        public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+            // The build is set by the action once the build has been loaded.
+            AWSDeviceFarmTestResult result = new AWSDeviceFarmTestResult(null, null);
+            String format = reader.getAttribute("format");
+            if (format != null) {
+                // A newer form can not be read reliably, so the build is reported as old data instead of misread.
+                if (!StringUtils.isNumeric(format) || Integer.parseInt(format) > FORMAT_VERSION) {
+                    throw new ConversionException(String.format("Unsupported AWS Device Farm result format %s", format));
+                }
+                readCompact(result, reader);
+            } else {
+                readFields(result, reader);
+            }
+            return result;
+        }
+
+        private static void readCompact(AWSDeviceFarmTestResult result, HierarchicalStreamReader reader) {
+            result.id = StringUtils.defaultString(reader.getAttribute("id"));
+            result.status = StringUtils.defaultString(intern(reader.getAttribute("status")));
+            String value = reader.getAttribute("result");
+            result.result = value != null ? ExecutionResult.fromValue(value) : null;
+            String[] counts = StringUtils.split(StringUtils.defaultString(reader.getAttribute("counts")), ' ');
+            if (counts.length == 7) {
+                result.passCount = Integer.parseInt(counts[0]);
+                result.warnCount = Integer.parseInt(counts[1]);
+                result.failCount = Integer.parseInt(counts[2]);
+                result.skipCount = Integer.parseInt(counts[3]);
+                result.errorCount = Integer.parseInt(counts[4]);
+                result.stopCount = Integer.parseInt(counts[5]);
+                result.totalCount = Integer.parseInt(counts[6]);
+            }
+            String[] minutes = StringUtils.split(StringUtils.defaultString(reader.getAttribute("minutes")), ' ');
+            if (minutes.length == 3) {
+                result.deviceMinutes = Float.parseFloat(minutes[0]);
+                result.meteredMinutes = Float.parseFloat(minutes[1]);
+                result.unmeteredMinutes = Float.parseFloat(minutes[2]);
+            }
+            result.devicePool = intern(reader.getAttribute("pool"));
+            result.project = StringUtils.defaultString(intern(reader.getAttribute("project")));
+            result.url = StringUtils.defaultString(reader.getAttribute("url"));
+            result.label = reader.getAttribute("label");
+            while (reader.hasMoreChildren()) {
+                reader.moveDown();
+                if ("archives".equals(reader.getNodeName())) {
+                    result.archiveData = reader.getValue();
+                } else if ("flakyFailures".equals(reader.getNodeName())) {
+                    result.onlyFlakyFailures = "true".equals(reader.getAttribute("only"));
+                    result.flakyFailures = new ArrayList<String>(Arrays.asList(reader.getValue().split("\n")));
+                } else if ("performanceViolations".equals(reader.getNodeName())) {
+                    String performanceResult = reader.getAttribute("result");
+                    result.performanceResult = performanceResult != null ? Result.fromString(performanceResult) : null;
+                    result.performanceViolations = new ArrayList<String>(Arrays.asList(reader.getValue().split("\n")));
+                } else if ("runs".equals(reader.getNodeName())) {
+                    result.runs = new ArrayList<AWSDeviceFarmTestResult>();
+                    while (reader.hasMoreChildren()) {
+                        reader.moveDown();
+                        AWSDeviceFarmTestResult run = new AWSDeviceFarmTestResult(null, null);
+                        readCompact(run, reader);
+                        result.runs.add(run);
+                        reader.moveUp();
+                    }
+                }
+                reader.moveUp();
+            }
+        }
+
+        /**
+         * Read a result which was stored with the default reflection based form, one element per field.
+         */
+        private static void readFields(AWSDeviceFarmTestResult result, HierarchicalStreamReader reader) {
+            while (reader.hasMoreChildren()) {
+                reader.moveDown();
+                String name = reader.getNodeName();
+                if ("archives".equals(name)) {
+                    result.archives = new ArrayList<String>();
+                    while (reader.hasMoreChildren()) {
+                        reader.moveDown();
+                        result.archives.add(reader.getValue());
+                        reader.moveUp();
+                    }
+                } else if (!"build".equals(name)) {
+                    readField(result, name, reader.getValue());
+                }
+                reader.moveUp();
+            }
+        }
+
+        private static void readField(AWSDeviceFarmTestResult result, String name, String value) {
+            if ("id".equals(name)) {
+                result.id = value;
+            } else if ("status".equals(name)) {
+                result.status = intern(value);
+            } else if ("result".equals(name)) {
+                result.result = ExecutionResult.fromValue(value);
+            } else if ("passCount".equals(name)) {
+                result.passCount = Integer.parseInt(value);
+            } else if ("warnCount".equals(name)) {
+                result.warnCount = Integer.parseInt(value);
+            } else if ("failCount".equals(name)) {
+                result.failCount = Integer.parseInt(value);
+            } else if ("totalCount".equals(name)) {
+                result.totalCount = Integer.parseInt(value);
+            } else if ("errorCount".equals(name)) {
+                result.errorCount = Integer.parseInt(value);
+            } else if ("skipCount".equals(name)) {
+                result.skipCount = Integer.parseInt(value);
+            } else if ("stopCount".equals(name)) {
+                result.stopCount = Integer.parseInt(value);
+            } else if ("deviceMinutes".equals(name)) {
+                result.deviceMinutes = Float.parseFloat(value);
+            } else if ("meteredMinutes".equals(name)) {
+                result.meteredMinutes = Float.parseFloat(value);
+            } else if ("unmeteredMinutes".equals(name)) {
+                result.unmeteredMinutes = Float.parseFloat(value);
+            } else if ("devicePool".equals(name)) {
+                result.devicePool = intern(value);
+            } else if ("url".equals(name)) {
+                result.url = value;
+            } else if ("project".equals(name)) {
+                result.project = intern(value);
+            }
+        }
+
+        private static void addAttribute(HierarchicalStreamWriter writer, String name, String value) {
+            if (value != null) {
+                writer.addAttribute(name, value);
+            }
+        }
+    }
 }
@@ -14,7 +14,9 @@
 //
 package org.jenkinsci.plugins.awsdevicefarm;
 
+import com.amazonaws.services.devicefarm.model.Counters;
 import com.amazonaws.services.devicefarm.model.GetRunResult;
+import com.amazonaws.services.devicefarm.model.Job;
 import com.amazonaws.services.devicefarm.model.Run;
 import com.amazonaws.services.devicefarm.model.ScheduleRunResult;
 import hudson.model.AbstractBuild;
@@ -25,6 +27,11 @@ import org.kohsuke.stapler.StaplerProxy;
 
 import javax.annotation.CheckForNull;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Action which controls the execution management and results updating for AWS Device Farm runs.
@@ -36,7 +43,9 @@ import java.io.PrintStream;
 public class AWSDeviceFarmTestResultAction extends AbstractTestResultAction<AWSDeviceFarmTestResultAction> implements StaplerProxy {
 
     private static final int DefaultUpdateInterval = 30 * 1000;
+    static /* not final */ long updateInterval = DefaultUpdateInterval;
     private AWSDeviceFarmTestResult result;
+    private String abortReason;
 
     public AWSDeviceFarmTestResultAction(AbstractBuild<?, ?> owner, AWSDeviceFarmTestResult result) {
         super(owner);
@@ -64,6 +73,14 @@ public class AWSDeviceFarmTestResultAction extends AbstractTestResultAction<AWSD
         return getResult().getBuildResult(ignoreRunError);
     }
 
+    /**
+     * @return the Jenkins result which matches the result of this AWS Device Farm run, see
+     * {@link AWSDeviceFarmTestResult#getBuildResult(Boolean, Boolean)}
+     */
+    public Result getBuildResult(Boolean ignoreRunError, Boolean ignoreFlakyFailures) {
+        return getResult().getBuildResult(ignoreRunError, ignoreFlakyFailures);
+    }
+
     public void waitForRunCompletion(AWSDeviceFarm adf, ScheduleRunResult runResult) throws InterruptedException {
         waitForRunCompletion(adf, runResult, TaskListener.NULL);
     }
@@ -76,17 +93,114 @@ public class AWSDeviceFarmTestResultAction extends AbstractTestResultAction<AWSD
      * @param runResult
      */
     public void waitForRunCompletion(AWSDeviceFarm adf, ScheduleRunResult runResult, TaskListener listener) throws InterruptedException {
+        waitForRunCompletion(adf, runResult, listener, null);
+    }
+
+    /**
+     * Blocking function which periodically polls the given AWS Device Farm run until its completed, stopping the run
+     * as soon as one of the thresholds of the given fail-fast policy is crossed. A stopped run is still followed until
+     * it reaches COMPLETED so the partial results and artifacts can be collected afterwards.
+     *
+     * @param runResult
+     * @param policy    The fail-fast policy to evaluate on every poll, may be null.
+     */
+    public void waitForRunCompletion(AWSDeviceFarm adf, ScheduleRunResult runResult, TaskListener listener, AWSDeviceFarmFailFastPolicy policy) throws InterruptedException {
+        waitForRunsCompletion(adf, Collections.singletonList(runResult), Collections.<String>singletonList(null), listener, policy);
+    }
+
+    /**
+     * Blocking function which periodically polls several AWS Device Farm runs of the build, e.g. the shards of a test
+     * suite, until all of them are completed. The result of this action aggregates the results of all runs, see
+     * {@link AWSDeviceFarmTestResult#merge(AbstractBuild, List)}. The fail-fast policy is evaluated against the
+     * combined counters and jobs of all runs, and stops all runs which are not completed yet.
+     *
+     * @param runResults The scheduled runs.
+     * @param labels     The label of every run, see {@link AWSDeviceFarmTestResult#getLabel()}.
+     * @param policy     The fail-fast policy to evaluate on every poll, may be null.
+     */
+    public void waitForRunsCompletion(AWSDeviceFarm adf, List<ScheduleRunResult> runResults, List<String> labels, TaskListener listener, AWSDeviceFarmFailFastPolicy policy) throws InterruptedException {
+        PrintStream log = listener.getLogger();
+        Map<String, Run> completed = new HashMap<String, Run>();
+        while (true) {
+            List<AWSDeviceFarmTestResult> results = new ArrayList<AWSDeviceFarmTestResult>();
+            Counters counters = new Counters();
+            for (int i = 0; i < runResults.size(); i++) {
+                String runArn = runResults.get(i).getRun().getArn();
+                Run run = completed.get(runArn);
+                if (run == null) {
+                    GetRunResult latestRunResult = adf.describeRun(runArn);
+                    run = latestRunResult.getRun();
+                    writeToLog(log, String.format("Run %s status %s", run.getName(), run.getStatus()));
+                }
+                AWSDeviceFarmTestResult runResult = new AWSDeviceFarmTestResult(owner, run);
+                runResult.setLabel(labels.get(i));
+                if (runResult.isCompleted()) {
+                    completed.put(runArn, run);
+                }
+                results.add(runResult);
+                counters = add(counters, run.getCounters());
+            }
+            result = AWSDeviceFarmTestResult.merge(owner, results);
+            if (completed.size() == runResults.size()) {
+                break;
+            }
+            if (abortReason == null && policy != null && policy.isEnabled()) {
+                List<Job> jobs = null;
+                if (policy.needsJobs()) {
+                    jobs = new ArrayList<Job>();
+                    for (ScheduleRunResult runResult : runResults) {
+                        jobs.addAll(adf.getJobs(runResult.getRun().getArn()));
+                    }
+                }
+                String reason = policy.evaluate(counters, jobs);
+                if (reason != null) {
+                    abortReason = reason;
+                    for (ScheduleRunResult runResult : runResults) {
+                        if (!completed.containsKey(runResult.getRun().getArn())) {
+                            writeToLog(log, String.format("Fail-fast threshold crossed: %s. Stopping run %s", reason, runResult.getRun().getName()));
+                            try {
+                                adf.stopRun(runResult.getRun().getArn());
+                            } catch (RuntimeException e) {
+                                // The run is still followed until it completes on its own.
+                                writeToLog(log, String.format("Unable to stop run %s: %s", runResult.getRun().getName(), e.getMessage()));
+                            }
+                        }
+                    }
+                }
+            }
+            try {
+                Thread.sleep(updateInterval);
+            } catch (InterruptedException ex) {
+                writeToLog(log, String.format("Thread interrupted while waiting for the Run to complete"));
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Blocking function which periodically polls a rerun of the failed tests of the build until it is completed. While
+     * the rerun is in progress, the result of this action keeps the counters of the original runs and lists the rerun
+     * as an additional run.
+     *
+     * @param rerun The scheduled rerun.
+     * @return The result of the rerun, see {@link #applyRerun(AWSDeviceFarmTestResult, AWSDeviceFarmTestResult, int, int)}.
+     */
+    public AWSDeviceFarmTestResult waitForRerunCompletion(AWSDeviceFarm adf, ScheduleRunResult rerun, TaskListener listener) throws InterruptedException {
         PrintStream log = listener.getLogger();
+        AWSDeviceFarmTestResult original = result;
+        String runArn = rerun.getRun().getArn();
         while (true) {
-            GetRunResult latestRunResult = adf.describeRun(runResult.getRun().getArn());
+            GetRunResult latestRunResult = adf.describeRun(runArn);
             Run run = latestRunResult.getRun();
-            result = new AWSDeviceFarmTestResult(owner, run);
+            AWSDeviceFarmTestResult rerunResult = new AWSDeviceFarmTestResult(owner, run);
+            rerunResult.setLabel(AWSDeviceFarmTestRerun.LABEL);
             writeToLog(log, String.format("Run %s status %s", run.getName(), run.getStatus()));
-            if (result.isCompleted()) {
-                break;
+            result = AWSDeviceFarmTestResult.withRerun(owner, original, rerunResult, 0, 0);
+            if (rerunResult.isCompleted()) {
+                return rerunResult;
             }
             try {
-                Thread.sleep(DefaultUpdateInterval);
+                Thread.sleep(updateInterval);
             } catch (InterruptedException ex) {
                 writeToLog(log, String.format("Thread interrupted while waiting for the Run to complete"));
                 throw ex;
@@ -94,6 +208,41 @@ public class AWSDeviceFarmTestResultAction extends AbstractTestResultAction<AWSD
         }
     }
 
+    /**
+     * Count the failures which passed in a rerun as passed, see
+     * {@link AWSDeviceFarmTestResult#withRerun(AbstractBuild, AWSDeviceFarmTestResult, AWSDeviceFarmTestResult, int, int)}.
+     *
+     * @param original          The result of the original runs.
+     * @param rerun             The result of the rerun.
+     * @param recoveredFailures The number of failed tests which passed in the rerun.
+     * @param recoveredErrors   The number of errored tests which passed in the rerun.
+     */
+    public void applyRerun(AWSDeviceFarmTestResult original, AWSDeviceFarmTestResult rerun, int recoveredFailures, int recoveredErrors) {
+        result = AWSDeviceFarmTestResult.withRerun(owner, original, rerun, recoveredFailures, recoveredErrors);
+    }
+
+    @Override
+    public void onAttached(hudson.model.Run<?, ?> r) {
+        super.onAttached(r);
+        attachResult(r);
+    }
+
+    /**
+     * The build is not stored with the result, so it is set again once the build has been loaded.
+     */
+    @Override
+    public void onLoad(hudson.model.Run<?, ?> r) {
+        super.onLoad(r);
+        attachResult(r);
+    }
+
+    /**
+     * @return the reason the run was stopped early by the fail-fast policy, or null if it ran to completion
+     */
+    public String getAbortReason() {
+        return abortReason;
+    }
+
     /**
      * @return the most recent AWS Device Farm test action from the previous build
      */
@@ -168,6 +317,30 @@ public class AWSDeviceFarmTestResultAction extends AbstractTestResultAction<AWSD
 
     //// Helper Methods
 
+    private void attachResult(hudson.model.Run<?, ?> r) {
+        if (result != null && r instanceof AbstractBuild) {
+            result.setBuild((AbstractBuild<?, ?>) r);
+        }
+    }
+
+    private static Counters add(Counters a, Counters b) {
+        if (b == null) {
+            return a;
+        }
+        return new Counters()
+                .withTotal(sum(a.getTotal(), b.getTotal()))
+                .withPassed(sum(a.getPassed(), b.getPassed()))
+                .withFailed(sum(a.getFailed(), b.getFailed()))
+                .withWarned(sum(a.getWarned(), b.getWarned()))
+                .withErrored(sum(a.getErrored(), b.getErrored()))
+                .withStopped(sum(a.getStopped(), b.getStopped()))
+                .withSkipped(sum(a.getSkipped(), b.getSkipped()));
+    }
+
+    private static Integer sum(Integer a, Integer b) {
+        return (a != null ? a : 0) + (b != null ? b : 0);
+    }
+
     private void writeToLog(PrintStream log, String message) {
         if (log != null) {
             log.println(String.format("[AWSDeviceFarm] %s", message));
@@ -0,0 +1,197 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.TestType;
+import hudson.model.Job;
+import hudson.model.Run;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Splits the test package of a run into shards which are scheduled as parallel runs.
+ * <p>
+ * The test classes are the suites of the most recent build with results, and every class is weighted by the sum of
+ * the median durations of its tests (see {@link AWSDeviceFarmTestDurations}). Classes without durations get the
+ * average weight. The classes are then assigned, slowest first, to the shard with the least work so far (longest
+ * processing time first), and every shard runs its classes through the test filter.
+ * <p>
+ * Since only known classes can be assigned, every {@link #FULL_RUN_INTERVAL}th build runs unsharded to pick up new
+ * test classes. Classes added in between are not run by sharded builds.
+ * <p>
+ * XCTest and XCTest UI are not supported: their filter needs the test target of every class, which is not part of
+ * the suite names Device Farm reports.
+ */
+public final class AWSDeviceFarmTestSharding {
+    public static final int FULL_RUN_INTERVAL = 10;
+    public static final int MAX_SHARDS = 10;
+
+    private static final int MAX_PREVIOUS_BUILDS = 10;
+
+    private AWSDeviceFarmTestSharding() {
+    }
+
+    /**
+     * @param testType The test type of the run.
+     * @return true if the tests of this type can be filtered by class name
+     */
+    public static boolean supports(TestType testType) {
+        return testType == TestType.INSTRUMENTATION || testType == TestType.UIAUTOMATOR;
+    }
+
+    /**
+     * Plan the shards of a build from the test classes and durations of the previous builds of its project.
+     *
+     * @param job    The project.
+     * @param number The number of the build to plan.
+     * @param shards The requested number of shards.
+     * @param log    Destination Task Log, may be null.
+     * @return The test filter of every shard, empty if the build should not be sharded.
+     * @throws IOException
+     */
+    public static List<String> plan(Job<?, ?> job, int number, int shards, PrintStream log) throws IOException {
+        if (shards <= 1) {
+            return Collections.emptyList();
+        }
+        if (number % FULL_RUN_INTERVAL == 0) {
+            writeToLog(log, String.format("Not sharding this run, every %dth build runs all tests to pick up new test classes", FULL_RUN_INTERVAL));
+            return Collections.emptyList();
+        }
+        AWSDeviceFarmResultTree tree = null;
+        Run<?, ?> source = job.getLastCompletedBuild();
+        for (int i = 0; source != null && i < MAX_PREVIOUS_BUILDS; i++) {
+            tree = AWSDeviceFarmResultTree.load(source.getRootDir());
+            if (tree != null) {
+                break;
+            }
+            source = source.getPreviousCompletedBuild();
+        }
+        if (tree == null) {
+            writeToLog(log, "Not sharding this run, none of the recent builds has test results to take the test classes from");
+            return Collections.emptyList();
+        }
+
+        Map<String, Long> classes = new TreeMap<String, Long>();
+        for (AWSDeviceFarmResultTree.JobNode jobNode : tree.getJobs()) {
+            if (AWSDeviceFarmTestRerun.isRerun(jobNode)) {
+                continue;
+            }
+            for (AWSDeviceFarmResultTree.SuiteNode suite : jobNode.getSuites()) {
+                // Setup and teardown suites of Device Farm ("Setup Suite") are not test classes.
+                if (!StringUtils.containsAny(suite.getName(), " \t")) {
+                    classes.put(suite.getName(), 0L);
+                }
+            }
+        }
+        if (classes.size() < 2) {
+            writeToLog(log, String.format("Not sharding this run, %s has fewer than 2 test classes", source.getDisplayName()));
+            return Collections.emptyList();
+        }
+        writeToLog(log, String.format("Sharding the %d test classes of %s, test classes added since then only run in every %dth build",
+                classes.size(), source.getDisplayName(), FULL_RUN_INTERVAL));
+        for (AWSDeviceFarmTestDurations.TestDuration duration
+                : AWSDeviceFarmTestDurations.forJob(job).getSlowestTests(Integer.MAX_VALUE)) {
+            String test = duration.getTest();
+            int slash = test.indexOf('/');
+            Long total = slash > 0 ? classes.get(test.substring(0, slash)) : null;
+            if (total != null) {
+                classes.put(test.substring(0, slash), total + duration.getMedian());
+            }
+        }
+
+        List<String> filters = new ArrayList<String>();
+        for (List<String> shard : split(weigh(classes), Math.min(shards, MAX_SHARDS))) {
+            filters.add(StringUtils.join(shard, ","));
+        }
+        return filters.size() > 1 ? filters : Collections.<String>emptyList();
+    }
+
+    /**
+     * Assign classes to shards, slowest first to the shard with the least total duration so far.
+     *
+     * @param durations The duration of every class.
+     * @param shards    The number of shards.
+     * @return The classes of every non-empty shard, sorted by name.
+     */
+    static List<List<String>> split(Map<String, Long> durations, int shards) {
+        List<Map.Entry<String, Long>> classes = new ArrayList<Map.Entry<String, Long>>(durations.entrySet());
+        Collections.sort(classes, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                int result = Long.compare(b.getValue(), a.getValue());
+                return result != 0 ? result : a.getKey().compareTo(b.getKey());
+            }
+        });
+        List<List<String>> assigned = new ArrayList<List<String>>();
+        long[] loads = new long[Math.max(1, shards)];
+        for (int i = 0; i < loads.length; i++) {
+            assigned.add(new ArrayList<String>());
+        }
+        for (Map.Entry<String, Long> entry : classes) {
+            int shard = 0;
+            for (int i = 1; i < loads.length; i++) {
+                if (loads[i] < loads[shard]) {
+                    shard = i;
+                }
+            }
+            assigned.get(shard).add(entry.getKey());
+            loads[shard] += entry.getValue();
+        }
+        List<List<String>> result = new ArrayList<List<String>>();
+        for (List<String> shard : assigned) {
+            if (!shard.isEmpty()) {
+                Collections.sort(shard);
+                result.add(shard);
+            }
+        }
+        return result;
+    }
+
+    //// Helper Methods
+
+    /**
+     * Give the classes without durations the average duration of the others, or every class the same weight if
+     * there are no durations at all.
+     */
+    private static Map<String, Long> weigh(Map<String, Long> classes) {
+        long total = 0;
+        int known = 0;
+        for (Long duration : classes.values()) {
+            if (duration > 0) {
+                total += duration;
+                known++;
+            }
+        }
+        long average = known > 0 ? Math.max(1, total / known) : 1;
+        Map<String, Long> weights = new TreeMap<String, Long>();
+        for (Map.Entry<String, Long> entry : classes.entrySet()) {
+            weights.put(entry.getKey(), entry.getValue() > 0 ? entry.getValue() : average);
+        }
+        return weights;
+    }
+
+    private static void writeToLog(PrintStream log, String message) {
+        if (log != null) {
+            log.println(String.format("[AWSDeviceFarm] %s", message));
+        }
+    }
+}
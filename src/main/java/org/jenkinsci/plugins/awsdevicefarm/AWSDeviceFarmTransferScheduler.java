@@ -0,0 +1,323 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Controller wide scheduler for artifact downloads which write to the controller, shared by all builds.
+ * <p>
+ * The number of concurrent transfers and the total bandwidth (which is also the rate the artifacts are written to
+ * disk) are capped so a burst of finishing runs does not saturate the controller. Free transfer slots go to the
+ * build with the fewest running transfers, then to its waiting transfer with the highest priority, then first come
+ * first served. Like in {@link AWSDeviceFarmArtifactDownloader}, videos go before screenshots before logs: videos are
+ * usually the largest artifacts, and started last they would be the long tail of the collection of a build.
+ */
+public final class AWSDeviceFarmTransferScheduler implements AWSDeviceFarmResumableDownload.Throttle {
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    public static final int PRIORITY_VIDEO = 0;
+    public static final int PRIORITY_SCREENSHOT = 1;
+    public static final int PRIORITY_LOG = 2;
+
+    private static final Pattern VIDEO = Pattern.compile(".*\\.(mp4|mov|webm|avi)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SCREENSHOT = Pattern.compile(".*\\.(png|jpg|jpeg|gif)$", Pattern.CASE_INSENSITIVE);
+    private static final int THROUGHPUT_WINDOW = 10;
+
+    private static AWSDeviceFarmTransferScheduler instance;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private long bytesPerSecond = 0;
+    private long nextFree = System.nanoTime();
+
+    private final List<Request> queue = new ArrayList<Request>();
+    private final Map<String, Integer> running = new TreeMap<String, Integer>();
+    private int runningCount = 0;
+
+    private final long[] throughput = new long[THROUGHPUT_WINDOW];
+    private long throughputSecond;
+    private boolean throughputStarted = false;
+
+    /**
+     * @return the transfer scheduler of this Jenkins controller
+     */
+    public static synchronized AWSDeviceFarmTransferScheduler get() {
+        if (instance == null) {
+            instance = new AWSDeviceFarmTransferScheduler();
+        }
+        return instance;
+    }
+
+    AWSDeviceFarmTransferScheduler() {
+    }
+
+    /**
+     * Update the limits of the scheduler. Transfers which are already running are not affected by a lower concurrency.
+     *
+     * @param concurrency        The max number of concurrent transfers, defaults to {@link #DEFAULT_CONCURRENCY}.
+     * @param megabytesPerSecond The max total bandwidth in MB/s, null or 0 for no limit.
+     */
+    public synchronized void setLimits(Integer concurrency, Integer megabytesPerSecond) {
+        this.concurrency = (concurrency != null && concurrency > 0) ? concurrency : DEFAULT_CONCURRENCY;
+        this.bytesPerSecond = (megabytesPerSecond != null && megabytesPerSecond > 0) ? megabytesPerSecond * 1024L * 1024L : 0;
+        notifyAll();
+    }
+
+    /**
+     * Get the priority of an artifact from its file name.
+     *
+     * @param fileName The file name of the artifact.
+     * @return The priority, lower values are transferred first.
+     */
+    public static int priorityOf(String fileName) {
+        if (fileName == null) {
+            return PRIORITY_LOG;
+        }
+        if (VIDEO.matcher(fileName).matches()) {
+            return PRIORITY_VIDEO;
+        }
+        if (SCREENSHOT.matcher(fileName).matches()) {
+            return PRIORITY_SCREENSHOT;
+        }
+        return PRIORITY_LOG;
+    }
+
+    /**
+     * Block until a transfer slot is available for the given owner.
+     *
+     * @param owner    The owner of the transfer, usually the build.
+     * @param priority The priority of the transfer, see {@link #priorityOf(String)}.
+     * @return The slot, which has to be released once the transfer is done.
+     * @throws InterruptedException
+     */
+    public synchronized Slot acquire(String owner, int priority) throws InterruptedException {
+        Request request = new Request(owner, priority);
+        queue.add(request);
+        try {
+            while (runningCount >= concurrency || next() != request) {
+                wait();
+            }
+        } finally {
+            queue.remove(request);
+            // Let the next request re-evaluate whether it is its turn now.
+            notifyAll();
+        }
+        runningCount++;
+        running.put(owner, getRunning(owner) + 1);
+        return new Slot(owner);
+    }
+
+    /**
+     * Account for transferred bytes, blocking as long as needed to stay within the bandwidth limit.
+     *
+     * @param bytes The number of bytes which were just transferred.
+     * @throws InterruptedException
+     */
+    public void consume(int bytes) throws InterruptedException {
+        long wait = 0;
+        synchronized (this) {
+            record(bytes);
+            if (bytesPerSecond > 0) {
+                long now = System.nanoTime();
+                wait = nextFree - now;
+                nextFree = Math.max(now, nextFree) + TimeUnit.SECONDS.toNanos(1) * bytes / bytesPerSecond;
+            }
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @return the max number of concurrent transfers
+     */
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return the max total bandwidth in bytes per second, 0 for no limit
+     */
+    public synchronized long getBandwidthLimit() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return the number of running transfers
+     */
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * @return the number of transfers waiting for a slot
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return the average throughput of the last seconds in bytes per second
+     */
+    public synchronized long getThroughput() {
+        record(0);
+        long total = 0;
+        // The current second is incomplete, so it is left out of the average.
+        for (int i = 1; i < THROUGHPUT_WINDOW; i++) {
+            total += throughput[bucket(throughputSecond - i)];
+        }
+        return total / (THROUGHPUT_WINDOW - 1);
+    }
+
+    /**
+     * @return the running and queued transfers per owner
+     */
+    public synchronized List<OwnerStatus> getOwners() {
+        Map<String, OwnerStatus> owners = new TreeMap<String, OwnerStatus>();
+        for (Map.Entry<String, Integer> entry : running.entrySet()) {
+            owners.put(entry.getKey(), new OwnerStatus(entry.getKey(), entry.getValue(), 0));
+        }
+        for (Request request : queue) {
+            OwnerStatus status = owners.get(request.owner);
+            owners.put(request.owner, new OwnerStatus(request.owner, getRunning(request.owner),
+                    status == null ? 1 : status.getQueued() + 1));
+        }
+        return Collections.unmodifiableList(new ArrayList<OwnerStatus>(owners.values()));
+    }
+
+    //// Helper Methods
+
+    private synchronized void release(String owner) {
+        runningCount--;
+        int count = getRunning(owner) - 1;
+        if (count > 0) {
+            running.put(owner, count);
+        } else {
+            running.remove(owner);
+        }
+        notifyAll();
+    }
+
+    private int getRunning(String owner) {
+        Integer count = running.get(owner);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @return the request which gets the next free slot
+     */
+    private Request next() {
+        Request next = null;
+        for (Request request : queue) {
+            if (next == null
+                    || getRunning(request.owner) < getRunning(next.owner)
+                    || (getRunning(request.owner) == getRunning(next.owner) && request.priority < next.priority)) {
+                next = request;
+            }
+        }
+        return next;
+    }
+
+    private void record(long bytes) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        if (!throughputStarted || second - throughputSecond >= THROUGHPUT_WINDOW) {
+            Arrays.fill(throughput, 0);
+            throughputStarted = true;
+            throughputSecond = second;
+        } else {
+            for (long s = throughputSecond + 1; s <= second; s++) {
+                throughput[bucket(s)] = 0;
+            }
+        }
+        throughputSecond = Math.max(throughputSecond, second);
+        throughput[bucket(throughputSecond)] += bytes;
+    }
+
+    private static int bucket(long second) {
+        return (int) Math.floorMod(second, (long) THROUGHPUT_WINDOW);
+    }
+
+    /**
+     * A transfer slot which has been granted to an owner.
+     */
+    public final class Slot {
+        private final String owner;
+        private boolean released = false;
+
+        private Slot(String owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Return the slot to the scheduler.
+         */
+        public void release() {
+            synchronized (AWSDeviceFarmTransferScheduler.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            AWSDeviceFarmTransferScheduler.this.release(owner);
+        }
+    }
+
+    /**
+     * Running and queued transfers of a single owner.
+     */
+    public static class OwnerStatus {
+        private final String owner;
+        private final int running;
+        private final int queued;
+
+        OwnerStatus(String owner, int running, int queued) {
+            this.owner = owner;
+            this.running = running;
+            this.queued = queued;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+    }
+
+    /**
+     * A transfer waiting for a slot.
+     */
+    private static class Request {
+        private final String owner;
+        private final int priority;
+
+        Request(String owner, int priority) {
+            this.owner = owner;
+            this.priority = priority;
+        }
+    }
+}
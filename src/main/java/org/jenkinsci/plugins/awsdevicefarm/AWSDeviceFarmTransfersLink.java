@@ -0,0 +1,52 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+/**
+ * Page under "Manage Jenkins" showing the throughput and queue of the controller wide artifact transfer scheduler.
+ */
+@Extension
+public class AWSDeviceFarmTransfersLink extends ManagementLink {
+
+    /**
+     * @return the transfer scheduler of this controller
+     */
+    public AWSDeviceFarmTransferScheduler getScheduler() {
+        return AWSDeviceFarmTransferScheduler.get();
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "monitor.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "AWS Device Farm Transfers";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Throughput and queue of the AWS Device Farm artifact downloads to the controller.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "aws-device-farm-transfers";
+    }
+}
@@ -20,6 +20,7 @@ import hudson.model.Job;
 import hudson.model.Run;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Contains collection of helper functions for common AWS Device Farm/Jenkins actions.
@@ -41,13 +42,27 @@ public class AWSDeviceFarmUtils {
     }
 
     /**
-     * Returns the most recent build which contained an AWS Device Farm test run.
+     * Returns the most recent build which contained an AWS Device Farm test run. Unless it is the last build, the build
+     * is looked up through the project history so older builds do not have to be loaded.
      *
      * @param project The Jenkins project which contains runs to examine.
      * @return The previous Device Farm build.
      */
     public static AbstractBuild<?, ?> previousAWSDeviceFarmBuild(AbstractProject<?, ?> project) {
         AbstractBuild<?, ?> last = project.getLastBuild();
+        if (last == null || last.getAction(AWSDeviceFarmTestResultAction.class) != null) {
+            return last;
+        }
+        AWSDeviceFarmHistory.Record record = AWSDeviceFarmHistory.forJob(project).getLast();
+        if (record == null) {
+            return null;
+        }
+        AbstractBuild<?, ?> build = project.getBuildByNumber(record.getNumber());
+        if (build != null && build.getAction(AWSDeviceFarmTestResultAction.class) != null) {
+            return build;
+        }
+
+        // The history is out of date, fall back to walking the builds.
         while (last != null) {
             if (last.getAction(AWSDeviceFarmTestResultAction.class) != null) {
                 break;
@@ -64,15 +79,38 @@ public class AWSDeviceFarmUtils {
      * @return The previous Device Farm builds.
      */
     public static ArrayList<AWSDeviceFarmTestResultAction> previousAWSDeviceFarmBuilds(AbstractProject<?, ?> project) {
+        return previousAWSDeviceFarmBuilds(project, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return collection of the (n) most recent builds of the given project which contain an AWS Device Farm test run,
+     * most recent first. Only these builds are loaded, they are found through the project history.
+     *
+     * @param project The Jenkins project which contains runs to examine.
+     * @param n       The max number of builds.
+     * @return The previous Device Farm builds.
+     */
+    public static ArrayList<AWSDeviceFarmTestResultAction> previousAWSDeviceFarmBuilds(AbstractProject<?, ?> project, int n) {
         ArrayList<AWSDeviceFarmTestResultAction> actions = new ArrayList<AWSDeviceFarmTestResultAction>();
 
-        AbstractBuild<?, ?> build = project.getLastBuild();
-        while (build != null) {
-            AWSDeviceFarmTestResultAction action = build.getAction(AWSDeviceFarmTestResultAction.class);
+        // The last build may still be running, so it is not part of the history yet.
+        AbstractBuild<?, ?> last = project.getLastBuild();
+        AWSDeviceFarmTestResultAction lastAction = last != null ? last.getAction(AWSDeviceFarmTestResultAction.class) : null;
+        if (lastAction != null && n > 0) {
+            actions.add(lastAction);
+        }
+
+        List<AWSDeviceFarmHistory.Record> records = AWSDeviceFarmHistory.forJob(project).getRecords();
+        for (int i = records.size() - 1; i >= 0 && actions.size() < n; i--) {
+            int number = records.get(i).getNumber();
+            if (last != null && number == last.getNumber()) {
+                continue;
+            }
+            AbstractBuild<?, ?> build = project.getBuildByNumber(number);
+            AWSDeviceFarmTestResultAction action = build != null ? build.getAction(AWSDeviceFarmTestResultAction.class) : null;
             if (action != null) {
                 actions.add(action);
             }
-            build = build.getPreviousBuild();
         }
         return actions;
     }
@@ -130,6 +168,18 @@ public class AWSDeviceFarmUtils {
         return projectRunId[0];
     }
 
+    /**
+     * Get the ARN of the run a Device Farm job, suite, test or artifact belongs to.
+     *
+     * @param arn The Device Farm ARN of the run or of any of its parts.
+     * @return The Device Farm run ARN.
+     */
+    public static String getRunArnFromArn(String arn) {
+        String[] parts = arn.split(":");
+        String[] ids = parts[6].split("/");
+        return String.format("%s:%s:%s:%s:%s:run:%s/%s", parts[0], parts[1], parts[2], parts[3], parts[4], ids[0], ids[1]);
+    }
+
     /**
      * Split the run ARN into Device Farm run and project IDs.
      *
@@ -0,0 +1,94 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+@For(AWSDeviceFarmArtifactCache.class)
+public class AWSDeviceFarmArtifactCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedArtifacts() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        AWSDeviceFarmArtifactCache cache = new AWSDeviceFarmArtifactCache(cacheDir);
+
+        cache.fetch("a.txt", source("aaaa"), 10);
+        cache.fetch("b.txt", source("bbbb"), 10);
+        // Touch "a" so "b" becomes the least recently used artifact.
+        cache.fetch("a.txt", null, 10);
+        cache.fetch("c.txt", source("cccc"), 10);
+
+        Assert.assertTrue(new File(cacheDir, "a.txt").isFile());
+        Assert.assertFalse(new File(cacheDir, "b.txt").exists());
+        Assert.assertTrue(new File(cacheDir, "c.txt").isFile());
+        Assert.assertEquals(8, cache.getTotalBytes());
+    }
+
+    @Test
+    public void reloadsExistingArtifacts() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        new AWSDeviceFarmArtifactCache(cacheDir).fetch("a.txt", source("aaaa"), 10);
+
+        AWSDeviceFarmArtifactCache cache = new AWSDeviceFarmArtifactCache(cacheDir);
+        Assert.assertEquals(4, cache.getTotalBytes());
+        Assert.assertEquals("aaaa", FileUtils.readFileToString(cache.fetch("a.txt", null, 10)));
+    }
+
+    @Test
+    public void keepsArtifactsWhichAreServed() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        AWSDeviceFarmArtifactCache cache = new AWSDeviceFarmArtifactCache(cacheDir);
+
+        AWSDeviceFarmArtifactCache.Lease a = cache.open("a.txt", source("aaaa"), 10);
+        cache.fetch("b.txt", source("bbbb"), 10);
+        cache.fetch("c.txt", source("cccc"), 10);
+
+        // "a" is the least recently used artifact but still served, so "b" goes instead.
+        Assert.assertTrue(a.getFile().isFile());
+        Assert.assertFalse(new File(cacheDir, "b.txt").exists());
+        Assert.assertEquals(8, cache.getTotalBytes());
+
+        AWSDeviceFarmArtifactCache.Lease c = cache.open("c.txt", null, 6);
+        a.close();
+        a.close();
+        Assert.assertFalse(new File(cacheDir, "a.txt").exists());
+        Assert.assertTrue(c.getFile().isFile());
+        Assert.assertEquals(4, cache.getTotalBytes());
+        c.close();
+    }
+
+    private AWSDeviceFarmArtifactCache.Source source(String content) throws IOException {
+        File file = tmp.newFile();
+        FileUtils.writeStringToFile(file, content);
+        final URL url = file.toURI().toURL();
+        return new AWSDeviceFarmArtifactCache.Source() {
+            public URL getUrl() {
+                return url;
+            }
+        };
+    }
+}
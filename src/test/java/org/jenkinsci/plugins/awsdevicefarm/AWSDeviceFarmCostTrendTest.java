@@ -0,0 +1,91 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@For(AWSDeviceFarmCostTrend.class)
+public class AWSDeviceFarmCostTrendTest {
+
+    @Test
+    public void flagsJobsAboveTheirMedian() {
+        List<Map<String, Double>> baseline = new ArrayList<Map<String, Double>>();
+        baseline.add(minutes(10, 2));
+        baseline.add(minutes(12, 2));
+        baseline.add(minutes(11, 30));
+
+        List<AWSDeviceFarmCostTrend.Regression> regressions = AWSDeviceFarmCostTrend.findRegressions(baseline, minutes(20, 2.5));
+        Assert.assertEquals(1, regressions.size());
+        Assert.assertEquals("pixel", regressions.get(0).getJob());
+        Assert.assertEquals(11, regressions.get(0).getBaseline(), 0.001);
+    }
+
+    @Test
+    public void needsEnoughPreviousBuilds() {
+        List<Map<String, Double>> baseline = new ArrayList<Map<String, Double>>();
+        baseline.add(minutes(10, 2));
+        baseline.add(minutes(10, 2));
+
+        Assert.assertTrue(AWSDeviceFarmCostTrend.findRegressions(baseline, minutes(100, 100)).isEmpty());
+    }
+
+    @Test
+    public void sumsMinutesPerDevicePool() {
+        List<AWSDeviceFarmCostTrend.PoolCost> pools = AWSDeviceFarmCostTrend.byDevicePool(Arrays.asList(
+                record(1, 5, "Top Devices"), record(2, 20, "All Devices"), record(3, 7, "Top Devices"), record(4, 1, null)));
+
+        Assert.assertEquals(3, pools.size());
+        Assert.assertEquals("All Devices", pools.get(0).getName());
+        Assert.assertEquals("Top Devices", pools.get(1).getName());
+        Assert.assertEquals(2, pools.get(1).getBuilds());
+        Assert.assertEquals(6, pools.get(1).getAverageMinutes(), 0.001);
+        Assert.assertEquals(7, pools.get(1).getLastMinutes(), 0.001);
+        Assert.assertEquals(AWSDeviceFarmCostTrend.UNKNOWN_POOL, pools.get(2).getName());
+    }
+
+    @Test
+    public void listsTheBuildsOfADevicePool() {
+        AWSDeviceFarmCostTrend trend = new AWSDeviceFarmCostTrend(Arrays.asList(
+                record(1, 5, "Top Devices"), record(2, 20, "All Devices"), record(3, 7, "Top Devices"), record(4, 1, null)),
+                new ArrayList<AWSDeviceFarmCostTrend.Regression>());
+
+        List<AWSDeviceFarmHistory.Record> records = trend.getRecords("Top Devices");
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(1, records.get(0).getNumber());
+        Assert.assertEquals(3, records.get(1).getNumber());
+        Assert.assertEquals(4, trend.getRecords(AWSDeviceFarmCostTrend.UNKNOWN_POOL).get(0).getNumber());
+        Assert.assertTrue(trend.getRecords("Other").isEmpty());
+    }
+
+    private static Map<String, Double> minutes(double pixel, double iphone) {
+        Map<String, Double> minutes = new HashMap<String, Double>();
+        minutes.put("pixel", pixel);
+        minutes.put("iphone", iphone);
+        return minutes;
+    }
+
+    private static AWSDeviceFarmHistory.Record record(int number, float minutes, String pool) {
+        return new AWSDeviceFarmHistory.Record(number, number * 1000L, 1, 0, 0, 0, 0, 0, 1, minutes, minutes, 0, pool, ExecutionResult.PASSED);
+    }
+}
@@ -0,0 +1,139 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.ArtifactCategory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import hudson.FilePath;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+@For({AWSDeviceFarmDownloadPolicy.class, AWSDeviceFarmArtifactDownloader.class})
+public class AWSDeviceFarmDownloadPolicyTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // "/<size>" is served with a Content-Length, "/<size>/chunked" without.
+                String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+                byte[] body = new byte[Integer.parseInt(path[0])];
+                exchange.sendResponseHeaders(200, path.length > 1 ? 0 : body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void filtersByCategoryAndExtension() throws Exception {
+        AWSDeviceFarmDownloadPolicy policy = new AWSDeviceFarmDownloadPolicy("log, screenshot", ".TXT,png", null, null);
+        AWSDeviceFarmResultTree tree = DeviceFarmFixtures.tree("Pixel", "PASSED");
+
+        Assert.assertTrue(policy.accepts(ArtifactCategory.LOG));
+        Assert.assertFalse(policy.accepts(ArtifactCategory.FILE));
+        Assert.assertTrue(policy.accepts(ArtifactCategory.LOG, artifact("txt", "LOG"), tree));
+        Assert.assertTrue(policy.accepts(ArtifactCategory.SCREENSHOT, artifact(".png", "SCREENSHOT"), tree));
+        Assert.assertFalse(policy.accepts(ArtifactCategory.LOG, artifact("logcat", "DEVICE_LOG"), tree));
+        Assert.assertFalse(policy.accepts(ArtifactCategory.FILE, artifact("txt", "CUSTOMER_ARTIFACT"), tree));
+        Assert.assertNull(policy.getMaxBytes());
+    }
+
+    @Test
+    public void onlyFailedTestsAndVideosOfFailedJobs() throws Exception {
+        AWSDeviceFarmDownloadPolicy failedTests = new AWSDeviceFarmDownloadPolicy(null, null, "FAILED_TESTS_ONLY", 0);
+        AWSDeviceFarmDownloadPolicy failedVideos = new AWSDeviceFarmDownloadPolicy("", "", "VIDEOS_FOR_FAILED_JOBS_ONLY", 1);
+
+        Assert.assertFalse(failedTests.accepts(ArtifactCategory.LOG, artifact("txt", "LOG"), DeviceFarmFixtures.tree("Pixel", "PASSED")));
+        Assert.assertTrue(failedTests.accepts(ArtifactCategory.LOG, artifact("txt", "LOG"), DeviceFarmFixtures.tree("Pixel", "ERRORED")));
+        Assert.assertTrue(failedVideos.accepts(ArtifactCategory.FILE, artifact("txt", "LOG"), DeviceFarmFixtures.tree("Pixel", "PASSED")));
+        Assert.assertFalse(failedVideos.accepts(ArtifactCategory.FILE, artifact("mp4", "VIDEO"), DeviceFarmFixtures.tree("Pixel", "PASSED")));
+        Assert.assertTrue(failedVideos.accepts(ArtifactCategory.FILE, artifact("mp4", "VIDEO"), DeviceFarmFixtures.tree("Pixel", "FAILED")));
+        Assert.assertEquals(Long.valueOf(1024 * 1024), failedVideos.getMaxBytes());
+    }
+
+    @Test(expected = AWSDeviceFarmException.class)
+    public void rejectsUnknownCategories() throws Exception {
+        new AWSDeviceFarmDownloadPolicy("LOG,VIDEOS", null, null, null);
+    }
+
+    @Test(expected = AWSDeviceFarmException.class)
+    public void rejectsUnknownModes() throws Exception {
+        new AWSDeviceFarmDownloadPolicy(null, null, "FAILED", null);
+    }
+
+    @Test
+    public void chargesArtifactsToTheDownloadLimit() throws Exception {
+        AWSDeviceFarmArtifactDownloader downloader = new AWSDeviceFarmArtifactDownloader(1, 1, null).withMaxBytes(100L);
+        File dir = tmp.newFolder();
+        downloader.add(url("/60"), new FilePath(new File(dir, "a.txt")));
+        downloader.add(url("/60"), new FilePath(new File(dir, "b.txt")));
+        downloader.add(url("/30"), new FilePath(new File(dir, "c.txt")));
+        downloader.add(url("/20/chunked"), new FilePath(new File(dir, "d.txt")));
+        downloader.add(url("/10"), new FilePath(new File(dir, "e.txt")));
+
+        Assert.assertEquals(60 + 30 + 20, downloader.download());
+        Assert.assertEquals(3, downloader.getCompletedCount());
+        Assert.assertEquals(2, downloader.getSkippedCount());
+        Assert.assertTrue(new File(dir, "d.txt").isFile());
+        Assert.assertFalse(new File(dir, "b.txt").exists());
+        Assert.assertFalse(new File(dir, "e.txt").exists());
+        Assert.assertEquals(Arrays.asList("a.txt", "c.txt", "d.txt"), sorted(dir.list()));
+    }
+
+    //// Helper Methods
+
+    private URL url(String path) throws IOException {
+        return new URL(String.format("http://127.0.0.1:%d%s", server.getAddress().getPort(), path));
+    }
+
+    private static List<String> sorted(String[] names) {
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static Artifact artifact(String extension, String type) {
+        return new Artifact().withArn(String.format(DeviceFarmFixtures.ARN, "artifact", "Pixel-1/Suite/test/artifact")).withExtension(extension).withType(type);
+    }
+}
@@ -0,0 +1,54 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+@For(AWSDeviceFarmDownsampler.class)
+public class AWSDeviceFarmDownsamplerTest {
+
+    @Test
+    public void keepsShortSeries() {
+        int[] kept = AWSDeviceFarmDownsampler.lttb(new double[]{1, 2, 3}, new double[]{5, 6, 7}, 10);
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, kept);
+    }
+
+    @Test
+    public void keepsEndpointsAndPeaks() {
+        int n = 100;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i;
+            y[i] = 1;
+        }
+        y[42] = 50;
+
+        int[] kept = AWSDeviceFarmDownsampler.lttb(x, y, 10);
+        Assert.assertEquals(10, kept.length);
+        Assert.assertEquals(0, kept[0]);
+        Assert.assertEquals(n - 1, kept[kept.length - 1]);
+        boolean peak = false;
+        for (int i = 0; i < kept.length; i++) {
+            if (i > 0) {
+                Assert.assertTrue(kept[i] > kept[i - 1]);
+            }
+            peak |= kept[i] == 42;
+        }
+        Assert.assertTrue("The outlier must survive downsampling", peak);
+    }
+}
@@ -0,0 +1,77 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+@For(AWSDeviceFarmDurationSketch.class)
+public class AWSDeviceFarmDurationSketchTest {
+
+    @Test
+    public void estimatesQuantilesWithinBucketPrecision() {
+        AWSDeviceFarmDurationSketch sketch = new AWSDeviceFarmDurationSketch();
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i * 100L);
+        }
+
+        assertClose(50000, sketch.getQuantile(0.5));
+        assertClose(95000, sketch.getQuantile(0.95));
+        assertClose(100000, sketch.getQuantile(1));
+        Assert.assertEquals(0, new AWSDeviceFarmDurationSketch().getQuantile(0.5));
+    }
+
+    @Test
+    public void mergesSketches() {
+        AWSDeviceFarmDurationSketch fast = new AWSDeviceFarmDurationSketch();
+        AWSDeviceFarmDurationSketch slow = new AWSDeviceFarmDurationSketch();
+        for (int i = 0; i < 90; i++) {
+            fast.add(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.add(60000);
+        }
+        fast.merge(slow);
+
+        Assert.assertEquals(100, fast.getCount());
+        assertClose(1000, fast.getQuantile(0.5));
+        assertClose(60000, fast.getQuantile(0.95));
+    }
+
+    @Test
+    public void staysBoundedAndSerializes() throws Exception {
+        AWSDeviceFarmDurationSketch sketch = new AWSDeviceFarmDurationSketch();
+        for (int i = 0; i < 100000; i++) {
+            sketch.add(i % 5000);
+        }
+        Assert.assertTrue(sketch.getCount() <= AWSDeviceFarmDurationSketch.MAX_COUNT);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(bytes));
+        AWSDeviceFarmDurationSketch read = AWSDeviceFarmDurationSketch.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(sketch.getCount(), read.getCount());
+        Assert.assertEquals(sketch.getQuantile(0.9), read.getQuantile(0.9));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertEquals(expected, actual, expected / (double) AWSDeviceFarmDurationSketch.SUB_BUCKETS);
+    }
+}
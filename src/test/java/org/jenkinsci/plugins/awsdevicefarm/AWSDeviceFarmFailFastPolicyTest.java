@@ -0,0 +1,165 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.ScheduleRunResult;
+import hudson.model.AbstractBuild;
+import hudson.util.StreamTaskListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+@For({AWSDeviceFarmFailFastPolicy.class, AWSDeviceFarmTestResultAction.class})
+public class AWSDeviceFarmFailFastPolicyTest {
+
+    private static final String RUN_ARN = "arn:aws:devicefarm:us-west-2:123456789012:run:project/run";
+    private static final String OTHER_RUN_ARN = "arn:aws:devicefarm:us-west-2:123456789012:run:project/other";
+
+    private long updateInterval;
+
+    @Before
+    public void shortenUpdateInterval() {
+        updateInterval = AWSDeviceFarmTestResultAction.updateInterval;
+        AWSDeviceFarmTestResultAction.updateInterval = 1;
+    }
+
+    @After
+    public void restoreUpdateInterval() {
+        AWSDeviceFarmTestResultAction.updateInterval = updateInterval;
+    }
+
+    @Test
+    public void disabledWithoutPositiveThresholds() {
+        AWSDeviceFarmFailFastPolicy policy = new AWSDeviceFarmFailFastPolicy(null, 0, -1.0);
+        Assert.assertFalse(policy.isEnabled());
+        Assert.assertFalse(policy.needsJobs());
+        Assert.assertNull(policy.evaluate(counters(0, 100, 0), null));
+    }
+
+    @Test
+    public void stopsOnFailedTests() {
+        AWSDeviceFarmFailFastPolicy policy = new AWSDeviceFarmFailFastPolicy(3, null, null);
+        Assert.assertTrue(policy.isEnabled());
+        Assert.assertFalse(policy.needsJobs());
+        Assert.assertNull(policy.evaluate(counters(10, 1, 1), null));
+        Assert.assertEquals("3 failed tests (threshold 3)", policy.evaluate(counters(10, 2, 1), null));
+    }
+
+    @Test
+    public void ignoresFailureRatioUntilEnoughTestsFinished() {
+        AWSDeviceFarmFailFastPolicy policy = new AWSDeviceFarmFailFastPolicy(null, null, 0.5);
+        Assert.assertNull(policy.evaluate(counters(0, AWSDeviceFarmFailFastPolicy.MIN_TESTS_FOR_RATIO - 1, 0), null));
+        Assert.assertNull(policy.evaluate(counters(6, 4, 0), null));
+        Assert.assertEquals("5 of 10 finished tests failed (threshold 50%)", policy.evaluate(counters(5, 4, 1), null));
+    }
+
+    @Test
+    public void stopsOnFailedDevices() {
+        AWSDeviceFarmFailFastPolicy policy = new AWSDeviceFarmFailFastPolicy(null, 2, null);
+        Assert.assertTrue(policy.needsJobs());
+        Assert.assertNull(policy.evaluate(counters(0, 0, 0), null));
+        Assert.assertNull(policy.evaluate(counters(0, 0, 0), Arrays.asList(job("FAILED"), job("PASSED"), job(null))));
+        Assert.assertEquals("2 devices failed (threshold 2)",
+                policy.evaluate(counters(0, 0, 0), Arrays.asList(job("FAILED"), job("PASSED"), job("ERRORED"))));
+    }
+
+    @Test
+    public void keepsMonitoringWhenStopRunFails() throws Exception {
+        FakeDeviceFarmApi api = new FakeDeviceFarmApi()
+                .withRun(run("RUNNING", null, 3), run("COMPLETED", "STOPPED", 3))
+                .withStopRunError(new AmazonServiceException("Access denied"));
+        AWSDeviceFarmTestResultAction action = new AWSDeviceFarmTestResultAction((AbstractBuild<?, ?>) null, null);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        action.waitForRunsCompletion(new AWSDeviceFarm(api), Collections.singletonList(new ScheduleRunResult().withRun(run("SCHEDULING", null, 0))),
+                Collections.<String>singletonList(null), new StreamTaskListener(log), new AWSDeviceFarmFailFastPolicy(3, null, null));
+
+        Assert.assertEquals(Collections.singletonList(RUN_ARN), api.getStoppedRuns());
+        Assert.assertEquals("3 failed tests (threshold 3)", action.getAbortReason());
+        Assert.assertTrue(action.getResult().isCompleted());
+        Assert.assertTrue(log.toString("UTF-8").contains("Unable to stop run"));
+    }
+
+    @Test
+    public void aggregatesAllRuns() throws Exception {
+        FakeDeviceFarmApi api = new FakeDeviceFarmApi()
+                .withRun(run(RUN_ARN, "COMPLETED", "FAILED", 1))
+                .withRun(run(OTHER_RUN_ARN, "RUNNING", null, 0), run(OTHER_RUN_ARN, "COMPLETED", "PASSED", 0));
+        AWSDeviceFarmTestResultAction action = new AWSDeviceFarmTestResultAction((AbstractBuild<?, ?>) null, null);
+
+        action.waitForRunsCompletion(new AWSDeviceFarm(api), Arrays.asList(scheduled(RUN_ARN), scheduled(OTHER_RUN_ARN)),
+                Arrays.asList("Shard 1 of 2", "Shard 2 of 2"), new StreamTaskListener(new ByteArrayOutputStream()), null);
+
+        AWSDeviceFarmTestResult result = action.getResult();
+        Assert.assertTrue(result.isCompleted());
+        Assert.assertEquals(1, result.getFailCount());
+        Assert.assertEquals(2, result.getRuns().size());
+        Assert.assertEquals("Shard 2 of 2", result.getRuns().get(1).getLabel());
+        Assert.assertEquals(ExecutionResult.PASSED, result.getRuns().get(1).getExecutionResult());
+        Assert.assertNull(action.getAbortReason());
+    }
+
+    @Test
+    public void stopsAllRunsOnCombinedFailures() throws Exception {
+        FakeDeviceFarmApi api = new FakeDeviceFarmApi()
+                .withRun(run(RUN_ARN, "COMPLETED", "FAILED", 2))
+                .withRun(run(OTHER_RUN_ARN, "RUNNING", null, 2), run(OTHER_RUN_ARN, "COMPLETED", "STOPPED", 2));
+        AWSDeviceFarmTestResultAction action = new AWSDeviceFarmTestResultAction((AbstractBuild<?, ?>) null, null);
+
+        action.waitForRunsCompletion(new AWSDeviceFarm(api), Arrays.asList(scheduled(RUN_ARN), scheduled(OTHER_RUN_ARN)),
+                Arrays.asList("Shard 1 of 2", "Shard 2 of 2"), new StreamTaskListener(new ByteArrayOutputStream()),
+                new AWSDeviceFarmFailFastPolicy(3, null, null));
+
+        // Neither run crossed the threshold on its own, and the completed run is not stopped.
+        Assert.assertEquals("4 failed tests (threshold 3)", action.getAbortReason());
+        Assert.assertEquals(Collections.singletonList(OTHER_RUN_ARN), api.getStoppedRuns());
+        Assert.assertEquals(4, action.getResult().getFailCount());
+    }
+
+    //// Helper Methods
+
+    private static ScheduleRunResult scheduled(String arn) {
+        return new ScheduleRunResult().withRun(run(arn, "SCHEDULING", null, 0));
+    }
+
+    private static Counters counters(int passed, int failed, int errored) {
+        return new Counters().withPassed(passed).withFailed(failed).withErrored(errored)
+                .withWarned(0).withSkipped(0).withStopped(0).withTotal(passed + failed + errored);
+    }
+
+    private static Job job(String result) {
+        return new Job().withResult(result);
+    }
+
+    private static Run run(String status, String result, int failed) {
+        return run(RUN_ARN, status, result, failed);
+    }
+
+    private static Run run(String arn, String status, String result, int failed) {
+        return new Run().withArn(arn).withName("run").withStatus(status).withResult(result == null ? "PENDING" : result)
+                .withCounters(counters(0, failed, 0));
+    }
+}
@@ -0,0 +1,141 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+@For(AWSDeviceFarmFlakyTests.class)
+public class AWSDeviceFarmFlakyTestsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void scoresFlipsButNotConsistentFailures() {
+        AWSDeviceFarmFlakyTests flakyTests = new AWSDeviceFarmFlakyTests(new File(tmp.getRoot(), AWSDeviceFarmFlakyTests.FILE_NAME));
+        String flaky = AWSDeviceFarmFlakyTests.keyOf("Pixel 4", "Suite", "flaky");
+        String broken = AWSDeviceFarmFlakyTests.keyOf("Pixel 4", "Suite", "broken");
+        boolean[] outcomes = {false, true, false, false, true, false};
+        for (int i = 0; i < outcomes.length; i++) {
+            flakyTests.add(flaky, outcomes[i], i + 1);
+            flakyTests.add(broken, true, i + 1);
+        }
+
+        AWSDeviceFarmFlakyTests.Entry entry = flakyTests.get(flaky);
+        Assert.assertEquals("PFPPFP", entry.getOutcomes());
+        Assert.assertEquals(2, entry.getFailures());
+        Assert.assertEquals(4, entry.getFlips());
+        Assert.assertEquals(0.8, entry.getScore(), 0.001);
+        Assert.assertTrue(entry.isFlaky());
+        Assert.assertEquals("Suite/flaky", entry.getTest());
+        Assert.assertEquals("Pixel 4", entry.getDeviceModel());
+
+        Assert.assertFalse(flakyTests.get(broken).isFlaky());
+        Assert.assertEquals(1, flakyTests.getFlakyTests().size());
+    }
+
+    @Test
+    public void keepsOnlyTheWindow() {
+        AWSDeviceFarmFlakyTests flakyTests = new AWSDeviceFarmFlakyTests(new File(tmp.getRoot(), AWSDeviceFarmFlakyTests.FILE_NAME));
+        String key = AWSDeviceFarmFlakyTests.keyOf("iPhone", "Suite", "test");
+        for (int i = 0; i < AWSDeviceFarmFlakyTests.WINDOW; i++) {
+            flakyTests.add(key, i % 2 == 0, i + 1);
+        }
+        for (int i = 0; i < AWSDeviceFarmFlakyTests.WINDOW; i++) {
+            flakyTests.add(key, false, AWSDeviceFarmFlakyTests.WINDOW + i + 1);
+        }
+
+        AWSDeviceFarmFlakyTests.Entry entry = flakyTests.get(key);
+        Assert.assertEquals(AWSDeviceFarmFlakyTests.WINDOW, entry.getRuns());
+        Assert.assertEquals(0, entry.getFailures());
+        Assert.assertFalse(entry.isFlaky());
+    }
+
+    @Test
+    public void reloadsOutcomes() throws Exception {
+        File file = new File(tmp.getRoot(), AWSDeviceFarmFlakyTests.FILE_NAME);
+        AWSDeviceFarmFlakyTests flakyTests = new AWSDeviceFarmFlakyTests(file);
+        String key = AWSDeviceFarmFlakyTests.keyOf("Pixel 4", "Suite", "test");
+        flakyTests.add(key, true, 1);
+        flakyTests.add(key, false, 2);
+        Assert.assertTrue(flakyTests.record(2, new AWSDeviceFarmResultTree()));
+        Assert.assertFalse(flakyTests.record(2, new AWSDeviceFarmResultTree()));
+
+        AWSDeviceFarmFlakyTests reloaded = new AWSDeviceFarmFlakyTests(file);
+        Assert.assertTrue(reloaded.load());
+        Assert.assertEquals("FP", reloaded.get(key).getOutcomes());
+        Assert.assertFalse(reloaded.record(1, new AWSDeviceFarmResultTree()));
+    }
+
+    @Test
+    public void countsATestOncePerBuildOnEveryModel() throws Exception {
+        AWSDeviceFarmFlakyTests flakyTests = new AWSDeviceFarmFlakyTests(new File(tmp.getRoot(), AWSDeviceFarmFlakyTests.FILE_NAME));
+        String key = AWSDeviceFarmFlakyTests.keyOf("Pixel 4", "Suite", "test");
+        Assert.assertTrue(flakyTests.record(1, DeviceFarmFixtures.tree("Pixel 4", "PASSED", "FAILED")));
+        Assert.assertTrue(flakyTests.record(2, DeviceFarmFixtures.tree("Pixel 4", "PASSED", "PASSED")));
+
+        Assert.assertEquals("FP", flakyTests.get(key).getOutcomes());
+        Assert.assertEquals(Collections.singletonList(key), AWSDeviceFarmFlakyTests.getFailures(DeviceFarmFixtures.tree("Pixel 4", "FAILED", "ERRORED")));
+    }
+
+    @Test
+    public void onlyFlakyFailuresNeedsEveryFailedTestToBeFlaky() {
+        AWSDeviceFarmTestResult result = new AWSDeviceFarmTestResult(null, null);
+        result.setFlakyFailures(Arrays.asList("Suite/a@Pixel 4"), Arrays.asList("Suite/a@Pixel 4", "Suite/b@Pixel 4"));
+        Assert.assertFalse(result.isOnlyFlakyFailures());
+
+        result.setFlakyFailures(Arrays.asList("Suite/a@Pixel 4", "Suite/b@Pixel 4"), Arrays.asList("Suite/b@Pixel 4", "Suite/a@Pixel 4"));
+        Assert.assertTrue(result.isOnlyFlakyFailures());
+
+        result.setFlakyFailures(new ArrayList<String>(), new ArrayList<String>());
+        Assert.assertFalse(result.isOnlyFlakyFailures());
+    }
+
+    @Test
+    public void keepsBuildOrderWhenBuildsCompleteLateOrAreDeleted() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        AWSDeviceFarmResultTree first = DeviceFarmFixtures.attach(j.buildAndAssertSuccess(p), DeviceFarmFixtures.tree("Pixel 4", "FAILED"));
+        AWSDeviceFarmResultTree second = DeviceFarmFixtures.attach(j.buildAndAssertSuccess(p), DeviceFarmFixtures.tree("Pixel 4", "PASSED"));
+        FreeStyleBuild third = j.buildAndAssertSuccess(p);
+        AWSDeviceFarmResultTree last = DeviceFarmFixtures.attach(third, DeviceFarmFixtures.tree("Pixel 4", "FAILED"));
+        String key = AWSDeviceFarmFlakyTests.keyOf("Pixel 4", "Suite", "test");
+
+        // The second build completes after the third.
+        AWSDeviceFarmFlakyTests flakyTests = new AWSDeviceFarmFlakyTests(new File(tmp.getRoot(), AWSDeviceFarmFlakyTests.FILE_NAME));
+        flakyTests.record(p, 1, first);
+        flakyTests.record(p, 3, last);
+        flakyTests.record(p, 2, second);
+        Assert.assertEquals("FPF", flakyTests.get(key).getOutcomes());
+
+        third.delete();
+        flakyTests.deleted(p, 3);
+        Assert.assertEquals("FP", flakyTests.get(key).getOutcomes());
+    }
+}
@@ -0,0 +1,82 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.util.Area;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@For(AWSDeviceFarmGraphCache.class)
+public class AWSDeviceFarmGraphCacheTest {
+
+    @Test
+    public void rendersEachGraphOnce() throws Exception {
+        AtomicInteger renders = new AtomicInteger();
+        String key = AWSDeviceFarmGraphCache.key("once", "project", 1, 500, 200);
+        AWSDeviceFarmGraphCache.Image first = AWSDeviceFarmGraphCache.lookup(key, renderer(new byte[]{1, 2, 3}, renders));
+        AWSDeviceFarmGraphCache.Image second = AWSDeviceFarmGraphCache.lookup(key, renderer(new byte[]{1, 2, 3}, renders));
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void tagsImagesWithADigestOfTheirContent() throws Exception {
+        AtomicInteger renders = new AtomicInteger();
+        // Both images have the same Arrays.hashCode.
+        AWSDeviceFarmGraphCache.Image first = AWSDeviceFarmGraphCache.lookup(AWSDeviceFarmGraphCache.key("digest", 1),
+                renderer(new byte[]{0, 31}, renders));
+        AWSDeviceFarmGraphCache.Image second = AWSDeviceFarmGraphCache.lookup(AWSDeviceFarmGraphCache.key("digest", 2),
+                renderer(new byte[]{1, 0}, renders));
+        AWSDeviceFarmGraphCache.Image same = AWSDeviceFarmGraphCache.lookup(AWSDeviceFarmGraphCache.key("digest", 3),
+                renderer(new byte[]{0, 31}, renders));
+        Assert.assertNotEquals(first.getEtag(), second.getEtag());
+        Assert.assertEquals(first.getEtag(), same.getEtag());
+        Assert.assertTrue(first.getEtag().matches("\"[0-9a-f]{64}\""));
+    }
+
+    @Test
+    public void invalidatesOnlyTheGraphsOfTheProject() throws Exception {
+        AtomicInteger renders = new AtomicInteger();
+        AWSDeviceFarmGraphCache.lookup(AWSDeviceFarmGraphCache.key("folder/app", "project"), renderer(new byte[]{1}, renders));
+        AWSDeviceFarmGraphCache.lookup(AWSDeviceFarmGraphCache.key("folder/app-ios", "project"), renderer(new byte[]{2}, renders));
+
+        AWSDeviceFarmGraphCache.invalidate("folder/app");
+        AWSDeviceFarmGraphCache.lookup(AWSDeviceFarmGraphCache.key("folder/app", "project"), renderer(new byte[]{1}, renders));
+        AWSDeviceFarmGraphCache.lookup(AWSDeviceFarmGraphCache.key("folder/app-ios", "project"), renderer(new byte[]{2}, renders));
+        Assert.assertEquals(3, renders.get());
+    }
+
+    //// Helper Methods
+
+    /**
+     * Create a renderer of a graph with a fixed image, which counts how often it is called.
+     */
+    private static AWSDeviceFarmGraphCache.Renderer renderer(final byte[] png, final AtomicInteger renders) {
+        return new AWSDeviceFarmGraphCache.Renderer() {
+            public AWSDeviceFarmGraph render() {
+                renders.incrementAndGet();
+                return new AWSDeviceFarmGraph(null, false, new Area(1, 1), null, null, null) {
+                    @Override
+                    public byte[] toPng() {
+                        return png;
+                    }
+                };
+            }
+        };
+    }
+}
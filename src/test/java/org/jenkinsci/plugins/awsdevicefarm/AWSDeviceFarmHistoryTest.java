@@ -0,0 +1,96 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+@For(AWSDeviceFarmHistory.class)
+public class AWSDeviceFarmHistoryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void keepsRecordsOrderedByBuildNumber() throws Exception {
+        File file = new File(tmp.getRoot(), AWSDeviceFarmHistory.FILE_NAME);
+        AWSDeviceFarmHistory history = new AWSDeviceFarmHistory(file);
+        history.append(record(2, 5));
+        history.append(record(1, 3));
+        history.append(record(3, 7));
+        // Recording a build again replaces its previous record.
+        history.append(record(2, 6));
+
+        AWSDeviceFarmHistory loaded = new AWSDeviceFarmHistory(file);
+        Assert.assertTrue(loaded.load());
+        List<AWSDeviceFarmHistory.Record> records = loaded.getRecords();
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals(1, records.get(0).getNumber());
+        Assert.assertEquals(6, records.get(1).getPassCount());
+        Assert.assertEquals(ExecutionResult.PASSED, records.get(1).getResult());
+        Assert.assertEquals(3, loaded.getLast().getNumber());
+
+        List<AWSDeviceFarmHistory.Record> upTo = loaded.getRecords(2, 1);
+        Assert.assertEquals(1, upTo.size());
+        Assert.assertEquals(2, upTo.get(0).getNumber());
+    }
+
+    @Test
+    public void removesDeletedBuildsAndIgnoresTruncatedRecords() throws Exception {
+        File file = new File(tmp.getRoot(), AWSDeviceFarmHistory.FILE_NAME);
+        AWSDeviceFarmHistory history = new AWSDeviceFarmHistory(file);
+        history.append(record(1, 1));
+        history.append(record(2, 2));
+        history.remove(1);
+        history.append(record(3, 3));
+        appendGarbage(file);
+
+        AWSDeviceFarmHistory loaded = new AWSDeviceFarmHistory(file);
+        Assert.assertTrue(loaded.load());
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertEquals(2, loaded.getRecords().get(0).getNumber());
+        Assert.assertEquals(3, loaded.getRecords().get(1).getNumber());
+
+        // The partial record was dropped from the file, so a record appended after it is read back.
+        loaded.append(record(4, 4));
+        AWSDeviceFarmHistory reloaded = new AWSDeviceFarmHistory(file);
+        Assert.assertTrue(reloaded.load());
+        Assert.assertEquals(3, reloaded.size());
+        Assert.assertEquals(4, reloaded.getLast().getNumber());
+        Assert.assertEquals(4, reloaded.getLast().getPassCount());
+    }
+
+    private static AWSDeviceFarmHistory.Record record(int number, int passCount) {
+        return new AWSDeviceFarmHistory.Record(number, number * 1000L, passCount, 0, 0, 0, 0, 0, passCount, 1.5f, ExecutionResult.PASSED);
+    }
+
+    private static void appendGarbage(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[]{0, 0, 0});
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.Run;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+import org.jvnet.hudson.test.JenkinsRule;
+
+@For(AWSDeviceFarmLastResultCache.class)
+public class AWSDeviceFarmLastResultCacheTest {
+
+    private static final String RUN_ARN = "arn:aws:devicefarm:us-west-2:123456789012:run:project/run";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void followsTheLastCompletedBuild() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        FreeStyleBuild first = completed(j.buildAndAssertSuccess(p), 1);
+        Assert.assertEquals(1, AWSDeviceFarmLastResultCache.get(p).getNumber());
+
+        completed(j.buildAndAssertSuccess(p), 2);
+        Assert.assertEquals(2, AWSDeviceFarmLastResultCache.get(p).getNumber());
+        Assert.assertEquals(2, AWSDeviceFarmLastResultCache.get(p).getPassCount());
+
+        // An older build which completes late does not replace the result of a newer one.
+        AWSDeviceFarmLastResultCache.completed(first);
+        Assert.assertEquals(2, AWSDeviceFarmLastResultCache.get(p).getNumber());
+    }
+
+    @Test
+    public void looksUpTheJobAgainWhenTheLastBuildIsDeleted() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        completed(j.buildAndAssertSuccess(p), 1);
+        FreeStyleBuild second = completed(j.buildAndAssertSuccess(p), 2);
+        Assert.assertEquals(2, AWSDeviceFarmLastResultCache.get(p).getNumber());
+
+        second.delete();
+        Assert.assertEquals(1, AWSDeviceFarmLastResultCache.get(p).getNumber());
+    }
+
+    @Test
+    public void readsJobsWhichAreNotCachedYetFromTheirBuilds() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        completed(j.buildAndAssertSuccess(p), 1);
+        j.buildAndAssertSuccess(p);
+
+        // The last completed build has no AWS Device Farm result.
+        Assert.assertNull(AWSDeviceFarmLastResultCache.get(p));
+    }
+
+    //// Helper Methods
+
+    /**
+     * Attach a result to a build and report its completion, as the history listener does once the result is recorded.
+     */
+    private static FreeStyleBuild completed(FreeStyleBuild build, int passCount) throws Exception {
+        Counters counters = new Counters().withPassed(passCount).withFailed(0).withErrored(0).withWarned(0)
+                .withSkipped(0).withStopped(0).withTotal(passCount);
+        AWSDeviceFarmTestResult result = new AWSDeviceFarmTestResult(build,
+                new Run().withArn(RUN_ARN).withResult("PASSED").withCounters(counters));
+        build.addAction(new AWSDeviceFarmTestResultAction(build, result));
+        AWSDeviceFarmLastResultCache.completed(build);
+        return build;
+    }
+}
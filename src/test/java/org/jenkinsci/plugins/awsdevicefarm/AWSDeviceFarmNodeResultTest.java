@@ -0,0 +1,84 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.Run;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+import org.jvnet.hudson.test.JenkinsRule;
+
+@For(AWSDeviceFarmNodeResult.class)
+public class AWSDeviceFarmNodeResultTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void keepsIdsOfSiblingsWithTheSameNameStable() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        AWSDeviceFarmTestResult result = result(j.buildAndAssertSuccess(p), "PASSED", "FAILED");
+
+        AWSDeviceFarmNodeResult first = result.getChildren().iterator().next();
+        AWSDeviceFarmNodeResult second = result.findNode("Pixel_2");
+        Assert.assertEquals("Pixel", first.getSafeName());
+        Assert.assertEquals("Pixel", first.getSafeName());
+        Assert.assertEquals("Pixel_2", second.getSafeName());
+        Assert.assertEquals("Pixel_2/Login/testLogin", second.findChild("Login").findChild("testLogin").getId());
+        Assert.assertSame(second.findChild("Login").findChild("testLogin"), result.findNode("Pixel_2/Login/testLogin"));
+        Assert.assertNull(result.findNode("Pixel_3"));
+        Assert.assertEquals(1, result.findNode("Pixel").getPassCount());
+        Assert.assertEquals(1, second.getFailCount());
+    }
+
+    @Test
+    public void findsTheResultOfThePreviousBuild() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        result(j.buildAndAssertSuccess(p), "FAILED", "PASSED");
+        j.buildAndAssertSuccess(p);
+        AWSDeviceFarmTestResult result = result(j.buildAndAssertSuccess(p), "PASSED", "PASSED");
+
+        AWSDeviceFarmNodeResult test = result.findNode("Pixel/Login/testLogin");
+        AWSDeviceFarmNodeResult previous = (AWSDeviceFarmNodeResult) test.getPreviousResult();
+        Assert.assertEquals(1, previous.getOwner().getNumber());
+        Assert.assertEquals("FAILED", previous.getResult());
+        Assert.assertNull(previous.getPreviousResult());
+    }
+
+    //// Helper Methods
+
+    /**
+     * Attach a result with two jobs on the same device to the build, with one test per job.
+     */
+    private static AWSDeviceFarmTestResult result(FreeStyleBuild build, String first, String second) throws Exception {
+        AWSDeviceFarmResultTree tree = DeviceFarmFixtures.tree(
+                DeviceFarmFixtures.job("Pixel-1", DeviceFarmFixtures.device("Pixel"), first,
+                        DeviceFarmFixtures.suite("Login", DeviceFarmFixtures.test("testLogin", first))),
+                DeviceFarmFixtures.job("Pixel-2", DeviceFarmFixtures.device("Pixel"), second,
+                        DeviceFarmFixtures.suite("Login", DeviceFarmFixtures.test("testLogin", second))));
+        tree.save(build.getRootDir());
+
+        Counters counters = new Counters().withPassed(1).withFailed(1).withErrored(0).withWarned(0)
+                .withSkipped(0).withStopped(0).withTotal(2);
+        AWSDeviceFarmTestResult result = new AWSDeviceFarmTestResult(build,
+                new Run().withArn(DeviceFarmFixtures.RUN_ARN).withResult("FAILED").withCounters(counters));
+        build.addAction(new AWSDeviceFarmTestResultAction(build, result));
+        return result;
+    }
+}
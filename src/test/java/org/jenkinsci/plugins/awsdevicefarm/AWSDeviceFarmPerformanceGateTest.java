@@ -0,0 +1,108 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@For(AWSDeviceFarmPerformanceGate.class)
+public class AWSDeviceFarmPerformanceGateTest {
+
+    @Test
+    public void parsesBudgets() {
+        List<AWSDeviceFarmPerformanceGate.Budget> budgets = AWSDeviceFarmPerformanceGate.parseBudgets(
+                "# CPU budget\nCPU p95 60\n\nmemory MAX * Google Pixel 3\n");
+        Assert.assertEquals(2, budgets.size());
+        Assert.assertEquals(AWSDeviceFarmPerformance.Metric.CPU, budgets.get(0).getMetric());
+        Assert.assertEquals(AWSDeviceFarmPerformanceGate.Statistic.P95, budgets.get(0).getStatistic());
+        Assert.assertEquals(60, budgets.get(0).getLimit(), 0.001);
+        Assert.assertNull(budgets.get(0).getModel());
+        Assert.assertEquals(AWSDeviceFarmPerformance.Metric.MEMORY, budgets.get(1).getMetric());
+        Assert.assertNull(budgets.get(1).getLimit());
+        Assert.assertEquals("Google Pixel 3", budgets.get(1).getModel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownMetrics() {
+        AWSDeviceFarmPerformanceGate.parseBudgets("GPU p95 60");
+    }
+
+    @Test
+    public void checksLimitsPerDeviceModel() {
+        AWSDeviceFarmPerformance current = new AWSDeviceFarmPerformance();
+        current.addDevice(DeviceFarmFixtures.metrics("Pixel 3 9", "Pixel 3 9", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, 70));
+        current.addDevice(DeviceFarmFixtures.metrics("iPhone X 12", "iPhone X 12", "iPhone X", AWSDeviceFarmPerformance.Metric.CPU, 70));
+        current.addDevice(DeviceFarmFixtures.metrics("Galaxy S9 8", "Galaxy S9 8", "Galaxy S9", AWSDeviceFarmPerformance.Metric.FPS, 40));
+
+        AWSDeviceFarmPerformanceGate gate = new AWSDeviceFarmPerformanceGate(AWSDeviceFarmPerformanceGate.parseBudgets(
+                "CPU p95 60\nCPU p95 80 iPhone X\nFPS mean 50"), null);
+        List<AWSDeviceFarmPerformanceGate.Violation> violations = gate.check(current, Collections.<AWSDeviceFarmPerformance>emptyList());
+
+        Assert.assertEquals(2, violations.size());
+        Assert.assertEquals("Pixel 3 9", violations.get(0).getJob());
+        Assert.assertEquals(60, violations.get(0).getLimit(), 0.001);
+        Assert.assertEquals("Galaxy S9 8", violations.get(1).getJob());
+        Assert.assertEquals("Galaxy S9 8: FPS mean of 40.0 fps is below the budget of 50.0", violations.get(1).getMessage());
+    }
+
+    @Test
+    public void checksBaseline() {
+        List<AWSDeviceFarmPerformance> baseline = new ArrayList<AWSDeviceFarmPerformance>();
+        for (double cpu : new double[]{40, 50, 45}) {
+            AWSDeviceFarmPerformance previous = new AWSDeviceFarmPerformance();
+            previous.addDevice(DeviceFarmFixtures.metrics("Pixel 3 9", "Pixel 3 9", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, cpu));
+            baseline.add(previous);
+        }
+        baseline.add(null);
+
+        AWSDeviceFarmPerformanceGate gate = new AWSDeviceFarmPerformanceGate(AWSDeviceFarmPerformanceGate.parseBudgets("CPU p95 *"), 20.0);
+        AWSDeviceFarmPerformance within = new AWSDeviceFarmPerformance();
+        within.addDevice(DeviceFarmFixtures.metrics("Pixel 3 9", "Pixel 3 9", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, 54));
+        Assert.assertTrue(gate.check(within, baseline).isEmpty());
+
+        AWSDeviceFarmPerformance regressed = new AWSDeviceFarmPerformance();
+        regressed.addDevice(DeviceFarmFixtures.metrics("Pixel 3 9", "Pixel 3 9", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, 60));
+        List<AWSDeviceFarmPerformanceGate.Violation> violations = gate.check(regressed, baseline);
+        Assert.assertEquals(1, violations.size());
+        Assert.assertEquals(45, violations.get(0).getBaseline(), 0.001);
+        Assert.assertNull(violations.get(0).getLimit());
+    }
+
+    @Test
+    public void checksBaselineOfTheSameDeviceInAnyShard() {
+        List<AWSDeviceFarmPerformance> baseline = new ArrayList<AWSDeviceFarmPerformance>();
+        for (int shard = 1; shard <= 3; shard++) {
+            AWSDeviceFarmPerformance previous = new AWSDeviceFarmPerformance();
+            previous.addDevice(DeviceFarmFixtures.metrics(String.format("Shard %d of 3/Pixel 3 9", shard), "Pixel 3 9", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, 40));
+            previous.addDevice(DeviceFarmFixtures.metrics(String.format("Shard %d of 3/Pixel 3 10", 4 - shard), "Pixel 3 10", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, 80));
+            baseline.add(previous);
+        }
+
+        AWSDeviceFarmPerformanceGate gate = new AWSDeviceFarmPerformanceGate(AWSDeviceFarmPerformanceGate.parseBudgets("CPU p95 *"), 20.0);
+        AWSDeviceFarmPerformance current = new AWSDeviceFarmPerformance();
+        current.addDevice(DeviceFarmFixtures.metrics("Shard 2 of 3/Pixel 3 10", "Pixel 3 10", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, 60));
+        current.addDevice(DeviceFarmFixtures.metrics("Shard 1 of 3/Pixel 3 9", "Pixel 3 9", "Pixel 3", AWSDeviceFarmPerformance.Metric.CPU, 60));
+        List<AWSDeviceFarmPerformanceGate.Violation> violations = gate.check(current, baseline);
+
+        Assert.assertEquals(1, violations.size());
+        Assert.assertEquals("Shard 1 of 3/Pixel 3 9", violations.get(0).getJob());
+        Assert.assertEquals(40, violations.get(0).getBaseline(), 0.001);
+    }
+}
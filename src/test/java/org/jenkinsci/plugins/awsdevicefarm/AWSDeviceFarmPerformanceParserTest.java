@@ -0,0 +1,112 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.nio.charset.StandardCharsets;
+
+@For(AWSDeviceFarmPerformanceParser.class)
+public class AWSDeviceFarmPerformanceParserTest {
+
+    @Test
+    public void parsesCsvSamples() {
+        AWSDeviceFarmPerformance.Summary summary = parse("timestamp,cpu\n2019-01-01 10:00:00,10.5\n2019-01-01 10:00:01,20\r\n2019-01-01 10:00:02,30");
+        Assert.assertEquals(3, summary.getCount());
+        Assert.assertEquals(10.5, summary.getMin(), 0.001);
+        Assert.assertEquals(30, summary.getMax(), 0.001);
+        Assert.assertEquals(20.1667, summary.getMean(), 0.001);
+        Assert.assertEquals(30, summary.getP95(), 0.001);
+    }
+
+    @Test
+    public void parsesJsonSamples() {
+        AWSDeviceFarmPerformance.Summary summary = parse("[{\"timestamp\": 1, \"value\": 12.5, \"unit\": \"%\"},"
+                + "{\"timestamp\": 2, \"value\": 1.5e1, \"device\": \"Pixel 3\"}, [3, -2]]");
+        Assert.assertEquals(3, summary.getCount());
+        Assert.assertEquals(-2, summary.getMin(), 0.001);
+        Assert.assertEquals(15, summary.getMax(), 0.001);
+    }
+
+    @Test
+    public void computesPercentileOfManySamples() {
+        StringBuilder data = new StringBuilder();
+        for (int i = 1; i <= 100; i++) {
+            data.append(i).append('\n');
+        }
+        AWSDeviceFarmPerformance.Summary summary = parse(data.toString());
+        Assert.assertEquals(100, summary.getCount());
+        Assert.assertEquals(95, summary.getP95(), 0.001);
+        Assert.assertEquals(50.5, summary.getMean(), 0.001);
+    }
+
+    @Test
+    public void ignoresDataWithoutNumbers() {
+        Assert.assertNull(parse("no samples\n\"1234\"\n"));
+    }
+
+    @Test
+    public void mergesTimeSeries() {
+        AWSDeviceFarmPerformanceParser first = parser(values(1, 100, 1));
+        first.merge(parser(values(101, 200, 1)));
+        AWSDeviceFarmPerformance.Summary summary = first.getSummary();
+        Assert.assertEquals(200, summary.getCount());
+        Assert.assertEquals(1, summary.getMin(), 0.001);
+        Assert.assertEquals(200, summary.getMax(), 0.001);
+        Assert.assertEquals(100.5, summary.getMean(), 0.001);
+        Assert.assertEquals(190, summary.getP95(), 0.001);
+    }
+
+    @Test
+    public void mergesLargeTimeSeriesInProportion() {
+        // Only 2% of the merged values are high, so they must not reach the 95th percentile.
+        AWSDeviceFarmPerformanceParser first = parser(values(10, 10, 49 * AWSDeviceFarmPerformanceParser.RESERVOIR_SIZE));
+        first.merge(parser(values(1000, 1000, AWSDeviceFarmPerformanceParser.RESERVOIR_SIZE)));
+        AWSDeviceFarmPerformance.Summary summary = first.getSummary();
+        Assert.assertEquals(50 * AWSDeviceFarmPerformanceParser.RESERVOIR_SIZE, summary.getCount());
+        Assert.assertEquals(1000, summary.getMax(), 0.001);
+        Assert.assertEquals(10, summary.getP95(), 0.001);
+    }
+
+    private static AWSDeviceFarmPerformance.Summary parse(String data) {
+        return parser(data).getSummary();
+    }
+
+    /**
+     * @return the values from first to last, each repeated the given number of times, one per line
+     */
+    private static String values(int first, int last, int times) {
+        StringBuilder data = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            for (int j = 0; j < times; j++) {
+                data.append(i).append('\n');
+            }
+        }
+        return data.toString();
+    }
+
+    private static AWSDeviceFarmPerformanceParser parser(String data) {
+        AWSDeviceFarmPerformanceParser parser = new AWSDeviceFarmPerformanceParser();
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        // Write in small chunks, so samples and numbers are split across writes.
+        for (int i = 0; i < bytes.length; i += 7) {
+            parser.write(bytes, i, Math.min(7, bytes.length - i));
+        }
+        parser.close();
+        return parser;
+    }
+}
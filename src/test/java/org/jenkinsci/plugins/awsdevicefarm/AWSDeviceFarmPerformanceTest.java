@@ -0,0 +1,132 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.Device;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+@For(AWSDeviceFarmPerformance.class)
+public class AWSDeviceFarmPerformanceTest {
+
+    private static final String ARN = "arn:aws:devicefarm:us-west-2:123456789012:%s:project/run/%s";
+    private static final String RUN_ARN = "arn:aws:devicefarm:us-west-2:123456789012:run:project/run";
+
+    private HttpServer server;
+    private long initialBackoff;
+
+    @Before
+    public void startServer() throws IOException {
+        initialBackoff = AWSDeviceFarmResumableDownload.initialBackoff;
+        AWSDeviceFarmResumableDownload.initialBackoff = 1;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // "/<first>/<last>" is served as the values from first to last, one per line, "/missing" is not found.
+                String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+                if (path.length < 2) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                StringBuilder data = new StringBuilder("timestamp,value\n");
+                for (int i = Integer.parseInt(path[0]); i <= Integer.parseInt(path[1]); i++) {
+                    data.append(i).append(',').append(i).append('\n');
+                }
+                byte[] body = data.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        AWSDeviceFarmResumableDownload.initialBackoff = initialBackoff;
+    }
+
+    @Test
+    public void recognizesDeviceFarmArtifactNames() {
+        Assert.assertEquals(AWSDeviceFarmPerformance.Metric.CPU, AWSDeviceFarmPerformance.Metric.forArtifact("CPU"));
+        Assert.assertEquals(AWSDeviceFarmPerformance.Metric.MEMORY, AWSDeviceFarmPerformance.Metric.forArtifact("Memory"));
+        Assert.assertEquals(AWSDeviceFarmPerformance.Metric.FPS, AWSDeviceFarmPerformance.Metric.forArtifact("Frames Per Second"));
+        Assert.assertEquals(AWSDeviceFarmPerformance.Metric.THREADS, AWSDeviceFarmPerformance.Metric.forArtifact("threads"));
+        Assert.assertNull(AWSDeviceFarmPerformance.Metric.forArtifact("cpu-profile"));
+        Assert.assertNull(AWSDeviceFarmPerformance.Metric.forArtifact("Memory dump of the app"));
+        Assert.assertNull(AWSDeviceFarmPerformance.Metric.forArtifact("Logcat"));
+        Assert.assertNull(AWSDeviceFarmPerformance.Metric.forArtifact(null));
+    }
+
+    @Test
+    public void collectsAndMergesTheTimeSeriesOfEveryJob() throws Exception {
+        AWSDeviceFarmResultTree tree = new AWSDeviceFarmResultTree();
+        tree.addJob(job("1", "Pixel 4"));
+        tree.addJob(job("2", "iPhone 11"));
+        FakeDeviceFarmApi api = new FakeDeviceFarmApi().withPageSize(2).withArtifacts(RUN_ARN,
+                artifact("1/1/1/1", "CPU", "/1/100"),
+                artifact("1/1/1/2", "CPU", "/101/200"),
+                artifact("1/1/1/3", "cpu-profile", "/1000/1000"),
+                artifact("1/1/1/4", "Memory", "/missing"),
+                artifact("2/1/1/1", "Threads", "/5/5"));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        AWSDeviceFarmPerformance performance = AWSDeviceFarmPerformance.collect(new AWSDeviceFarm(api), RUN_ARN, tree,
+                null, new PrintStream(log, true, "UTF-8"));
+
+        Assert.assertEquals(2, performance.getDevices().size());
+        AWSDeviceFarmPerformance.DeviceMetrics pixel = performance.getDevice("Pixel 4-1");
+        Assert.assertEquals(1, pixel.getMetrics().size());
+        AWSDeviceFarmPerformance.Summary cpu = pixel.getSummary(AWSDeviceFarmPerformance.Metric.CPU);
+        Assert.assertEquals(200, cpu.getCount());
+        Assert.assertEquals(200, cpu.getMax(), 0.001);
+        Assert.assertEquals(190, cpu.getP95(), 0.001);
+        Assert.assertEquals(5, performance.getDevice("iPhone 11-2").getSummary(AWSDeviceFarmPerformance.Metric.THREADS).getMax(), 0.001);
+
+        String output = log.toString("UTF-8");
+        Assert.assertTrue(output, output.contains("Unable to read the Memory data of Pixel 4"));
+        Assert.assertTrue(output, output.contains("Collected 3 performance time series of 2 devices"));
+    }
+
+    //// Helper Methods
+
+    private static AWSDeviceFarmResultTree.JobNode job(String id, String device) {
+        return new AWSDeviceFarmResultTree.JobNode(new Job().withArn(String.format(ARN, "job", id)).withName(device)
+                .withResult("PASSED").withDevice(new Device().withName(device).withModel(device)), device + "-" + id);
+    }
+
+    private Artifact artifact(String id, String name, String path) {
+        return new Artifact().withArn(String.format(ARN, "artifact", id)).withName(name)
+                .withUrl(String.format("http://127.0.0.1:%d%s", server.getAddress().getPort(), path));
+    }
+}
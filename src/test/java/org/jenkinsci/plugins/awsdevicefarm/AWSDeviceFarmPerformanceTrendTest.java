@@ -0,0 +1,63 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.Arrays;
+import java.util.List;
+
+@For(AWSDeviceFarmPerformanceTrend.class)
+public class AWSDeviceFarmPerformanceTrendTest {
+
+    @Test
+    public void groupsTheBuildsOfEveryDevice() {
+        AWSDeviceFarmPerformance first = performance(DeviceFarmFixtures.metrics("Pixel 4-1", "Pixel 4", "Pixel 4", AWSDeviceFarmPerformance.Metric.CPU, 30));
+        AWSDeviceFarmPerformance third = performance(DeviceFarmFixtures.metrics("Pixel 4-1", "Pixel 4", "Pixel 4", AWSDeviceFarmPerformance.Metric.CPU, 40),
+                DeviceFarmFixtures.metrics("Galaxy S9-2", "Galaxy S9", "Galaxy S9", AWSDeviceFarmPerformance.Metric.FPS, 55));
+
+        // The second build has no performance data.
+        AWSDeviceFarmPerformanceTrend trend = new AWSDeviceFarmPerformanceTrend(Arrays.asList(1, 2, 3),
+                Arrays.asList(first, null, third));
+
+        Assert.assertEquals(2, trend.getDevices().size());
+        Assert.assertEquals("Galaxy S9-2", trend.getDevices().get(0).getJob());
+        Assert.assertEquals(Arrays.asList(AWSDeviceFarmPerformance.Metric.CPU, AWSDeviceFarmPerformance.Metric.FPS), trend.getMetrics());
+
+        AWSDeviceFarmPerformanceTrend.DeviceTrend pixel = trend.getDevice("Pixel 4-1");
+        Assert.assertEquals("Pixel 4", pixel.getModel());
+        List<AWSDeviceFarmPerformanceTrend.Point> points = pixel.getPoints();
+        Assert.assertEquals(2, points.size());
+        Assert.assertEquals(1, points.get(0).getNumber());
+        Assert.assertEquals(3, points.get(1).getNumber());
+        Assert.assertEquals(3, pixel.getRecentPoints().get(0).getNumber());
+        Assert.assertEquals(40, points.get(1).getSummary(AWSDeviceFarmPerformance.Metric.CPU).getP95(), 0.001);
+        Assert.assertTrue(pixel.hasMetric(AWSDeviceFarmPerformance.Metric.CPU));
+        Assert.assertFalse(pixel.hasMetric(AWSDeviceFarmPerformance.Metric.FPS));
+        Assert.assertNull(trend.getDevice("iPhone 11-3"));
+    }
+
+    //// Helper Methods
+
+    private static AWSDeviceFarmPerformance performance(AWSDeviceFarmPerformance.DeviceMetrics... devices) {
+        AWSDeviceFarmPerformance performance = new AWSDeviceFarmPerformance();
+        for (AWSDeviceFarmPerformance.DeviceMetrics device : devices) {
+            performance.addDevice(device);
+        }
+        return performance;
+    }
+}
@@ -0,0 +1,113 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Device;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.Suite;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.Arrays;
+
+@For(AWSDeviceFarmResultCrawler.class)
+public class AWSDeviceFarmResultCrawlerTest {
+
+    private static final String ARN = "arn:aws:devicefarm:us-west-2:123456789012:%s:project/%s";
+    private static final String RUN_ARN = String.format(ARN, "run", "run");
+
+    @Test
+    public void followsNextTokens() throws Exception {
+        FakeDeviceFarmApi api = new FakeDeviceFarmApi().withPageSize(2)
+                .withJobs(RUN_ARN, job("Pixel", "1"), job("Galaxy", "2"), job("iPhone", "3"))
+                .withSuites(jobArn("1"), suite("1", "1"), suite("1", "2"), suite("1", "3"))
+                .withTests(suiteArn("1", "2"), test("1", "2", "1"), test("1", "2", "2"), test("1", "2", "3"));
+
+        AWSDeviceFarmResultTree tree = crawler(api, 1).crawl(RUN_ARN);
+
+        Assert.assertEquals(3, tree.getJobs().size());
+        Assert.assertEquals(3, tree.getJobs().get(0).getSuites().size());
+        Assert.assertEquals(3, tree.getTests().size());
+        Assert.assertEquals("Pixel-12/Suite 2/Test 3", tree.getPath(testArn("1", "2", "3").split(":")[6]));
+        Assert.assertTrue(api.getRequests().contains("ListJobs " + RUN_ARN + " 2"));
+        Assert.assertTrue(api.getRequests().contains("ListSuites " + jobArn("1") + " 2"));
+        Assert.assertTrue(api.getRequests().contains("ListTests " + suiteArn("1", "2") + " 2"));
+        // Jobs in 2 pages, suites of the 3 jobs in 2 + 1 + 1 pages, tests of the 3 suites in 1 + 2 + 1 pages.
+        Assert.assertEquals(2 + 4 + 4, api.getRequests().size());
+    }
+
+    @Test
+    public void crawlsSuitesAndTestsConcurrently() throws Exception {
+        FakeDeviceFarmApi api = new FakeDeviceFarmApi().withLatency(50)
+                .withJobs(RUN_ARN, job("Pixel", "1"), job("Galaxy", "2"), job("iPhone", "3"), job("iPad", "4"), job("Moto", "5"));
+        for (String job : Arrays.asList("1", "2", "3", "4", "5")) {
+            api.withSuites(jobArn(job), suite(job, "1"), suite(job, "2"));
+            api.withTests(suiteArn(job, "1"), test(job, "1", "1"));
+            api.withTests(suiteArn(job, "2"), test(job, "2", "1"), test(job, "2", "2"));
+        }
+
+        AWSDeviceFarmResultTree tree = crawler(api, 3).crawl(RUN_ARN);
+
+        Assert.assertEquals(15, tree.getTests().size());
+        Assert.assertEquals(3, api.getMaxConcurrentRequests());
+        for (AWSDeviceFarmResultTree.JobNode job : tree.getJobs()) {
+            Assert.assertEquals(2, job.getSuites().size());
+            Assert.assertEquals(2, job.getSuites().get(1).getTests().size());
+        }
+    }
+
+    @Test
+    public void storesRunsInTheirOwnDirectories() throws Exception {
+        String otherRunArn = String.format(ARN, "run", "other");
+        FakeDeviceFarmApi api = new FakeDeviceFarmApi()
+                .withJobs(RUN_ARN, job("Pixel", "1"))
+                .withJobs(otherRunArn, new Job().withArn(String.format(ARN, "job", "other/2")).withName("Pixel").withDevice(new Device().withOs("12")));
+
+        AWSDeviceFarmResultTree tree = crawler(api, 2).crawl(Arrays.asList(RUN_ARN, otherRunArn), Arrays.asList("Shard 1 of 2", "Shard 2 of 2"));
+
+        Assert.assertEquals(Arrays.asList("Shard 1 of 2/Pixel-12", "Shard 2 of 2/Pixel-12"), tree.getPaths());
+    }
+
+    //// Helper Methods
+
+    private static AWSDeviceFarmResultCrawler crawler(FakeDeviceFarmApi api, int concurrency) {
+        return new AWSDeviceFarmResultCrawler(new AWSDeviceFarm(api), concurrency, new AWSDeviceFarmRateLimiter(1000), null);
+    }
+
+    private static String jobArn(String job) {
+        return String.format(ARN, "job", "run/" + job);
+    }
+
+    private static String suiteArn(String job, String suite) {
+        return String.format(ARN, "suite", "run/" + job + "/" + suite);
+    }
+
+    private static String testArn(String job, String suite, String test) {
+        return String.format(ARN, "test", "run/" + job + "/" + suite + "/" + test);
+    }
+
+    private static Job job(String name, String job) {
+        return new Job().withArn(jobArn(job)).withName(name).withDevice(new Device().withOs(job + "2"));
+    }
+
+    private static Suite suite(String job, String suite) {
+        return new Suite().withArn(suiteArn(job, suite)).withName("Suite " + suite);
+    }
+
+    private static com.amazonaws.services.devicefarm.model.Test test(String job, String suite, String test) {
+        return new com.amazonaws.services.devicefarm.model.Test().withArn(testArn(job, suite, test)).withName("Test " + test);
+    }
+}
@@ -0,0 +1,202 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@For({AWSDeviceFarmResumableDownload.class, AWSDeviceFarmArtifactDownloader.class})
+public class AWSDeviceFarmResumableDownloadTest {
+
+    private static final String WRONG_ETAG = "\"0123456789abcdef0123456789abcdef\"";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final byte[] content = new byte[10000];
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+    private HttpServer server;
+    private long initialBackoff;
+
+    @Before
+    public void startServer() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        initialBackoff = AWSDeviceFarmResumableDownload.initialBackoff;
+        AWSDeviceFarmResumableDownload.initialBackoff = 1;
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                requests.add(path + " " + range);
+                int count;
+                synchronized (counts) {
+                    count = counts.containsKey(path) ? counts.get(path) + 1 : 1;
+                    counts.put(path, count);
+                }
+                if (count == 1 && !path.startsWith("/fresh") && !path.startsWith("/kms") && !path.startsWith("/corrupt")) {
+                    // The connection drops halfway through the first attempt.
+                    exchange.getResponseHeaders().add("ETag", etag());
+                    exchange.sendResponseHeaders(200, content.length);
+                    exchange.getResponseBody().write(content, 0, content.length / 2);
+                    exchange.getResponseBody().flush();
+                    exchange.close();
+                    return;
+                }
+                if (path.startsWith("/expired")) {
+                    exchange.sendResponseHeaders(403, -1);
+                    exchange.close();
+                    return;
+                }
+                if (path.startsWith("/unsatisfiable") && range != null) {
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                if (path.startsWith("/kms")) {
+                    exchange.getResponseHeaders().add("x-amz-server-side-encryption", "aws:kms");
+                }
+                exchange.getResponseHeaders().add("ETag", path.startsWith("/kms") || path.startsWith("/corrupt") ? WRONG_ETAG : etag());
+                int from = 0;
+                if (range != null) {
+                    from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    exchange.getResponseHeaders().add("Content-Range", String.format("bytes %d-%d/%d", from, content.length - 1, content.length));
+                    exchange.sendResponseHeaders(206, content.length - from);
+                } else {
+                    exchange.sendResponseHeaders(200, content.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                out.write(content, from, content.length - from);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        AWSDeviceFarmResumableDownload.initialBackoff = initialBackoff;
+    }
+
+    @Test
+    public void resumesWithRangeRequests() throws Exception {
+        File target = new File(tmp.getRoot(), "video.mp4");
+
+        Assert.assertEquals(content.length, AWSDeviceFarmResumableDownload.toFile(url("/resume"), target));
+
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+        Assert.assertEquals("/resume null", requests.get(0));
+        Assert.assertTrue(requests.get(1).startsWith("/resume bytes="));
+        Assert.assertFalse(new File(tmp.getRoot(), "video.mp4.part").exists());
+    }
+
+    @Test
+    public void startsOverWhenTheRangeIsNotSatisfiable() throws Exception {
+        File target = new File(tmp.getRoot(), "logcat.txt");
+
+        Assert.assertEquals(content.length, AWSDeviceFarmResumableDownload.toFile(url("/unsatisfiable"), target));
+
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+        Assert.assertEquals(3, requests.size());
+        Assert.assertTrue(requests.get(1).startsWith("/unsatisfiable bytes="));
+        Assert.assertEquals("/unsatisfiable null", requests.get(2));
+    }
+
+    @Test
+    public void resumesWithARefreshedUrlOnceTheUrlExpired() throws Exception {
+        File target = new File(tmp.getRoot(), "video.mp4");
+        AWSDeviceFarmArtifactDownloader downloader = new AWSDeviceFarmArtifactDownloader(1, 1, null)
+                .withRefresher(new AWSDeviceFarmArtifactDownloader.Refresher() {
+                    public URL refresh(String arn, URL expired) throws IOException {
+                        Assert.assertEquals("artifact", arn);
+                        return url("/fresh");
+                    }
+                });
+        downloader.add("artifact", url("/expired"), new FilePath(target));
+
+        Assert.assertEquals(content.length, downloader.download());
+
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+        Assert.assertEquals(3, requests.size());
+        Assert.assertTrue(requests.get(1).startsWith("/expired bytes="));
+        Assert.assertEquals(String.format("/fresh bytes=%d-", content.length / 2), requests.get(2));
+    }
+
+    @Test
+    public void skipsTheChecksumOfEncryptedObjects() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Assert.assertEquals(content.length, AWSDeviceFarmResumableDownload.toStream(url("/kms"), out));
+        Assert.assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void failsOnChecksumMismatchWhenTheStreamCannotBeRewound() throws Exception {
+        try {
+            AWSDeviceFarmResumableDownload.toStream(url("/corrupt"), new ByteArrayOutputStream());
+            Assert.fail("Checksum mismatch expected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Checksum mismatch"));
+        }
+        Assert.assertEquals(Arrays.asList("/corrupt null"), requests);
+    }
+
+    //// Helper Methods
+
+    private URL url(String path) throws IOException {
+        return new URL(String.format("http://127.0.0.1:%d%s", server.getAddress().getPort(), path));
+    }
+
+    private String etag() {
+        try {
+            StringBuilder hex = new StringBuilder("\"");
+            for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.append("\"").toString();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+import java.io.File;
+
+@For(AWSDeviceFarmRunIndex.class)
+public class AWSDeviceFarmRunIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void resolvesIdsIgnoringCase() throws Exception {
+        AWSDeviceFarmRunIndex index = new AWSDeviceFarmRunIndex(new File(tmp.getRoot(), AWSDeviceFarmRunIndex.FILE_NAME));
+        index.put("AWSDeviceFarmAbc", 1);
+        index.put("AWSDeviceFarmDef", 2);
+
+        Assert.assertEquals(Integer.valueOf(1), index.get("awsdevicefarmabc"));
+        Assert.assertEquals(Integer.valueOf(2), index.get("AWSDeviceFarmDef"));
+        Assert.assertNull(index.get("AWSDeviceFarmGhi"));
+    }
+
+    @Test
+    public void reloadsAppendedAndRemovedEntries() throws Exception {
+        File file = new File(tmp.getRoot(), AWSDeviceFarmRunIndex.FILE_NAME);
+        AWSDeviceFarmRunIndex index = new AWSDeviceFarmRunIndex(file);
+        index.put("AWSDeviceFarmAbc", 1);
+        index.put("AWSDeviceFarmDef", 2);
+        index.put("AWSDeviceFarmGhi", 3);
+        index.remove(2);
+
+        AWSDeviceFarmRunIndex reloaded = new AWSDeviceFarmRunIndex(file);
+        Assert.assertTrue(reloaded.load());
+        Assert.assertEquals(2, reloaded.size());
+        Assert.assertEquals(Integer.valueOf(3), reloaded.get("AWSDeviceFarmGhi"));
+        Assert.assertNull(reloaded.get("AWSDeviceFarmDef"));
+    }
+}
@@ -0,0 +1,150 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.DeviceSelectionConfiguration;
+import com.amazonaws.services.devicefarm.model.ScheduleRunTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@For(AWSDeviceFarmRunMatrix.class)
+public class AWSDeviceFarmRunMatrixTest {
+
+    @Test
+    public void parsesRunConfigurations() {
+        List<AWSDeviceFarmRunMatrix.RunConfiguration> runs = AWSDeviceFarmRunMatrix.parse(
+                "# Pools\nTop Devices\n\nTop Devices | builtin_fuzz\n | BUILTIN_EXPLORER\n");
+        Assert.assertEquals(3, runs.size());
+        Assert.assertEquals("Top Devices", runs.get(0).getDevicePool());
+        Assert.assertNull(runs.get(0).getTestType());
+        Assert.assertEquals("Top Devices", runs.get(1).getDevicePool());
+        Assert.assertEquals("BUILTIN_FUZZ", runs.get(1).getTestType());
+        Assert.assertNull(runs.get(2).getDevicePool());
+        Assert.assertEquals("BUILTIN_EXPLORER", runs.get(2).getTestType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownTestTypes() {
+        AWSDeviceFarmRunMatrix.parse("Top Devices | ESPRESSO_PLUS");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRuns() {
+        AWSDeviceFarmRunMatrix.parse(" | ");
+    }
+
+    @Test
+    public void plansOneTestPerType() throws Exception {
+        FakeResolver resolver = new FakeResolver();
+        DeviceSelectionConfiguration selection = new DeviceSelectionConfiguration().withMaxDevices(2);
+        ScheduleRunTest test = new ScheduleRunTest().withType("INSTRUMENTATION");
+
+        List<AWSDeviceFarmRunMatrix.PlannedRun> runs = AWSDeviceFarmRunMatrix.plan(AWSDeviceFarmRunMatrix.parse(
+                "Top Devices\nTop Devices | BUILTIN_FUZZ\n | BUILTIN_FUZZ\nTeam/Phones | INSTRUMENTATION"),
+                null, null, selection, test, Collections.<String>emptyList(), resolver, null);
+
+        Assert.assertEquals(Arrays.asList("BUILTIN_FUZZ"), resolver.tests);
+        Assert.assertEquals(5, runs.size());
+        Assert.assertEquals("Device selection filters - INSTRUMENTATION", runs.get(0).getLabel());
+        Assert.assertSame(selection, runs.get(0).getDeviceSelection());
+        Assert.assertSame(test, runs.get(1).getTest());
+        Assert.assertEquals("arn:Top Devices", runs.get(1).getDevicePoolArn());
+        Assert.assertNull(runs.get(1).getDeviceSelection());
+        Assert.assertSame(runs.get(2).getTest(), runs.get(3).getTest());
+        Assert.assertEquals("Device selection filters - BUILTIN_FUZZ", runs.get(3).getLabel());
+        Assert.assertSame(selection, runs.get(3).getDeviceSelection());
+        Assert.assertEquals("Team/Phones - INSTRUMENTATION", runs.get(4).getLabel());
+        Assert.assertEquals("Team_Phones - INSTRUMENTATION", runs.get(4).getDirectory());
+    }
+
+    @Test
+    public void plansShardsOfTheConfiguredRun() throws Exception {
+        ScheduleRunTest test = new ScheduleRunTest().withType("INSTRUMENTATION");
+
+        List<AWSDeviceFarmRunMatrix.PlannedRun> runs = AWSDeviceFarmRunMatrix.plan(AWSDeviceFarmRunMatrix.parse("| BUILTIN_FUZZ"),
+                "Top Devices", "arn:pool", null, test, Arrays.asList("com.example.A", "com.example.B"), new FakeResolver(), null);
+
+        Assert.assertEquals(3, runs.size());
+        Assert.assertEquals("Top Devices - INSTRUMENTATION - Shard 1 of 2", runs.get(0).getLabel());
+        Assert.assertEquals("com.example.A", runs.get(0).getTest().getFilter());
+        Assert.assertEquals("com.example.B", runs.get(1).getTest().getFilter());
+        Assert.assertNull(test.getFilter());
+        Assert.assertEquals("Top Devices - BUILTIN_FUZZ", runs.get(2).getLabel());
+        Assert.assertEquals("arn:pool", runs.get(2).getDevicePoolArn());
+    }
+
+    @Test
+    public void plansSingleRunWithoutLabel() throws Exception {
+        ScheduleRunTest test = new ScheduleRunTest().withType("INSTRUMENTATION");
+
+        List<AWSDeviceFarmRunMatrix.PlannedRun> runs = AWSDeviceFarmRunMatrix.plan(Collections.<AWSDeviceFarmRunMatrix.RunConfiguration>emptyList(),
+                "Top Devices", "arn:pool", null, test, Collections.<String>emptyList(), new FakeResolver(), null);
+
+        Assert.assertEquals(1, runs.size());
+        Assert.assertNull(runs.get(0).getLabel());
+        Assert.assertNull(runs.get(0).getDirectory());
+    }
+
+    @Test
+    public void numbersRunsWithTheSameDirectory() throws Exception {
+        ScheduleRunTest test = new ScheduleRunTest().withType("INSTRUMENTATION");
+
+        List<AWSDeviceFarmRunMatrix.PlannedRun> runs = AWSDeviceFarmRunMatrix.plan(AWSDeviceFarmRunMatrix.parse(
+                "Team_Phones\nTeam/Phones\nTeam/Phones"),
+                "Team/Phones", "arn:pool", null, test, Collections.<String>emptyList(), new FakeResolver(), null);
+
+        Assert.assertEquals(4, runs.size());
+        Assert.assertEquals("Team/Phones - INSTRUMENTATION", runs.get(0).getLabel());
+        Assert.assertEquals("Team_Phones - INSTRUMENTATION (2)", runs.get(1).getLabel());
+        Assert.assertEquals("Team_Phones - INSTRUMENTATION (2)", runs.get(1).getDirectory());
+        Assert.assertEquals("Team/Phones - INSTRUMENTATION (3)", runs.get(2).getLabel());
+        Assert.assertEquals("Team_Phones - INSTRUMENTATION (3)", runs.get(2).getDirectory());
+        Assert.assertEquals("Team/Phones - INSTRUMENTATION (4)", runs.get(3).getLabel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnconfiguredTestTypes() throws Exception {
+        AWSDeviceFarmRunMatrix.plan(AWSDeviceFarmRunMatrix.parse("| XCTEST"), "Top Devices", "arn:pool", null,
+                new ScheduleRunTest().withType("INSTRUMENTATION"), Collections.<String>emptyList(), new FakeResolver(), null);
+    }
+
+    //// Helper Methods
+
+    /**
+     * Configured for Instrumentation and the built-in fuzz test, records the tests it was asked for.
+     */
+    private static class FakeResolver implements AWSDeviceFarmRunMatrix.Resolver {
+        private final List<String> tests = new ArrayList<String>();
+
+        public String getTestType(String testType) {
+            return testType;
+        }
+
+        public ScheduleRunTest getTest(String testType) {
+            tests.add(testType);
+            return "XCTEST".equals(testType) ? null : new ScheduleRunTest().withType(testType);
+        }
+
+        public String getDevicePoolArn(String devicePool) {
+            return "arn:" + devicePool;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.List;
+
+@For(AWSDeviceFarmTestDurations.class)
+public class AWSDeviceFarmTestDurationsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void countsATestOncePerBuildOnEveryModel() throws Exception {
+        AWSDeviceFarmTestDurations durations = new AWSDeviceFarmTestDurations(new File(tmp.getRoot(), AWSDeviceFarmTestDurations.FILE_NAME));
+        for (int number = 1; number <= 3; number++) {
+            Assert.assertTrue(durations.record(number, DeviceFarmFixtures.tree(
+                    DeviceFarmFixtures.job("Pixel 4-1", DeviceFarmFixtures.device("Pixel 4"), "PASSED",
+                            DeviceFarmFixtures.suite("Suite", DeviceFarmFixtures.test("test", "PASSED", 10000))),
+                    DeviceFarmFixtures.job("Pixel 4-2", DeviceFarmFixtures.device("Pixel 4"), "PASSED",
+                            DeviceFarmFixtures.suite("Suite", DeviceFarmFixtures.test("test", "PASSED", 2000))))));
+        }
+
+        List<AWSDeviceFarmTestDurations.TestDuration> slowest = durations.getSlowestTests(10);
+        Assert.assertEquals(1, slowest.size());
+        Assert.assertEquals("Suite/test", slowest.get(0).getTest());
+        Assert.assertEquals(3, slowest.get(0).getSamples());
+        Assert.assertEquals(10000, slowest.get(0).getMedian(), 500);
+    }
+
+    @Test
+    public void keepsBuildOrderWhenBuildsCompleteLateOrAreDeleted() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        AWSDeviceFarmResultTree first = DeviceFarmFixtures.attach(j.buildAndAssertSuccess(p), tree(1000));
+        AWSDeviceFarmResultTree second = DeviceFarmFixtures.attach(j.buildAndAssertSuccess(p), tree(2000));
+        FreeStyleBuild third = j.buildAndAssertSuccess(p);
+        AWSDeviceFarmResultTree last = DeviceFarmFixtures.attach(third, tree(3000));
+
+        // The second build completes after the third, and is still counted.
+        AWSDeviceFarmTestDurations durations = new AWSDeviceFarmTestDurations(new File(tmp.getRoot(), AWSDeviceFarmTestDurations.FILE_NAME));
+        durations.record(p, 1, first);
+        durations.record(p, 3, last);
+        durations.record(p, 2, second);
+        Assert.assertEquals(3, durations.getSlowestTests(10).get(0).getSamples());
+
+        third.delete();
+        durations.deleted(p, 3);
+        Assert.assertEquals(2, durations.getSlowestTests(10).get(0).getSamples());
+        Assert.assertEquals(2000, durations.getSlowestTests(10).get(0).getP95(), 500);
+    }
+
+    //// Helper Methods
+
+    /**
+     * Create a result tree with a single passed test.
+     */
+    private static AWSDeviceFarmResultTree tree(long millis) {
+        return DeviceFarmFixtures.tree(DeviceFarmFixtures.job("Pixel 4-1", DeviceFarmFixtures.device("Pixel 4"), "PASSED",
+                DeviceFarmFixtures.suite("Suite", DeviceFarmFixtures.test("test", "PASSED", millis))));
+    }
+}
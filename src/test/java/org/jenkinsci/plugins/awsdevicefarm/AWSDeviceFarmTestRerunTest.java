@@ -0,0 +1,80 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@For(AWSDeviceFarmTestRerun.class)
+public class AWSDeviceFarmTestRerunTest {
+
+    @Test
+    public void rerunsFailedTestsOnAffectedDevices() {
+        AWSDeviceFarmResultTree tree = DeviceFarmFixtures.tree(
+                DeviceFarmFixtures.job("pixel", DeviceFarmFixtures.device("pixel"), null,
+                        DeviceFarmFixtures.suite("Setup Suite", DeviceFarmFixtures.test("Setup Test", "FAILED")),
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "FAILED"),
+                                DeviceFarmFixtures.test("testLogout", "PASSED"))),
+                DeviceFarmFixtures.job("galaxy", DeviceFarmFixtures.device("galaxy"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "PASSED"),
+                                DeviceFarmFixtures.test("testLogout", "PASSED"))),
+                DeviceFarmFixtures.job("iphone", DeviceFarmFixtures.device("iphone"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "ERRORED"),
+                                DeviceFarmFixtures.test("testLogout", "PASSED"))));
+
+        AWSDeviceFarmTestRerun rerun = AWSDeviceFarmTestRerun.of(tree);
+        Assert.assertEquals(Arrays.asList("com.example.LoginTest#testLogin"), rerun.getTests());
+        Assert.assertEquals(Arrays.asList("pixel", "iphone"), rerun.getDeviceArns());
+        Assert.assertEquals("com.example.LoginTest#testLogin", rerun.getFilter());
+        Assert.assertEquals(Integer.valueOf(2), rerun.getDeviceSelection().getMaxDevices());
+    }
+
+    @Test
+    public void countsFailuresWhichPassedOnTheSameDevice() {
+        AWSDeviceFarmResultTree tree = DeviceFarmFixtures.tree(
+                DeviceFarmFixtures.job("pixel", DeviceFarmFixtures.device("pixel"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "FAILED"))),
+                DeviceFarmFixtures.job("iphone", DeviceFarmFixtures.device("iphone"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "ERRORED"))));
+
+        AWSDeviceFarmResultTree rerunTree = DeviceFarmFixtures.tree(
+                DeviceFarmFixtures.job("pixel", DeviceFarmFixtures.device("pixel"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "PASSED"))),
+                DeviceFarmFixtures.job("iphone", DeviceFarmFixtures.device("iphone"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "FAILED"))));
+
+        Assert.assertEquals(1, AWSDeviceFarmTestRerun.countRecovered(tree, rerunTree, "FAILED"));
+        Assert.assertEquals(0, AWSDeviceFarmTestRerun.countRecovered(tree, rerunTree, "ERRORED"));
+    }
+
+    @Test
+    public void leavesRerunOutOfProjectData() {
+        AWSDeviceFarmResultTree tree = DeviceFarmFixtures.tree(
+                DeviceFarmFixtures.job("pixel", DeviceFarmFixtures.device("pixel"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "FAILED"))),
+                DeviceFarmFixtures.job(AWSDeviceFarmTestRerun.LABEL + "/pixel", DeviceFarmFixtures.device("pixel"), null,
+                        DeviceFarmFixtures.suite("com.example.LoginTest", DeviceFarmFixtures.test("testLogin", "PASSED"),
+                                DeviceFarmFixtures.test("testLogout", "FAILED"))));
+
+        Assert.assertFalse(AWSDeviceFarmTestRerun.isRerun(tree.getJobs().get(0)));
+        Assert.assertTrue(AWSDeviceFarmTestRerun.isRerun(tree.getJobs().get(1)));
+        Assert.assertEquals(Collections.singletonList("com.example.LoginTest/testLogin@pixel"), AWSDeviceFarmFlakyTests.getFailures(tree));
+        Assert.assertEquals(Collections.singleton("pixel"), AWSDeviceFarmCostTrend.getJobMinutes(tree).keySet());
+    }
+}
@@ -0,0 +1,114 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.thoughtworks.xstream.converters.ConversionException;
+import hudson.model.AbstractBuild;
+import hudson.util.XStream2;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.Arrays;
+
+@For({AWSDeviceFarmTestResult.ConverterImpl.class, AWSDeviceFarmTestResultAction.class})
+public class AWSDeviceFarmTestResultConverterTest {
+
+    private static final String LEGACY = "<org.jenkinsci.plugins.awsdevicefarm.AWSDeviceFarmTestResult>"
+            + "<id>abc</id><status>COMPLETED</status><result>FAILED</result>"
+            + "<passCount>8</passCount><warnCount>1</warnCount><failCount>2</failCount><totalCount>11</totalCount>"
+            + "<errorCount>0</errorCount><skipCount>0</skipCount><stopCount>0</stopCount><duration>0</duration>"
+            + "<url>https://example.com/run</url><project>MyProject</project>"
+            + "<archives><string>results/Pixel.zip</string></archives>"
+            + "</org.jenkinsci.plugins.awsdevicefarm.AWSDeviceFarmTestResult>";
+
+    @Test
+    public void readsReflectionForm() {
+        AWSDeviceFarmTestResult result = (AWSDeviceFarmTestResult) new XStream2().fromXML(LEGACY);
+
+        Assert.assertEquals("abc", result.getRunId());
+        Assert.assertEquals(ExecutionResult.FAILED, result.getExecutionResult());
+        Assert.assertEquals(8, result.getPassCount());
+        Assert.assertEquals(2, result.getFailCount());
+        Assert.assertEquals(11, result.getTotalCount());
+        Assert.assertEquals("https://example.com/run", result.getReportUrl());
+    }
+
+    @Test
+    public void roundTripsCompactForm() {
+        XStream2 xstream = new XStream2();
+        AWSDeviceFarmTestResult legacy = (AWSDeviceFarmTestResult) xstream.fromXML(LEGACY);
+        legacy.setDevicePool("Top Devices");
+        legacy.setArchives(Arrays.asList("results/Pixel.zip", "results/iPhone.zip"));
+
+        String xml = xstream.toXML(legacy);
+        Assert.assertFalse(xml.contains("<passCount>"));
+        AWSDeviceFarmTestResult result = (AWSDeviceFarmTestResult) xstream.fromXML(xml);
+
+        Assert.assertEquals("abc", result.getRunId());
+        Assert.assertEquals(ExecutionResult.FAILED, result.getExecutionResult());
+        Assert.assertEquals(1, result.getWarnCount());
+        Assert.assertEquals(11, result.getTotalCount());
+        Assert.assertEquals("Top Devices", result.getDevicePool());
+        Assert.assertEquals(xml, xstream.toXML(result));
+    }
+
+    @Test
+    public void roundTripsRuns() {
+        XStream2 xstream = new XStream2();
+        AWSDeviceFarmTestResult first = (AWSDeviceFarmTestResult) xstream.fromXML(LEGACY);
+        first.setLabel("Shard 1 of 2");
+        AWSDeviceFarmTestResult second = (AWSDeviceFarmTestResult) xstream.fromXML(LEGACY.replace("<id>abc</id>", "<id>def</id>"));
+        second.setLabel("Shard 2 of 2");
+        AWSDeviceFarmTestResult merged = AWSDeviceFarmTestResult.merge(null, Arrays.asList(first, second));
+
+        String xml = xstream.toXML(merged);
+        Assert.assertTrue(xml.contains("<runs>"));
+        AWSDeviceFarmTestResult result = (AWSDeviceFarmTestResult) xstream.fromXML(xml);
+
+        Assert.assertEquals("abc", result.getRunId());
+        Assert.assertEquals(22, result.getTotalCount());
+        Assert.assertEquals(2, result.getRuns().size());
+        Assert.assertEquals("def", result.getRuns().get(1).getRunId());
+        Assert.assertEquals("Shard 2 of 2", result.getRuns().get(1).getLabel());
+        Assert.assertEquals(11, result.getRuns().get(1).getTotalCount());
+        Assert.assertTrue(result.hasRun("def"));
+        Assert.assertEquals(xml, xstream.toXML(result));
+    }
+
+    @Test
+    public void keepsTestDescriptionsOfTheAction() {
+        XStream2 xstream = new XStream2();
+        AWSDeviceFarmTestResult result = (AWSDeviceFarmTestResult) xstream.fromXML(LEGACY);
+        AWSDeviceFarmTestResultAction action = new AWSDeviceFarmTestResultAction((AbstractBuild<?, ?>) null, result);
+        action.setDescription(result, "Known outage of the device pool");
+
+        AWSDeviceFarmTestResultAction reloaded = (AWSDeviceFarmTestResultAction) xstream.fromXML(xstream.toXML(action));
+        Assert.assertEquals("abc", reloaded.getResult().getRunId());
+        Assert.assertEquals("Known outage of the device pool", reloaded.getDescription(reloaded.getResult()));
+    }
+
+    @Test
+    public void rejectsNewerCompactForms() {
+        String xml = "<org.jenkinsci.plugins.awsdevicefarm.AWSDeviceFarmTestResult format=\"99\" id=\"abc\" counts=\"1 0 0 0 0 0 1\"/>";
+        try {
+            new XStream2().fromXML(xml);
+            Assert.fail("A result of an unknown format must not be read");
+        } catch (ConversionException e) {
+            Assert.assertTrue(e.getMessage().contains("Unsupported AWS Device Farm result format 99"));
+        }
+    }
+}
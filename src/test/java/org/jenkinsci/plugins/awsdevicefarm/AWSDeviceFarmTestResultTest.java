@@ -0,0 +1,149 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.DeviceMinutes;
+import com.amazonaws.services.devicefarm.model.ExecutionResult;
+import com.amazonaws.services.devicefarm.model.Run;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@For(AWSDeviceFarmTestResult.class)
+public class AWSDeviceFarmTestResultTest {
+
+    private static final String RUN_ARN = "arn:aws:devicefarm:us-west-2:123456789012:run:project/%s";
+
+    @Test
+    public void mergesRuns() {
+        AWSDeviceFarmTestResult first = result("first", "COMPLETED", "PASSED", 5, 0, 2.5);
+        AWSDeviceFarmTestResult second = result("second", "COMPLETED", "FAILED", 3, 2, 4.0);
+        AWSDeviceFarmTestResult third = result("third", "COMPLETED", "WARNED", 1, 0, 1.0);
+
+        AWSDeviceFarmTestResult merged = AWSDeviceFarmTestResult.merge(null, Arrays.asList(first, second, third));
+
+        Assert.assertEquals("first", merged.getRunId());
+        Assert.assertEquals(first.getReportUrl(), merged.getReportUrl());
+        Assert.assertTrue(merged.isCompleted());
+        Assert.assertEquals(ExecutionResult.FAILED, merged.getExecutionResult());
+        Assert.assertEquals(9, merged.getPassCount());
+        Assert.assertEquals(2, merged.getFailCount());
+        Assert.assertEquals(11, merged.getTotalCount());
+        Assert.assertEquals(7.5, merged.getDuration(), 0.001);
+        Assert.assertEquals(Arrays.asList(first, second, third), merged.getRuns());
+        Assert.assertTrue(merged.hasRun("third"));
+        Assert.assertFalse(merged.hasRun("fourth"));
+    }
+
+    @Test
+    public void mergedRunIsOnlyCompletedWithAllRuns() {
+        AWSDeviceFarmTestResult merged = AWSDeviceFarmTestResult.merge(null, Arrays.asList(
+                result("first", "COMPLETED", "PASSED", 5, 0, 1.0), result("second", "RUNNING", "PENDING", 0, 0, 0)));
+
+        Assert.assertFalse(merged.isCompleted());
+        Assert.assertEquals("RUNNING", merged.getStatus());
+    }
+
+    @Test
+    public void singleRunIsNotMerged() {
+        AWSDeviceFarmTestResult run = result("first", "COMPLETED", "PASSED", 5, 0, 1.0);
+
+        AWSDeviceFarmTestResult merged = AWSDeviceFarmTestResult.merge(null, Collections.singletonList(run));
+
+        Assert.assertSame(run, merged);
+        Assert.assertTrue(merged.getRuns().isEmpty());
+    }
+
+    @Test
+    public void countsRecoveredFailuresAsPassed() {
+        AWSDeviceFarmTestResult original = result("first", "COMPLETED", "FAILED", 5, 0, 2, 1, 4.0);
+        AWSDeviceFarmTestResult rerun = result("rerun", "COMPLETED", "PASSED", 3, 0, 0, 0, 1.0);
+        rerun.setLabel(AWSDeviceFarmTestRerun.LABEL);
+
+        AWSDeviceFarmTestResult combined = AWSDeviceFarmTestResult.withRerun(null, original, rerun, 2, 1);
+
+        Assert.assertEquals(8, combined.getPassCount());
+        Assert.assertEquals(0, combined.getFailCount());
+        Assert.assertEquals(0, combined.getErrorCount());
+        Assert.assertEquals(8, combined.getTotalCount());
+        Assert.assertEquals(ExecutionResult.PASSED, combined.getExecutionResult());
+        Assert.assertEquals(5.0, combined.getDuration(), 0.001);
+        Assert.assertEquals(Arrays.asList(original, rerun), combined.getRuns());
+        Assert.assertNull(original.getLabel());
+    }
+
+    @Test
+    public void keepsWarningsAndUnrecoveredFailures() {
+        AWSDeviceFarmTestResult original = result("first", "COMPLETED", "FAILED", 5, 1, 2, 0, 4.0);
+        AWSDeviceFarmTestResult rerun = result("rerun", "COMPLETED", "FAILED", 1, 0, 1, 0, 1.0);
+
+        AWSDeviceFarmTestResult partial = AWSDeviceFarmTestResult.withRerun(null, original, rerun, 1, 0);
+        Assert.assertEquals(6, partial.getPassCount());
+        Assert.assertEquals(1, partial.getFailCount());
+        Assert.assertEquals(ExecutionResult.FAILED, partial.getExecutionResult());
+
+        AWSDeviceFarmTestResult recovered = AWSDeviceFarmTestResult.withRerun(null, original, rerun, 2, 0);
+        Assert.assertEquals(1, recovered.getWarnCount());
+        Assert.assertEquals(ExecutionResult.WARNED, recovered.getExecutionResult());
+    }
+
+    @Test
+    public void clampsRecoveredFailuresToTheOriginalCounts() {
+        AWSDeviceFarmTestResult original = result("first", "COMPLETED", "ERRORED", 5, 0, 1, 1, 4.0);
+        AWSDeviceFarmTestResult rerun = result("rerun", "COMPLETED", "PASSED", 4, 0, 0, 0, 1.0);
+
+        AWSDeviceFarmTestResult combined = AWSDeviceFarmTestResult.withRerun(null, original, rerun, 3, 3);
+
+        Assert.assertEquals(7, combined.getPassCount());
+        Assert.assertEquals(0, combined.getFailCount());
+        Assert.assertEquals(0, combined.getErrorCount());
+        Assert.assertEquals(7, combined.getTotalCount());
+        Assert.assertEquals(ExecutionResult.PASSED, combined.getExecutionResult());
+    }
+
+    @Test
+    public void keepsTheShardsOfTheOriginalRuns() {
+        AWSDeviceFarmTestResult first = result("first", "COMPLETED", "FAILED", 5, 1, 1.0);
+        first.setLabel("Shard 1 of 2");
+        AWSDeviceFarmTestResult second = result("second", "COMPLETED", "PASSED", 5, 0, 1.0);
+        second.setLabel("Shard 2 of 2");
+        AWSDeviceFarmTestResult rerun = result("rerun", "COMPLETED", "PASSED", 1, 0, 1.0);
+
+        AWSDeviceFarmTestResult combined = AWSDeviceFarmTestResult.withRerun(null,
+                AWSDeviceFarmTestResult.merge(null, Arrays.asList(first, second)), rerun, 1, 0);
+
+        Assert.assertEquals(Arrays.asList(first, second, rerun), combined.getRuns());
+        Assert.assertEquals(11, combined.getPassCount());
+        Assert.assertEquals(11, combined.getTotalCount());
+    }
+
+    //// Helper Methods
+
+    private static AWSDeviceFarmTestResult result(String id, String status, String result, int passed, int failed, double minutes) {
+        return result(id, status, result, passed, 0, failed, 0, minutes);
+    }
+
+    private static AWSDeviceFarmTestResult result(String id, String status, String result, int passed, int warned, int failed, int errored, double minutes) {
+        Run run = new Run().withArn(String.format(RUN_ARN, id)).withStatus(status).withResult(result)
+                .withCounters(new Counters().withPassed(passed).withFailed(failed).withWarned(warned).withErrored(errored)
+                        .withSkipped(0).withStopped(0).withTotal(passed + warned + failed + errored))
+                .withDeviceMinutes(new DeviceMinutes().withTotal(minutes).withMetered(minutes).withUnmetered(0.0));
+        return new AWSDeviceFarmTestResult(null, run);
+    }
+}
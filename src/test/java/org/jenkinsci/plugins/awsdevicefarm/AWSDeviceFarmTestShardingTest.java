@@ -0,0 +1,55 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hudson.test.For;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@For(AWSDeviceFarmTestSharding.class)
+public class AWSDeviceFarmTestShardingTest {
+
+    @Test
+    public void balancesShardsByDuration() {
+        Map<String, Long> durations = new LinkedHashMap<String, Long>();
+        durations.put("com.example.E", 3L);
+        durations.put("com.example.A", 10L);
+        durations.put("com.example.C", 5L);
+        durations.put("com.example.B", 8L);
+        durations.put("com.example.D", 4L);
+
+        List<List<String>> shards = AWSDeviceFarmTestSharding.split(durations, 2);
+        Assert.assertEquals(2, shards.size());
+        Assert.assertEquals(Arrays.asList("com.example.A", "com.example.D"), shards.get(0));
+        Assert.assertEquals(Arrays.asList("com.example.B", "com.example.C", "com.example.E"), shards.get(1));
+    }
+
+    @Test
+    public void dropsEmptyShards() {
+        Map<String, Long> durations = new LinkedHashMap<String, Long>();
+        durations.put("com.example.A", 1L);
+        durations.put("com.example.B", 1L);
+
+        List<List<String>> shards = AWSDeviceFarmTestSharding.split(durations, 4);
+        Assert.assertEquals(2, shards.size());
+        Assert.assertEquals(Arrays.asList("com.example.A"), shards.get(0));
+        Assert.assertEquals(Arrays.asList("com.example.B"), shards.get(1));
+    }
+}
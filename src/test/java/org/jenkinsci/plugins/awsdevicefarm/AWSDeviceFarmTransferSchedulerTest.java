@@ -0,0 +1,181 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@For(AWSDeviceFarmTransferScheduler.class)
+public class AWSDeviceFarmTransferSchedulerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AWSDeviceFarmTransferScheduler scheduler = new AWSDeviceFarmTransferScheduler();
+    private final List<String> granted = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    @After
+    public void stopThreads() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void limitsConcurrentTransfers() throws Exception {
+        scheduler.setLimits(2, null);
+        AWSDeviceFarmTransferScheduler.Slot first = scheduler.acquire("#1", AWSDeviceFarmTransferScheduler.PRIORITY_LOG);
+        scheduler.acquire("#2", AWSDeviceFarmTransferScheduler.PRIORITY_LOG);
+        request("#3", AWSDeviceFarmTransferScheduler.PRIORITY_LOG);
+        awaitQueued(1);
+
+        Assert.assertEquals(2, scheduler.getRunningCount());
+        Assert.assertTrue(granted.isEmpty());
+
+        first.release();
+        // Releasing a slot twice must not free another one.
+        first.release();
+        awaitGranted(1);
+        Assert.assertEquals(2, scheduler.getRunningCount());
+        Assert.assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void prefersOwnersWithFewerTransfersThenVideos() throws Exception {
+        scheduler.setLimits(1, null);
+        AWSDeviceFarmTransferScheduler.Slot slot = scheduler.acquire("#1", AWSDeviceFarmTransferScheduler.PRIORITY_LOG);
+        request("#1 video", AWSDeviceFarmTransferScheduler.PRIORITY_VIDEO);
+        awaitQueued(1);
+        request("#1 log", AWSDeviceFarmTransferScheduler.PRIORITY_LOG);
+        awaitQueued(2);
+        request("#2 log", AWSDeviceFarmTransferScheduler.PRIORITY_LOG);
+        awaitQueued(3);
+
+        // "#2" has no running transfer while "#1" still holds the slot, so "#2" goes first.
+        scheduler.setLimits(2, null);
+        awaitGranted(1);
+        Assert.assertEquals(Arrays.asList("#2 log"), granted);
+
+        // Within "#1" the video goes before the log which was queued earlier.
+        slot.release();
+        awaitGranted(2);
+        Assert.assertEquals(Arrays.asList("#2 log", "#1 video"), granted);
+        Assert.assertEquals(1, scheduler.getQueuedCount());
+        Assert.assertEquals(2, scheduler.getOwners().size());
+    }
+
+    @Test
+    public void limitsBandwidth() throws Exception {
+        scheduler.setLimits(null, 1);
+        long start = System.nanoTime();
+        scheduler.consume(512 * 1024);
+        scheduler.consume(512 * 1024);
+        scheduler.consume(1);
+
+        // The first chunk passes, the second waits for half a second and the third for another half.
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 900);
+        Assert.assertEquals(1024 * 1024, scheduler.getBandwidthLimit());
+    }
+
+    @Test
+    public void prioritizesByFileName() {
+        Assert.assertEquals(AWSDeviceFarmTransferScheduler.PRIORITY_VIDEO, AWSDeviceFarmTransferScheduler.priorityOf("video.MP4"));
+        Assert.assertEquals(AWSDeviceFarmTransferScheduler.PRIORITY_SCREENSHOT, AWSDeviceFarmTransferScheduler.priorityOf("login.png"));
+        Assert.assertEquals(AWSDeviceFarmTransferScheduler.PRIORITY_LOG, AWSDeviceFarmTransferScheduler.priorityOf("logcat.txt"));
+        Assert.assertEquals(AWSDeviceFarmTransferScheduler.PRIORITY_LOG, AWSDeviceFarmTransferScheduler.priorityOf(null));
+    }
+
+    @Test
+    public void schedulesOnDemandArtifacts() throws Exception {
+        scheduler.setLimits(1, null);
+        AWSDeviceFarmTransferScheduler.Slot slot = scheduler.acquire("#1", AWSDeviceFarmTransferScheduler.PRIORITY_VIDEO);
+        File artifact = tmp.newFile();
+        FileUtils.writeStringToFile(artifact, "aaaa");
+        final URL url = artifact.toURI().toURL();
+        final AWSDeviceFarmArtifactCache cache = new AWSDeviceFarmArtifactCache(tmp.newFolder("cache"), scheduler);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    cache.fetch("a.txt", new AWSDeviceFarmArtifactCache.Source() {
+                        public URL getUrl() {
+                            return url;
+                        }
+                    }, 10);
+                    granted.add("a.txt");
+                } catch (Exception e) {
+                    // Interrupted at the end of the test.
+                }
+            }
+        };
+        threads.add(thread);
+        thread.start();
+
+        awaitQueued(1);
+        Assert.assertEquals(AWSDeviceFarmArtifactCache.OWNER, scheduler.getOwners().get(1).getOwner());
+        slot.release();
+        awaitGranted(1);
+        Assert.assertEquals(4, cache.getTotalBytes());
+        Assert.assertEquals(0, scheduler.getRunningCount());
+    }
+
+    //// Helper Methods
+
+    /**
+     * Request a slot from another thread, which records the name once the slot is granted and keeps it.
+     */
+    private void request(final String name, final int priority) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(name.split(" ")[0], priority);
+                    granted.add(name);
+                } catch (InterruptedException e) {
+                    // Interrupted at the end of the test.
+                }
+            }
+        };
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void awaitQueued(int count) throws InterruptedException {
+        while (scheduler.getQueuedCount() < count) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitGranted(int count) throws InterruptedException {
+        while (granted.size() < count) {
+            Thread.sleep(10);
+        }
+    }
+}
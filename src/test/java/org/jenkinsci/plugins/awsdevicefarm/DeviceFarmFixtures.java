@@ -0,0 +1,145 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.model.Counters;
+import com.amazonaws.services.devicefarm.model.Device;
+import com.amazonaws.services.devicefarm.model.DeviceMinutes;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.amazonaws.services.devicefarm.model.Test;
+import hudson.model.FreeStyleBuild;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Builds the result trees, devices and performance data the tests work with. The paths and ARNs of suites and tests
+ * are derived from the path of their job, like the crawler does.
+ */
+final class DeviceFarmFixtures {
+    static final String ARN = "arn:aws:devicefarm:us-west-2:123456789012:%s:project/run/%s";
+    static final String RUN_ARN = "arn:aws:devicefarm:us-west-2:123456789012:run:project/run";
+
+    private DeviceFarmFixtures() {
+    }
+
+    static AWSDeviceFarmResultTree tree(AWSDeviceFarmResultTree.JobNode... jobs) {
+        AWSDeviceFarmResultTree tree = new AWSDeviceFarmResultTree();
+        for (AWSDeviceFarmResultTree.JobNode job : jobs) {
+            tree.addJob(job);
+        }
+        return tree;
+    }
+
+    /**
+     * Create a result tree with the test "Suite/test" which ran on one device of the same model per result.
+     */
+    static AWSDeviceFarmResultTree tree(String model, String... results) {
+        AWSDeviceFarmResultTree tree = new AWSDeviceFarmResultTree();
+        for (int i = 0; i < results.length; i++) {
+            tree.addJob(job(model + "-" + (i + 1), device(model), results[i], suite("Suite", test("test", results[i]))));
+        }
+        return tree;
+    }
+
+    /**
+     * Create a job which used a device minute, with the given suites.
+     *
+     * @param path   The path of the job in the result tree.
+     * @param device The device of the job.
+     * @param result The result of the job and its suites, may be null.
+     * @param suites The suites of the job.
+     */
+    static AWSDeviceFarmResultTree.JobNode job(String path, Device device, String result, SuiteFixture... suites) {
+        AWSDeviceFarmResultTree.JobNode job = new AWSDeviceFarmResultTree.JobNode(new Job()
+                .withArn(String.format(ARN, "job", path)).withName(device.getName()).withResult(result)
+                .withDevice(device).withDeviceMinutes(new DeviceMinutes().withTotal(1.0)), path);
+        List<AWSDeviceFarmResultTree.SuiteNode> suiteNodes = new ArrayList<AWSDeviceFarmResultTree.SuiteNode>();
+        for (SuiteFixture suite : suites) {
+            String suitePath = path + "/" + suite.name;
+            AWSDeviceFarmResultTree.SuiteNode suiteNode = new AWSDeviceFarmResultTree.SuiteNode(new Suite()
+                    .withArn(String.format(ARN, "suite", suitePath)).withName(suite.name).withResult(result), suitePath);
+            List<AWSDeviceFarmResultTree.TestNode> testNodes = new ArrayList<AWSDeviceFarmResultTree.TestNode>();
+            for (Test test : suite.tests) {
+                String testPath = suitePath + "/" + test.getName();
+                testNodes.add(new AWSDeviceFarmResultTree.TestNode(test.withArn(String.format(ARN, "test", testPath)), testPath));
+            }
+            suiteNode.setTests(testNodes);
+            suiteNodes.add(suiteNode);
+        }
+        job.setSuites(suiteNodes);
+        return job;
+    }
+
+    static SuiteFixture suite(String name, Test... tests) {
+        return new SuiteFixture(name, Arrays.asList(tests));
+    }
+
+    static Test test(String name, String result) {
+        return new Test().withName(name).withResult(result);
+    }
+
+    static Test test(String name, String result, long millis) {
+        return test(name, result).withStarted(new Date(0)).withStopped(new Date(millis));
+    }
+
+    /**
+     * Create a device whose ARN, name and model are all the given name.
+     */
+    static Device device(String name) {
+        return new Device().withArn(name).withName(name).withModel(name);
+    }
+
+    /**
+     * Create the performance data of a job with a single metric.
+     */
+    static AWSDeviceFarmPerformance.DeviceMetrics metrics(String job, String deviceName, String model,
+                                                          AWSDeviceFarmPerformance.Metric metric, double value) {
+        AWSDeviceFarmPerformance.DeviceMetrics device = new AWSDeviceFarmPerformance.DeviceMetrics(job, deviceName, model, null);
+        device.add(metric, new AWSDeviceFarmPerformance.Summary(10, value, value, value, value));
+        return device;
+    }
+
+    /**
+     * Store a result tree with a build and add the build to the history of its project.
+     */
+    static AWSDeviceFarmResultTree attach(FreeStyleBuild build, AWSDeviceFarmResultTree tree) throws Exception {
+        tree.save(build.getRootDir());
+        Counters counters = new Counters().withPassed(0).withFailed(0).withErrored(0).withWarned(0)
+                .withSkipped(0).withStopped(0).withTotal(1);
+        AWSDeviceFarmTestResult result = new AWSDeviceFarmTestResult(build,
+                new Run().withArn(RUN_ARN).withResult("PASSED").withCounters(counters));
+        build.addAction(new AWSDeviceFarmTestResultAction(build, result));
+        AWSDeviceFarmHistory.forJob(build.getParent()).append(AWSDeviceFarmHistory.Record.of(build, result));
+        return tree;
+    }
+
+    /**
+     * A suite whose nodes are created with its job, see {@link #job(String, Device, String, SuiteFixture...)}.
+     */
+    static final class SuiteFixture {
+        private final String name;
+        private final List<Test> tests;
+
+        SuiteFixture(String name, List<Test> tests) {
+            this.name = name;
+            this.tests = tests;
+        }
+    }
+}
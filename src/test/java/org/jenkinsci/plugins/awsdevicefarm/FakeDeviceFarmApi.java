@@ -0,0 +1,210 @@
+//
+// Copyright 2015-2017 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License").
+// You may not use this file except in compliance with the License.
+// A copy of the License is located at
+//
+// http://aws.amazon.com/apache2.0
+//
+// or in the "license" file accompanying this file. This file is distributed
+// on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+// express or implied. See the License for the specific language governing
+// permissions and limitations under the License.
+//
+package org.jenkinsci.plugins.awsdevicefarm;
+
+import com.amazonaws.services.devicefarm.AbstractAWSDeviceFarm;
+import com.amazonaws.services.devicefarm.model.Artifact;
+import com.amazonaws.services.devicefarm.model.GetRunRequest;
+import com.amazonaws.services.devicefarm.model.GetRunResult;
+import com.amazonaws.services.devicefarm.model.Job;
+import com.amazonaws.services.devicefarm.model.ListArtifactsRequest;
+import com.amazonaws.services.devicefarm.model.ListArtifactsResult;
+import com.amazonaws.services.devicefarm.model.ListJobsRequest;
+import com.amazonaws.services.devicefarm.model.ListJobsResult;
+import com.amazonaws.services.devicefarm.model.ListSuitesRequest;
+import com.amazonaws.services.devicefarm.model.ListSuitesResult;
+import com.amazonaws.services.devicefarm.model.ListTestsRequest;
+import com.amazonaws.services.devicefarm.model.ListTestsResult;
+import com.amazonaws.services.devicefarm.model.Run;
+import com.amazonaws.services.devicefarm.model.StopRunRequest;
+import com.amazonaws.services.devicefarm.model.StopRunResult;
+import com.amazonaws.services.devicefarm.model.Suite;
+import com.amazonaws.services.devicefarm.model.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory AWS Device Farm API which serves canned runs and results, and pages list results like the service.
+ */
+class FakeDeviceFarmApi extends AbstractAWSDeviceFarm {
+    private final Map<String, LinkedList<Run>> runs = new HashMap<String, LinkedList<Run>>();
+    private final Map<String, List<Job>> jobs = new HashMap<String, List<Job>>();
+    private final Map<String, List<Suite>> suites = new HashMap<String, List<Suite>>();
+    private final Map<String, List<Test>> tests = new HashMap<String, List<Test>>();
+    private final Map<String, List<Artifact>> artifacts = new HashMap<String, List<Artifact>>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private long latency = 0;
+    private final List<String> stoppedRuns = Collections.synchronizedList(new ArrayList<String>());
+    private RuntimeException stopRunError;
+    private int pageSize = Integer.MAX_VALUE;
+
+    /**
+     * Add the states a run goes through. Every GetRun call returns the next state, the last one is returned forever.
+     */
+    FakeDeviceFarmApi withRun(Run... states) {
+        runs.put(states[0].getArn(), new LinkedList<Run>(Arrays.asList(states)));
+        return this;
+    }
+
+    FakeDeviceFarmApi withJobs(String runArn, Job... jobs) {
+        this.jobs.put(runArn, Arrays.asList(jobs));
+        return this;
+    }
+
+    FakeDeviceFarmApi withSuites(String jobArn, Suite... suites) {
+        this.suites.put(jobArn, Arrays.asList(suites));
+        return this;
+    }
+
+    FakeDeviceFarmApi withTests(String suiteArn, Test... tests) {
+        this.tests.put(suiteArn, Arrays.asList(tests));
+        return this;
+    }
+
+    /**
+     * Add the artifacts of a run, which are listed for every artifact category.
+     */
+    FakeDeviceFarmApi withArtifacts(String runArn, Artifact... artifacts) {
+        this.artifacts.put(runArn, Arrays.asList(artifacts));
+        return this;
+    }
+
+    /**
+     * Let every list call take the given time, so concurrent calls overlap.
+     */
+    FakeDeviceFarmApi withLatency(long millis) {
+        this.latency = millis;
+        return this;
+    }
+
+    FakeDeviceFarmApi withStopRunError(RuntimeException error) {
+        this.stopRunError = error;
+        return this;
+    }
+
+    FakeDeviceFarmApi withPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    List<String> getStoppedRuns() {
+        return stoppedRuns;
+    }
+
+    /**
+     * @return every list call as "Operation arn nextToken", in the order they were made
+     */
+    List<String> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the max number of list calls which were in progress at the same time
+     */
+    int getMaxConcurrentRequests() {
+        return maxActive.get();
+    }
+
+    @Override
+    public synchronized GetRunResult getRun(GetRunRequest request) {
+        LinkedList<Run> states = runs.get(request.getArn());
+        Run run = states.size() > 1 ? states.removeFirst() : states.getFirst();
+        return new GetRunResult().withRun(run);
+    }
+
+    @Override
+    public StopRunResult stopRun(StopRunRequest request) {
+        stoppedRuns.add(request.getArn());
+        if (stopRunError != null) {
+            throw stopRunError;
+        }
+        return new StopRunResult();
+    }
+
+    @Override
+    public ListJobsResult listJobs(ListJobsRequest request) {
+        List<Job> all = listed("ListJobs", request.getArn(), request.getNextToken(), jobs);
+        int from = offsetOf(request.getNextToken());
+        return new ListJobsResult().withJobs(page(all, from)).withNextToken(nextToken(all, from));
+    }
+
+    @Override
+    public ListSuitesResult listSuites(ListSuitesRequest request) {
+        List<Suite> all = listed("ListSuites", request.getArn(), request.getNextToken(), suites);
+        int from = offsetOf(request.getNextToken());
+        return new ListSuitesResult().withSuites(page(all, from)).withNextToken(nextToken(all, from));
+    }
+
+    @Override
+    public ListTestsResult listTests(ListTestsRequest request) {
+        List<Test> all = listed("ListTests", request.getArn(), request.getNextToken(), tests);
+        int from = offsetOf(request.getNextToken());
+        return new ListTestsResult().withTests(page(all, from)).withNextToken(nextToken(all, from));
+    }
+
+    @Override
+    public ListArtifactsResult listArtifacts(ListArtifactsRequest request) {
+        List<Artifact> all = listed("ListArtifacts", request.getArn(), request.getNextToken(), artifacts);
+        int from = offsetOf(request.getNextToken());
+        return new ListArtifactsResult().withArtifacts(page(all, from)).withNextToken(nextToken(all, from));
+    }
+
+    //// Helper Methods
+
+    /**
+     * Record a list call and simulate its latency.
+     */
+    private <T> List<T> listed(String operation, String arn, String nextToken, Map<String, List<T>> items) {
+        requests.add(String.format("%s %s %s", operation, arn, nextToken));
+        int now = active.incrementAndGet();
+        try {
+            while (true) {
+                int max = maxActive.get();
+                if (now <= max || maxActive.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+        }
+        return items.containsKey(arn) ? items.get(arn) : Collections.<T>emptyList();
+    }
+
+    private static int offsetOf(String nextToken) {
+        return nextToken == null ? 0 : Integer.parseInt(nextToken);
+    }
+
+    private <T> List<T> page(List<T> all, int from) {
+        return new ArrayList<T>(all.subList(from, (int) Math.min((long) from + pageSize, all.size())));
+    }
+
+    private String nextToken(List<?> all, int from) {
+        return (long) from + pageSize < all.size() ? String.valueOf(from + pageSize) : null;
+    }
+}